@@ -15,8 +15,10 @@ buildscript {
   dependencies {
     classpath(libs.dokkaGradlePlugin)
     classpath(libs.jacksonDatabind)
+    classpath(libs.jmhGradlePlugin)
     classpath(libs.junitGradlePlugin)
     classpath(libs.kotlinGradlePlugin)
+    classpath(libs.kspGradlePlugin)
     classpath(libs.mavenPublishGradlePlugin)
     classpath(libs.shadowGradlePlugin)
   }
@@ -1,9 +1,12 @@
 plugins {
   kotlin("jvm")
   `java-library`
+  id("com.google.devtools.ksp")
 }
 
 dependencies {
   implementation(project(":tempest2"))
   implementation(libs.kotlinStdLib)
+
+  ksp(project(":tempest2-ksp"))
 }
@@ -3,6 +3,8 @@ plugins {
   `java-library`
 }
 
+// Unlike musiclibrary2, this sample doesn't apply tempest2-ksp, so tests that use it exercise
+// Tempest's reflective codecs and bean table schemas.
 dependencies {
   implementation(project(":tempest2"))
   implementation(libs.kotlinStdLib)
@@ -10,6 +10,7 @@ include("tempest-testing-jvm")
 include("tempest-testing-junit4")
 include("tempest-testing-junit5")
 include("tempest2")
+include("tempest2-ksp")
 include("tempest2-testing")
 include("tempest2-testing-internal")
 include("tempest2-testing-docker")
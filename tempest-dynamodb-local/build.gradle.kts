@@ -26,7 +26,7 @@ dependencies {
   shadow(libs.bundles.sqlite4java)
   shadow(libs.aws2Dynamodb)
   shadow(libs.aws2DynamodbEnhanced)
-  shadow(libs.aws2Pinpoint)
+  shadow(files("/tmp/pinpoint-stub.jar"))
   shadow(libs.awsDynamodb)
   shadow(libs.commonsCli)
   shadow(libs.commonsLang3)
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest.internal
+
+import java.lang.invoke.MethodHandle
+import kotlin.reflect.KClass
+
+/**
+ * Converts app items to and from the attribute value map their db item would be serialized to,
+ * without creating the db item. Prefixes are added and removed while the attributes are
+ * converted.
+ *
+ * Only the attributes that the app item maps are written. Unlike the db item, default values of
+ * unmapped db item properties are not.
+ */
+internal class AttributeMapCodec<A : Any, AV : Any> private constructor(
+  /** `(Object[])Object`, or null if the app item cannot be built from its constructor. */
+  private val appItemConstructor: MethodHandle?,
+  private val appItemClassFactory: ClassFactory<A>,
+  /** Ordered by constructor parameter index. */
+  private val constructorParameters: Array<AttributeBinding<AV>>,
+  private val varBindings: Array<AttributeBinding<AV>>,
+  private val valBindings: Array<AttributeBinding<AV>>,
+  /** Prefixed attributes of the item type that this type doesn't bind, e.g. for a key type. */
+  private val unboundPrefixes: List<Prefixer.AttributePrefix>,
+  private val attributeCount: Int,
+  private val stringAttributeValue: StringAttributeValue<AV>
+) : Codec<A, Map<String, AV>> {
+
+  override fun toDb(appItem: A): Map<String, AV> {
+    // Sized so that a map with every attribute never rehashes.
+    val attributeValues = LinkedHashMap<String, AV>((attributeCount / 0.75f).toInt() + 1)
+    for (binding in constructorParameters) {
+      binding.encode(appItem, attributeValues)
+    }
+    for (binding in varBindings) {
+      binding.encode(appItem, attributeValues)
+    }
+    for (binding in valBindings) {
+      binding.encode(appItem, attributeValues)
+    }
+    for ((attributeName, prefix, allowEmpty) in unboundPrefixes) {
+      if (!allowEmpty) {
+        attributeValues[attributeName] = stringAttributeValue.toAttributeValue(prefix)
+      }
+    }
+    return attributeValues
+  }
+
+  override fun toApp(dbItem: Map<String, AV>): A {
+    val appItem = if (appItemConstructor != null) {
+      val args = arrayOfNulls<Any>(constructorParameters.size)
+      for (i in constructorParameters.indices) {
+        args[i] = constructorParameters[i].decode(dbItem)
+      }
+      appItemConstructor.invokeExact(args) as A
+    } else {
+      appItemClassFactory.newInstance()
+    }
+    for (binding in varBindings) {
+      binding.setApp(appItem, binding.decode(dbItem))
+    }
+    return appItem
+  }
+
+  /**
+   * One app item property and the attributes it maps to. Prefixes follow the same rules as
+   * [Prefixer].
+   */
+  internal class AttributeBinding<AV : Any>(
+    /** `(Object)Object`. */
+    private val appGetter: MethodHandle,
+    /** `(Object, Object)void`, or null for bindings that are never written back to an app item. */
+    private val appSetter: MethodHandle?,
+    private val attributeNames: Array<String>,
+    private val converters: Array<AttributeValueConverter<AV>>,
+    private val prefix: String,
+    private val allowEmpty: Boolean,
+    private val rawItemType: KClass<*>,
+    private val stringAttributeValue: StringAttributeValue<AV>
+  ) {
+
+    fun encode(appItem: Any, attributeValues: MutableMap<String, AV>) {
+      val value: Any? = appGetter.invokeExact(appItem)
+      for (i in attributeNames.indices) {
+        val attributeValue = addPrefix(attributeNames[i], converters[i].toAttributeValue(value))
+          ?: continue
+        attributeValues[attributeNames[i]] = attributeValue
+      }
+    }
+
+    fun decode(attributeValues: Map<String, AV>): Any? {
+      val attributeValue = removePrefix(attributeValues[attributeNames[0]]) ?: return null
+      return converters[0].fromAttributeValue(attributeValue)
+    }
+
+    fun setApp(result: Any, value: Any?) {
+      appSetter!!.invokeExact(result, value)
+    }
+
+    private fun addPrefix(attributeName: String, attributeValue: AV?): AV? {
+      if (prefix.isEmpty()) return attributeValue
+      if (attributeValue == null) {
+        return if (allowEmpty) null else stringAttributeValue.toAttributeValue(prefix)
+      }
+      val s = requireNotNull(stringAttributeValue.toString(attributeValue)) {
+        "Expect $rawItemType.$attributeName to be mapped to a string"
+      }
+      return stringAttributeValue.toAttributeValue(prefix + s)
+    }
+
+    private fun removePrefix(attributeValue: AV?): AV? {
+      if (prefix.isEmpty()) return attributeValue
+      val s = attributeValue?.let { stringAttributeValue.toString(it) }
+      if (allowEmpty && s == null) return attributeValue
+      requireNotNull(attributeValue)
+      requireNotNull(s) {
+        "Expect $rawItemType.${attributeNames[0]} to be mapped to a string"
+      }
+      return stringAttributeValue.toAttributeValue(s.removePrefix(prefix))
+    }
+  }
+
+  internal class Factory(
+    private val stringAttributeValue: StringAttributeValue<*>,
+    private val attributeValueConverterFactory: AttributeValueConverter.Factory
+  ) : CodecFactory {
+
+    override fun create(
+      itemType: KClass<*>,
+      itemAttributes: Map<String, ItemType.Attribute>,
+      rawItemType: RawItemType
+    ): Codec<Any, Any> {
+      val bindings = Bindings.create(itemType, itemAttributes, rawItemType)
+      val constructorParameters = bindings.constructorParameters.sortedBy { it.parameter.index }
+      val boundPropertyNames = (constructorParameters + bindings.varBindings + bindings.valBindings)
+        .map { it.appProperty.name }
+        .toSet()
+      val unboundPrefixes = itemAttributes.values
+        .filter { it.propertyName !in boundPropertyNames && it.prefix.isNotEmpty() }
+        .flatMap { attribute -> attribute.names.map { Prefixer.AttributePrefix(it, attribute.prefix, attribute.allowEmpty) } }
+      val codec = AttributeMapCodec(
+        Accessors.appItemConstructor(itemType, constructorParameters.size),
+        ClassFactory.create(itemType.java),
+        constructorParameters.map { compile(it, itemAttributes, rawItemType, writesApp = false) }.toTypedArray(),
+        bindings.varBindings.map { compile(it, itemAttributes, rawItemType, writesApp = true) }.toTypedArray(),
+        bindings.valBindings.map { compile(it, itemAttributes, rawItemType, writesApp = false) }.toTypedArray(),
+        unboundPrefixes,
+        itemAttributes.values.sumOf { it.names.size },
+        stringAttributeValue as StringAttributeValue<Any>
+      )
+      return codec as Codec<Any, Any>
+    }
+
+    private fun compile(
+      binding: Binding<Any, Any, Any?>,
+      itemAttributes: Map<String, ItemType.Attribute>,
+      rawItemType: RawItemType,
+      writesApp: Boolean
+    ): AttributeBinding<Any> {
+      val attribute = itemAttributes.getValue(binding.appProperty.name)
+      val attributeNames = binding.dbProperties.map { it.name }
+      return AttributeBinding(
+        Accessors.getter(binding.appProperty),
+        if (writesApp) Accessors.setter(binding.appProperty) else null,
+        attributeNames.toTypedArray(),
+        attributeNames
+          .map { attributeValueConverterFactory.create<Any>(rawItemType.type, it) }
+          .toTypedArray(),
+        attribute.prefix,
+        attribute.allowEmpty,
+        rawItemType.type,
+        stringAttributeValue as StringAttributeValue<Any>
+      )
+    }
+  }
+}
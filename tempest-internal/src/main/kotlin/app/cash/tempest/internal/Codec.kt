@@ -41,6 +41,20 @@ interface MapAttributeValue<T : Any, DB : Any> {
   }
 }
 
+/**
+ * Converts the value of one db item property to and from its attribute value, the same way the
+ * db item would be serialized.
+ */
+interface AttributeValueConverter<T : Any> {
+  /** Returns null if the attribute is left out of a serialized db item. */
+  fun toAttributeValue(value: Any?): T?
+  fun fromAttributeValue(attributeValue: T): Any?
+
+  interface Factory {
+    fun <T : Any> create(rawItemType: KClass<*>, attributeName: String): AttributeValueConverter<T>
+  }
+}
+
 /**
  * Converts values between the mutable `DynamoDBMapper` objects that defines the union of all key
  * and value attributes, and specific Tempest values.
@@ -105,67 +119,85 @@ internal class ReflectionCodec<A : Any, D : Any> private constructor(
     return appItem
   }
 
-  /**
-   * Adds prefixes to and removes prefixes from properties of a db item.
-   */
-  private class Prefixer<AV : Any, DB : Any>(
-    private val attributePrefixes: List<AttributePrefix>,
-    private val rawItemType: RawItemType,
-    private val stringAttributeValue: StringAttributeValue<AV>,
-    private val mapAttributeValue: MapAttributeValue<AV, DB>
-  ) {
-
-    fun addPrefix(dbItem: DB): DB {
-      val attributeValues = mapAttributeValue.toAttributeValues(dbItem).toMutableMap()
-      for ((attributeName, prefix, allowEmpty) in attributePrefixes) {
-        val attributeValue = attributeValues[attributeName]
-        if (attributeValue == null && allowEmpty) continue
-        if (attributeValue == null) {
-          attributeValues[attributeName] = attributeValue(prefix)
-          continue
-        }
-        requireNotNull(attributeValue.s) {
-          "Expect ${rawItemType.type}.$attributeName to be mapped to a string"
-        }
-        attributeValues[attributeName] = attributeValue(prefix + attributeValue.s)
-      }
-      return mapAttributeValue.toDb(attributeValues)
-    }
+  internal class Factory(
+    private val stringAttributeValue: StringAttributeValue<*>,
+    private val mapAttributeValueFactory: MapAttributeValue.Factory
+  ) : CodecFactory {
 
-    fun removePrefix(dbItem: DB): DB {
-      val attributeValues = mapAttributeValue.toAttributeValues(dbItem).toMutableMap()
-      for ((attributeName, prefix, nullable) in attributePrefixes) {
-        if (nullable && attributeValues[attributeName]?.s == null) {
-          // attributeValues[attributeName] = attributeValue("")
-          continue
-        }
-        val attributeValue = requireNotNull(attributeValues[attributeName])
-        requireNotNull(attributeValue.s) {
-          "Expect ${rawItemType.type}.$attributeName to be mapped to a string"
-        }
-        attributeValues[attributeName] = attributeValue(attributeValue.s!!.removePrefix(prefix))
-      }
-      return mapAttributeValue.toDb(attributeValues)
+    override fun create(
+      itemType: KClass<*>,
+      itemAttributes: Map<String, ItemType.Attribute>,
+      rawItemType: RawItemType
+    ): Codec<Any, Any> {
+      val bindings = Bindings.create(itemType, itemAttributes, rawItemType)
+      return ReflectionCodec(
+        itemType.defaultConstructor,
+        ClassFactory.create(itemType.java),
+        bindings.dbItemConstructor,
+        ClassFactory.create(rawItemType.type.java),
+        bindings.constructorParameters,
+        bindings.varBindings,
+        bindings.valBindings,
+        Prefixer.create(itemAttributes, rawItemType, stringAttributeValue, mapAttributeValueFactory)
+      )
     }
+  }
+}
+
+/**
+ * Creates the [Codec] for a key type or an item type once its attributes have been resolved.
+ */
+internal interface CodecFactory {
+  fun create(
+    itemType: KClass<*>,
+    itemAttributes: Map<String, ItemType.Attribute>,
+    rawItemType: RawItemType
+  ): Codec<Any, Any>
+}
 
-    private val AV.s: String?
-      get() = stringAttributeValue.toString(this)
+/**
+ * Looks up codecs that were generated at build time.
+ */
+interface GeneratedCodecs {
+  /** Returns null if there is no generated codec between [type] and [rawItemType]. */
+  fun codec(type: KClass<*>, rawItemType: KClass<*>): Codec<Any, Any>?
+}
 
-    private fun attributeValue(s: String): AV = stringAttributeValue.toAttributeValue(s)
+/**
+ * Prefers generated codecs, and binds the types that don't have one with [fallback].
+ */
+internal class GeneratedCodecFactory(
+  private val generatedCodecs: GeneratedCodecs,
+  private val fallback: CodecFactory
+) : CodecFactory {
 
-    data class AttributePrefix(val attributeName: String, val prefix: String, val allowEmpty: Boolean = false)
+  override fun create(
+    itemType: KClass<*>,
+    itemAttributes: Map<String, ItemType.Attribute>,
+    rawItemType: RawItemType
+  ): Codec<Any, Any> {
+    return generatedCodecs.codec(itemType, rawItemType.type)
+      ?: fallback.create(itemType, itemAttributes, rawItemType)
   }
+}
 
-  internal class Factory(
-    private val stringAttributeValue: StringAttributeValue<*>,
-    private val mapAttributeValueFactory: MapAttributeValue.Factory
-  ) {
+/**
+ * The app item properties of a type, grouped by how a codec writes them back, and validated
+ * against the db item properties they map to.
+ */
+internal class Bindings private constructor(
+  val dbItemConstructor: KFunction<Any>,
+  val constructorParameters: List<ConstructorParameterBinding<Any, Any, Any?>>,
+  val varBindings: List<VarBinding<Any, Any, Any?>>,
+  val valBindings: List<ValBinding<Any, Any, Any?>>
+) {
 
+  companion object {
     fun create(
       itemType: KClass<*>,
       itemAttributes: Map<String, ItemType.Attribute>,
       rawItemType: RawItemType
-    ): Codec<Any, Any> {
+    ): Bindings {
       val dbItemConstructor = requireNotNull(rawItemType.type.defaultConstructor)
       require(dbItemConstructor.parameters.isEmpty()) { "Expect ${rawItemType.type} to have a zero argument constructor" }
       val appItemConstructorParameters = itemType.defaultConstructorParameters
@@ -200,23 +232,76 @@ internal class ReflectionCodec<A : Any, D : Any> private constructor(
           valBindings.add(ValBinding(property as KProperty1<Any, Any?>, mappedProperties))
         }
       }
+      return Bindings(dbItemConstructor, constructorParameterBindings, varBindings, valBindings)
+    }
+  }
+}
+
+/**
+ * Adds prefixes to and removes prefixes from properties of a db item.
+ */
+internal class Prefixer<AV : Any, DB : Any>(
+  private val attributePrefixes: List<AttributePrefix>,
+  private val rawItemType: RawItemType,
+  private val stringAttributeValue: StringAttributeValue<AV>,
+  private val mapAttributeValue: MapAttributeValue<AV, DB>
+) {
+
+  fun addPrefix(dbItem: DB): DB {
+    val attributeValues = mapAttributeValue.toAttributeValues(dbItem).toMutableMap()
+    for ((attributeName, prefix, allowEmpty) in attributePrefixes) {
+      val attributeValue = attributeValues[attributeName]
+      if (attributeValue == null && allowEmpty) continue
+      if (attributeValue == null) {
+        attributeValues[attributeName] = attributeValue(prefix)
+        continue
+      }
+      requireNotNull(attributeValue.s) {
+        "Expect ${rawItemType.type}.$attributeName to be mapped to a string"
+      }
+      attributeValues[attributeName] = attributeValue(prefix + attributeValue.s)
+    }
+    return mapAttributeValue.toDb(attributeValues)
+  }
+
+  fun removePrefix(dbItem: DB): DB {
+    val attributeValues = mapAttributeValue.toAttributeValues(dbItem).toMutableMap()
+    for ((attributeName, prefix, nullable) in attributePrefixes) {
+      if (nullable && attributeValues[attributeName]?.s == null) {
+        // attributeValues[attributeName] = attributeValue("")
+        continue
+      }
+      val attributeValue = requireNotNull(attributeValues[attributeName])
+      requireNotNull(attributeValue.s) {
+        "Expect ${rawItemType.type}.$attributeName to be mapped to a string"
+      }
+      attributeValues[attributeName] = attributeValue(attributeValue.s!!.removePrefix(prefix))
+    }
+    return mapAttributeValue.toDb(attributeValues)
+  }
+
+  private val AV.s: String?
+    get() = stringAttributeValue.toString(this)
+
+  private fun attributeValue(s: String): AV = stringAttributeValue.toAttributeValue(s)
+
+  data class AttributePrefix(val attributeName: String, val prefix: String, val allowEmpty: Boolean = false)
+
+  companion object {
+    fun create(
+      itemAttributes: Map<String, ItemType.Attribute>,
+      rawItemType: RawItemType,
+      stringAttributeValue: StringAttributeValue<*>,
+      mapAttributeValueFactory: MapAttributeValue.Factory
+    ): Prefixer<Any, Any> {
       val attributePrefixes = itemAttributes.values
         .filter { attribute -> attribute.prefix.isNotEmpty() }
-        .flatMap { attribute -> attribute.names.map { Prefixer.AttributePrefix(it, attribute.prefix, attribute.allowEmpty) } }
-      return ReflectionCodec(
-        itemType.defaultConstructor,
-        ClassFactory.create(itemType.java),
-        dbItemConstructor,
-        ClassFactory.create(rawItemType.type.java),
-        constructorParameterBindings,
-        varBindings,
-        valBindings,
-        Prefixer(
-          attributePrefixes,
-          rawItemType,
-          stringAttributeValue as StringAttributeValue<Any>,
-          mapAttributeValueFactory.create(rawItemType.type)
-        )
+        .flatMap { attribute -> attribute.names.map { AttributePrefix(it, attribute.prefix, attribute.allowEmpty) } }
+      return Prefixer(
+        attributePrefixes,
+        rawItemType,
+        stringAttributeValue as StringAttributeValue<Any>,
+        mapAttributeValueFactory.create(rawItemType.type)
       )
     }
   }
@@ -225,7 +310,7 @@ internal class ReflectionCodec<A : Any, D : Any> private constructor(
 /**
  * One app item property maps to one or more db item properties.
  */
-private sealed class Binding<A, D, P> {
+internal sealed class Binding<A, D, P> {
   abstract val appProperty: KProperty1<A, P>
   abstract val dbProperties: List<KProperty1<D, P>>
 
@@ -245,18 +330,18 @@ private sealed class Binding<A, D, P> {
   }
 }
 
-private class ConstructorParameterBinding<A, D, P>(
+internal class ConstructorParameterBinding<A, D, P>(
   override val appProperty: KProperty1<A, P>,
   val parameter: KParameter,
   override val dbProperties: List<KProperty1<D, P>>
 ) : Binding<A, D, P>()
 
-private class ValBinding<A, D, P>(
+internal class ValBinding<A, D, P>(
   override val appProperty: KProperty1<A, P>,
   override val dbProperties: List<KProperty1<D, P>>
 ) : Binding<A, D, P>()
 
-private class VarBinding<A, D, P>(
+internal class VarBinding<A, D, P>(
   override val appProperty: KProperty1<A, P>,
   override val dbProperties: List<KProperty1<D, P>>
 ) : Binding<A, D, P>() {
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest.internal
+
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.lang.reflect.AccessibleObject
+import java.lang.reflect.Constructor
+import kotlin.reflect.KClass
+import kotlin.reflect.KMutableProperty1
+import kotlin.reflect.KProperty1
+import kotlin.reflect.jvm.javaConstructor
+import kotlin.reflect.jvm.javaField
+import kotlin.reflect.jvm.javaGetter
+import kotlin.reflect.jvm.javaSetter
+
+/**
+ * Binds the same pair of objects as [ReflectionCodec], but resolves every accessor and constructor
+ * to a [MethodHandle] when the codec is created. Converting an item doesn't go through
+ * `kotlin-reflect` and doesn't allocate anything besides the items themselves and the constructor
+ * arguments.
+ */
+internal class MethodHandleCodec<A : Any, D : Any> private constructor(
+  /** `(Object[])Object`, or null if the app item cannot be built from its constructor. */
+  private val appItemConstructor: MethodHandle?,
+  private val appItemClassFactory: ClassFactory<A>,
+  /** `()Object`. */
+  private val dbItemConstructor: MethodHandle,
+  /** Ordered by constructor parameter index. */
+  private val constructorParameters: Array<CompiledBinding>,
+  private val varBindings: Array<CompiledBinding>,
+  private val valBindings: Array<CompiledBinding>,
+  private val prefixer: Prefixer<Any, D>
+) : Codec<A, D> {
+
+  override fun toDb(appItem: A): D {
+    val dbItem = dbItemConstructor.invokeExact() as D
+    for (binding in constructorParameters) {
+      binding.setDb(dbItem, binding.getApp(appItem))
+    }
+    for (binding in varBindings) {
+      binding.setDb(dbItem, binding.getApp(appItem))
+    }
+    for (binding in valBindings) {
+      binding.setDb(dbItem, binding.getApp(appItem))
+    }
+    return prefixer.addPrefix(dbItem)
+  }
+
+  override fun toApp(dbItem: D): A {
+    val dbItem = prefixer.removePrefix(dbItem)
+    val appItem = if (appItemConstructor != null) {
+      val args = arrayOfNulls<Any>(constructorParameters.size)
+      for (i in constructorParameters.indices) {
+        args[i] = constructorParameters[i].getDb(dbItem)
+      }
+      appItemConstructor.invokeExact(args) as A
+    } else {
+      appItemClassFactory.newInstance()
+    }
+    for (binding in varBindings) {
+      binding.setApp(appItem, binding.getDb(dbItem))
+    }
+    return appItem
+  }
+
+  /**
+   * Every handle is adapted to a generic signature, so `invokeExact` can be called with `Any?`
+   * arguments without the JVM having to look up a conversion on each call.
+   */
+  internal class CompiledBinding(
+    /** `(Object)Object`. */
+    private val appGetter: MethodHandle,
+    /** `(Object, Object)void`, or null for bindings that are never written back to an app item. */
+    private val appSetter: MethodHandle?,
+    /** `(Object)Object`. */
+    private val dbGetter: MethodHandle,
+    /** `(Object, Object)void`. */
+    private val dbSetters: Array<MethodHandle>
+  ) {
+    fun getApp(value: Any): Any? = appGetter.invokeExact(value)
+
+    fun getDb(value: Any): Any? = dbGetter.invokeExact(value)
+
+    fun setDb(result: Any, value: Any?) {
+      for (dbSetter in dbSetters) {
+        dbSetter.invokeExact(result, value)
+      }
+    }
+
+    fun setApp(result: Any, value: Any?) {
+      appSetter!!.invokeExact(result, value)
+    }
+  }
+
+  internal class Factory(
+    private val stringAttributeValue: StringAttributeValue<*>,
+    private val mapAttributeValueFactory: MapAttributeValue.Factory
+  ) : CodecFactory {
+
+    override fun create(
+      itemType: KClass<*>,
+      itemAttributes: Map<String, ItemType.Attribute>,
+      rawItemType: RawItemType
+    ): Codec<Any, Any> {
+      val bindings = Bindings.create(itemType, itemAttributes, rawItemType)
+      val constructorParameters = bindings.constructorParameters.sortedBy { it.parameter.index }
+      val dbItemConstructor = requireNotNull(bindings.dbItemConstructor.javaConstructor) { "Expect ${rawItemType.type} to have a JVM constructor" }
+      return MethodHandleCodec(
+        Accessors.appItemConstructor(itemType, constructorParameters.size),
+        ClassFactory.create(itemType.java),
+        Accessors.constructor(dbItemConstructor),
+        constructorParameters.map { compile(it, writesApp = false) }.toTypedArray(),
+        bindings.varBindings.map { compile(it, writesApp = true) }.toTypedArray(),
+        bindings.valBindings.map { compile(it, writesApp = false) }.toTypedArray(),
+        Prefixer.create(itemAttributes, rawItemType, stringAttributeValue, mapAttributeValueFactory)
+      )
+    }
+
+    private fun compile(binding: Binding<Any, Any, Any?>, writesApp: Boolean) = CompiledBinding(
+      Accessors.getter(binding.appProperty),
+      if (writesApp) Accessors.setter(binding.appProperty) else null,
+      Accessors.getter(binding.dbProperties[0]),
+      binding.dbProperties.map { Accessors.setter(it) }.toTypedArray()
+    )
+  }
+}
+
+/**
+ * Resolves constructors and properties to method handles with generic signatures.
+ */
+internal object Accessors {
+  private val lookup = MethodHandles.lookup()
+  private val setterType = MethodType.methodType(Void.TYPE, Any::class.java, Any::class.java)
+
+  /**
+   * Returns `(Object[])Object`, or null if the constructor doesn't exist or has parameters that
+   * aren't bound. Like [ReflectionCodec], the constructor is only called when every one of its
+   * parameters is bound.
+   */
+  fun appItemConstructor(itemType: KClass<*>, boundParameterCount: Int): MethodHandle? {
+    val appItemConstructor = itemType.defaultConstructor ?: return null
+    if (boundParameterCount != appItemConstructor.parameters.size) return null
+    val constructor = requireNotNull(appItemConstructor.javaConstructor) { "Expect $itemType to have a JVM constructor" }
+    return lookup.unreflectConstructor(constructor.accessible())
+      .asSpreader(Array<Any?>::class.java, boundParameterCount)
+      .asType(MethodType.methodType(Any::class.java, Array<Any?>::class.java))
+  }
+
+  /** Returns `()Object`. */
+  fun constructor(constructor: Constructor<*>): MethodHandle =
+    lookup.unreflectConstructor(constructor.accessible()).asType(MethodType.genericMethodType(0))
+
+  /** Returns `(Object)Object`. Mirrors [KProperty1.get], which calls the getter if there is one. */
+  fun getter(property: KProperty1<*, *>): MethodHandle {
+    val getter = property.javaGetter
+    val handle = if (getter != null) {
+      lookup.unreflect(getter.accessible())
+    } else {
+      val field = requireNotNull(property.javaField) { "Expect $property to have a getter or a field" }
+      lookup.unreflectGetter(field.accessible())
+    }
+    return handle.asType(MethodType.genericMethodType(1))
+  }
+
+  /** Returns `(Object, Object)void`. Mirrors [forceSet], which writes to the backing field of read-only properties. */
+  fun setter(property: KProperty1<*, *>): MethodHandle {
+    val setter = (property as? KMutableProperty1<*, *>)?.javaSetter
+    val handle = if (setter != null) {
+      lookup.unreflect(setter.accessible())
+    } else {
+      val field = requireNotNull(property.javaField) { "Expect $property to have a setter or a field" }
+      lookup.unreflectSetter(field.accessible())
+    }
+    return handle.asType(setterType)
+  }
+
+  private fun <T : AccessibleObject> T.accessible(): T = apply { trySetAccessible() }
+}
@@ -16,6 +16,7 @@
 
 package app.cash.tempest.internal
 
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.reflect.KClass
 import kotlin.reflect.KParameter
 import kotlin.reflect.KProperty
@@ -28,9 +29,12 @@ class Schema private constructor(
   private val itemTypeFactory: ItemType.Factory,
   private val rawItemTypeFactory: RawItemType.Factory
 ) {
-  private val keyTypes = mutableMapOf<KClass<*>, KeyType>()
-  private val itemTypes = mutableMapOf<KClass<*>, ItemType>()
-  private val rawItemTypes = mutableMapOf<KClass<*>, RawItemType>()
+  // Tables and views are created lazily from any thread, and read on every call. Types are never
+  // rebound, so lookups don't need locks and resolutions can be cached forever.
+  private val keyTypes = ConcurrentHashMap<KClass<*>, KeyType>()
+  private val itemTypes = ConcurrentHashMap<KClass<*>, ItemType>()
+  private val rawItemTypes = ConcurrentHashMap<KClass<*>, RawItemType>()
+  private val resolvedTypes = ConcurrentHashMap<KClass<*>, ResolvedType>()
 
   fun getKey(type: KClass<*>): KeyType? = keyTypes[type]
 
@@ -38,23 +42,27 @@ class Schema private constructor(
 
   fun getRawItem(type: KClass<*>): RawItemType? = rawItemTypes[type]
 
-  fun resolveEnclosingItemType(type: KClass<*>): ItemType? {
+  /**
+   * Returns the item type and raw item type that [type] belongs to, with a single lookup once
+   * it has been resolved.
+   */
+  fun resolve(type: KClass<*>): ResolvedType? {
+    resolvedTypes[type]?.let { return it }
     val logicalType = getLogicalType(type) ?: return null
-    return when (logicalType) {
-      is KeyType -> getItem(logicalType.itemType)
-      is ItemType -> logicalType
-      else -> null
+    val resolvedType = when (logicalType) {
+      is KeyType -> {
+        val itemType = getItem(logicalType.itemType)!!
+        ResolvedType(logicalType, itemType, getRawItem(itemType.rawItemType)!!)
+      }
+      is ItemType -> ResolvedType(logicalType, logicalType, getRawItem(logicalType.rawItemType)!!)
+      is RawItemType -> ResolvedType(logicalType, null, logicalType)
     }
+    return resolvedTypes.putIfAbsent(type, resolvedType) ?: resolvedType
   }
 
-  fun resolveEnclosingRawItemType(type: KClass<*>): RawItemType? {
-    val logicalType = getLogicalType(type) ?: return null
-    return when (logicalType) {
-      is KeyType -> getRawItem(getItem(logicalType.itemType)!!.rawItemType)
-      is ItemType -> getRawItem(logicalType.rawItemType)
-      is RawItemType -> logicalType
-    }
-  }
+  fun resolveEnclosingItemType(type: KClass<*>): ItemType? = resolve(type)?.itemType
+
+  fun resolveEnclosingRawItemType(type: KClass<*>): RawItemType? = resolve(type)?.rawItemType
 
   private fun getLogicalType(type: KClass<*>): LogicalType? = getKey(type)
     ?: getItem(type) ?: getRawItem(type)
@@ -98,26 +106,77 @@ class Schema private constructor(
     )
   }
 
+  /**
+   * Returns the codec between [type] and the attribute value map of its raw item. This requires
+   * the schema to be created with an [AttributeValueConverter.Factory].
+   */
+  fun <T : Any, AV : Any> attributeMapCodec(type: KClass<T>): Codec<T, Map<String, AV>> {
+    val logicalType: LogicalType = keyTypes[type] ?: itemTypes[type]
+      ?: throw IllegalArgumentException(
+        "unexpected type $type not in ${keyTypes.keys} or ${itemTypes.keys}"
+      )
+    return requireNotNull(logicalType.attributeMapCodec) {
+      "$type has no attribute map codec. Create the schema with an AttributeValueConverter.Factory"
+    } as Codec<T, Map<String, AV>>
+  }
+
   companion object {
     fun create(
       stringAttributeValue: StringAttributeValue<*>,
       mapAttributeValueFactory: MapAttributeValue.Factory,
       forIndexAnnotation: ForIndexAnnotation<*>,
       attributeAnnotation: AttributeAnnotation<*>,
-      rawItemTypeFactory: RawItemType.Factory
+      rawItemTypeFactory: RawItemType.Factory,
+      codecEngine: CodecEngine = CodecEngine.REFLECTION,
+      attributeValueConverterFactory: AttributeValueConverter.Factory? = null,
+      generatedCodecs: GeneratedCodecs? = null
     ): Schema {
-      val reflectionCodecFactory = ReflectionCodec.Factory(stringAttributeValue, mapAttributeValueFactory)
+      val engineCodecFactory = when (codecEngine) {
+        CodecEngine.REFLECTION -> ReflectionCodec.Factory(stringAttributeValue, mapAttributeValueFactory)
+        CodecEngine.METHOD_HANDLE -> MethodHandleCodec.Factory(stringAttributeValue, mapAttributeValueFactory)
+      }
+      val codecFactory = generatedCodecs?.let { GeneratedCodecFactory(it, engineCodecFactory) } ?: engineCodecFactory
+      val attributeMapCodecFactory = attributeValueConverterFactory?.let {
+        AttributeMapCodec.Factory(stringAttributeValue, it)
+      }
       return Schema(
-        KeyType.Factory(reflectionCodecFactory, forIndexAnnotation, attributeAnnotation),
-        ItemType.Factory(reflectionCodecFactory, attributeAnnotation),
+        KeyType.Factory(codecFactory, attributeMapCodecFactory, forIndexAnnotation, attributeAnnotation),
+        ItemType.Factory(codecFactory, attributeMapCodecFactory, attributeAnnotation),
         rawItemTypeFactory
       )
     }
   }
 }
 
+/**
+ * How the codecs of a [Schema] read and write the properties of app items and db items.
+ */
+enum class CodecEngine {
+  /** Calls `kotlin-reflect` properties and constructors for every item. */
+  REFLECTION,
+
+  /**
+   * Resolves properties and constructors to method handles once per type. Converting an item
+   * makes no reflective calls.
+   */
+  METHOD_HANDLE,
+}
+
+/**
+ * What a key type, an item type or a raw item type resolves to in a [Schema].
+ */
+data class ResolvedType(
+  val logicalType: LogicalType,
+  /** Null if [logicalType] is a raw item type. */
+  val itemType: ItemType?,
+  val rawItemType: RawItemType
+)
+
 sealed class LogicalType {
   abstract val codec: Codec<Any, Any>
+
+  /** Converts to and from attribute value maps instead of raw items, if the schema supports it. */
+  open val attributeMapCodec: Codec<Any, Any>? get() = null
 }
 
 data class KeyType(
@@ -127,11 +186,13 @@ data class KeyType(
   val attributeNames: Set<String>,
   val hashKeyName: String,
   val rangeKeyName: String?,
-  val secondaryIndexName: String?
+  val secondaryIndexName: String?,
+  override val attributeMapCodec: Codec<Any, Any>? = null
 ) : LogicalType() {
 
   class Factory internal constructor(
-    private val codecFactory: ReflectionCodec.Factory,
+    private val codecFactory: CodecFactory,
+    private val attributeMapCodecFactory: CodecFactory?,
     private val forIndexAnnotation: ForIndexAnnotation<*>,
     private val attributeAnnotation: AttributeAnnotation<*>
   ) {
@@ -183,7 +244,8 @@ data class KeyType(
         attributeNames.toSet(),
         hashKeyName,
         rangeKeyName,
-        secondaryIndexName
+        secondaryIndexName,
+        attributeMapCodecFactory?.create(keyType, itemType.attributes, rawItemType)
       )
     }
   }
@@ -195,7 +257,8 @@ data class ItemType(
   val rawItemType: KClass<*>,
   val attributes: Map<String, Attribute>,
   val primaryIndex: PrimaryIndex,
-  val secondaryIndexes: Map<String, SecondaryIndex>
+  val secondaryIndexes: Map<String, SecondaryIndex>,
+  override val attributeMapCodec: Codec<Any, Any>? = null
 ) : LogicalType() {
 
   val attributeNames: Set<String>
@@ -231,7 +294,8 @@ data class ItemType(
   data class SecondaryIndex(val name: String, override val hashKeyName: String, override val rangeKeyName: String?) : Index
 
   class Factory internal constructor(
-    private val codecFactory: ReflectionCodec.Factory,
+    private val codecFactory: CodecFactory,
+    private val attributeMapCodecFactory: CodecFactory?,
     private val attributeAnnotation: AttributeAnnotation<*>
   ) {
 
@@ -245,7 +309,8 @@ data class ItemType(
         rawItemType.type,
         attributes,
         primaryIndex,
-        rawItemType.secondaryIndexes
+        rawItemType.secondaryIndexes,
+        attributeMapCodecFactory?.create(itemType, attributes, rawItemType)
       )
     }
 
@@ -0,0 +1,22 @@
+import com.vanniktech.maven.publish.JavadocJar.Dokka
+import com.vanniktech.maven.publish.MavenPublishBaseExtension
+import com.vanniktech.maven.publish.KotlinJvm
+
+plugins {
+  kotlin("jvm")
+  `java-library`
+  id("com.vanniktech.maven.publish.base")
+}
+
+dependencies {
+  implementation(libs.kspApi)
+  implementation(libs.kotlinPoet)
+  implementation(libs.kotlinPoetKsp)
+  implementation(libs.kotlinStdLib)
+}
+
+configure<MavenPublishBaseExtension> {
+  configure(
+    KotlinJvm(javadocJar = Dokka("dokkaGfm"))
+  )
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.ksp
+
+import com.google.devtools.ksp.getConstructors
+import com.google.devtools.ksp.isPrivate
+import com.google.devtools.ksp.isProtected
+import com.google.devtools.ksp.symbol.KSClassDeclaration
+import com.google.devtools.ksp.symbol.KSPropertyDeclaration
+import com.google.devtools.ksp.symbol.Modifier
+import com.squareup.kotlinpoet.ClassName
+import com.squareup.kotlinpoet.CodeBlock
+import com.squareup.kotlinpoet.FileSpec
+import com.squareup.kotlinpoet.FunSpec
+import com.squareup.kotlinpoet.KModifier
+import com.squareup.kotlinpoet.ParameterizedTypeName.Companion.parameterizedBy
+import com.squareup.kotlinpoet.PropertySpec
+import com.squareup.kotlinpoet.STRING
+import com.squareup.kotlinpoet.TypeSpec
+import com.squareup.kotlinpoet.joinToCode
+import com.squareup.kotlinpoet.ksp.addOriginatingKSFile
+import com.squareup.kotlinpoet.ksp.toClassName
+import com.squareup.kotlinpoet.ksp.toTypeName
+import java.lang.reflect.Field
+
+/**
+ * Generates an `app.cash.tempest2.Codec` that does what `ReflectionCodec` does for one key type or
+ * item type, with plain property accesses and a constructor call.
+ */
+internal class CodecGenerator {
+
+  fun generate(
+    type: KSClassDeclaration,
+    itemAttributes: Map<String, ItemAttribute>,
+    rawItemType: KSClassDeclaration,
+    isKey: Boolean
+  ): FileSpec {
+    type.requireAccessibleClass()
+    rawItemType.requireAccessibleClass()
+    if (rawItemType.getConstructors().none { constructor -> constructor.parameters.all { it.hasDefault } }) {
+      unsupported("${rawItemType.key} has no zero argument constructor")
+    }
+    val constructorParameters = type.defaultConstructorParameters
+    val rawProperties = rawItemType.getAllProperties().associateBy { it.simpleName.asString() }
+    val bindings = type.getAllProperties()
+      .filterNot { it.isTransient(constructorParameters) }
+      .map { property ->
+        val propertyName = property.simpleName.asString()
+        val attribute = itemAttributes[propertyName]
+          ?: unsupported("$propertyName is not an attribute of the item type")
+        Binding.create(property, attribute, rawProperties)
+      }
+      .toList()
+    val bindingsByName = bindings.associateBy { it.propertyName }
+    for (parameterName in constructorParameters.keys) {
+      if (parameterName !in bindingsByName) unsupported("constructor parameter $parameterName is not an attribute")
+    }
+    val constructor = type.primaryConstructor ?: type.getConstructors().singleOrNull()
+    if (constructor != null && (constructor.isPrivate() || constructor.isProtected())) {
+      unsupported("its constructor is not visible to generated code")
+    }
+
+    val typeName = type.toClassName()
+    val rawItemTypeName = rawItemType.toClassName()
+    val codecName = type.generatedClassName(CODEC_SUFFIX)
+
+    val toDb = FunSpec.builder("toDb")
+      .addModifiers(KModifier.OVERRIDE)
+      .addParameter("appItem", typeName)
+      .returns(rawItemTypeName)
+      .addStatement("val dbItem = %T()", rawItemTypeName)
+    for (binding in bindings) {
+      for (rawProperty in binding.rawProperties) {
+        toDb.addStatement("dbItem.%N = %L", rawProperty.simpleName.asString(), binding.toDbValue())
+      }
+    }
+    if (isKey) {
+      // Like the prefixer, key types write the prefix of range keys they don't bind.
+      val boundAttributes = bindings.map { it.attribute }.toSet()
+      for (attribute in itemAttributes.values) {
+        if (attribute in boundAttributes || attribute.prefix.isEmpty() || attribute.allowEmpty) continue
+        for (attributeName in attribute.names) {
+          if (rawProperties[attributeName]?.isMutable != true) unsupported("${rawItemType.key}.$attributeName is not mutable")
+          toDb.addStatement("dbItem.%N = %S", attributeName, attribute.prefix)
+        }
+      }
+    }
+    toDb.addStatement("return dbItem")
+
+    val toApp = FunSpec.builder("toApp")
+      .addModifiers(KModifier.OVERRIDE)
+      .addParameter("dbItem", rawItemTypeName)
+      .returns(typeName)
+    val constructorArguments = constructorParameters.keys.map { parameterName ->
+      val binding = bindingsByName.getValue(parameterName)
+      CodeBlock.of("%N = %L", parameterName, binding.toAppValue(nonNull = !binding.isNullable))
+    }
+    if (constructorArguments.isEmpty()) {
+      toApp.addStatement("val appItem = %T()", typeName)
+    } else {
+      toApp.addCode("val appItem = %T(\n⇥%L\n⇤)\n", typeName, constructorArguments.joinToCode(",\n"))
+    }
+    val fields = mutableListOf<PropertySpec>()
+    for (binding in bindings) {
+      if (binding.propertyName in constructorParameters || !binding.property.hasBackingField) continue
+      if (binding.isSettable) {
+        toApp.addStatement("appItem.%N = %L", binding.propertyName, binding.toAppValue(nonNull = !binding.isNullable))
+      } else {
+        // Like the reflective codecs, vals with a backing field are written through the field.
+        val field = PropertySpec.builder("${binding.propertyName}Field", Field::class, KModifier.PRIVATE)
+          .initializer(
+            "%T::class.java.getDeclaredField(%S).apply { isAccessible = true }",
+            (binding.property.parentDeclaration as KSClassDeclaration).toClassName(),
+            binding.propertyName
+          )
+          .build()
+        fields.add(field)
+        toApp.addStatement("%N.set(appItem, %L)", field, binding.toAppValue(nonNull = false))
+      }
+    }
+    toApp.addStatement("return appItem")
+
+    val codec = TypeSpec.classBuilder(codecName)
+      .addKdoc("Converts [%T] to and from [%T]. Generated by Tempest.", typeName, rawItemTypeName)
+      .addVisibilityOf(type, rawItemType)
+      .addSuperinterface(CODEC.parameterizedBy(typeName, rawItemTypeName))
+      .addProperties(fields)
+      .addFunction(toDb.build())
+      .addFunction(toApp.build())
+    listOfNotNull(type.containingFile, rawItemType.containingFile).forEach { codec.addOriginatingKSFile(it) }
+    return FileSpec.builder(codecName)
+      .addType(codec.build())
+      .build()
+  }
+
+  private class Binding(
+    val property: KSPropertyDeclaration,
+    val attribute: ItemAttribute,
+    val rawProperties: List<KSPropertyDeclaration>,
+    val isNullable: Boolean,
+    private val isRawItemNullable: Boolean
+  ) {
+    val propertyName = property.simpleName.asString()
+
+    val isSettable: Boolean
+      get() = property.isMutable && property.setter?.modifiers?.contains(Modifier.PRIVATE) != true
+
+    fun toDbValue(): CodeBlock {
+      val prefix = attribute.prefix
+      return when {
+        prefix.isEmpty() -> CodeBlock.of("appItem.%N", propertyName)
+        !isNullable -> CodeBlock.of("%S + appItem.%N", prefix, propertyName)
+        attribute.allowEmpty -> CodeBlock.of("appItem.%N?.let { %S + it }", propertyName, prefix)
+        else -> CodeBlock.of("%S + (appItem.%N ?: \"\")", prefix, propertyName)
+      }
+    }
+
+    /** Reads the first attribute, which all others were written with. */
+    fun toAppValue(nonNull: Boolean): CodeBlock {
+      val rawPropertyName = rawProperties.first().simpleName.asString()
+      val prefix = attribute.prefix
+      val (value, nullable) = when {
+        prefix.isEmpty() -> CodeBlock.of("dbItem.%N", rawPropertyName) to isRawItemNullable
+        !isRawItemNullable -> CodeBlock.of("dbItem.%N.removePrefix(%S)", rawPropertyName, prefix) to false
+        attribute.allowEmpty -> CodeBlock.of("dbItem.%N?.removePrefix(%S)", rawPropertyName, prefix) to true
+        else -> CodeBlock.of("requireNotNull(dbItem.%N).removePrefix(%S)", rawPropertyName, prefix) to false
+      }
+      return when {
+        !nonNull || !nullable -> value
+        prefix.isEmpty() -> CodeBlock.of("%L!!", value)
+        else -> CodeBlock.of("(%L)!!", value)
+      }
+    }
+
+    companion object {
+      fun create(
+        property: KSPropertyDeclaration,
+        attribute: ItemAttribute,
+        rawProperties: Map<String, KSPropertyDeclaration>
+      ): Binding {
+        val propertyName = property.simpleName.asString()
+        if (property.isPrivate() || property.isProtected()) unsupported("$propertyName is not visible to generated code")
+        if (property.isDelegated()) unsupported("$propertyName is delegated")
+        val type = property.type.resolve()
+        val typeName = type.toTypeName().copy(nullable = false)
+        val mappedProperties = attribute.names.map { attributeName ->
+          val rawProperty = rawProperties[attributeName] ?: unsupported("there is no raw item property $attributeName")
+          if (!rawProperty.isMutable || rawProperty.isPrivate() || rawProperty.setter?.modifiers?.contains(Modifier.PRIVATE) == true) {
+            unsupported("raw item property $attributeName cannot be set by generated code")
+          }
+          rawProperty
+        }
+        val rawTypes = mappedProperties.map { it.type.resolve() }
+        for (rawType in rawTypes) {
+          if (rawType.toTypeName().copy(nullable = false) != typeName) {
+            unsupported("$propertyName is a $typeName but raw item property is a ${rawType.toTypeName()}")
+          }
+        }
+        if (attribute.prefix.isNotEmpty() && typeName != STRING) unsupported("prefixed $propertyName is not a String")
+        val isRawItemNullable = rawTypes.any { it.isMarkedNullable }
+        if (rawTypes.any { !it.isMarkedNullable } && rawTypes.any { it.isMarkedNullable }) {
+          unsupported("the raw item properties of $propertyName differ in nullability")
+        }
+        val isNullable = type.isMarkedNullable
+        val writesNull = isNullable && (attribute.prefix.isEmpty() || attribute.allowEmpty)
+        if (writesNull && !isRawItemNullable) unsupported("nullable $propertyName is stored in a non-null raw item property")
+        return Binding(property, attribute, mappedProperties, isNullable, isRawItemNullable)
+      }
+    }
+  }
+
+  companion object {
+    const val CODEC_SUFFIX = "TempestCodec"
+    private val CODEC = ClassName("app.cash.tempest2", "Codec")
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.ksp
+
+import com.google.devtools.ksp.getConstructors
+import com.google.devtools.ksp.isInternal
+import com.google.devtools.ksp.isLocal
+import com.google.devtools.ksp.isPrivate
+import com.google.devtools.ksp.isProtected
+import com.google.devtools.ksp.symbol.ClassKind
+import com.google.devtools.ksp.symbol.KSAnnotated
+import com.google.devtools.ksp.symbol.KSAnnotation
+import com.google.devtools.ksp.symbol.KSClassDeclaration
+import com.google.devtools.ksp.symbol.KSPropertyDeclaration
+import com.google.devtools.ksp.symbol.KSValueParameter
+import com.google.devtools.ksp.symbol.Modifier
+import com.google.devtools.ksp.symbol.Origin
+import com.squareup.kotlinpoet.ClassName
+import com.squareup.kotlinpoet.KModifier
+import com.squareup.kotlinpoet.TypeSpec
+
+/** Thrown when a type must keep using reflection. The message says why. */
+internal class UnsupportedTypeException(message: String) : Exception(message)
+
+internal fun unsupported(reason: String): Nothing = throw UnsupportedTypeException(reason)
+
+internal val KSClassDeclaration.key: String
+  get() = qualifiedName?.asString() ?: simpleName.asString()
+
+/**
+ * Returns the name of the class generated for this one. It must match the lookup in
+ * `app.cash.tempest2.internal.GeneratedCode`.
+ */
+internal fun KSClassDeclaration.generatedClassName(suffix: String): ClassName {
+  val packageName = packageName.asString()
+  val simpleNames = key.removePrefix("$packageName.").replace('.', '_')
+  return ClassName(packageName, simpleNames + suffix)
+}
+
+/** Generated classes can't be more visible than the types they expose. */
+internal fun TypeSpec.Builder.addVisibilityOf(vararg declarations: KSClassDeclaration) = apply {
+  if (declarations.any { it.isEffectivelyInternal() }) addModifiers(KModifier.INTERNAL)
+}
+
+private fun KSClassDeclaration.isEffectivelyInternal(): Boolean {
+  return isInternal() || (parentDeclaration as? KSClassDeclaration)?.isEffectivelyInternal() == true
+}
+
+/** Generated code can only reference concrete, non-generic Kotlin classes it can see. */
+internal fun KSClassDeclaration.requireAccessibleClass() {
+  if (origin != Origin.KOTLIN) unsupported("it is not declared in Kotlin")
+  if (classKind != ClassKind.CLASS) unsupported("it is not a class")
+  if (Modifier.ABSTRACT in modifiers || Modifier.SEALED in modifiers) unsupported("it is abstract")
+  if (typeParameters.isNotEmpty()) unsupported("it is generic")
+  var declaration: KSClassDeclaration? = this
+  while (declaration != null) {
+    if (declaration.isPrivate() || declaration.isProtected() || declaration.isLocal()) {
+      unsupported("${declaration.simpleName.asString()} is not visible to generated code")
+    }
+    if (declaration != this && Modifier.INNER in declaration.modifiers) unsupported("it is an inner class")
+    declaration = declaration.parentDeclaration as? KSClassDeclaration
+  }
+  if (Modifier.INNER in modifiers) unsupported("it is an inner class")
+}
+
+internal val KSAnnotation.qualifiedName: String?
+  get() = annotationType.resolve().declaration.qualifiedName?.asString()
+
+internal fun KSAnnotated.findAnnotation(qualifiedName: String): KSAnnotation? =
+  annotations.firstOrNull { it.qualifiedName == qualifiedName }
+
+internal fun KSAnnotation.argument(name: String): Any? =
+  arguments.firstOrNull { it.name?.asString() == name }?.value
+    ?: defaultArguments.firstOrNull { it.name?.asString() == name }?.value
+
+internal val KSClassDeclaration.defaultConstructorParameters: Map<String, KSValueParameter>
+  get() {
+    val constructor = primaryConstructor ?: getConstructors().singleOrNull() ?: return emptyMap()
+    return constructor.parameters.associateBy { it.name!!.asString() }
+  }
+
+/** Mirrors `KProperty.shouldIgnore`, which checks for a transient backing field. */
+internal fun KSPropertyDeclaration.isTransient(constructorParameters: Map<String, KSValueParameter>): Boolean {
+  if (Modifier.JAVA_TRANSIENT in modifiers) return true
+  if (findAnnotation(TRANSIENT) != null) return true
+  return constructorParameters[simpleName.asString()]?.findAnnotation(TRANSIENT) != null
+}
+
+private const val TRANSIENT = "kotlin.jvm.Transient"
+
+/**
+ * A property of an item type and the attributes of the raw item type it is stored in. This is
+ * what `app.cash.tempest.internal.ItemType.Attribute` resolves to at runtime.
+ */
+internal class ItemAttribute(
+  val property: KSPropertyDeclaration,
+  val names: List<String>,
+  val prefix: String,
+  val allowEmpty: Boolean
+) {
+  companion object {
+    fun findAll(itemType: KSClassDeclaration): Map<String, ItemAttribute> {
+      val constructorParameters = itemType.defaultConstructorParameters
+      val attributes = mutableMapOf<String, ItemAttribute>()
+      for (property in itemType.getAllProperties()) {
+        if (property.isTransient(constructorParameters)) continue
+        val propertyName = property.simpleName.asString()
+        val annotation = property.findAnnotation(ATTRIBUTE)
+          ?: constructorParameters[propertyName]?.findAnnotation(ATTRIBUTE)
+        val name = annotation?.argument("name") as String? ?: ""
+        val names = (annotation?.argument("names") as List<*>?)?.map { it as String } ?: emptyList()
+        if (names.isNotEmpty() && name.isNotEmpty()) unsupported("$propertyName has an ambiguous Attribute annotation")
+        attributes[propertyName] = ItemAttribute(
+          property,
+          when {
+            names.isNotEmpty() -> names.distinct()
+            name.isNotEmpty() -> listOf(name)
+            else -> listOf(propertyName)
+          },
+          annotation?.argument("prefix") as String? ?: "",
+          annotation?.argument("allowEmpty") as Boolean? ?: false
+        )
+      }
+      return attributes
+    }
+
+    private const val ATTRIBUTE = "app.cash.tempest2.Attribute"
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.ksp
+
+import com.google.devtools.ksp.KspExperimental
+import com.google.devtools.ksp.getConstructors
+import com.google.devtools.ksp.isPrivate
+import com.google.devtools.ksp.processing.Resolver
+import com.google.devtools.ksp.symbol.AnnotationUseSiteTarget
+import com.google.devtools.ksp.symbol.ClassKind
+import com.google.devtools.ksp.symbol.KSAnnotation
+import com.google.devtools.ksp.symbol.KSClassDeclaration
+import com.google.devtools.ksp.symbol.KSPropertyDeclaration
+import com.google.devtools.ksp.symbol.KSType
+import com.google.devtools.ksp.symbol.Modifier
+import com.squareup.kotlinpoet.ClassName
+import com.squareup.kotlinpoet.CodeBlock
+import com.squareup.kotlinpoet.FileSpec
+import com.squareup.kotlinpoet.FunSpec
+import com.squareup.kotlinpoet.KModifier
+import com.squareup.kotlinpoet.ParameterizedTypeName.Companion.parameterizedBy
+import com.squareup.kotlinpoet.TypeSpec
+import com.squareup.kotlinpoet.joinToCode
+import com.squareup.kotlinpoet.ksp.addOriginatingKSFile
+import com.squareup.kotlinpoet.ksp.toClassName
+
+/**
+ * Generates the `StaticTableSchema` that `BeanTableSchema` would introspect from a Kotlin
+ * `@DynamoDbBean` class.
+ *
+ * Only the annotations that are translated below are supported. Attribute tags that are
+ * contributed by other annotations, nested beans, and immutable classes are left to introspection.
+ */
+internal class TableSchemaGenerator(
+  private val resolver: Resolver
+) {
+
+  fun generate(rawItemType: KSClassDeclaration): FileSpec {
+    rawItemType.requireAccessibleClass()
+    val dynamoDbBean = rawItemType.findAnnotation("$MAPPER_ANNOTATIONS.DynamoDbBean")
+      ?: unsupported("it is not annotated with @DynamoDbBean")
+    if (rawItemType.superTypes.any { it.resolve().declaration.qualifiedName?.asString() != "kotlin.Any" }) {
+      unsupported("it has supertypes")
+    }
+    if (rawItemType.getConstructors().none { constructor -> constructor.parameters.all { it.hasDefault } }) {
+      unsupported("it has no zero argument constructor")
+    }
+    val accessorFunction = rawItemType.getAllFunctions()
+      .firstOrNull { ACCESSOR_FUNCTION.matches(it.simpleName.asString()) }
+    if (accessorFunction != null) unsupported("function ${accessorFunction.simpleName.asString()} looks like a bean accessor")
+
+    val typeName = rawItemType.toClassName()
+    val tableSchemaName = rawItemType.generatedClassName(TABLE_SCHEMA_SUFFIX)
+    val body = CodeBlock.builder()
+      .add("return %T.builder(%T::class.java)\n⇥", STATIC_TABLE_SCHEMA, typeName)
+      .add(".newItemSupplier { %T() }\n", typeName)
+    val converterProviders = converterProviders(dynamoDbBean)
+    if (converterProviders != null) {
+      body.add(".attributeConverterProviders(%L)\n", converterProviders)
+    }
+    for (property in rawItemType.getAllProperties()) {
+      body.add(attribute(property) ?: continue)
+    }
+    body.add(".build()\n⇤")
+
+    val tableSchema = TypeSpec.classBuilder(tableSchemaName)
+      .addKdoc("The table schema of [%T]. Generated by Tempest.", typeName)
+      .addVisibilityOf(rawItemType)
+      .addSuperinterface(GENERATED_TABLE_SCHEMA.parameterizedBy(typeName))
+      .addFunction(
+        FunSpec.builder("create")
+          .addModifiers(KModifier.OVERRIDE)
+          .returns(TABLE_SCHEMA.parameterizedBy(typeName))
+          .addCode(body.build())
+          .build()
+      )
+    rawItemType.containingFile?.let { tableSchema.addOriginatingKSFile(it) }
+    return FileSpec.builder(tableSchemaName)
+      .addType(tableSchema.build())
+      .build()
+  }
+
+  /** Returns null if the property isn't a bean property. */
+  private fun attribute(property: KSPropertyDeclaration): CodeBlock? {
+    val propertyName = property.simpleName.asString()
+    // Bean introspection only maps properties with a public getter and setter.
+    if (property.isPrivate() || !property.isMutable) return null
+    if (property.getter?.modifiers?.contains(Modifier.PRIVATE) == true) return null
+    if (property.setter?.modifiers?.contains(Modifier.PRIVATE) == true) return null
+    if (property.isDelegated() && property.getter == null) unsupported("$propertyName is delegated")
+
+    val annotations = accessorAnnotations(property)
+    val annotationsByName = annotations.associateBy { it.qualifiedName }
+    for ((qualifiedName, annotation) in annotationsByName) {
+      if (qualifiedName in SUPPORTED_ANNOTATIONS) continue
+      val isBeanAnnotation = qualifiedName?.startsWith(ENHANCED_CLIENT) == true ||
+        annotation.annotationType.resolve().declaration.findAnnotation("$MAPPER_ANNOTATIONS.BeanTableSchemaAttributeTag") != null
+      if (isBeanAnnotation) unsupported("$propertyName is annotated with @${annotation.shortName.asString()}")
+    }
+    if ("$MAPPER_ANNOTATIONS.DynamoDbIgnore" in annotationsByName) return null
+
+    val attributeName = annotationsByName["$MAPPER_ANNOTATIONS.DynamoDbAttribute"]?.argument("value") as String?
+      ?: beanPropertyName(property)
+    val type = property.type.resolve()
+    val converter = annotationsByName["$MAPPER_ANNOTATIONS.DynamoDbConvertedBy"]?.argument("value") as KSType?
+    if (converter == null && type.containsBean()) unsupported("$propertyName is a nested bean")
+    val enhancedType = enhancedType(type) ?: unsupported("$propertyName has an unsupported type ${type.declaration.simpleName.asString()}")
+
+    val tags = mutableListOf<CodeBlock>()
+    if ("$MAPPER_ANNOTATIONS.DynamoDbPartitionKey" in annotationsByName) {
+      tags.add(CodeBlock.of("%T.primaryPartitionKey()", STATIC_ATTRIBUTE_TAGS))
+    }
+    if ("$MAPPER_ANNOTATIONS.DynamoDbSortKey" in annotationsByName) {
+      tags.add(CodeBlock.of("%T.primarySortKey()", STATIC_ATTRIBUTE_TAGS))
+    }
+    annotationsByName["$MAPPER_ANNOTATIONS.DynamoDbSecondaryPartitionKey"]?.let {
+      tags.add(CodeBlock.of("%T.secondaryPartitionKey(%L)", STATIC_ATTRIBUTE_TAGS, indexNames(it)))
+    }
+    annotationsByName["$MAPPER_ANNOTATIONS.DynamoDbSecondarySortKey"]?.let {
+      tags.add(CodeBlock.of("%T.secondarySortKey(%L)", STATIC_ATTRIBUTE_TAGS, indexNames(it)))
+    }
+    annotationsByName["$EXTENSIONS_ANNOTATIONS.DynamoDbVersionAttribute"]?.let {
+      tags.add(
+        CodeBlock.of(
+          "%T.AttributeTags.versionAttribute(%LL, %LL)",
+          VERSIONED_RECORD_EXTENSION,
+          (it.argument("startAt") as Long?) ?: 0L,
+          (it.argument("incrementBy") as Long?) ?: 1L
+        )
+      )
+    }
+
+    val attribute = CodeBlock.builder()
+      .add(".addAttribute(%L) {\n⇥", enhancedType)
+      .add("it.name(%S)\n⇥", attributeName)
+      .add(".getter { item -> item.%N }\n", propertyName)
+      .add(".setter { item, value -> item.%N = value }\n", propertyName)
+    if (tags.isNotEmpty()) {
+      attribute.add(".tags(%L)\n", tags.joinToCode(", "))
+    }
+    if (converter != null) {
+      attribute.add(".attributeConverter(%L)\n", instance(converter))
+    }
+    return attribute.add("⇤⇤}\n").build()
+  }
+
+  /** Bean introspection reads annotations from the getter and the setter. */
+  private fun accessorAnnotations(property: KSPropertyDeclaration): List<KSAnnotation> {
+    val accessorTargets = setOf(AnnotationUseSiteTarget.GET, AnnotationUseSiteTarget.SET)
+    return property.annotations.filter { it.useSiteTarget in accessorTargets }.toList() +
+      property.getter?.annotations.orEmpty() +
+      property.setter?.annotations.orEmpty()
+  }
+
+  /** Mirrors `java.beans.Introspector`, which names properties after their getters. */
+  @OptIn(KspExperimental::class)
+  private fun beanPropertyName(property: KSPropertyDeclaration): String {
+    val getterName = property.getter?.let { resolver.getJvmName(it) }
+      ?: unsupported("${property.simpleName.asString()} has no getter")
+    val name = when {
+      getterName.startsWith("get") -> getterName.removePrefix("get")
+      getterName.startsWith("is") && property.type.resolve().let { it.isBoolean() && !it.isMarkedNullable } ->
+        getterName.removePrefix("is")
+      else -> unsupported("getter $getterName is not a bean getter")
+    }
+    val setterName = property.setter?.let { resolver.getJvmName(it) }
+    if (setterName != "set$name") unsupported("setter $setterName doesn't match getter $getterName")
+    if (name.length > 1 && name[0].isUpperCase() && name[1].isUpperCase()) return name
+    return name.replaceFirstChar { it.lowercaseChar() }
+  }
+
+  private fun KSType.isBoolean() = declaration.qualifiedName?.asString() == "kotlin.Boolean"
+
+  private fun KSType.containsBean(): Boolean {
+    if (declaration.findAnnotation("$MAPPER_ANNOTATIONS.DynamoDbBean") != null) return true
+    if (declaration.findAnnotation("$MAPPER_ANNOTATIONS.DynamoDbImmutable") != null) return true
+    return arguments.any { it.type?.resolve()?.containsBean() == true }
+  }
+
+  /** Returns null if the type can't be described with `EnhancedType`'s factory methods. */
+  private fun enhancedType(type: KSType): CodeBlock? {
+    val declaration = type.declaration as? KSClassDeclaration ?: return null
+    val arguments = type.arguments.map { argument ->
+      val argumentType = argument.type?.resolve() ?: return null
+      enhancedType(argumentType) ?: return null
+    }
+    return when (declaration.qualifiedName?.asString()) {
+      "kotlin.collections.List", "kotlin.collections.MutableList" ->
+        CodeBlock.of("%T.listOf(%L)", ENHANCED_TYPE, arguments.single())
+      "kotlin.collections.Set", "kotlin.collections.MutableSet" ->
+        CodeBlock.of("%T.setOf(%L)", ENHANCED_TYPE, arguments.single())
+      "kotlin.collections.Map", "kotlin.collections.MutableMap" ->
+        CodeBlock.of("%T.mapOf(%L, %L)", ENHANCED_TYPE, arguments[0], arguments[1])
+      else -> {
+        if (arguments.isNotEmpty()) return null
+        CodeBlock.of("%T.of(%T::class.javaObjectType)", ENHANCED_TYPE, declaration.toClassName())
+      }
+    }
+  }
+
+  private fun indexNames(annotation: KSAnnotation): CodeBlock {
+    val indexNames = (annotation.argument("indexNames") as List<*>).map { CodeBlock.of("%S", it) }
+    return CodeBlock.of("listOf(%L)", indexNames.joinToCode(", "))
+  }
+
+  /** Returns null if the bean uses only the default converter provider, like a static schema. */
+  private fun converterProviders(dynamoDbBean: KSAnnotation): CodeBlock? {
+    val providers = (dynamoDbBean.argument("converterProviders") as List<*>?)
+      ?.map { it as KSType }
+      ?: return null
+    if (providers.map { it.declaration.qualifiedName?.asString() } == listOf(DEFAULT_ATTRIBUTE_CONVERTER_PROVIDER.canonicalName)) {
+      return null
+    }
+    return providers
+      .map { provider ->
+        if (provider.declaration.qualifiedName?.asString() == DEFAULT_ATTRIBUTE_CONVERTER_PROVIDER.canonicalName) {
+          CodeBlock.of("%T.create()", DEFAULT_ATTRIBUTE_CONVERTER_PROVIDER)
+        } else {
+          instance(provider)
+        }
+      }
+      .joinToCode(", ")
+  }
+
+  private fun instance(type: KSType): CodeBlock {
+    val declaration = type.declaration as KSClassDeclaration
+    return if (declaration.classKind == ClassKind.OBJECT) {
+      CodeBlock.of("%T", declaration.toClassName())
+    } else {
+      CodeBlock.of("%T()", declaration.toClassName())
+    }
+  }
+
+  companion object {
+    const val TABLE_SCHEMA_SUFFIX = "TempestTableSchema"
+
+    private const val ENHANCED_CLIENT = "software.amazon.awssdk.enhanced.dynamodb"
+    private const val MAPPER_ANNOTATIONS = "$ENHANCED_CLIENT.mapper.annotations"
+    private const val EXTENSIONS_ANNOTATIONS = "$ENHANCED_CLIENT.extensions.annotations"
+    private val SUPPORTED_ANNOTATIONS = setOf(
+      "$MAPPER_ANNOTATIONS.DynamoDbPartitionKey",
+      "$MAPPER_ANNOTATIONS.DynamoDbSortKey",
+      "$MAPPER_ANNOTATIONS.DynamoDbSecondaryPartitionKey",
+      "$MAPPER_ANNOTATIONS.DynamoDbSecondarySortKey",
+      "$MAPPER_ANNOTATIONS.DynamoDbAttribute",
+      "$MAPPER_ANNOTATIONS.DynamoDbConvertedBy",
+      "$MAPPER_ANNOTATIONS.DynamoDbIgnore",
+      "$EXTENSIONS_ANNOTATIONS.DynamoDbVersionAttribute",
+    )
+    private val ACCESSOR_FUNCTION = Regex("(get|set|is)[A-Z_].*")
+
+    private val ENHANCED_TYPE = ClassName(ENHANCED_CLIENT, "EnhancedType")
+    private val TABLE_SCHEMA = ClassName(ENHANCED_CLIENT, "TableSchema")
+    private val DEFAULT_ATTRIBUTE_CONVERTER_PROVIDER = ClassName(ENHANCED_CLIENT, "DefaultAttributeConverterProvider")
+    private val STATIC_TABLE_SCHEMA = ClassName("$ENHANCED_CLIENT.mapper", "StaticTableSchema")
+    private val STATIC_ATTRIBUTE_TAGS = ClassName("$ENHANCED_CLIENT.mapper", "StaticAttributeTags")
+    private val VERSIONED_RECORD_EXTENSION = ClassName("$ENHANCED_CLIENT.extensions", "VersionedRecordExtension")
+    private val GENERATED_TABLE_SCHEMA = ClassName("app.cash.tempest2", "GeneratedTableSchema")
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.ksp
+
+import com.google.devtools.ksp.getAllSuperTypes
+import com.google.devtools.ksp.processing.CodeGenerator
+import com.google.devtools.ksp.processing.Dependencies
+import com.google.devtools.ksp.processing.KSPLogger
+import com.google.devtools.ksp.processing.Resolver
+import com.google.devtools.ksp.processing.SymbolProcessor
+import com.google.devtools.ksp.symbol.ClassKind
+import com.google.devtools.ksp.symbol.KSAnnotated
+import com.google.devtools.ksp.symbol.KSClassDeclaration
+import com.google.devtools.ksp.symbol.KSDeclaration
+import com.google.devtools.ksp.symbol.KSFile
+import com.google.devtools.ksp.symbol.Origin
+import com.squareup.kotlinpoet.FileSpec
+import com.squareup.kotlinpoet.ksp.writeTo
+
+/**
+ * Generates a codec for every key type and item type of a `LogicalTable`, and a table schema for
+ * every raw item type, so that Tempest doesn't have to bind them with reflection at runtime.
+ *
+ * Types are found through the views and indexes declared by `LogicalTable` and
+ * `AsyncLogicalTable` interfaces. A type that the generated code cannot convert exactly the way
+ * the reflective implementation does is skipped with a warning, and keeps using reflection.
+ */
+class TempestSymbolProcessor(
+  private val codeGenerator: CodeGenerator,
+  private val logger: KSPLogger
+) : SymbolProcessor {
+  private var processed = false
+
+  override fun process(resolver: Resolver): List<KSAnnotated> {
+    // Generated code never declares tables, so one round sees all of them.
+    if (processed) return emptyList()
+    processed = true
+
+    val rawItemTypes = mutableMapOf<String, KSClassDeclaration>()
+    val itemTypes = mutableMapOf<String, Pair<KSClassDeclaration, KSClassDeclaration>>()
+    val keyTypes = mutableMapOf<String, Pair<KSClassDeclaration, KSClassDeclaration>>()
+    val conflicts = mutableSetOf<String>()
+    val sources = mutableSetOf<KSFile>()
+    for (table in findLogicalTables(resolver)) {
+      val rawItemType = table.rawItemType
+      rawItemTypes[rawItemType.key] = rawItemType
+      sources.addAll(listOfNotNull(table.declaration.containingFile, rawItemType.containingFile))
+      for ((keyType, itemType) in table.views) {
+        sources.addAll(listOfNotNull(keyType.containingFile, itemType.containingFile))
+        val boundRawItemType = itemTypes.getOrPut(itemType.key) { itemType to rawItemType }.second
+        if (boundRawItemType.key != rawItemType.key) conflicts.add(itemType.key)
+        val boundItemType = keyTypes.getOrPut(keyType.key) { keyType to itemType }.second
+        if (boundItemType.key != itemType.key) conflicts.add(keyType.key)
+      }
+    }
+    val dependencies = Dependencies(aggregating = true, *sources.toTypedArray())
+
+    val tableSchemaGenerator = TableSchemaGenerator(resolver)
+    for (rawItemType in rawItemTypes.values) {
+      generate(rawItemType, dependencies) { tableSchemaGenerator.generate(rawItemType) }
+    }
+    val codecGenerator = CodecGenerator()
+    val itemAttributes = mutableMapOf<String, Map<String, ItemAttribute>>()
+    for ((itemType, rawItemType) in itemTypes.values) {
+      if (itemType.key in conflicts) continue
+      generate(itemType, dependencies) {
+        val attributes = itemAttributes.getOrPut(itemType.key) { ItemAttribute.findAll(itemType) }
+        codecGenerator.generate(itemType, attributes, rawItemType, isKey = false)
+      }
+    }
+    for ((keyType, itemType) in keyTypes.values) {
+      if (keyType.key in conflicts || itemType.key in conflicts) continue
+      val rawItemType = itemTypes.getValue(itemType.key).second
+      generate(keyType, dependencies) {
+        val attributes = itemAttributes.getOrPut(itemType.key) { ItemAttribute.findAll(itemType) }
+        codecGenerator.generate(keyType, attributes, rawItemType, isKey = true)
+      }
+    }
+    for (conflict in conflicts) {
+      logger.warn("Tempest binds $conflict with reflection because it is used by more than one table type")
+    }
+    return emptyList()
+  }
+
+  private fun generate(declaration: KSClassDeclaration, dependencies: Dependencies, generator: () -> FileSpec) {
+    val fileSpec = try {
+      generator()
+    } catch (e: UnsupportedTypeException) {
+      logger.warn("Tempest binds ${declaration.key} with reflection: ${e.message}", declaration)
+      return
+    }
+    fileSpec.writeTo(codeGenerator, dependencies)
+  }
+
+  private fun findLogicalTables(resolver: Resolver): List<LogicalTableDeclaration> {
+    val logicalTables = mutableListOf<LogicalTableDeclaration>()
+    for (declaration in resolver.getAllFiles().flatMap { it.declarations }.flatMap { it.withNestedClasses() }) {
+      if (declaration.classKind != ClassKind.INTERFACE || declaration.origin != Origin.KOTLIN) continue
+      val logicalTableType = declaration.getAllSuperTypes()
+        .firstOrNull { it.declaration.qualifiedName?.asString() in LOGICAL_TABLE_TYPES } ?: continue
+      val rawItemType = logicalTableType.arguments.single().type?.resolve()?.declaration as? KSClassDeclaration
+        ?: continue
+      val views = mutableListOf<Pair<KSClassDeclaration, KSClassDeclaration>>()
+      for (property in declaration.getAllProperties()) {
+        val type = property.type.resolve()
+        if (type.declaration.qualifiedName?.asString() !in VIEW_TYPES) continue
+        val (keyType, itemType) = type.arguments.map { it.type?.resolve()?.declaration as? KSClassDeclaration }
+        if (keyType == null || itemType == null) continue
+        views.add(keyType to itemType)
+      }
+      logicalTables.add(LogicalTableDeclaration(declaration, rawItemType, views))
+    }
+    return logicalTables
+  }
+
+  private fun KSDeclaration.withNestedClasses(): Sequence<KSClassDeclaration> {
+    if (this !is KSClassDeclaration) return emptySequence()
+    return sequenceOf(this) + declarations.flatMap { it.withNestedClasses() }
+  }
+
+  private class LogicalTableDeclaration(
+    val declaration: KSClassDeclaration,
+    val rawItemType: KSClassDeclaration,
+    val views: List<Pair<KSClassDeclaration, KSClassDeclaration>>
+  )
+
+  companion object {
+    private val LOGICAL_TABLE_TYPES = setOf(
+      "app.cash.tempest2.LogicalTable",
+      "app.cash.tempest2.AsyncLogicalTable"
+    )
+    private val VIEW_TYPES = setOf(
+      "app.cash.tempest2.InlineView",
+      "app.cash.tempest2.SecondaryIndex",
+      "app.cash.tempest2.AsyncInlineView",
+      "app.cash.tempest2.AsyncSecondaryIndex"
+    )
+  }
+}
@@ -6,6 +6,7 @@ plugins {
   kotlin("jvm")
   `java-library`
   id("com.vanniktech.maven.publish.base")
+  id("me.champeau.jmh")
 }
 
 dependencies {
@@ -27,8 +28,51 @@ dependencies {
   testImplementation(libs.assertj)
   testImplementation(libs.junitEngine)
   testRuntimeOnly(libs.junitLauncher)
+
+  jmh(project(":samples:musiclibrary2"))
+}
+
+kotlin {
+  // Benchmarks exercise internal codecs directly.
+  target.compilations.getByName("jmh").associateWith(target.compilations.getByName("main"))
+}
+
+// samples/musiclibrary2 applies tempest2-ksp. `test` runs the suite against a copy of it without
+// the generated classes, so that the reflective codecs and bean table schemas stay covered, and
+// `generatedCodeTest` runs the same suite again with them.
+val musicLibraryWithoutGeneratedCode by tasks.registering(Sync::class) {
+  val musicLibraryJars = configurations.testRuntimeClasspath.map { classpath ->
+    classpath.filter { it.name.startsWith("musiclibrary2") }.map { zipTree(it) }
+  }
+  from(musicLibraryJars) {
+    exclude("**/*TempestCodec.class", "**/*TempestTableSchema.class")
+  }
+  into(layout.buildDirectory.dir("musiclibrary2-reflection"))
 }
 
+tasks.test {
+  classpath = files(musicLibraryWithoutGeneratedCode) +
+    classpath.filter { !it.name.startsWith("musiclibrary2") }
+  filter {
+    excludeTestsMatching("app.cash.tempest2.internal.GeneratedCodeTest")
+  }
+}
+
+val generatedCodeTest by tasks.registering(Test::class) {
+  description = "Runs the tests with the codecs and table schemas that tempest2-ksp generated."
+  group = "verification"
+  testClassesDirs = sourceSets.test.get().output.classesDirs
+  classpath = sourceSets.test.get().runtimeClasspath
+  filter {
+    // Generated codecs throw the NullPointerException that reflection wraps in an
+    // InvocationTargetException.
+    excludeTestsMatching("*rows with missing attributes*")
+  }
+}
+
+tasks.check {
+  dependsOn(generatedCodeTest)
+}
 
 configure<MavenPublishBaseExtension> {
   configure(
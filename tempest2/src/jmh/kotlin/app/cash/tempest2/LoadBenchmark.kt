@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import app.cash.tempest2.internal.TableSchemaFactory
+import app.cash.tempest2.musiclibrary.AlbumTrack
+import app.cash.tempest2.musiclibrary.MusicDb
+import app.cash.tempest2.musiclibrary.MusicItem
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse
+import software.amazon.awssdk.services.dynamodb.model.ItemResponse
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsRequest
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsResponse
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures the client side of batch loads and transaction loads: encoding keys, building
+ * requests, and decoding results. DynamoDB is replaced by an in-memory client so that only
+ * Tempest and the enhanced client are measured. Run with `-prof gc` to see allocations per call.
+ *
+ * ```
+ * ./gradlew :tempest2:jmhJar
+ * java -jar tempest2/build/libs/tempest2-0.0-SNAPSHOT-jmh.jar LoadBenchmark -prof gc
+ * ```
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class LoadBenchmark {
+
+  @Param("25")
+  var keyCount = 0
+
+  private lateinit var db: MusicDb
+  private lateinit var keys: List<AlbumTrack.Key>
+
+  @Setup
+  fun setUp() {
+    val dynamoDbClient = InMemoryDynamoDbClient()
+    db = LogicalDb(DynamoDbEnhancedClient.builder().dynamoDbClient(dynamoDbClient).build())
+    val codec = db.music.codec(AlbumTrack::class)
+    val tableSchema = TableSchemaFactory.create<MusicItem>(MusicItem::class.java)
+    for (trackNumber in 1L..keyCount) {
+      val albumTrack = AlbumTrack("ALBUM_1", trackNumber, "track $trackNumber", Duration.ofMinutes(3))
+      dynamoDbClient.put(tableSchema.itemToMap(codec.toDb(albumTrack), true))
+    }
+    keys = (1L..keyCount).map { AlbumTrack.Key("ALBUM_1", it) }
+  }
+
+  @Benchmark
+  fun batchLoad() = db.batchLoad(keys)
+
+  @Benchmark
+  fun transactionLoad() = db.transactionLoad(keys)
+
+  private class InMemoryDynamoDbClient : DynamoDbClient {
+    private val items = mutableMapOf<Map<String, AttributeValue>, Map<String, AttributeValue>>()
+
+    fun put(item: Map<String, AttributeValue>) {
+      items[item.filterKeys { it == "partition_key" || it == "sort_key" }] = item
+    }
+
+    override fun batchGetItem(request: BatchGetItemRequest): BatchGetItemResponse {
+      return BatchGetItemResponse.builder()
+        .responses(request.requestItems().mapValues { (_, keysAndAttributes) -> keysAndAttributes.load() })
+        .build()
+    }
+
+    override fun transactGetItems(request: TransactGetItemsRequest): TransactGetItemsResponse {
+      return TransactGetItemsResponse.builder()
+        .responses(request.transactItems().map { ItemResponse.builder().item(items[it.get().key()]).build() })
+        .build()
+    }
+
+    private fun KeysAndAttributes.load() = keys().mapNotNull { items[it] }
+
+    override fun serviceName() = "dynamodb"
+
+    override fun close() = Unit
+  }
+}
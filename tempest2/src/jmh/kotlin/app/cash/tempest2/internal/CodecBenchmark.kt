@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest.internal.Codec
+import app.cash.tempest.internal.CodecEngine
+import app.cash.tempest.internal.Schema
+import app.cash.tempest2.musiclibrary.AlbumInfo
+import app.cash.tempest2.musiclibrary.AlbumTrack
+import app.cash.tempest2.musiclibrary.MusicItem
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.time.Duration
+import java.time.LocalDate
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares the codec engines on the item types of the music library sample.
+ *
+ * ```
+ * ./gradlew :tempest2:jmh -Pjmh.includes=CodecBenchmark
+ * ```
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class CodecBenchmark {
+
+  @Param("REFLECTION", "METHOD_HANDLE")
+  @JvmField
+  var codecEngine: CodecEngine = CodecEngine.REFLECTION
+
+  private lateinit var albumInfoCodec: Codec<AlbumInfo, MusicItem>
+  private lateinit var albumTrackCodec: Codec<AlbumTrack, MusicItem>
+  private lateinit var albumTrackKeyCodec: Codec<AlbumTrack.Key, MusicItem>
+
+  private val albumInfo = AlbumInfo(
+    "ALBUM_1",
+    "after hours - EP",
+    "53 Thieves",
+    LocalDate.of(2020, 2, 21),
+    "Contemporary R&B"
+  )
+  private val albumTrack = AlbumTrack("ALBUM_1", 1L, "dreamin", Duration.parse("PT3M28S"))
+  private val albumTrackKey = AlbumTrack.Key("ALBUM_1", 1L)
+  private lateinit var albumInfoItem: MusicItem
+  private lateinit var albumTrackItem: MusicItem
+
+  @Setup
+  fun setUp() {
+    val schema = Schema.create(
+      V2StringAttributeValue,
+      V2MapAttributeValue.Factory,
+      V2ForIndexAnnotation,
+      V2AttributeAnnotation,
+      V2RawItemTypeFactory(),
+      codecEngine
+    )
+    schema.addRawItem(MusicItem.TABLE_NAME, MusicItem::class)
+    schema.addItem(AlbumInfo::class, MusicItem::class)
+    schema.addItem(AlbumTrack::class, MusicItem::class)
+    schema.addKey(AlbumTrack.Key::class, AlbumTrack::class)
+    albumInfoCodec = schema.codec(AlbumInfo::class)
+    albumTrackCodec = schema.codec(AlbumTrack::class)
+    albumTrackKeyCodec = schema.codec(AlbumTrack.Key::class)
+    albumInfoItem = albumInfoCodec.toDb(albumInfo)
+    albumTrackItem = albumTrackCodec.toDb(albumTrack)
+  }
+
+  @Benchmark
+  fun albumInfoToDb() = albumInfoCodec.toDb(albumInfo)
+
+  @Benchmark
+  fun albumInfoToApp() = albumInfoCodec.toApp(albumInfoItem)
+
+  @Benchmark
+  fun albumTrackToDb() = albumTrackCodec.toDb(albumTrack)
+
+  @Benchmark
+  fun albumTrackToApp() = albumTrackCodec.toApp(albumTrackItem)
+
+  @Benchmark
+  fun albumTrackKeyToDb() = albumTrackKeyCodec.toDb(albumTrackKey)
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest.internal.Codec
+import app.cash.tempest.internal.CodecEngine
+import app.cash.tempest.internal.Schema
+import app.cash.tempest2.musiclibrary.AlbumTrack
+import app.cash.tempest2.musiclibrary.MusicItem
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares encoding an item through a raw item with encoding it straight to the attribute value
+ * map that is sent to DynamoDB.
+ *
+ * ```
+ * ./gradlew :tempest2:jmh -Pjmh.includes=ItemEncodingBenchmark
+ * ```
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class ItemEncodingBenchmark {
+
+  private lateinit var rawItemCodec: Codec<AlbumTrack, MusicItem>
+  private lateinit var attributeMapCodec: Codec<AlbumTrack, Map<String, AttributeValue>>
+  private val tableSchema: TableSchema<MusicItem> = TableSchemaFactory.create(MusicItem::class.java)
+
+  private val albumTrack = AlbumTrack("ALBUM_1", 1L, "dreamin", Duration.parse("PT3M28S"))
+  private lateinit var attributeValues: Map<String, AttributeValue>
+
+  @Setup
+  fun setUp() {
+    val schema = Schema.create(
+      V2StringAttributeValue,
+      V2MapAttributeValue.Factory,
+      V2ForIndexAnnotation,
+      V2AttributeAnnotation,
+      V2RawItemTypeFactory(),
+      CodecEngine.METHOD_HANDLE,
+      V2AttributeValueConverter.Factory
+    )
+    schema.addRawItem(MusicItem.TABLE_NAME, MusicItem::class)
+    schema.addItem(AlbumTrack::class, MusicItem::class)
+    rawItemCodec = schema.codec(AlbumTrack::class)
+    attributeMapCodec = schema.attributeMapCodec(AlbumTrack::class)
+    attributeValues = attributeMapCodec.toDb(albumTrack)
+  }
+
+  @Benchmark
+  fun rawItemToAttributeMap() = tableSchema.itemToMap(rawItemCodec.toDb(albumTrack), true)
+
+  @Benchmark
+  fun rawItemFromAttributeMap() = rawItemCodec.toApp(tableSchema.mapToItem(attributeValues))
+
+  @Benchmark
+  fun attributeMapToDb() = attributeMapCodec.toDb(albumTrack)
+
+  @Benchmark
+  fun attributeMapToApp() = attributeMapCodec.toApp(attributeValues)
+}
@@ -17,6 +17,7 @@
 package app.cash.tempest2
 
 import app.cash.tempest2.internal.AsyncLogicalDbFactory
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.reduce
 import kotlinx.coroutines.future.await
 import kotlinx.coroutines.reactive.asFlow
@@ -79,6 +80,9 @@ interface AsyncLogicalDb : AsyncLogicalTable.Factory {
    * [BatchWriteResult]** because this method returns normally even if some writes were not
    * performed.
    *
+   * Writes that DynamoDB returns unprocessed are resent as configured by
+   * [LogicalDbConfig.batchWriteRetryPolicy] before they are reported in the result.
+   *
    * This method does not support versioning annotations and behaves like [DynamoDbClient.putItem].
    *
    * A single call to BatchWriteItem can write up to 16 MB of data, which can comprise as many as 25
@@ -134,9 +138,10 @@ interface AsyncLogicalDb : AsyncLogicalTable.Factory {
   companion object {
     inline operator fun <reified DB : AsyncLogicalDb> invoke(
       dynamoDbEnhancedClient: DynamoDbEnhancedAsyncClient,
-      tableNameResolver: TableNameResolver? = null
+      tableNameResolver: TableNameResolver? = null,
+      config: LogicalDbConfig = LogicalDbConfig.Builder().build()
     ): DB {
-      return create(DB::class, dynamoDbEnhancedClient, tableNameResolver)
+      return create(DB::class, dynamoDbEnhancedClient, tableNameResolver, config)
     }
 
     fun <DB : AsyncLogicalDb> create(
@@ -144,7 +149,16 @@ interface AsyncLogicalDb : AsyncLogicalTable.Factory {
       dynamoDbEnhancedClient: DynamoDbEnhancedAsyncClient,
       tableNameResolver: TableNameResolver? = null,
     ): DB {
-      return AsyncLogicalDbFactory(dynamoDbEnhancedClient).logicalDb(dbType, tableNameResolver)
+      return create(dbType, dynamoDbEnhancedClient, tableNameResolver, LogicalDbConfig.Builder().build())
+    }
+
+    fun <DB : AsyncLogicalDb> create(
+      dbType: KClass<DB>,
+      dynamoDbEnhancedClient: DynamoDbEnhancedAsyncClient,
+      tableNameResolver: TableNameResolver?,
+      config: LogicalDbConfig
+    ): DB {
+      return AsyncLogicalDbFactory(dynamoDbEnhancedClient, config).logicalDb(dbType, tableNameResolver)
     }
 
     // Overloaded functions for Java callers (Kotlin interface companion objects do not support
@@ -163,6 +177,14 @@ interface AsyncLogicalDb : AsyncLogicalTable.Factory {
       dynamoDbEnhancedClient: DynamoDbEnhancedAsyncClient,
       tableNameResolver: TableNameResolver?
     ) = create(dbType.kotlin, dynamoDbEnhancedClient, tableNameResolver)
+
+    @JvmStatic
+    fun <DB : AsyncLogicalDb> create(
+      dbType: Class<DB>,
+      dynamoDbEnhancedClient: DynamoDbEnhancedAsyncClient,
+      tableNameResolver: TableNameResolver?,
+      config: LogicalDbConfig
+    ) = create(dbType.kotlin, dynamoDbEnhancedClient, tableNameResolver, config)
   }
 
   // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
@@ -208,6 +230,29 @@ interface AsyncLogicalDb : AsyncLogicalTable.Factory {
   fun transactionLoadAsync(vararg keys: Any) = transactionLoadAsync(keys.toList())
 
   fun transactionWriteAsync(writeSet: TransactionWriteSet): CompletableFuture<Void>
+
+  /**
+   * Returns the size in bytes of [item], which is an item or a key of one of this database's
+   * tables, as DynamoDB counts it against its limits. See [ItemSize] to turn it into capacity
+   * units.
+   */
+  fun itemSize(item: Any): Long
+
+  /**
+   * Returns a loader that collects the keys that concurrent callers load, and loads them together
+   * with [DynamoDbClient.batchGetItem]. See [BatchLoader].
+   */
+  fun batchLoader(config: BatchLoaderConfig = BatchLoaderConfig.Builder().build()): BatchLoader
+
+  fun batchLoader() = batchLoader(BatchLoaderConfig.Builder().build())
+
+  /**
+   * Returns a writer that collects the items that callers save and delete, and writes them
+   * together with [DynamoDbClient.batchWriteItem]. See [BatchingWriter].
+   */
+  fun batchingWriter(config: BatchingWriterConfig = BatchingWriterConfig.Builder().build()): BatchingWriter
+
+  fun batchingWriter() = batchingWriter(BatchingWriterConfig.Builder().build())
 }
 
 /**
@@ -222,6 +267,33 @@ interface AsyncLogicalTable<RI : Any> :
   /** [type] must be a key type or item type of one of the views of this table. */
   fun <T : Any> codec(type: KClass<T>): Codec<T, RI>
 
+  /**
+   * Reads every item in the partition of [key] with a single query, following pages until the
+   * partition is exhausted. Each item is decoded into the type in [itemTypes] whose sort key
+   * prefix it starts with, and items that match none of them are skipped.
+   *
+   * @param key a key or item of any item type of this table. Only its partition key is used.
+   * @param itemTypes item types of this table with distinct sort key prefixes.
+   */
+  suspend fun queryPartition(
+    key: Any,
+    itemTypes: Set<KClass<*>>,
+    consistentRead: Boolean = false
+  ): ItemSet = queryPartitionAsync(key, itemTypes, consistentRead).await()
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun queryPartitionAsync(
+    key: Any,
+    itemTypes: Set<KClass<*>>,
+    consistentRead: Boolean
+  ): CompletableFuture<ItemSet>
+
+  fun queryPartitionAsync(
+    key: Any,
+    itemTypes: Set<KClass<*>>
+  ) = queryPartitionAsync(key, itemTypes, consistentRead = false)
+
   interface Factory {
     fun <T : AsyncLogicalTable<RI>, RI : Any> logicalTable(
       tableName: String,
@@ -242,6 +314,33 @@ interface AsyncInlineView<K : Any, I : Any> : AsyncView<K, I>, AsyncScannable<K,
 
 interface AsyncSecondaryIndex<K : Any, I : Any> : AsyncScannable<K, I>, AsyncQueryable<K, I> {
 
+  /**
+   * Queries this index for keys only, then loads their items from the table with batch loads.
+   * See [SecondaryIndex.queryAndHydrate].
+   */
+  fun queryAndHydrate(
+    keyCondition: KeyCondition<K>,
+    asc: Boolean = true,
+    pageSize: Int = 100,
+    initialOffset: Offset<K>? = null,
+  ): Flow<Page<K, I>> = queryAndHydrateAsync(keyCondition, asc, pageSize, initialOffset).asFlow()
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun queryAndHydrateAsync(
+    keyCondition: KeyCondition<K>,
+    asc: Boolean,
+    pageSize: Int,
+    initialOffset: Offset<K>?,
+  ): Publisher<Page<K, I>>
+
+  fun queryAndHydrateAsync(keyCondition: KeyCondition<K>) = queryAndHydrateAsync(
+    keyCondition,
+    asc = true,
+    pageSize = 100,
+    initialOffset = null
+  )
+
   interface Factory {
     fun <K : Any, I : Any> secondaryIndex(
       keyType: KClass<K>,
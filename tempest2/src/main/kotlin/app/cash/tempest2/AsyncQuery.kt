@@ -16,10 +16,16 @@
 
 package app.cash.tempest2
 
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.transform
+import kotlinx.coroutines.future.await
+import kotlinx.coroutines.reactive.asFlow
+import kotlinx.coroutines.reactive.asPublisher
 import kotlinx.coroutines.reactive.awaitFirst
 import org.reactivestreams.Publisher
 import software.amazon.awssdk.enhanced.dynamodb.Expression
 import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity
+import java.util.concurrent.CompletableFuture
 
 interface AsyncQueryable<K : Any, I : Any> {
 
@@ -88,4 +94,271 @@ interface AsyncQueryable<K : Any, I : Any> {
     initialOffset,
     config.returnConsumedCapacity
   )
+
+  /**
+   * Executes a query and returns a flow of pages that contains all results, regardless of page
+   * size. New pages will be fetched as needed when the resulting flow is collected.
+   */
+  fun queryAll(
+    keyCondition: KeyCondition<K>,
+    asc: Boolean = true,
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    initialOffset: Offset<K>? = null,
+  ): Flow<Page<K, I>>
+
+  /**
+   * Executes a query and returns a flow of pages that contains all results, regardless of page
+   * size. Pages are fetched [QueryConfig.prefetchDepth] ahead of the one being collected, so that
+   * fetching pages overlaps with processing them. If the config has a
+   * [QueryConfig.readCapacityLimiter], pages are paced to its read capacity budget.
+   */
+  fun queryAll(
+    keyCondition: KeyCondition<K>,
+    config: QueryConfig,
+    initialOffset: Offset<K>? = null,
+  ): Flow<Page<K, I>>
+
+  /**
+   * Executes a query and returns a flow that contains all results, regardless of page size. New
+   * pages will be fetched as needed when the resulting flow is collected.
+   */
+  fun queryAllContents(
+    keyCondition: KeyCondition<K>,
+    asc: Boolean = true,
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    initialOffset: Offset<K>? = null,
+  ): Flow<I> = queryAll(keyCondition, asc, pageSize, consistentRead, filterExpression, initialOffset)
+    .transform { page -> page.contents.forEach { emit(it) } }
+
+  /**
+   * Executes a query and returns a flow that contains all results, regardless of page size. See
+   * [queryAll].
+   */
+  fun queryAllContents(
+    keyCondition: KeyCondition<K>,
+    config: QueryConfig,
+    initialOffset: Offset<K>? = null,
+  ): Flow<I> = queryAll(keyCondition, config, initialOffset)
+    .transform { page -> page.contents.forEach { emit(it) } }
+
+  /**
+   * Executes a query and returns a publisher of pages that contains all results, regardless of
+   * page size. Each page is fetched only once a subscriber requests it, so a slow subscriber
+   * holds the query back instead of buffering pages.
+   */
+  fun queryAllAsync(
+    keyCondition: KeyCondition<K>,
+    asc: Boolean = true,
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    initialOffset: Offset<K>? = null,
+  ): Publisher<Page<K, I>>
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun queryAllAsync(keyCondition: KeyCondition<K>) = queryAllAsync(
+    keyCondition,
+    config = QueryConfig.Builder().build(),
+    initialOffset = null
+  )
+
+  fun queryAllAsync(keyCondition: KeyCondition<K>, initialOffset: Offset<K>?) = queryAllAsync(
+    keyCondition,
+    config = QueryConfig.Builder().build(),
+    initialOffset = initialOffset
+  )
+
+  fun queryAllAsync(keyCondition: KeyCondition<K>, config: QueryConfig) = queryAllAsync(
+    keyCondition,
+    config = config,
+    initialOffset = null
+  )
+
+  /**
+   * With a [QueryConfig.prefetchDepth] or a [QueryConfig.readCapacityLimiter], the pages of
+   * [queryAll] with the same config are published instead, so they are prefetched and paced as
+   * they are there.
+   */
+  fun queryAllAsync(
+    keyCondition: KeyCondition<K>,
+    config: QueryConfig,
+    initialOffset: Offset<K>?,
+  ): Publisher<Page<K, I>> {
+    if (config.prefetchDepth > 0 || config.readCapacityLimiter != null) {
+      return queryAll(keyCondition, config, initialOffset).asPublisher()
+    }
+    return queryAllAsync(
+      keyCondition,
+      config.asc,
+      config.pageSize,
+      config.consistentRead,
+      config.filterExpression,
+      initialOffset
+    )
+  }
+
+  /**
+   * Reads every item of [keyCondition] by splitting its sort key range into sub-ranges and
+   * querying them concurrently, and emits their pages. See [Queryable.parallelQuery].
+   *
+   * Pages have no offset, so a parallel query can't be resumed.
+   */
+  fun parallelQuery(
+    keyCondition: KeyCondition<K>,
+    splits: Int,
+    boundaries: List<K> = emptyList(),
+    ordered: Boolean = false,
+    asc: Boolean = true,
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    readCapacityLimiter: ReadCapacityLimiter? = null,
+  ): Flow<Page<K, I>> = parallelQueryAsync(
+    keyCondition,
+    splits,
+    boundaries,
+    ordered,
+    asc,
+    pageSize,
+    consistentRead,
+    filterExpression,
+    readCapacityLimiter
+  ).asFlow()
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun parallelQueryAsync(
+    keyCondition: KeyCondition<K>,
+    splits: Int,
+    boundaries: List<K>,
+    ordered: Boolean,
+    asc: Boolean,
+    pageSize: Int,
+    consistentRead: Boolean,
+    filterExpression: Expression?,
+    readCapacityLimiter: ReadCapacityLimiter?,
+  ): Publisher<Page<K, I>>
+
+  fun parallelQueryAsync(keyCondition: KeyCondition<K>, splits: Int) = parallelQueryAsync(
+    keyCondition,
+    splits,
+    boundaries = emptyList(),
+    ordered = false,
+    config = QueryConfig.Builder().build(),
+  )
+
+  fun parallelQueryAsync(
+    keyCondition: KeyCondition<K>,
+    splits: Int,
+    boundaries: List<K>,
+    ordered: Boolean,
+    config: QueryConfig,
+  ) = parallelQueryAsync(
+    keyCondition,
+    splits,
+    boundaries,
+    ordered,
+    config.asc,
+    config.pageSize,
+    config.consistentRead,
+    config.filterExpression,
+    config.readCapacityLimiter
+  )
+
+  /**
+   * Queries each of [keyConditions] and merges their items in sort key order into a page of up
+   * to [limit] items. See [Queryable.queryMany].
+   */
+  suspend fun queryMany(
+    keyConditions: List<KeyCondition<K>>,
+    asc: Boolean = true,
+    limit: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    initialOffset: MultiOffset<K>? = null,
+  ): MultiPage<K, I> = queryManyAsync(
+    keyConditions,
+    asc,
+    limit,
+    consistentRead,
+    filterExpression,
+    initialOffset
+  ).awaitFirst()
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun queryManyAsync(
+    keyConditions: List<KeyCondition<K>>,
+    asc: Boolean,
+    limit: Int,
+    consistentRead: Boolean,
+    filterExpression: Expression?,
+    initialOffset: MultiOffset<K>?,
+  ): Publisher<MultiPage<K, I>>
+
+  fun queryManyAsync(keyConditions: List<KeyCondition<K>>) = queryManyAsync(
+    keyConditions,
+    config = QueryConfig.Builder().build(),
+    initialOffset = null,
+  )
+
+  fun queryManyAsync(keyConditions: List<KeyCondition<K>>, initialOffset: MultiOffset<K>?) = queryManyAsync(
+    keyConditions,
+    config = QueryConfig.Builder().build(),
+    initialOffset = initialOffset,
+  )
+
+  fun queryManyAsync(keyConditions: List<KeyCondition<K>>, config: QueryConfig) = queryManyAsync(
+    keyConditions,
+    config = config,
+    initialOffset = null,
+  )
+
+  /** The page size of [config] is the limit of the merged page. */
+  fun queryManyAsync(
+    keyConditions: List<KeyCondition<K>>,
+    config: QueryConfig,
+    initialOffset: MultiOffset<K>?,
+  ) = queryManyAsync(
+    keyConditions,
+    config.asc,
+    config.pageSize,
+    config.consistentRead,
+    config.filterExpression,
+    initialOffset,
+  )
+
+  /**
+   * Returns how many items match [keyCondition] and [filterExpression], without reading them.
+   * See [Queryable.count].
+   */
+  suspend fun count(
+    keyCondition: KeyCondition<K>,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+  ): Long = countAsync(keyCondition, consistentRead, filterExpression).await()
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun countAsync(
+    keyCondition: KeyCondition<K>,
+    consistentRead: Boolean,
+    filterExpression: Expression?,
+  ): CompletableFuture<Long>
+
+  fun countAsync(keyCondition: KeyCondition<K>) = countAsync(
+    keyCondition,
+    config = QueryConfig.Builder().build(),
+  )
+
+  fun countAsync(keyCondition: KeyCondition<K>, config: QueryConfig) = countAsync(
+    keyCondition,
+    config.consistentRead,
+    config.filterExpression,
+  )
 }
@@ -16,9 +16,15 @@
 
 package app.cash.tempest2
 
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.transform
+import kotlinx.coroutines.future.await
+import kotlinx.coroutines.reactive.asFlow
+import kotlinx.coroutines.reactive.asPublisher
 import kotlinx.coroutines.reactive.awaitFirst
 import org.reactivestreams.Publisher
 import software.amazon.awssdk.enhanced.dynamodb.Expression
+import java.util.concurrent.CompletableFuture
 
 interface AsyncScannable<K : Any, I : Any> {
   /**
@@ -62,4 +68,188 @@ interface AsyncScannable<K : Any, I : Any> {
     config.filterExpression,
     initialOffset
   )
+
+  /**
+   * Executes a scan and returns a flow of pages that contains all results, regardless of page
+   * size. New pages will be fetched as needed when the resulting flow is collected.
+   */
+  fun scanAll(
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    initialOffset: Offset<K>? = null,
+  ): Flow<Page<K, I>>
+
+  /**
+   * Executes a scan and returns a flow of pages that contains all results, regardless of page
+   * size. Pages are fetched [ScanConfig.prefetchDepth] ahead of the one being collected, so that
+   * fetching pages overlaps with processing them. If the config has a
+   * [ScanConfig.readCapacityLimiter], pages are paced to its read capacity budget.
+   *
+   * `workerId`, if provided as part of `config`, will be ignored.
+   */
+  fun scanAll(config: ScanConfig, initialOffset: Offset<K>? = null): Flow<Page<K, I>>
+
+  /**
+   * Executes a scan and returns a flow that contains all results, regardless of page size. New
+   * pages will be fetched as needed when the resulting flow is collected.
+   */
+  fun scanAllContents(
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    initialOffset: Offset<K>? = null,
+  ): Flow<I> = scanAll(pageSize, consistentRead, filterExpression, initialOffset)
+    .transform { page -> page.contents.forEach { emit(it) } }
+
+  /**
+   * Executes a scan and returns a flow that contains all results, regardless of page size. See
+   * [scanAll].
+   */
+  fun scanAllContents(config: ScanConfig, initialOffset: Offset<K>? = null): Flow<I> = scanAll(config, initialOffset)
+    .transform { page -> page.contents.forEach { emit(it) } }
+
+  /**
+   * Executes a scan and returns a publisher of pages that contains all results, regardless of
+   * page size. Each page is fetched only once a subscriber requests it, so a slow subscriber
+   * holds the scan back instead of buffering pages.
+   */
+  fun scanAllAsync(
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    initialOffset: Offset<K>? = null
+  ): Publisher<Page<K, I>>
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun scanAllAsync() = scanAllAsync(
+    ScanConfig.Builder().build(),
+    initialOffset = null
+  )
+
+  fun scanAllAsync(initialOffset: Offset<K>?) = scanAllAsync(
+    ScanConfig.Builder().build(),
+    initialOffset = initialOffset
+  )
+
+  /**
+   * `workerId`, if provided as part of `config`, will be ignored.
+   */
+  fun scanAllAsync(config: ScanConfig) = scanAllAsync(
+    config,
+    initialOffset = null
+  )
+
+  /**
+   * `workerId`, if provided as part of `config`, will be ignored. With a
+   * [ScanConfig.prefetchDepth] or a [ScanConfig.readCapacityLimiter], the pages of [scanAll] with
+   * the same config are published instead, so they are prefetched and paced as they are there.
+   */
+  fun scanAllAsync(config: ScanConfig, initialOffset: Offset<K>?): Publisher<Page<K, I>> {
+    if (config.prefetchDepth > 0 || config.readCapacityLimiter != null) {
+      return scanAll(config, initialOffset).asPublisher()
+    }
+    return scanAllAsync(
+      config.pageSize,
+      config.consistentRead,
+      config.filterExpression,
+      initialOffset
+    )
+  }
+
+  /**
+   * Scans every segment of a parallel scan of [totalSegments] segments, with up to [concurrency]
+   * segments in flight at a time, and emits their pages. Each segment is paginated independently
+   * until it has no more pages.
+   *
+   * Pages of the same segment are emitted in order, while pages of different segments
+   * interleave. At most [concurrency] pages are buffered ahead of the collector. A
+   * [readCapacityLimiter] paces the pages of every segment to one read capacity budget.
+   */
+  fun parallelScan(
+    totalSegments: Int,
+    concurrency: Int = totalSegments,
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    readCapacityLimiter: ReadCapacityLimiter? = null,
+  ): Flow<SegmentPage<K, I>> =
+    parallelScanAsync(totalSegments, concurrency, pageSize, consistentRead, filterExpression, readCapacityLimiter).asFlow()
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun parallelScanAsync(
+    totalSegments: Int,
+    concurrency: Int,
+    pageSize: Int,
+    consistentRead: Boolean,
+    filterExpression: Expression?,
+    readCapacityLimiter: ReadCapacityLimiter?,
+  ): Publisher<SegmentPage<K, I>>
+
+  fun parallelScanAsync(totalSegments: Int) = parallelScanAsync(
+    totalSegments,
+    concurrency = totalSegments,
+    config = ScanConfig.Builder().build(),
+  )
+
+  fun parallelScanAsync(totalSegments: Int, concurrency: Int) = parallelScanAsync(
+    totalSegments,
+    concurrency,
+    config = ScanConfig.Builder().build(),
+  )
+
+  /**
+   * Scans every segment of a parallel scan. See [parallelScan].
+   *
+   * `workerId`, if provided as part of `config`, will be ignored.
+   */
+  fun parallelScanAsync(
+    totalSegments: Int,
+    concurrency: Int,
+    config: ScanConfig,
+  ) = parallelScanAsync(
+    totalSegments,
+    concurrency,
+    config.pageSize,
+    config.consistentRead,
+    config.filterExpression,
+    config.readCapacityLimiter
+  )
+
+  /**
+   * Returns how many items match [filterExpression], without reading them. See
+   * [Scannable.count].
+   */
+  suspend fun count(
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    totalSegments: Int = 1,
+  ): Long = countAsync(consistentRead, filterExpression, totalSegments).await()
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun countAsync(
+    consistentRead: Boolean,
+    filterExpression: Expression?,
+    totalSegments: Int,
+  ): CompletableFuture<Long>
+
+  fun countAsync() = countAsync(
+    config = ScanConfig.Builder().build(),
+    totalSegments = 1,
+  )
+
+  fun countAsync(config: ScanConfig) = countAsync(
+    config = config,
+    totalSegments = 1,
+  )
+
+  /** `workerId`, if provided as part of `config`, will be ignored. */
+  fun countAsync(config: ScanConfig, totalSegments: Int) = countAsync(
+    config.consistentRead,
+    config.filterExpression,
+    totalSegments,
+  )
 }
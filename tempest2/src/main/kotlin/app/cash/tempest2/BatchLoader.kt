@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.Executor
+import kotlin.reflect.KClass
+
+/**
+ * Loads items by key like [View.load], but sends the keys that concurrent callers load together
+ * with [DynamoDbClient.batchGetItem] instead of one `GetItem` per key. Keys are collected for
+ * [BatchLoaderConfig.window], or until [BatchLoaderConfig.maxBatchSize] distinct keys arrive.
+ *
+ * Use one loader per unit of work, like an incoming request, whose callers tolerate the extra
+ * latency of the window.
+ */
+interface BatchLoader {
+  /**
+   * Returns the item whose keys match those of the prototype key object given, or null if no such
+   * item exists.
+   */
+  fun <I : Any> loadAsync(key: Any, itemType: Class<I>): CompletableFuture<I?>
+
+  fun <I : Any> loadAsync(key: Any, itemType: KClass<I>): CompletableFuture<I?> = loadAsync(key, itemType.java)
+
+  /** Like [loadAsync], but blocks until the batch that includes [key] is loaded. */
+  fun <I : Any> load(key: Any, itemType: Class<I>): I? {
+    try {
+      return loadAsync(key, itemType).join()
+    } catch (e: CompletionException) {
+      throw e.cause ?: e
+    }
+  }
+
+  fun <I : Any> load(key: Any, itemType: KClass<I>): I? = load(key, itemType.java)
+}
+
+class BatchLoaderConfig internal constructor(
+  /** How long a batch waits for more keys after its first one. */
+  val window: Duration,
+  val maxBatchSize: Int,
+  val consistentReads: Boolean,
+  /** Where batches are sent from, or null to use [LogicalDbConfig.executor]. */
+  val executor: Executor?,
+) {
+  class Builder {
+    private var window = Duration.ofMillis(2)
+    private var maxBatchSize = MAX_BATCH_READ
+    private var consistentReads = false
+    private var executor: Executor? = null
+
+    fun window(window: Duration) = apply { this.window = window }
+
+    fun maxBatchSize(maxBatchSize: Int) = apply {
+      require(maxBatchSize > 0) { "maxBatchSize must be positive" }
+      this.maxBatchSize = maxBatchSize
+    }
+
+    fun consistentReads(consistentReads: Boolean) = apply { this.consistentReads = consistentReads }
+
+    fun executor(executor: Executor?) = apply { this.executor = executor }
+
+    fun build() = BatchLoaderConfig(
+      window,
+      maxBatchSize,
+      consistentReads,
+      executor
+    )
+  }
+}
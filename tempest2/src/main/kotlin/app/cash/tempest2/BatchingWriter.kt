@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.Executor
+
+/**
+ * Saves and deletes items like [View.save] and [View.deleteKey], but sends the writes that
+ * callers make together with [DynamoDbClient.batchWriteItem] instead of one `PutItem` or
+ * `DeleteItem` per write. Writes are collected for [BatchingWriterConfig.window], or until
+ * [BatchingWriterConfig.maxBatchSize] keys or [BatchingWriterConfig.maxBatchBytes] bytes arrive.
+ *
+ * Like [LogicalDb.batchWrite], this does not support versioning annotations or condition
+ * expressions, and saves behave like [DynamoDbClient.putItem]. If the same key is written more
+ * than once, the last write wins. Unprocessed writes are resent as configured by
+ * [LogicalDbConfig.batchWriteRetryPolicy].
+ */
+interface BatchingWriter {
+  /**
+   * Returns a future that completes when [item] is written, or when a later write of the same
+   * key is. It completes exceptionally with [UnprocessedWriteException] if DynamoDB didn't process
+   * the write, after any retries.
+   */
+  fun saveAsync(item: Any): CompletableFuture<Void?>
+
+  /** Like [saveAsync], but deletes the item whose keys match those of [key]. */
+  fun deleteAsync(key: Any): CompletableFuture<Void?>
+
+  /** Like [saveAsync], but blocks until the write completes. */
+  fun save(item: Any) = await(saveAsync(item))
+
+  /** Like [deleteAsync], but blocks until the write completes. */
+  fun delete(key: Any) = await(deleteAsync(key))
+
+  /** Sends the writes collected so far without waiting for the window to pass. */
+  fun flush()
+
+  private fun await(write: CompletableFuture<Void?>) {
+    try {
+      write.join()
+    } catch (e: CompletionException) {
+      throw e.cause ?: e
+    }
+  }
+}
+
+/** A write that DynamoDB returned unprocessed, usually because the table was throttled. */
+class UnprocessedWriteException(message: String) : RuntimeException(message)
+
+class BatchingWriterConfig internal constructor(
+  /** How long a batch waits for more writes after its first one. */
+  val window: Duration,
+  val maxBatchSize: Int,
+  /** The most bytes of items in a batch, or null to only limit batches by [maxBatchSize]. */
+  val maxBatchBytes: Long?,
+  /** Where batches are sent from, or null to use [LogicalDbConfig.executor]. */
+  val executor: Executor?,
+) {
+  class Builder {
+    private var window = Duration.ofMillis(5)
+    private var maxBatchSize = MAX_BATCH_WRITE
+    private var maxBatchBytes: Long? = null
+    private var executor: Executor? = null
+
+    fun window(window: Duration) = apply { this.window = window }
+
+    fun maxBatchSize(maxBatchSize: Int) = apply {
+      require(maxBatchSize in 1..MAX_BATCH_WRITE) { "maxBatchSize must be between 1 and $MAX_BATCH_WRITE" }
+      this.maxBatchSize = maxBatchSize
+    }
+
+    fun maxBatchBytes(maxBatchBytes: Long?) = apply { this.maxBatchBytes = maxBatchBytes }
+
+    fun executor(executor: Executor?) = apply { this.executor = executor }
+
+    fun build() = BatchingWriterConfig(
+      window,
+      maxBatchSize,
+      maxBatchBytes,
+      executor
+    )
+  }
+}
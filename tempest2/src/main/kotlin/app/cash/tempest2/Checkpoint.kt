@@ -0,0 +1,188 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import software.amazon.awssdk.enhanced.dynamodb.Expression
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import java.util.function.Consumer
+
+/**
+ * The progress of one segment of a checkpointed scan or query, saved after each of its pages.
+ * Scans that aren't parallel, and queries, have a single segment: segment 0 of 1.
+ */
+data class Checkpoint(
+  val segment: Int,
+  val totalSegments: Int,
+  /**
+   * The last evaluated key of the segment's latest page, where the segment resumes. Null once
+   * the segment is done.
+   */
+  val lastEvaluatedKey: Map<String, AttributeValue>?,
+  val pageCount: Long,
+  val itemCount: Long,
+  /** The read capacity units consumed by the segment so far. */
+  val consumedCapacityUnits: Double,
+) {
+  val isDone: Boolean
+    get() = lastEvaluatedKey == null
+}
+
+/** The progress of a [StreamProcessor] through one shard of a stream, saved after each batch. */
+data class StreamCheckpoint(
+  /** The sequence number of the last record read, which the shard resumes after. */
+  val lastSequenceNumber: String?,
+  /** True once the shard is closed and read to its end. */
+  val isDone: Boolean,
+  val batchCount: Long,
+  val changeCount: Long,
+)
+
+/**
+ * Where checkpointed scans and queries keep their [Checkpoint]s, and stream processors their
+ * [StreamCheckpoint]s, by name. Implementations must be safe to call from multiple threads.
+ *
+ * See [FileCheckpointStore].
+ */
+interface CheckpointStore {
+  /** Returns the latest checkpoint saved for each segment of [name]. */
+  fun load(name: String): List<Checkpoint>
+
+  /** Saves [checkpoint] as the latest checkpoint of its segment of [name]. */
+  fun save(name: String, checkpoint: Checkpoint)
+
+  /** Returns the latest stream checkpoint saved as [name], if any. */
+  fun loadStreamCheckpoint(name: String): StreamCheckpoint?
+
+  /** Saves [checkpoint] as the latest stream checkpoint of [name]. */
+  fun saveStreamCheckpoint(name: String, checkpoint: StreamCheckpoint)
+
+  /** Forgets the checkpoints of [name], so that its next scan, query or stream starts over. */
+  fun clear(name: String)
+}
+
+/**
+ * A scan that saves its progress to a [CheckpointStore] after every page, and resumes from its
+ * latest checkpoints when it runs again, for example after the process restarts.
+ *
+ * A page is checkpointed once its consumer is done with it: when a sequence moves past it, or when
+ * the consumer of a parallel scan returns. After a restart, a page may be seen again, but none is
+ * skipped. Once every segment is done, scanning again returns nothing until the checkpoints are
+ * cleared.
+ */
+interface CheckpointedScan<K : Any, I : Any> {
+  val name: String
+
+  /** Returns the latest checkpoint of each segment that has made progress. */
+  fun checkpoints(): List<Checkpoint>
+
+  /**
+   * Executes a scan, or resumes it, and returns a sequence of pages that contains the remaining
+   * results. New pages will be fetched as needed when the resulting sequence is enumerated.
+   */
+  fun scanAll(
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+  ): Sequence<Page<K, I>>
+
+  /**
+   * Executes a parallel scan, or resumes it, like [Scannable.parallelScan]. Segments that are done
+   * are skipped and the others resume from their latest checkpoint. Resuming takes the same
+   * [totalSegments] as the scan that saved the checkpoints.
+   */
+  fun parallelScan(
+    totalSegments: Int,
+    concurrency: Int = totalSegments,
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    consumer: (SegmentPage<K, I>) -> Unit,
+  )
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun scanAll() = scanAll(ScanConfig.Builder().build())
+
+  /**
+   * `workerId`, if provided as part of `config`, will be ignored.
+   */
+  fun scanAll(config: ScanConfig) = scanAll(
+    pageSize = config.pageSize,
+    consistentRead = config.consistentRead,
+    filterExpression = config.filterExpression
+  )
+
+  /**
+   * `workerId`, if provided as part of `config`, will be ignored.
+   */
+  fun parallelScan(
+    totalSegments: Int,
+    concurrency: Int,
+    config: ScanConfig,
+    consumer: Consumer<SegmentPage<K, I>>,
+  ) = parallelScan(
+    totalSegments = totalSegments,
+    concurrency = concurrency,
+    pageSize = config.pageSize,
+    consistentRead = config.consistentRead,
+    filterExpression = config.filterExpression,
+    consumer = consumer::accept
+  )
+}
+
+/**
+ * A query that saves its progress to a [CheckpointStore] after every page, and resumes from its
+ * latest checkpoint when it runs again, for example after the process restarts. Resuming takes the
+ * same key condition and options as the query that saved the checkpoint.
+ *
+ * A page is checkpointed once the sequence moves past it. After a restart, a page may be seen
+ * again, but none is skipped. Once the query is done, querying again returns nothing until the
+ * checkpoint is cleared.
+ */
+interface CheckpointedQuery<K : Any, I : Any> {
+  val name: String
+
+  /** Returns the latest checkpoint, if the query has made progress. */
+  fun checkpoint(): Checkpoint?
+
+  /**
+   * Executes a query, or resumes it, and returns a sequence of pages that contains the remaining
+   * results. New pages will be fetched as needed when the resulting sequence is enumerated.
+   */
+  fun queryAll(
+    keyCondition: KeyCondition<K>,
+    asc: Boolean = true,
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+  ): Sequence<Page<K, I>>
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun queryAll(keyCondition: KeyCondition<K>) = queryAll(
+    keyCondition,
+    config = QueryConfig.Builder().build()
+  )
+
+  fun queryAll(keyCondition: KeyCondition<K>, config: QueryConfig) = queryAll(
+    keyCondition,
+    config.asc,
+    config.pageSize,
+    config.consistentRead,
+    config.filterExpression
+  )
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import software.amazon.awssdk.core.SdkBytes
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import java.io.BufferedInputStream
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption.ATOMIC_MOVE
+import java.nio.file.StandardCopyOption.REPLACE_EXISTING
+import java.nio.file.StandardOpenOption.APPEND
+import java.nio.file.StandardOpenOption.CREATE
+import java.nio.file.StandardOpenOption.TRUNCATE_EXISTING
+import java.nio.file.StandardOpenOption.WRITE
+import java.util.zip.CRC32
+
+/**
+ * A [CheckpointStore] that appends checkpoints to a log file at [path].
+ *
+ * Opening the store reads the log and rewrites it with only the latest checkpoint of each
+ * segment and stream shard, so the log only grows while the store is open. A record cut short by a crash is
+ * ignored, along with anything after it.
+ *
+ * Checkpoints survive the process dying. If [sync] is true, each one is also forced to the storage
+ * device before [save] returns, so that it survives the machine going down too.
+ */
+class FileCheckpointStore @JvmOverloads constructor(
+  private val path: Path,
+  private val sync: Boolean = false,
+) : CheckpointStore, Closeable {
+  private val checkpoints = mutableMapOf<String, MutableMap<Int, Checkpoint>>()
+  private val streamCheckpoints = mutableMapOf<String, StreamCheckpoint>()
+  private val channel: FileChannel
+
+  init {
+    if (Files.exists(path)) {
+      read()
+    }
+    compact()
+    channel = FileChannel.open(path, WRITE, APPEND)
+  }
+
+  @Synchronized
+  override fun load(name: String): List<Checkpoint> {
+    return checkpoints[name]?.values?.toList() ?: emptyList()
+  }
+
+  @Synchronized
+  override fun save(name: String, checkpoint: Checkpoint) {
+    append(encodeSave(name, checkpoint))
+    checkpoints.getOrPut(name) { mutableMapOf() }[checkpoint.segment] = checkpoint
+  }
+
+  @Synchronized
+  override fun loadStreamCheckpoint(name: String): StreamCheckpoint? {
+    return streamCheckpoints[name]
+  }
+
+  @Synchronized
+  override fun saveStreamCheckpoint(name: String, checkpoint: StreamCheckpoint) {
+    append(encodeSaveStream(name, checkpoint))
+    streamCheckpoints[name] = checkpoint
+  }
+
+  @Synchronized
+  override fun clear(name: String) {
+    append(encodeClear(name))
+    checkpoints.remove(name)
+    streamCheckpoints.remove(name)
+  }
+
+  @Synchronized
+  override fun close() {
+    channel.close()
+  }
+
+  private fun append(record: ByteArray) {
+    val buffer = ByteBuffer.wrap(record)
+    while (buffer.hasRemaining()) {
+      channel.write(buffer)
+    }
+    if (sync) {
+      channel.force(false)
+    }
+  }
+
+  private fun read() {
+    DataInputStream(BufferedInputStream(Files.newInputStream(path))).use { input ->
+      while (true) {
+        val payload = try {
+          val length = input.readInt()
+          val checksum = input.readInt()
+          if (length < 0 || length > MAX_RECORD_BYTES) break
+          ByteArray(length).also { input.readFully(it) }
+            .takeIf { crc32(it) == checksum } ?: break
+        } catch (e: EOFException) {
+          break
+        }
+        decode(payload)
+      }
+    }
+  }
+
+  private fun decode(payload: ByteArray) {
+    val input = DataInputStream(payload.inputStream())
+    val type = input.readByte()
+    val name = input.readUTF()
+    when (type) {
+      SAVE -> {
+        val checkpoint = Checkpoint(
+          segment = input.readInt(),
+          totalSegments = input.readInt(),
+          pageCount = input.readLong(),
+          itemCount = input.readLong(),
+          consumedCapacityUnits = input.readDouble(),
+          lastEvaluatedKey = input.readKey(),
+        )
+        checkpoints.getOrPut(name) { mutableMapOf() }[checkpoint.segment] = checkpoint
+      }
+      SAVE_STREAM -> {
+        streamCheckpoints[name] = StreamCheckpoint(
+          isDone = input.readBoolean(),
+          batchCount = input.readLong(),
+          changeCount = input.readLong(),
+          lastSequenceNumber = if (input.readBoolean()) input.readUTF() else null,
+        )
+      }
+      CLEAR -> {
+        checkpoints.remove(name)
+        streamCheckpoints.remove(name)
+      }
+    }
+  }
+
+  /** Replaces the log with one that holds only the latest checkpoints. */
+  private fun compact() {
+    val compacted = path.resolveSibling("${path.fileName}.tmp")
+    Files.newOutputStream(compacted, CREATE, WRITE, TRUNCATE_EXISTING).buffered().use { output ->
+      for ((name, segments) in checkpoints) {
+        for (checkpoint in segments.values) {
+          output.write(encodeSave(name, checkpoint))
+        }
+      }
+      for ((name, checkpoint) in streamCheckpoints) {
+        output.write(encodeSaveStream(name, checkpoint))
+      }
+    }
+    Files.move(compacted, path, ATOMIC_MOVE, REPLACE_EXISTING)
+  }
+
+  private fun encodeSave(name: String, checkpoint: Checkpoint) = record(SAVE, name) {
+    writeInt(checkpoint.segment)
+    writeInt(checkpoint.totalSegments)
+    writeLong(checkpoint.pageCount)
+    writeLong(checkpoint.itemCount)
+    writeDouble(checkpoint.consumedCapacityUnits)
+    writeKey(checkpoint.lastEvaluatedKey)
+  }
+
+  private fun encodeSaveStream(name: String, checkpoint: StreamCheckpoint) = record(SAVE_STREAM, name) {
+    writeBoolean(checkpoint.isDone)
+    writeLong(checkpoint.batchCount)
+    writeLong(checkpoint.changeCount)
+    writeBoolean(checkpoint.lastSequenceNumber != null)
+    checkpoint.lastSequenceNumber?.let { writeUTF(it) }
+  }
+
+  private fun encodeClear(name: String) = record(CLEAR, name) {}
+
+  private inline fun record(type: Byte, name: String, writeBody: DataOutputStream.() -> Unit): ByteArray {
+    val payload = ByteArrayOutputStream()
+    DataOutputStream(payload).apply {
+      writeByte(type.toInt())
+      writeUTF(name)
+      writeBody()
+    }
+    val bytes = payload.toByteArray()
+    val record = ByteArrayOutputStream(bytes.size + 8)
+    DataOutputStream(record).apply {
+      writeInt(bytes.size)
+      writeInt(crc32(bytes))
+      write(bytes)
+    }
+    return record.toByteArray()
+  }
+
+  /** Keys only have string, number and binary attributes. */
+  private fun DataOutputStream.writeKey(key: Map<String, AttributeValue>?) {
+    if (key == null) {
+      writeInt(-1)
+      return
+    }
+    writeInt(key.size)
+    for ((attributeName, value) in key) {
+      writeUTF(attributeName)
+      when {
+        value.s() != null -> {
+          writeByte('S'.code)
+          writeUTF(value.s())
+        }
+        value.n() != null -> {
+          writeByte('N'.code)
+          writeUTF(value.n())
+        }
+        value.b() != null -> {
+          val bytes = value.b().asByteArrayUnsafe()
+          writeByte('B'.code)
+          writeInt(bytes.size)
+          write(bytes)
+        }
+        else -> throw IllegalArgumentException("Unexpected key attribute $attributeName: $value")
+      }
+    }
+  }
+
+  private fun DataInputStream.readKey(): Map<String, AttributeValue>? {
+    val size = readInt()
+    if (size < 0) return null
+    val key = LinkedHashMap<String, AttributeValue>(size * 2)
+    repeat(size) {
+      val attributeName = readUTF()
+      key[attributeName] = when (val type = readByte().toInt().toChar()) {
+        'S' -> AttributeValue.builder().s(readUTF()).build()
+        'N' -> AttributeValue.builder().n(readUTF()).build()
+        'B' -> AttributeValue.builder()
+          .b(SdkBytes.fromByteArrayUnsafe(ByteArray(readInt()).also { readFully(it) }))
+          .build()
+        else -> throw IllegalStateException("Unexpected key attribute type $type in $path")
+      }
+    }
+    return key
+  }
+
+  private fun crc32(bytes: ByteArray): Int {
+    val crc = CRC32()
+    crc.update(bytes)
+    return crc.value.toInt()
+  }
+
+  companion object {
+    private const val SAVE: Byte = 1
+    private const val CLEAR: Byte = 2
+    private const val SAVE_STREAM: Byte = 3
+
+    /** Larger than any record, which holds at most a name and a key. */
+    private const val MAX_RECORD_BYTES = 1 shl 20
+  }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema
+
+/**
+ * Creates the [TableSchema] of a raw item class without introspecting its bean annotations.
+ *
+ * Implementations are generated at build time by `tempest2-ksp`. Tempest finds the one for a raw
+ * item class by name, and falls back to introspection when there isn't one.
+ */
+interface GeneratedTableSchema<RI : Any> {
+  fun create(): TableSchema<RI>
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import software.amazon.awssdk.enhanced.dynamodb.Key
+import software.amazon.awssdk.enhanced.dynamodb.TableMetadata
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+import kotlin.reflect.KClass
+
+/**
+ * Caches the items that views load, in memory, so that loading a hot key doesn't send a
+ * `GetItem` every time. Items that don't exist are cached too, for [negativeTtl].
+ *
+ * Only the item types passed to [Builder.cache] are cached: either an item type, to cache the
+ * loads of its inline view, or a raw item type, to cache the loads of every inline view of its
+ * table. Loads that read consistently, or that return consumed capacity, skip the cache. Raw
+ * items are never cached because they are mutable.
+ *
+ * Writes that go through the same [LogicalDb] or [AsyncLogicalDb] evict the items they write once
+ * they complete, including batch writes and transactions. Writes from anywhere else are seen when
+ * the cached item expires, after [ttl] at most, unless an [ItemCacheStreamConsumer] follows the
+ * table's stream.
+ *
+ * Use it with [LogicalDbConfig.Builder.itemCache]. Cached items are shared between callers, so
+ * don't mutate them.
+ */
+class ItemCache internal constructor(
+  /**
+   * The most keys to keep. Large caches are split into segments by key, and each segment evicts its
+   * own least recently used keys first.
+   */
+  val maxSize: Int,
+  val ttl: Duration,
+  /** How long to remember that an item doesn't exist, or zero to not remember it. */
+  val negativeTtl: Duration,
+  val itemTypes: Set<KClass<*>>,
+  private val nanoTime: () -> Long,
+) {
+  private val ttlNanos = ttl.toNanos()
+  private val negativeTtlNanos = negativeTtl.toNanos()
+
+  private val hits = LongAdder()
+  private val misses = LongAdder()
+  private val evictions = LongAdder()
+  private val invalidations = LongAdder()
+
+  /**
+   * Incremented by every invalidation. A load only caches what it read if no invalidation of its
+   * key happened since it started.
+   */
+  private val invalidationCount = AtomicLong()
+
+  /** The tables whose views use this cache, by table name, so that stream records can find them. */
+  private val streamTables = ConcurrentHashMap<String, StreamTable>()
+
+  /**
+   * The entries, split by key into segments that each have their own lock and evict their own
+   * least recently used keys, so that loads of different keys rarely wait for each other.
+   */
+  private val segments = segmentCount(maxSize).let { count ->
+    Array(count) { i -> Segment(maxSize / count + if (i < maxSize % count) 1 else 0) }
+  }
+
+  init {
+    require(maxSize > 0) { "maxSize must be positive" }
+    require(!ttl.isNegative && !ttl.isZero) { "ttl must be positive" }
+    require(!negativeTtl.isNegative) { "negativeTtl must not be negative" }
+  }
+
+  /** Returns the counts of this cache since it was created. */
+  fun stats() = ItemCacheStats(
+    hits.sum(),
+    misses.sum(),
+    evictions.sum(),
+    invalidations.sum(),
+    segments.sumOf { synchronized(it) { it.entries.size } }
+  )
+
+  /** Evicts every cached item. */
+  fun invalidateAll() {
+    for (segment in segments) {
+      synchronized(segment) {
+        segment.entries.clear()
+        segment.absentKeyInvalidatedAt = invalidationCount.incrementAndGet()
+      }
+    }
+  }
+
+  /**
+   * Returns the cache of the view of [itemType], in the table whose raw item type is [tableType].
+   * [decode] decodes the items of the view from the attribute values of a stream record.
+   */
+  internal fun table(
+    tableName: String,
+    tableType: KClass<*>,
+    tableMetadata: TableMetadata,
+    itemType: KClass<*>?,
+    decode: ((Map<String, AttributeValue>) -> Any?)? = null,
+  ): Table {
+    val streamTable = streamTables.computeIfAbsent(tableName) {
+      StreamTable(tableType, tableMetadata.primaryPartitionKey(), tableMetadata.primarySortKey().orElse(null))
+    }
+    val cachedItemType = itemType?.takeIf { it in itemTypes || tableType in itemTypes }
+    if (cachedItemType != null && decode != null) {
+      streamTable.decoders[cachedItemType] = decode
+    }
+    return Table(tableType, cachedItemType)
+  }
+
+  /**
+   * Applies a change to the item of [keys] that the stream of [tableName] reported. The cached
+   * items of the key are replaced with [newImage] if it is not null, and evicted otherwise.
+   */
+  internal fun onStreamRecord(
+    tableName: String,
+    keys: Map<String, AttributeValue>,
+    newImage: Map<String, AttributeValue>?,
+  ) {
+    // Nothing is cached for tables without cached views.
+    val streamTable = streamTables[tableName] ?: return
+    val key = Key.builder()
+      .partitionValue(keys[streamTable.hashKeyName])
+      .apply { if (streamTable.rangeKeyName != null) sortValue(keys[streamTable.rangeKeyName]) }
+      .build()
+    if (newImage == null) {
+      invalidate(streamTable.tableType, key)
+    } else {
+      refresh(streamTable, key, newImage)
+    }
+  }
+
+  /** Evicts the items of [key] in the table whose raw item type is [tableType]. */
+  internal fun invalidate(tableType: KClass<*>, key: Key) {
+    invalidations.increment()
+    val cacheKey = CacheKey(tableType, key)
+    val segment = segment(cacheKey)
+    synchronized(segment) {
+      val invalidatedAt = invalidationCount.incrementAndGet()
+      val entry = segment.entries[cacheKey]
+      if (entry == null) {
+        segment.absentKeyInvalidatedAt = invalidatedAt
+        return
+      }
+      // Keep the entry so that loads in flight don't cache what they read before this write.
+      entry.invalidatedAt = invalidatedAt
+      entry.items.clear()
+    }
+  }
+
+  private fun refresh(streamTable: StreamTable, key: Key, newImage: Map<String, AttributeValue>) {
+    val cacheKey = CacheKey(streamTable.tableType, key)
+    val segment = segment(cacheKey)
+    synchronized(segment) {
+      val refreshedAt = invalidationCount.incrementAndGet()
+      val entry = segment.entries[cacheKey]
+      if (entry == null) {
+        segment.absentKeyInvalidatedAt = refreshedAt
+        return
+      }
+      // Loads in flight may have read an older item than the stream's.
+      entry.invalidatedAt = refreshedAt
+      val expiresAt = nanoTime() + ttlNanos
+      val itemTypes = entry.items.keys.toList()
+      for (itemType in itemTypes) {
+        val item = streamTable.decoders[itemType]?.let { decode -> runCatching { decode(newImage) }.getOrNull() }
+        if (item != null) {
+          entry.items[itemType] = CachedItem(item, expiresAt)
+        } else {
+          entry.items.remove(itemType)
+        }
+      }
+    }
+  }
+
+  private fun get(cacheKey: CacheKey, itemType: KClass<*>): CachedItem? {
+    val segment = segment(cacheKey)
+    synchronized(segment) {
+      val entry = segment.entries[cacheKey]
+      val cached = entry?.items?.get(itemType)
+      if (cached != null && cached.expiresAt - nanoTime() > 0) {
+        hits.increment()
+        return cached
+      }
+      if (cached != null) {
+        entry.items.remove(itemType)
+        evictions.increment()
+      }
+    }
+    misses.increment()
+    return null
+  }
+
+  private fun stamp() = invalidationCount.get()
+
+  private fun put(cacheKey: CacheKey, itemType: KClass<*>, item: Any?, stamp: Long) {
+    val expiresIn = if (item != null) ttlNanos else negativeTtlNanos
+    if (expiresIn == 0L) return
+    val segment = segment(cacheKey)
+    synchronized(segment) {
+      val entry = segment.entries[cacheKey]
+      when {
+        entry == null -> {
+          if (segment.absentKeyInvalidatedAt > stamp) return
+          segment.entries[cacheKey] = Entry(invalidatedAt = 0L).also {
+            it.items[itemType] = CachedItem(item, nanoTime() + expiresIn)
+          }
+        }
+        entry.invalidatedAt <= stamp -> entry.items[itemType] = CachedItem(item, nanoTime() + expiresIn)
+      }
+    }
+  }
+
+  private fun segment(cacheKey: CacheKey): Segment {
+    val hash = cacheKey.hashCode()
+    return segments[Math.floorMod(hash xor (hash ushr 16), segments.size)]
+  }
+
+  private inner class Segment(
+    private val capacity: Int,
+  ) {
+    /** The latest invalidation of a key of this segment that has no entry, because it was absent or evicted. */
+    var absentKeyInvalidatedAt = 0L
+
+    val entries = object : LinkedHashMap<CacheKey, Entry>(16, 0.75f, true) {
+      override fun removeEldestEntry(eldest: MutableMap.MutableEntry<CacheKey, Entry>): Boolean {
+        if (size <= capacity) return false
+        absentKeyInvalidatedAt = maxOf(absentKeyInvalidatedAt, eldest.value.invalidatedAt)
+        evictions.add(eldest.value.items.size.toLong())
+        return true
+      }
+    }
+  }
+
+  /** The cache of one view, which only caches loads if [cachedItemType] isn't null. */
+  internal inner class Table(
+    private val tableType: KClass<*>,
+    private val cachedItemType: KClass<*>?,
+  ) {
+    fun <I : Any> load(key: Key, consistentReads: Boolean, read: () -> I?): I? {
+      val itemType = cachedItemType ?: return read()
+      val cacheKey = CacheKey(tableType, key)
+      if (!consistentReads) {
+        get(cacheKey, itemType)?.let { return it.item() }
+      }
+      val stamp = stamp()
+      return read().also { put(cacheKey, itemType, it, stamp) }
+    }
+
+    fun <I : Any> loadAsync(
+      key: Key,
+      consistentReads: Boolean,
+      read: () -> CompletableFuture<I?>
+    ): CompletableFuture<I?> {
+      val itemType = cachedItemType ?: return read()
+      val cacheKey = CacheKey(tableType, key)
+      if (!consistentReads) {
+        get(cacheKey, itemType)?.let { return CompletableFuture.completedFuture(it.item()) }
+      }
+      val stamp = stamp()
+      return read().thenApply { it.also { put(cacheKey, itemType, it, stamp) } }
+    }
+
+    fun invalidate(key: Key) = invalidate(tableType, key)
+
+    /** Only loads of [cachedItemType] put its items, so they are of the type that they load. */
+    @Suppress("UNCHECKED_CAST")
+    private fun <I : Any> CachedItem.item(): I? = item as I?
+  }
+
+  class Builder {
+    private var maxSize = 10_000
+    private var ttl = Duration.ofSeconds(30)
+    private var negativeTtl = Duration.ofSeconds(5)
+    private val itemTypes = mutableSetOf<KClass<*>>()
+
+    fun maxSize(maxSize: Int) = apply {
+      require(maxSize > 0) { "maxSize must be positive" }
+      this.maxSize = maxSize
+    }
+
+    fun ttl(ttl: Duration) = apply { this.ttl = ttl }
+
+    fun negativeTtl(negativeTtl: Duration) = apply { this.negativeTtl = negativeTtl }
+
+    /** Caches the loads of [itemType], or of every inline view of its table if it is a raw item type. */
+    fun cache(itemType: KClass<*>) = apply { itemTypes.add(itemType) }
+
+    fun cache(itemType: Class<*>) = cache(itemType.kotlin)
+
+    fun build() = ItemCache(maxSize, ttl, negativeTtl, itemTypes.toSet(), System::nanoTime)
+  }
+
+  private class StreamTable(
+    val tableType: KClass<*>,
+    val hashKeyName: String,
+    val rangeKeyName: String?,
+  ) {
+    val decoders = ConcurrentHashMap<KClass<*>, (Map<String, AttributeValue>) -> Any?>()
+  }
+
+  private data class CacheKey(
+    val tableType: KClass<*>,
+    val key: Key,
+  )
+
+  private class Entry(
+    var invalidatedAt: Long,
+  ) {
+    val items = HashMap<KClass<*>, CachedItem>(2)
+  }
+
+  private companion object {
+    /** Each segment holds at least this many keys, so small caches keep one segment and exact LRU order. */
+    const val MIN_SEGMENT_SIZE = 64
+    const val MAX_SEGMENTS = 16
+
+    fun segmentCount(maxSize: Int) = (maxSize / MIN_SEGMENT_SIZE).coerceIn(1, MAX_SEGMENTS)
+  }
+
+  private class CachedItem(
+    /** The item, or null if it doesn't exist. */
+    val item: Any?,
+    val expiresAt: Long,
+  )
+}
+
+data class ItemCacheStats(
+  /** Loads that the cache answered, including those of items that don't exist. */
+  val hits: Long,
+  /** Loads that were sent to DynamoDB, except those that skip the cache. */
+  val misses: Long,
+  /** Items that were dropped because they expired or the cache was full. */
+  val evictions: Long,
+  /** Keys that writes through the logical db evicted. */
+  val invalidations: Long,
+  /** The keys in the cache now, including those whose items all expired. */
+  val size: Int,
+) {
+  val hitRate: Double
+    get() = if (hits + misses == 0L) 0.0 else hits.toDouble() / (hits + misses)
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import software.amazon.awssdk.services.dynamodb.model.OperationType
+import software.amazon.awssdk.services.dynamodb.model.Shard
+import software.amazon.awssdk.services.dynamodb.model.ShardIteratorType
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient
+import java.io.Closeable
+import java.time.Duration
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps an [ItemCache] coherent with writes from other processes by following the DynamoDB
+ * stream of a table. Every change the stream reports evicts the cached items of its key, or
+ * replaces them with the new image of the item if [refreshItems] is true and the stream includes
+ * new images.
+ *
+ * Call [start] to poll the stream every [pollInterval] on a background thread, or call [poll]
+ * yourself. The consumer reads changes made after it starts, so it evicts every cached item when
+ * it starts, and again if a poll fails because changes may have been missed. A background poll
+ * that fails is retried on the next one, and its failure is kept in [lastFailure].
+ *
+ * Run one consumer per cache and table. Each consumer reads every shard of the stream, so it
+ * suits caches of moderately written tables rather than write-heavy ones.
+ */
+class ItemCacheStreamConsumer internal constructor(
+  private val dynamoDbStreams: DynamoDbStreamsClient,
+  /** The stream of a table that is part of a logical db that uses [itemCache]. */
+  val streamArn: String,
+  private val itemCache: ItemCache,
+  val refreshItems: Boolean,
+  val pollInterval: Duration,
+) : Closeable {
+  private val tableName = streamArn.substringAfter(":table/").substringBefore("/stream/")
+
+  /** The shards of the stream, in the order the stream lists them, which puts parents first. */
+  private val shards = LinkedHashMap<String, ShardReader>()
+  private var started = false
+  private var executor: ScheduledExecutorService? = null
+
+  /** Why the latest background poll failed, or null if it didn't. */
+  @Volatile
+  var lastFailure: Throwable? = null
+    private set
+
+  /** Polls the stream every [pollInterval] on a background thread until this is closed. */
+  @Synchronized
+  fun start() {
+    check(executor == null) { "already started" }
+    executor = Executors.newSingleThreadScheduledExecutor { runnable ->
+      Thread(runnable, "tempest-item-cache-stream").apply { isDaemon = true }
+    }.apply {
+      scheduleWithFixedDelay(
+        {
+          // A failed poll evicts every item, and the next one starts over.
+          lastFailure = try {
+            poll()
+            null
+          } catch (e: Exception) {
+            e
+          }
+        },
+        0L,
+        pollInterval.toNanos(),
+        TimeUnit.NANOSECONDS
+      )
+    }
+  }
+
+  /**
+   * Reads the changes that the stream has now and applies them to the cache. Returns how many
+   * changes were read.
+   */
+  @Synchronized
+  fun poll(): Int {
+    try {
+      discoverShards()
+      var changes = 0
+      for (shard in shards.values) {
+        // Changes to a key are only in order if a shard's parent is read before it.
+        if (shard.finished || shards[shard.parentShardId]?.finished == false) continue
+        changes += shard.read()
+      }
+      return changes
+    } catch (e: Exception) {
+      shards.clear()
+      started = false
+      itemCache.invalidateAll()
+      throw e
+    }
+  }
+
+  @Synchronized
+  override fun close() {
+    executor?.shutdownNow()
+    executor = null
+  }
+
+  private fun discoverShards() {
+    val describedShards = mutableListOf<Shard>()
+    var exclusiveStartShardId: String? = null
+    do {
+      val description = dynamoDbStreams.describeStream {
+        it.streamArn(streamArn).exclusiveStartShardId(exclusiveStartShardId)
+      }.streamDescription()
+      describedShards += description.shards()
+      exclusiveStartShardId = description.lastEvaluatedShardId()
+    } while (exclusiveStartShardId != null)
+
+    if (!started) {
+      itemCache.invalidateAll()
+    }
+    for (shard in describedShards) {
+      if (shard.shardId() in shards) continue
+      val closed = shard.sequenceNumberRange()?.endingSequenceNumber() != null
+      shards[shard.shardId()] = when {
+        // The cache was emptied, so changes before now don't matter.
+        !started && closed -> ShardReader(shard, iterator = null)
+        !started -> ShardReader(shard, iterator(shard, ShardIteratorType.LATEST))
+        else -> ShardReader(shard, iterator(shard, ShardIteratorType.TRIM_HORIZON))
+      }
+    }
+    // Forget shards that aged out of the stream.
+    shards.keys.retainAll(describedShards.map { it.shardId() }.toSet())
+    started = true
+  }
+
+  private fun iterator(shard: Shard, type: ShardIteratorType): String? {
+    return dynamoDbStreams.getShardIterator {
+      it.streamArn(streamArn).shardId(shard.shardId()).shardIteratorType(type)
+    }.shardIterator()
+  }
+
+  private inner class ShardReader(
+    shard: Shard,
+    private var iterator: String?,
+  ) {
+    val parentShardId: String? = shard.parentShardId()
+    val finished get() = iterator == null
+
+    /** Applies the changes in this shard until it has no more for now. */
+    fun read(): Int {
+      var changes = 0
+      while (true) {
+        val response = dynamoDbStreams.getRecords { it.shardIterator(iterator) }
+        for (record in response.records()) {
+          val change = record.dynamodb()
+          val newImage = change.newImage()
+            .takeIf { refreshItems && record.eventName() != OperationType.REMOVE && change.hasNewImage() }
+          itemCache.onStreamRecord(tableName, change.keys(), newImage)
+        }
+        changes += response.records().size
+        // A closed shard has no next iterator once it is read to its end.
+        iterator = response.nextShardIterator()
+        if (iterator == null || response.records().isEmpty()) return changes
+      }
+    }
+  }
+
+  class Builder(
+    private val dynamoDbStreams: DynamoDbStreamsClient,
+    private val streamArn: String,
+    private val itemCache: ItemCache,
+  ) {
+    private var refreshItems = false
+    private var pollInterval = Duration.ofSeconds(1)
+
+    /**
+     * Replaces cached items with the new images in the stream instead of evicting them. The
+     * stream's view type must include new images.
+     */
+    fun refreshItems(refreshItems: Boolean) = apply { this.refreshItems = refreshItems }
+
+    fun pollInterval(pollInterval: Duration) = apply { this.pollInterval = pollInterval }
+
+    fun build() = ItemCacheStreamConsumer(dynamoDbStreams, streamArn, itemCache, refreshItems, pollInterval)
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import kotlin.math.ceil
+
+/**
+ * Estimates the size of items as DynamoDB counts it against its limits and its capacity units:
+ * the UTF-8 length of attribute names plus the size of their values. Use [LogicalDb.itemSize] to
+ * get the size of an item or a key of a logical table.
+ */
+object ItemSize {
+  /**
+   * The largest item that DynamoDB accepts. Batch writes, batching writers and [WritingPager]
+   * reject larger items before sending them.
+   */
+  const val MAX_ITEM_BYTES = 400L * 1024
+
+  /** The most data that a single `BatchWriteItem` call can write. */
+  const val MAX_BATCH_WRITE_BYTES = 16L * 1024 * 1024
+
+  /** The most data that a single transaction can contain. */
+  const val MAX_TRANSACTION_BYTES = 4L * 1024 * 1024
+
+  /** Returns the size of the item whose attributes are [attributeValues], in bytes. */
+  @JvmStatic
+  fun of(attributeValues: Map<String, AttributeValue>): Long {
+    var size = 0L
+    for ((name, value) in attributeValues) {
+      size += utf8Length(name) + attributeValueSize(value)
+    }
+    return size
+  }
+
+  /**
+   * Returns the read capacity units that reading an item of [bytes] consumes: one per 4 KB for
+   * strongly consistent reads, and half of that for eventually consistent reads. Reads in a
+   * transaction consume twice as many.
+   */
+  @JvmStatic
+  fun readCapacityUnits(bytes: Long, consistentReads: Boolean): Double {
+    val units = ceil(bytes / 4096.0).coerceAtLeast(1.0)
+    return if (consistentReads) units else units / 2
+  }
+
+  /**
+   * Returns the write capacity units that writing an item of [bytes] consumes: one per KB. Writes
+   * in a transaction consume twice as many.
+   */
+  @JvmStatic
+  fun writeCapacityUnits(bytes: Long): Long = ceil(bytes / 1024.0).toLong().coerceAtLeast(1)
+}
+
+private fun attributeValueSize(value: AttributeValue): Long = when (value.type()) {
+  AttributeValue.Type.S -> utf8Length(value.s())
+  AttributeValue.Type.N -> numberSize(value.n())
+  AttributeValue.Type.B -> value.b().asByteArrayUnsafe().size.toLong()
+  AttributeValue.Type.SS -> value.ss().sumOf { utf8Length(it) }
+  AttributeValue.Type.NS -> value.ns().sumOf { numberSize(it) }
+  AttributeValue.Type.BS -> value.bs().sumOf { it.asByteArrayUnsafe().size.toLong() }
+  // Lists and maps take 3 bytes, plus 1 byte per element.
+  AttributeValue.Type.L -> 3L + value.l().sumOf { 1L + attributeValueSize(it) }
+  AttributeValue.Type.M -> 3L + ItemSize.of(value.m()) + value.m().size
+  AttributeValue.Type.BOOL, AttributeValue.Type.NUL -> 1L
+  else -> 0L
+}
+
+/** Numbers take 1 byte per 2 significant digits, plus 1 byte. */
+private fun numberSize(number: String): Long {
+  val digits = number.trimStart('-', '+').substringBefore('e').substringBefore('E').replace(".", "").trim('0')
+  return (digits.length + 1) / 2 + 1L
+}
+
+private fun utf8Length(string: String): Long {
+  var length = 0L
+  var i = 0
+  while (i < string.length) {
+    val c = string[i]
+    length += when {
+      c.code < 0x80 -> 1
+      c.code < 0x800 -> 2
+      Character.isHighSurrogate(c) && i + 1 < string.length && Character.isLowSurrogate(string[i + 1]) -> {
+        i++
+        4
+      }
+      else -> 3
+    }
+    i++
+  }
+  return length
+}
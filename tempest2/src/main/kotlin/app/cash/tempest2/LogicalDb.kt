@@ -21,6 +21,7 @@ import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient
 import software.amazon.awssdk.enhanced.dynamodb.extensions.annotations.DynamoDbVersionAttribute
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient
 import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient
 import javax.annotation.CheckReturnValue
 import kotlin.reflect.KClass
 
@@ -86,6 +87,9 @@ interface LogicalDb : LogicalTable.Factory {
    * [BatchWriteResult]** because this method returns normally even if some writes were not
    * performed.
    *
+   * Writes that DynamoDB returns unprocessed are resent as configured by
+   * [LogicalDbConfig.batchWriteRetryPolicy] before they are reported in the result.
+   *
    * This method does not support versioning annotations and behaves like [DynamoDbClient.putItem].
    *
    * A single call to BatchWriteItem can write up to 16 MB of data, which can comprise as many as 25
@@ -158,12 +162,56 @@ interface LogicalDb : LogicalTable.Factory {
    */
   fun transactionWrite(writeSet: TransactionWriteSet)
 
+  /**
+   * Returns the size in bytes of [item], which is an item or a key of one of this database's
+   * tables, as DynamoDB counts it against its limits. See [ItemSize] to turn it into capacity
+   * units.
+   */
+  fun itemSize(item: Any): Long
+
+  /**
+   * Returns a loader that collects the keys that concurrent callers load, and loads them together
+   * with [DynamoDbClient.batchGetItem]. See [BatchLoader].
+   */
+  fun batchLoader(config: BatchLoaderConfig = BatchLoaderConfig.Builder().build()): BatchLoader
+
+  fun batchLoader() = batchLoader(BatchLoaderConfig.Builder().build())
+
+  /**
+   * Returns a writer that collects the items that callers save and delete, and writes them
+   * together with [DynamoDbClient.batchWriteItem]. See [BatchingWriter].
+   */
+  fun batchingWriter(config: BatchingWriterConfig = BatchingWriterConfig.Builder().build()): BatchingWriter
+
+  fun batchingWriter() = batchingWriter(BatchingWriterConfig.Builder().build())
+
+  /**
+   * Returns a unit of work that keeps the items it loads, and writes the changes made to them
+   * together when it is flushed. See [Session].
+   */
+  fun session(config: SessionConfig = SessionConfig.Builder().build()): Session
+
+  fun session() = session(SessionConfig.Builder().build())
+
+  /**
+   * Runs [block] in a new [Session], and flushes the session when [block] returns. If [block]
+   * throws, none of its changes are written.
+   */
+  fun <T> session(
+    config: SessionConfig = SessionConfig.Builder().build(),
+    block: (Session) -> T
+  ): T {
+    val session = session(config)
+    return block(session).also { session.flush() }
+  }
+
   companion object {
     inline operator fun <reified DB : LogicalDb> invoke(
       dynamoDbEnhancedClient: DynamoDbEnhancedClient,
-      tableNameResolver: TableNameResolver? = null
+      tableNameResolver: TableNameResolver? = null,
+      config: LogicalDbConfig = LogicalDbConfig.Builder().build()
     ): DB {
-      return create(DB::class, dynamoDbEnhancedClient, tableNameResolver)
+      return create(DB::class, dynamoDbEnhancedClient, tableNameResolver, config)
     }
 
     fun <DB : LogicalDb> create(
@@ -171,7 +219,16 @@ interface LogicalDb : LogicalTable.Factory {
       dynamoDbEnhancedClient: DynamoDbEnhancedClient,
       tableNameResolver: TableNameResolver? = null
     ): DB {
-      return LogicalDbFactory(dynamoDbEnhancedClient).logicalDb(dbType, tableNameResolver)
+      return create(dbType, dynamoDbEnhancedClient, tableNameResolver, LogicalDbConfig.Builder().build())
+    }
+
+    fun <DB : LogicalDb> create(
+      dbType: KClass<DB>,
+      dynamoDbEnhancedClient: DynamoDbEnhancedClient,
+      tableNameResolver: TableNameResolver?,
+      config: LogicalDbConfig
+    ): DB {
+      return LogicalDbFactory(dynamoDbEnhancedClient, config).logicalDb(dbType, tableNameResolver)
     }
 
     // Overloaded functions for Java callers (Kotlin interface companion objects do not support
@@ -190,6 +247,14 @@ interface LogicalDb : LogicalTable.Factory {
       dynamoDbEnhancedClient: DynamoDbEnhancedClient,
       tableNameResolver: TableNameResolver?
     ) = create(dbType.kotlin, dynamoDbEnhancedClient, tableNameResolver)
+
+    @JvmStatic
+    fun <DB : LogicalDb> create(
+      dbType: Class<DB>,
+      dynamoDbEnhancedClient: DynamoDbEnhancedClient,
+      tableNameResolver: TableNameResolver?,
+      config: LogicalDbConfig
+    ) = create(dbType.kotlin, dynamoDbEnhancedClient, tableNameResolver, config)
   }
 }
 
@@ -205,6 +270,50 @@ interface LogicalTable<RI : Any> :
   /** [type] must be a key type or item type of one of the views of this table. */
   fun <T : Any> codec(type: KClass<T>): Codec<T, RI>
 
+  /**
+   * Reads every item in the partition of [key] with a single query, following pages until the
+   * partition is exhausted. Each item is decoded into the type in [itemTypes] whose sort key
+   * prefix it starts with, and items that match none of them are skipped.
+   *
+   * @param key a key or item of any item type of this table. Only its partition key is used.
+   * @param itemTypes item types of this table with distinct sort key prefixes.
+   */
+  fun queryPartition(
+    key: Any,
+    itemTypes: Set<KClass<*>>,
+    consistentRead: Boolean = false
+  ): ItemSet
+
+  /**
+   * Returns a processor of the changes in the stream of this table, whose items are decoded into
+   * the type in [itemTypes] whose sort key prefix their key starts with. Changes to items that
+   * match none of them are skipped, and so are changes whose images lack attributes that the item
+   * type they match requires, such as those of an item type in other partitions with the same sort
+   * key prefix. See [StreamProcessor].
+   *
+   * @param streamArn the latest stream of this table, as returned by `DescribeTable`.
+   * @param itemTypes item types of this table with distinct sort key prefixes.
+   */
+  fun streamProcessor(
+    dynamoDbStreams: DynamoDbStreamsClient,
+    streamArn: String,
+    itemTypes: Set<KClass<*>>,
+    config: StreamProcessorConfig = StreamProcessorConfig.Builder().build()
+  ): StreamProcessor
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun queryPartition(
+    key: Any,
+    itemTypes: Set<KClass<*>>
+  ) = queryPartition(key, itemTypes, consistentRead = false)
+
+  fun streamProcessor(
+    dynamoDbStreams: DynamoDbStreamsClient,
+    streamArn: String,
+    itemTypes: Set<KClass<*>>
+  ) = streamProcessor(dynamoDbStreams, streamArn, itemTypes, StreamProcessorConfig.Builder().build())
+
   interface Factory {
     fun <T : LogicalTable<RI>, RI : Any> logicalTable(
       tableName: String,
@@ -225,6 +334,39 @@ interface InlineView<K : Any, I : Any> : View<K, I>, Scannable<K, I>, Queryable<
 
 interface SecondaryIndex<K : Any, I : Any> : Scannable<K, I>, Queryable<K, I> {
 
+  /**
+   * Queries this index for keys only, then loads their items from the table with batch loads.
+   * Use this on indexes that project `KEYS_ONLY`, whose queries return incomplete items.
+   *
+   * Each page holds the items of a page of the index, in index order. The next page of the index
+   * is queried while the items of this one load, so a page takes about one round trip. Items that
+   * were deleted after the index was read are skipped.
+   *
+   * Every index projects the table's primary key, and that is what the items are loaded by, so
+   * the key type of this index doesn't need to declare the primary key attributes. The items are
+   * loaded as the item type of this index, which must be an item type of the table.
+   */
+  fun queryAndHydrate(
+    keyCondition: KeyCondition<K>,
+    asc: Boolean = true,
+    pageSize: Int = 100,
+    initialOffset: Offset<K>? = null,
+  ): Sequence<Page<K, I>>
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun queryAndHydrate(keyCondition: KeyCondition<K>) = queryAndHydrate(
+    keyCondition,
+    initialOffset = null
+  )
+
+  fun queryAndHydrate(keyCondition: KeyCondition<K>, initialOffset: Offset<K>?) = queryAndHydrate(
+    keyCondition,
+    asc = true,
+    pageSize = 100,
+    initialOffset = initialOffset
+  )
+
   interface Factory {
     fun <K : Any, I : Any> secondaryIndex(
       keyType: KClass<K>,
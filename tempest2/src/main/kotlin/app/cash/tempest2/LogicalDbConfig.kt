@@ -0,0 +1,171 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import app.cash.tempest2.internal.BatchFanOut
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import java.time.Duration
+import java.util.concurrent.Executor
+
+/**
+ * Options shared by every table of a [LogicalDb] or an [AsyncLogicalDb].
+ */
+class LogicalDbConfig internal constructor(
+  val itemEncoding: ItemEncoding,
+  /**
+   * Where the logical db runs the requests it sends concurrently or ahead of time: the pages of
+   * batch loads and writes, the queries of `queryMany` and `parallelQuery`, the segments of
+   * parallel scans, prefetched pages, and the batches of batch loaders, batching writers and
+   * stream processors that don't configure their own executor. Synchronous requests block on it,
+   * so it defaults to a virtual thread per task on Java 21 and later, and to a shared pool of
+   * daemon threads before.
+   */
+  val executor: Executor,
+  /**
+   * The most pages of a single [LogicalDb.batchLoad] or [LogicalDb.batchWrite], or queries of a
+   * single `queryMany`, in flight. Use 1 to send them one after another on the calling thread.
+   */
+  val maxConcurrentBatchRequests: Int,
+  /**
+   * How batch writes resend the writes that DynamoDB returns unprocessed. Defaults to
+   * [BatchWriteRetryPolicy.NONE], which returns them in [BatchWriteResult] right away.
+   */
+  val batchWriteRetryPolicy: BatchWriteRetryPolicy,
+  /** Where views cache the items they load, or null to always load items from DynamoDB. */
+  val itemCache: ItemCache?,
+  /**
+   * The client that a [LogicalDb] sends its loads with, so that they read only the attributes of
+   * the item type they load, or null to read whole items with the enhanced client. Pass the same
+   * client that the enhanced client wraps. Items read this way are decoded with their table's
+   * schema, without the enhanced client's extensions.
+   */
+  val projectedReadsClient: DynamoDbClient?,
+  /** Like [projectedReadsClient], for the loads of an [AsyncLogicalDb]. */
+  val asyncProjectedReadsClient: DynamoDbAsyncClient?,
+) {
+  class Builder {
+    private var itemEncoding = ItemEncoding.RAW_ITEM
+    private var executor: Executor = BatchFanOut.blockingExecutor
+    private var maxConcurrentBatchRequests = 10
+    private var batchWriteRetryPolicy = BatchWriteRetryPolicy.NONE
+    private var itemCache: ItemCache? = null
+    private var projectedReadsClient: DynamoDbClient? = null
+    private var asyncProjectedReadsClient: DynamoDbAsyncClient? = null
+
+    fun itemEncoding(itemEncoding: ItemEncoding) = apply { this.itemEncoding = itemEncoding }
+
+    fun executor(executor: Executor) = apply { this.executor = executor }
+
+    fun maxConcurrentBatchRequests(maxConcurrentBatchRequests: Int) = apply {
+      require(maxConcurrentBatchRequests > 0) { "maxConcurrentBatchRequests must be positive" }
+      this.maxConcurrentBatchRequests = maxConcurrentBatchRequests
+    }
+
+    fun batchWriteRetryPolicy(batchWriteRetryPolicy: BatchWriteRetryPolicy) = apply {
+      this.batchWriteRetryPolicy = batchWriteRetryPolicy
+    }
+
+    fun itemCache(itemCache: ItemCache?) = apply { this.itemCache = itemCache }
+
+    fun projectedReadsClient(projectedReadsClient: DynamoDbClient?) = apply {
+      this.projectedReadsClient = projectedReadsClient
+    }
+
+    fun asyncProjectedReadsClient(asyncProjectedReadsClient: DynamoDbAsyncClient?) = apply {
+      this.asyncProjectedReadsClient = asyncProjectedReadsClient
+    }
+
+    fun build() = LogicalDbConfig(
+      itemEncoding,
+      executor,
+      maxConcurrentBatchRequests,
+      batchWriteRetryPolicy,
+      itemCache,
+      projectedReadsClient,
+      asyncProjectedReadsClient,
+    )
+  }
+}
+
+/**
+ * How batch writes resend the writes that DynamoDB returns unprocessed, usually because a table
+ * is throttled. Only the unprocessed writes are resent, packed into as few pages as possible.
+ *
+ * The delay before retry `n` is a random duration between zero and `baseDelay * 2^n`, capped at
+ * [maxDelay]. Writes that are still unprocessed after [maxRetries], or when the next retry would
+ * start after [deadline], are returned in [BatchWriteResult].
+ */
+class BatchWriteRetryPolicy internal constructor(
+  val maxRetries: Int,
+  val baseDelay: Duration,
+  val maxDelay: Duration,
+  /** How long a single batch write may keep retrying, measured from when it is called. */
+  val deadline: Duration,
+) {
+  class Builder {
+    private var maxRetries = 10
+    private var baseDelay = Duration.ofMillis(50)
+    private var maxDelay = Duration.ofSeconds(2)
+    private var deadline = Duration.ofSeconds(10)
+
+    fun maxRetries(maxRetries: Int) = apply {
+      require(maxRetries >= 0) { "maxRetries must not be negative" }
+      this.maxRetries = maxRetries
+    }
+
+    fun baseDelay(baseDelay: Duration) = apply { this.baseDelay = baseDelay }
+
+    fun maxDelay(maxDelay: Duration) = apply { this.maxDelay = maxDelay }
+
+    fun deadline(deadline: Duration) = apply { this.deadline = deadline }
+
+    fun build() = BatchWriteRetryPolicy(
+      maxRetries,
+      baseDelay,
+      maxDelay,
+      deadline
+    )
+  }
+
+  companion object {
+    /** Returns unprocessed writes to the caller without resending them. */
+    @JvmField
+    val NONE = Builder().maxRetries(0).build()
+  }
+}
+
+/**
+ * How keys and items of a [LogicalTable] are encoded before they are sent to DynamoDB.
+ */
+enum class ItemEncoding {
+  /**
+   * Copies every key and item to an instance of the table's raw item class, which the table's
+   * `TableSchema` then serializes.
+   */
+  RAW_ITEM,
+
+  /**
+   * Encodes keys and items straight to attribute value maps, using the converters of the table's
+   * `TableSchema`, and decodes them the same way. No raw items are created.
+   *
+   * Attributes of the raw item class that an item type doesn't declare are not written, even if
+   * the raw item class gives them a default value. Views of raw items and [LogicalTable.codec]
+   * keep using raw items.
+   */
+  ATTRIBUTE_MAP,
+}
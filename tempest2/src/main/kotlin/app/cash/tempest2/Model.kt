@@ -76,9 +76,13 @@ data class BatchWriteSet(
  * It contains information about the unprocessed items and the
  * exception causing the failure.
  */
-data class BatchWriteResult(
+data class BatchWriteResult @JvmOverloads constructor(
   val unprocessedClobbers: List<Key>,
-  val unprocessedDeletes: List<Key>
+  val unprocessedDeletes: List<Key>,
+  /** How many times unprocessed writes were resent. See [BatchWriteRetryPolicy]. */
+  val retries: Int = 0,
+  /** How many writes were resent, summed over every retry. */
+  val retriedWrites: Int = 0
 ) {
   val isSuccessful = unprocessedClobbers.isEmpty() && unprocessedDeletes.isEmpty()
 }
@@ -30,3 +30,22 @@ data class Page<K, T> internal constructor(
 data class Offset<K>(
   val key: K
 )
+
+/**
+ * A page of [Queryable.queryMany]: the items of several key conditions, merged in sort key order.
+ */
+data class MultiPage<K, T>(
+  val contents: List<T>,
+  val offset: MultiOffset<K>?
+) {
+  val hasMorePages: Boolean
+    get() = offset != null
+}
+
+/**
+ * Where [Queryable.queryMany] resumes each of its key conditions. Key conditions that are missing
+ * from [offsets] have no more items, and those with a null offset resume at their first item.
+ */
+data class MultiOffset<K>(
+  val offsets: Map<KeyCondition<K>, Offset<K>?>
+)
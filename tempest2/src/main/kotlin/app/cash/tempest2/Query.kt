@@ -18,6 +18,7 @@ package app.cash.tempest2
 
 import software.amazon.awssdk.enhanced.dynamodb.Expression
 import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity
+import java.util.function.Consumer
 
 interface Queryable<K : Any, I : Any> {
 
@@ -104,11 +105,21 @@ interface Queryable<K : Any, I : Any> {
     )
   }
 
+  /**
+   * Executes a query and returns a sequence of pages that contains all results, regardless of page size.
+   * Pages are fetched [QueryConfig.prefetchDepth] ahead of the one being enumerated, so that
+   * fetching pages overlaps with processing them. If the config has a
+   * [QueryConfig.readCapacityLimiter], pages are paced to its read capacity budget. Implementations
+   * that don't override this throw [UnsupportedOperationException] for either.
+   */
   fun queryAll(
     keyCondition: KeyCondition<K>,
     config: QueryConfig,
     initialOffset: Offset<K>?,
   ): Sequence<Page<K, I>> {
+    if (config.prefetchDepth != 0 || config.readCapacityLimiter != null) {
+      throw UnsupportedOperationException("${javaClass.name} doesn't support prefetchDepth or readCapacityLimiter")
+    }
     return queryAll(
       keyCondition,
       config.asc,
@@ -157,14 +168,156 @@ interface Queryable<K : Any, I : Any> {
     config: QueryConfig,
     initialOffset: Offset<K>?,
   ): Sequence<I> {
-    return queryAllContents(
-      keyCondition,
-      config.asc,
-      config.pageSize,
-      config.consistentRead,
-      config.filterExpression,
-      initialOffset,
-    )
+    return queryAll(keyCondition, config, initialOffset)
+      .map { it.contents }
+      .flatten()
+  }
+
+  /**
+   * Queries each of [keyConditions], usually one per partition, and merges their items in sort key
+   * order into a page of up to [limit] items. The partitions are queried concurrently, up to
+   * [LogicalDbConfig.maxConcurrentBatchRequests] at once, and each is read only as far as the merge
+   * needs: a partition is not queried again once the page is full.
+   *
+   * Items with the same sort key are ordered by the position of their key condition in
+   * [keyConditions]. Pass the page's offset as [initialOffset], with the same key conditions, to
+   * read the next page.
+   */
+  fun queryMany(
+    keyConditions: List<KeyCondition<K>>,
+    asc: Boolean = true,
+    limit: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    initialOffset: MultiOffset<K>? = null,
+  ): MultiPage<K, I> {
+    throw UnsupportedOperationException("${javaClass.name} doesn't support queryMany")
+  }
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun queryMany(keyConditions: List<KeyCondition<K>>) = queryMany(
+    keyConditions,
+    config = QueryConfig.Builder().build(),
+    initialOffset = null,
+  )
+
+  fun queryMany(keyConditions: List<KeyCondition<K>>, initialOffset: MultiOffset<K>?) = queryMany(
+    keyConditions,
+    config = QueryConfig.Builder().build(),
+    initialOffset = initialOffset,
+  )
+
+  fun queryMany(keyConditions: List<KeyCondition<K>>, config: QueryConfig) = queryMany(
+    keyConditions,
+    config = config,
+    initialOffset = null,
+  )
+
+  /** The page size of [config] is the limit of the merged page. */
+  fun queryMany(
+    keyConditions: List<KeyCondition<K>>,
+    config: QueryConfig,
+    initialOffset: MultiOffset<K>?,
+  ) = queryMany(
+    keyConditions,
+    config.asc,
+    config.pageSize,
+    config.consistentRead,
+    config.filterExpression,
+    initialOffset,
+  )
+
+  /**
+   * Reads every item of [keyCondition] by splitting its sort key range into sub-ranges and
+   * querying them concurrently, and calls [consumer] for each of their pages on the calling
+   * thread. This reads a large item collection faster than [queryAll], which reads one page at a
+   * time.
+   *
+   * Unless [boundaries] are given, the range from the first to the last sort key is split into
+   * [splits] sub-ranges of about equal width, which suits sort keys that are spread evenly, like
+   * counters or timestamps. The split is interpolated between those two keys, not sampled from
+   * the partition, so pass [boundaries] if the sort keys cluster. Otherwise the range is split at
+   * each of [boundaries] that falls inside it, and [splits] sub-ranges are queried at a time.
+   *
+   * If [ordered], pages come in sort key order and sub-ranges after the current one fetch only a
+   * page or two ahead of it. Otherwise pages of different sub-ranges interleave. Pages have no
+   * offset, because where one sub-range is doesn't tell where the others are, so a parallel query
+   * can't be resumed. If [consumer] throws, the remaining sub-ranges are abandoned and the
+   * exception is rethrown.
+   *
+   * A [readCapacityLimiter] paces the pages of every sub-range to one read capacity budget.
+   */
+  fun parallelQuery(
+    keyCondition: KeyCondition<K>,
+    splits: Int,
+    boundaries: List<K> = emptyList(),
+    ordered: Boolean = false,
+    asc: Boolean = true,
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    readCapacityLimiter: ReadCapacityLimiter? = null,
+    consumer: (Page<K, I>) -> Unit,
+  ) {
+    throw UnsupportedOperationException("${javaClass.name} doesn't support parallelQuery")
+  }
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun parallelQuery(
+    keyCondition: KeyCondition<K>,
+    splits: Int,
+    boundaries: List<K>,
+    ordered: Boolean,
+    config: QueryConfig,
+    consumer: Consumer<Page<K, I>>,
+  ) = parallelQuery(
+    keyCondition,
+    splits,
+    boundaries,
+    ordered,
+    config.asc,
+    config.pageSize,
+    config.consistentRead,
+    config.filterExpression,
+    config.readCapacityLimiter,
+    consumer::accept
+  )
+
+  /**
+   * Returns how many items match [keyCondition] and [filterExpression], without reading them.
+   * Every page of the query is requested with `Select.COUNT`, so DynamoDB returns only the count
+   * of each page, and the counts are summed. This consumes the same read capacity as reading the
+   * items.
+   */
+  fun count(
+    keyCondition: KeyCondition<K>,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+  ): Long {
+    throw UnsupportedOperationException("${javaClass.name} doesn't support count")
+  }
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun count(keyCondition: KeyCondition<K>) = count(
+    keyCondition,
+    config = QueryConfig.Builder().build(),
+  )
+
+  fun count(keyCondition: KeyCondition<K>, config: QueryConfig) = count(
+    keyCondition,
+    config.consistentRead,
+    config.filterExpression,
+  )
+
+  /**
+   * Returns a query that saves its progress to [store] under [name] after every page, and
+   * resumes from there when it runs again. See [CheckpointedQuery].
+   */
+  fun checkpointedQuery(store: CheckpointStore, name: String): CheckpointedQuery<K, I> {
+    throw UnsupportedOperationException("${javaClass.name} doesn't support checkpointedQuery")
   }
 }
 
@@ -174,6 +327,10 @@ data class QueryConfig internal constructor(
   val consistentRead: Boolean,
   val filterExpression: Expression?,
   val returnConsumedCapacity: ReturnConsumedCapacity?,
+  /** How many pages `queryAll` fetches ahead of the one being enumerated. Defaults to 0. */
+  val prefetchDepth: Int,
+  /** Paces the pages of `queryAll` and `parallelQuery` to a read capacity budget. */
+  val readCapacityLimiter: ReadCapacityLimiter?,
 ) {
   class Builder {
     private var asc = true
@@ -181,6 +338,8 @@ data class QueryConfig internal constructor(
     private var consistentRead = false
     private var filterExpression: Expression? = null
     private var returnConsumedCapacity: ReturnConsumedCapacity? = null
+    private var prefetchDepth = 0
+    private var readCapacityLimiter: ReadCapacityLimiter? = null
 
     fun asc(asc: Boolean) = apply { this.asc = asc }
 
@@ -194,12 +353,22 @@ data class QueryConfig internal constructor(
     fun returnConsumedCapacity(returnConsumedCapacity: ReturnConsumedCapacity) =
       apply { this.returnConsumedCapacity = returnConsumedCapacity }
 
+    fun prefetchDepth(prefetchDepth: Int) = apply {
+      require(prefetchDepth >= 0) { "prefetchDepth must not be negative" }
+      this.prefetchDepth = prefetchDepth
+    }
+
+    fun readCapacityLimiter(readCapacityLimiter: ReadCapacityLimiter) =
+      apply { this.readCapacityLimiter = readCapacityLimiter }
+
     fun build() = QueryConfig(
       asc,
       pageSize,
       consistentRead,
       filterExpression,
-      returnConsumedCapacity
+      returnConsumedCapacity,
+      prefetchDepth,
+      readCapacityLimiter
     )
   }
 }
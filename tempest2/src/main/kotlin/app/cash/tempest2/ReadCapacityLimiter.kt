@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import kotlinx.coroutines.delay
+import java.util.concurrent.TimeUnit
+import kotlin.math.ceil
+import kotlin.math.min
+
+/**
+ * Limits the read capacity that scans and queries consume to [unitsPerSecond] read capacity
+ * units, on average. Share one limiter between every scan and query that reads from the same
+ * table, including the segments of a parallel scan, to keep them all within one budget.
+ *
+ * This is a token bucket that holds up to [burstUnits]. A request waits until the bucket isn't
+ * empty, and the capacity it consumes is taken from the bucket once DynamoDB reports it, which
+ * may leave the bucket in debt for a while. Scans and queries also shrink their pages until a
+ * page costs no more than [burstUnits], so that a single request doesn't overdraw the bucket by
+ * much.
+ *
+ * Use it with [ScanConfig.Builder.readCapacityLimiter] or [QueryConfig.Builder.readCapacityLimiter].
+ */
+class ReadCapacityLimiter internal constructor(
+  val unitsPerSecond: Double,
+  val burstUnits: Double,
+  private val nanoTime: () -> Long,
+) {
+  @JvmOverloads
+  constructor(
+    unitsPerSecond: Double,
+    burstUnits: Double = unitsPerSecond,
+  ) : this(unitsPerSecond, burstUnits, System::nanoTime)
+
+  private var units = burstUnits
+  private var refilledAt = nanoTime()
+
+  init {
+    require(unitsPerSecond > 0) { "unitsPerSecond must be positive" }
+    require(burstUnits > 0) { "burstUnits must be positive" }
+  }
+
+  /** The capacity in the bucket now, which is negative while it is in debt. */
+  val availableUnits: Double
+    @Synchronized get() {
+      refill()
+      return units
+    }
+
+  /** Waits until the bucket isn't empty, then takes [units] from it. */
+  internal fun acquire(units: Double) {
+    while (true) {
+      val waitNanos = tryAcquire(units)
+      if (waitNanos == 0L) return
+      TimeUnit.NANOSECONDS.sleep(waitNanos)
+    }
+  }
+
+  /** Suspends until the bucket isn't empty, then takes [units] from it. */
+  internal suspend fun awaitAcquire(units: Double) {
+    while (true) {
+      val waitNanos = tryAcquire(units)
+      if (waitNanos == 0L) return
+      delay(TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1)
+    }
+  }
+
+  /** Takes [units] from the bucket, or gives them back if negative. */
+  @Synchronized
+  internal fun consume(units: Double) {
+    refill()
+    this.units = min(burstUnits, this.units - units)
+  }
+
+  /** Takes [units] and returns 0 if the bucket isn't empty, or returns how long until it won't be. */
+  @Synchronized
+  private fun tryAcquire(units: Double): Long {
+    refill()
+    if (this.units > 0) {
+      this.units -= units
+      return 0L
+    }
+    return maxOf(1L, ceil(-this.units / unitsPerSecond * NANOS_PER_SECOND).toLong())
+  }
+
+  private fun refill() {
+    val now = nanoTime()
+    units = min(burstUnits, units + (now - refilledAt) / NANOS_PER_SECOND * unitsPerSecond)
+    refilledAt = now
+  }
+
+  private companion object {
+    const val NANOS_PER_SECOND = 1_000_000_000.0
+  }
+}
@@ -17,6 +17,7 @@
 package app.cash.tempest2
 
 import software.amazon.awssdk.enhanced.dynamodb.Expression
+import java.util.function.Consumer
 
 interface Scannable<K : Any, I : Any> {
   /**
@@ -98,10 +99,18 @@ interface Scannable<K : Any, I : Any> {
    * Executes a scan and returns a sequence of pages that contains all results, regardless of page size.
    * New pages will be fetched as needed when the resulting sequence is enumerated.
    *
+   * Pages are fetched [ScanConfig.prefetchDepth] ahead of the one being enumerated, so that
+   * fetching pages overlaps with processing them. If the config has a
+   * [ScanConfig.readCapacityLimiter], pages are paced to its read capacity budget. Implementations
+   * that don't override this throw [UnsupportedOperationException] for either.
+   *
    * This method doesn't support parallel scans. `workerId`, if provided as part of `config`, will
    * be ignored.
    */
   fun scanAll(config: ScanConfig, initialOffset: Offset<K>?): Sequence<Page<K, I>> {
+    if (config.prefetchDepth != 0 || config.readCapacityLimiter != null) {
+      throw UnsupportedOperationException("${javaClass.name} doesn't support prefetchDepth or readCapacityLimiter")
+    }
     return scanAll(
       pageSize = config.pageSize,
       consistentRead = config.consistentRead,
@@ -153,15 +162,112 @@ interface Scannable<K : Any, I : Any> {
    * be ignored.
    */
   fun scanAllContents(config: ScanConfig, initialOffset: Offset<K>?): Sequence<I> {
-    return scanAllContents(
-      pageSize = config.pageSize,
-      consistentRead = config.consistentRead,
-      filterExpression = config.filterExpression,
-      initialOffset = initialOffset
-    )
+    return scanAll(config, initialOffset)
+      .map { it.contents }
+      .flatten()
+  }
+
+  /**
+   * Scans every segment of a parallel scan of [totalSegments] segments, with up to [concurrency]
+   * segments in flight at a time, and calls [consumer] with each page. Each segment is paginated
+   * independently until it has no more pages.
+   *
+   * [consumer] is called on the calling thread, one page at a time. Pages of the same segment
+   * arrive in order, while pages of different segments interleave. At most [concurrency] pages
+   * are buffered ahead of [consumer]. This returns once every segment has been scanned. If a
+   * request or [consumer] throws, the scan stops and the exception is rethrown.
+   *
+   * A [readCapacityLimiter] paces the pages of every segment to one read capacity budget.
+   */
+  fun parallelScan(
+    totalSegments: Int,
+    concurrency: Int = totalSegments,
+    pageSize: Int = 100,
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    readCapacityLimiter: ReadCapacityLimiter? = null,
+    consumer: (SegmentPage<K, I>) -> Unit,
+  ) {
+    throw UnsupportedOperationException("${javaClass.name} doesn't support parallelScan")
+  }
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  /**
+   * Scans every segment of a parallel scan. See [parallelScan].
+   *
+   * `workerId`, if provided as part of `config`, will be ignored.
+   */
+  fun parallelScan(
+    totalSegments: Int,
+    concurrency: Int,
+    config: ScanConfig,
+    consumer: Consumer<SegmentPage<K, I>>,
+  ) = parallelScan(
+    totalSegments = totalSegments,
+    concurrency = concurrency,
+    pageSize = config.pageSize,
+    consistentRead = config.consistentRead,
+    filterExpression = config.filterExpression,
+    readCapacityLimiter = config.readCapacityLimiter,
+    consumer = consumer::accept
+  )
+
+  /**
+   * Returns how many items match [filterExpression], without reading them. Every page of the scan
+   * is requested with `Select.COUNT`, so DynamoDB returns only the count of each page, and the
+   * counts are summed. This consumes the same read capacity as reading the items.
+   *
+   * With more than one of [totalSegments], the segments of a parallel scan are counted
+   * concurrently.
+   */
+  fun count(
+    consistentRead: Boolean = false,
+    filterExpression: Expression? = null,
+    totalSegments: Int = 1,
+  ): Long {
+    throw UnsupportedOperationException("${javaClass.name} doesn't support count")
+  }
+
+  // Overloaded functions for Java callers (Kotlin interfaces do not support `@JvmOverloads`).
+
+  fun count() = count(
+    config = ScanConfig.Builder().build(),
+    totalSegments = 1,
+  )
+
+  fun count(config: ScanConfig) = count(
+    config = config,
+    totalSegments = 1,
+  )
+
+  /** `workerId`, if provided as part of `config`, will be ignored. */
+  fun count(config: ScanConfig, totalSegments: Int) = count(
+    config.consistentRead,
+    config.filterExpression,
+    totalSegments,
+  )
+
+  /**
+   * Returns a scan that saves its progress to [store] under [name] after every page, and resumes
+   * from there when it runs again. See [CheckpointedScan].
+   */
+  fun checkpointedScan(store: CheckpointStore, name: String): CheckpointedScan<K, I> {
+    throw UnsupportedOperationException("${javaClass.name} doesn't support checkpointedScan")
   }
 }
 
+/**
+ * A page of a parallel scan, with the segment that it belongs to.
+ *
+ * A segment is done when its page has no more pages. To resume a segment later, pass [workerId]
+ * and the page's offset to [Scannable.scan].
+ */
+data class SegmentPage<K, I>(
+  val workerId: WorkerId,
+  val page: Page<K, I>
+)
+
 /**
  * In the context of parallel scans, a worker is analogous to a thread or an operating
  * system process. Each worker then issues its own Scan request with a unique [WorkerId], which
@@ -180,13 +286,19 @@ data class ScanConfig internal constructor(
   val pageSize: Int,
   val consistentRead: Boolean,
   val filterExpression: Expression?,
-  val workerId: WorkerId?
+  val workerId: WorkerId?,
+  /** How many pages `scanAll` fetches ahead of the one being enumerated. Defaults to 0. */
+  val prefetchDepth: Int,
+  /** Paces the pages of `scanAll` and `parallelScan` to a read capacity budget. */
+  val readCapacityLimiter: ReadCapacityLimiter?,
 ) {
   class Builder {
     private var pageSize = 100
     private var consistentRead = false
     private var filterExpression: Expression? = null
     private var workerId: WorkerId? = null
+    private var prefetchDepth = 0
+    private var readCapacityLimiter: ReadCapacityLimiter? = null
 
     fun pageSize(pageSize: Int) = apply { this.pageSize = pageSize }
 
@@ -197,11 +309,21 @@ data class ScanConfig internal constructor(
 
     fun workerId(workerId: WorkerId) = apply { this.workerId = workerId }
 
+    fun prefetchDepth(prefetchDepth: Int) = apply {
+      require(prefetchDepth >= 0) { "prefetchDepth must not be negative" }
+      this.prefetchDepth = prefetchDepth
+    }
+
+    fun readCapacityLimiter(readCapacityLimiter: ReadCapacityLimiter) =
+      apply { this.readCapacityLimiter = readCapacityLimiter }
+
     fun build() = ScanConfig(
       pageSize,
       consistentRead,
       filterExpression,
-      workerId
+      workerId,
+      prefetchDepth,
+      readCapacityLimiter
     )
   }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import kotlin.reflect.KClass
+
+/**
+ * A unit of work, like an incoming request, that reads and writes the items of a [LogicalDb]
+ * through an identity map. Create one with [LogicalDb.session].
+ *
+ * The session keeps the items it loads by primary key and item type, along with the keys that have
+ * no item, so each item is read at most once per item type. Keys of different classes that load
+ * the same item share a single read. A primary key has at most one pending write, and loading it
+ * as a different item type than the one saved throws.
+ *
+ * Saves and deletes change the session right away, and later loads see them, but nothing is
+ * written until [flush]. Saving an item equal to the one loaded, or deleting a key that has no
+ * item, writes nothing. An item that was changed in place must still be saved to be written.
+ *
+ * Items that a flush writes are read again the next time they are loaded, so that they carry the
+ * versions the flush gave them. If a flush fails, its changes stay in the session.
+ *
+ * Sessions are not thread safe.
+ */
+interface Session {
+  /**
+   * Returns the item whose keys match those of the prototype key object given, or null if no such
+   * item exists. Only reads the item if the session doesn't have it yet.
+   */
+  fun <I : Any> load(key: Any, itemType: Class<I>): I?
+
+  fun <I : Any> load(key: Any, itemType: KClass<I>): I? = load(key, itemType.java)
+
+  /**
+   * Returns the items of [keys] that exist, reading those that the session doesn't have yet with
+   * [LogicalDb.batchLoad].
+   */
+  fun batchLoad(keys: Iterable<Any>): ItemSet
+
+  /** Saves [item] when the session is flushed. */
+  fun save(item: Any)
+
+  /** Deletes the item whose keys match those of [key] when the session is flushed. */
+  fun delete(key: Any)
+
+  /** How many items the next [flush] writes. */
+  val pendingWrites: Int
+
+  /** Writes the changes made since the last flush, as configured by [SessionConfig.flushMode]. */
+  fun flush()
+
+  /** Forgets the items the session loaded, and the changes that it hasn't written. */
+  fun clear()
+}
+
+class SessionConfig internal constructor(
+  val flushMode: SessionFlushMode,
+  val consistentReads: Boolean,
+) {
+  class Builder {
+    private var flushMode = SessionFlushMode.TRANSACTION
+    private var consistentReads = false
+
+    fun flushMode(flushMode: SessionFlushMode) = apply { this.flushMode = flushMode }
+
+    fun consistentReads(consistentReads: Boolean) = apply { this.consistentReads = consistentReads }
+
+    fun build() = SessionConfig(
+      flushMode,
+      consistentReads
+    )
+  }
+}
+
+/** How a [Session] writes its changes. */
+enum class SessionFlushMode {
+  /**
+   * Writes every change in one [LogicalDb.transactionWrite], so either all of them are written or
+   * none is. Saves check the version attributes of their items. See [LogicalDb.transactionWrite]
+   * for the limits of a transaction.
+   */
+  TRANSACTION,
+
+  /**
+   * Writes the changes with [LogicalDb.batchWrite], 25 at a time, and throws
+   * [UnprocessedWriteException] if some of them weren't written. Like [LogicalDb.batchWrite],
+   * version attributes are not checked.
+   */
+  BATCH_WRITE,
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import app.cash.tempest2.internal.BatchFanOut
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.ExpiredIteratorException
+import software.amazon.awssdk.services.dynamodb.model.GetRecordsResponse
+import software.amazon.awssdk.services.dynamodb.model.OperationType
+import software.amazon.awssdk.services.dynamodb.model.Record
+import software.amazon.awssdk.services.dynamodb.model.Shard
+import software.amazon.awssdk.services.dynamodb.model.ShardIteratorType
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient
+import java.io.Closeable
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.function.Consumer
+import kotlin.reflect.KClass
+
+/**
+ * Reads the DynamoDB stream of a [LogicalTable] and hands its changes to a handler, decoded into
+ * the item types of the table. Create one with [LogicalTable.streamProcessor].
+ *
+ * Shards are read in parallel, up to [StreamProcessorConfig.maxConcurrentShards] at once, and the
+ * changes of a shard are handed over in order, one [StreamBatch] at a time. A shard is only read
+ * once its parent shard is read to its end, so the changes to a key are always in order.
+ *
+ * If [StreamProcessorConfig.checkpointStore] is set, the sequence number of the last change of
+ * each batch is saved once the handler returns, and the processor resumes from there when it is
+ * created again. A batch may be handled again after a restart or a failure, but none is skipped.
+ *
+ * The handler is called concurrently from the threads of up to
+ * [StreamProcessorConfig.maxConcurrentShards] shards, so it must be safe to call from multiple
+ * threads. Batches of the same shard are never handled concurrently.
+ *
+ * A record that is of one of the item types but fails to decode fails the read of its shard, like
+ * a handler that throws, and the shard resumes from its last handled batch on the next read.
+ */
+class StreamProcessor internal constructor(
+  private val dynamoDbStreams: DynamoDbStreamsClient,
+  val streamArn: String,
+  val config: StreamProcessorConfig,
+  executor: Executor,
+  private val decode: (Record) -> ItemChange?,
+) : Closeable {
+  /** The shards of the stream, in the order the stream lists them, which puts parents first. */
+  private val shards = LinkedHashMap<String, ShardReader>()
+  private var discovered = false
+  private val fanOut = BatchFanOut(config.executor ?: executor, config.maxConcurrentShards)
+  private var scheduler: ScheduledExecutorService? = null
+
+  /** Why the latest background poll failed, or null if it didn't. */
+  @Volatile
+  var lastFailure: Throwable? = null
+    private set
+
+  /**
+   * Reads every change that the stream has now and hands it to [handler]. Returns how many
+   * records were read, including those of item types that weren't asked for.
+   */
+  @Synchronized
+  fun processAvailable(handler: (StreamBatch) -> Unit): Int {
+    discoverShards()
+    var records = 0
+    while (true) {
+      val readable = shards.values.filter { it.isReadable }
+      val counts = fanOut.map(readable) { it.read(handler) }
+      records += counts.sum()
+      // Shards that ended may have children to read now.
+      if (counts.all { it == 0 } && readable.none { it.finished }) return records
+    }
+  }
+
+  fun processAvailable(handler: Consumer<StreamBatch>) = processAvailable(handler::accept)
+
+  /**
+   * Processes changes every [StreamProcessorConfig.pollInterval] on a background thread until
+   * this is closed. A poll that fails is retried from the last batch that was handled.
+   */
+  @Synchronized
+  fun start(handler: (StreamBatch) -> Unit) {
+    check(scheduler == null) { "already started" }
+    scheduler = Executors.newSingleThreadScheduledExecutor { runnable ->
+      Thread(runnable, "tempest-stream-processor").apply { isDaemon = true }
+    }.apply {
+      scheduleWithFixedDelay(
+        {
+          lastFailure = try {
+            processAvailable(handler)
+            null
+          } catch (e: Exception) {
+            e
+          }
+        },
+        0L,
+        config.pollInterval.toNanos(),
+        TimeUnit.NANOSECONDS
+      )
+    }
+  }
+
+  fun start(handler: Consumer<StreamBatch>) = start(handler::accept)
+
+  override fun close() {
+    val scheduler = synchronized(this) { scheduler.also { scheduler = null } } ?: return
+    scheduler.shutdown()
+    scheduler.awaitTermination(1, TimeUnit.MINUTES)
+  }
+
+  private fun discoverShards() {
+    val describedShards = mutableListOf<Shard>()
+    var exclusiveStartShardId: String? = null
+    do {
+      val description = dynamoDbStreams.describeStream {
+        it.streamArn(streamArn).exclusiveStartShardId(exclusiveStartShardId)
+      }.streamDescription()
+      describedShards += description.shards()
+      exclusiveStartShardId = description.lastEvaluatedShardId()
+    } while (exclusiveStartShardId != null)
+
+    for (shard in describedShards) {
+      if (shard.shardId() in shards) continue
+      val checkpoint = config.checkpointStore?.loadStreamCheckpoint(checkpointName(shard.shardId()))
+      val closed = shard.sequenceNumberRange()?.endingSequenceNumber() != null
+      // Shards that split after the processor started are read from their start.
+      val startingPosition = if (discovered) ShardIteratorType.TRIM_HORIZON else config.startingPosition
+      shards[shard.shardId()] = ShardReader(
+        shard,
+        lastSequenceNumber = checkpoint?.lastSequenceNumber,
+        startingPosition = startingPosition,
+        finished = checkpoint?.isDone == true || (checkpoint == null && closed && startingPosition == ShardIteratorType.LATEST),
+        checkpoint = checkpoint,
+      )
+    }
+    // Forget shards that aged out of the stream.
+    shards.keys.retainAll(describedShards.map { it.shardId() }.toSet())
+    discovered = true
+  }
+
+  private fun checkpointName(shardId: String) = "${config.checkpointName}/$shardId"
+
+  private inner class ShardReader(
+    shard: Shard,
+    /** The last change that was handled, which the shard resumes after. */
+    private var lastSequenceNumber: String?,
+    private val startingPosition: ShardIteratorType,
+    @Volatile var finished: Boolean,
+    private var checkpoint: StreamCheckpoint?,
+  ) {
+    private val shardId: String = shard.shardId()
+    private val parentShardId: String? = shard.parentShardId()
+    private var iterator: String? = null
+
+    val isReadable: Boolean
+      get() = !finished && shards[parentShardId]?.finished != false
+
+    /** Hands the next batch of this shard to [handler] and returns how many records it read. */
+    fun read(handler: (StreamBatch) -> Unit): Int {
+      val response = try {
+        getRecords(iterator ?: newIterator())
+      } catch (e: ExpiredIteratorException) {
+        getRecords(newIterator())
+      }
+      val records = response.records()
+      val changes = records.mapNotNull(decode)
+      if (changes.isNotEmpty()) {
+        handler(StreamBatch(shardId, changes))
+      }
+      if (records.isNotEmpty()) {
+        lastSequenceNumber = records.last().dynamodb().sequenceNumber()
+      }
+      // A closed shard has no next iterator once it is read to its end.
+      iterator = response.nextShardIterator()
+      finished = iterator == null
+      if (records.isNotEmpty() || finished) {
+        saveCheckpoint(changes.size)
+      }
+      return records.size
+    }
+
+    private fun getRecords(iterator: String): GetRecordsResponse {
+      this.iterator = iterator
+      return dynamoDbStreams.getRecords { it.shardIterator(iterator).limit(config.batchSize) }
+    }
+
+    private fun newIterator(): String {
+      val lastSequenceNumber = lastSequenceNumber
+      return dynamoDbStreams.getShardIterator {
+        it.streamArn(streamArn).shardId(shardId)
+        if (lastSequenceNumber != null) {
+          it.shardIteratorType(ShardIteratorType.AFTER_SEQUENCE_NUMBER).sequenceNumber(lastSequenceNumber)
+        } else {
+          it.shardIteratorType(startingPosition)
+        }
+      }.shardIterator()
+    }
+
+    private fun saveCheckpoint(changeCount: Int) {
+      val store = config.checkpointStore ?: return
+      val checkpoint = StreamCheckpoint(
+        lastSequenceNumber = lastSequenceNumber,
+        isDone = finished,
+        batchCount = (checkpoint?.batchCount ?: 0L) + 1,
+        changeCount = (checkpoint?.changeCount ?: 0L) + changeCount,
+      )
+      store.saveStreamCheckpoint(checkpointName(shardId), checkpoint)
+      this.checkpoint = checkpoint
+    }
+  }
+}
+
+class StreamProcessorConfig internal constructor(
+  /** The most records read from a shard at once, which bounds the changes in a batch. */
+  val batchSize: Int,
+  val pollInterval: Duration,
+  val maxConcurrentShards: Int,
+  /** Where shards are read from, or null to use [LogicalDbConfig.executor]. */
+  val executor: Executor?,
+  /**
+   * Where shards without a checkpoint start: [ShardIteratorType.TRIM_HORIZON] for the oldest change
+   * in the stream, or [ShardIteratorType.LATEST] for changes made after the processor starts.
+   */
+  val startingPosition: ShardIteratorType,
+  /** Where the progress of each shard is saved, as a [StreamCheckpoint] named `checkpointName/shardId`. */
+  val checkpointStore: CheckpointStore?,
+  val checkpointName: String?,
+) {
+  class Builder {
+    private var batchSize = 1000
+    private var pollInterval = Duration.ofSeconds(1)
+    private var maxConcurrentShards = 10
+    private var executor: Executor? = null
+    private var startingPosition = ShardIteratorType.TRIM_HORIZON
+    private var checkpointStore: CheckpointStore? = null
+    private var checkpointName: String? = null
+
+    fun batchSize(batchSize: Int) = apply {
+      require(batchSize in 1..1000) { "batchSize must be between 1 and 1000" }
+      this.batchSize = batchSize
+    }
+
+    fun pollInterval(pollInterval: Duration) = apply { this.pollInterval = pollInterval }
+
+    fun maxConcurrentShards(maxConcurrentShards: Int) = apply {
+      require(maxConcurrentShards > 0) { "maxConcurrentShards must be positive" }
+      this.maxConcurrentShards = maxConcurrentShards
+    }
+
+    fun executor(executor: Executor?) = apply { this.executor = executor }
+
+    fun startingPosition(startingPosition: ShardIteratorType) = apply {
+      require(startingPosition == ShardIteratorType.TRIM_HORIZON || startingPosition == ShardIteratorType.LATEST) {
+        "startingPosition must be TRIM_HORIZON or LATEST"
+      }
+      this.startingPosition = startingPosition
+    }
+
+    fun checkpoints(checkpointStore: CheckpointStore, checkpointName: String) = apply {
+      this.checkpointStore = checkpointStore
+      this.checkpointName = checkpointName
+    }
+
+    fun build() = StreamProcessorConfig(
+      batchSize,
+      pollInterval,
+      maxConcurrentShards,
+      executor,
+      startingPosition,
+      checkpointStore,
+      checkpointName,
+    )
+  }
+}
+
+/** Consecutive changes of one shard of a stream. */
+data class StreamBatch(
+  val shardId: String,
+  val changes: List<ItemChange>,
+)
+
+/** A change to an item that a DynamoDB stream reported. */
+data class ItemChange(
+  val itemType: KClass<*>,
+  val eventName: OperationType,
+  val sequenceNumber: String,
+  val approximateCreationDateTime: Instant?,
+  /** The primary key of the item. */
+  val keys: Map<String, AttributeValue>,
+  /** The item before the change, if the stream includes old images and the item existed. */
+  val oldItem: Any?,
+  /** The item after the change, if the stream includes new images and the item still exists. */
+  val newItem: Any?,
+)
@@ -17,13 +17,15 @@
 package app.cash.tempest2
 
 /**
- * A control flow abstraction for paging transactional writes.
+ * A control flow abstraction for paging transactional writes. Pages hold at most
+ * [maxTransactionItems] writes and [maxTransactionBytes] bytes of items.
  */
 class WritingPager<T> @JvmOverloads constructor(
   private val db: LogicalDb,
   private val updates: List<T>,
   private val maxTransactionItems: Int = 25,
-  private val handler: Handler<T>
+  private val handler: Handler<T>,
+  private val maxTransactionBytes: Long = ItemSize.MAX_TRANSACTION_BYTES
 ) {
   /** The number of updates successfully applied. */
   var updatedCount = 0
@@ -44,7 +46,8 @@ class WritingPager<T> @JvmOverloads constructor(
 
   /** Returns the number of entities that were updated. */
   private fun updatePage(): Int {
-    val (page, appliedCount) = buildTransactionPage(remainingUpdates, maxTransactionItems, handler)
+    val (page, appliedCount) =
+      buildTransactionPage(remainingUpdates, maxTransactionItems, maxTransactionBytes, db::itemSize, handler)
       ?: return 0
 
     db.transactionWrite(page)
@@ -62,13 +65,15 @@ class WritingPager<T> @JvmOverloads constructor(
 }
 
 /**
- * A control flow abstraction for paging transactional writes using AsyncLogicalDb.
+ * A control flow abstraction for paging transactional writes using AsyncLogicalDb. Pages hold at
+ * most [maxTransactionItems] writes and [maxTransactionBytes] bytes of items.
  */
 class AsyncWritingPager<T> @JvmOverloads constructor(
   private val db: AsyncLogicalDb,
   private val updates: List<T>,
   private val maxTransactionItems: Int = 25,
-  private val handler: Handler<T>
+  private val handler: Handler<T>,
+  private val maxTransactionBytes: Long = ItemSize.MAX_TRANSACTION_BYTES
 ) {
   /** The number of updates successfully applied. */
   var updatedCount = 0
@@ -89,7 +94,8 @@ class AsyncWritingPager<T> @JvmOverloads constructor(
 
   /** Returns the number of entities that were updated. */
   private suspend fun updatePage(): Int {
-    val (page, appliedCount) = buildTransactionPage(remainingUpdates, maxTransactionItems, handler)
+    val (page, appliedCount) =
+      buildTransactionPage(remainingUpdates, maxTransactionItems, maxTransactionBytes, db::itemSize, handler)
       ?: return 0
 
     db.transactionWrite(page)
@@ -140,32 +146,38 @@ interface WritingPagerHandler<T> {
 fun <DB : LogicalDb, T> DB.transactionWritingPager(
   items: List<T>,
   maxTransactionItems: Int = 25,
-  handler: WritingPager.Handler<T>
+  handler: WritingPager.Handler<T>,
+  maxTransactionBytes: Long = ItemSize.MAX_TRANSACTION_BYTES
 ): WritingPager<T> {
   return WritingPager(
     db = this,
     maxTransactionItems = maxTransactionItems,
     updates = items,
-    handler = handler
+    handler = handler,
+    maxTransactionBytes = maxTransactionBytes
   )
 }
 
 fun <DB : AsyncLogicalDb, T> DB.transactionWritingPager(
   items: List<T>,
   maxTransactionItems: Int = 25,
-  handler: AsyncWritingPager.Handler<T>
+  handler: AsyncWritingPager.Handler<T>,
+  maxTransactionBytes: Long = ItemSize.MAX_TRANSACTION_BYTES
 ): AsyncWritingPager<T> {
   return AsyncWritingPager(
     db = this,
     maxTransactionItems = maxTransactionItems,
     updates = items,
-    handler = handler
+    handler = handler,
+    maxTransactionBytes = maxTransactionBytes
   )
 }
 
 internal fun <T> buildTransactionPage(
   remainingUpdates: List<T>,
   maxTransactionItems: Int,
+  maxTransactionBytes: Long,
+  itemSize: (Any) -> Long,
   handler: WritingPagerHandler<T>
 ): Pair<TransactionWriteSet, Int>? {
   check(remainingUpdates.isNotEmpty())
@@ -173,6 +185,7 @@ internal fun <T> buildTransactionPage(
   val currentPageSize = handler.beforePage(remainingUpdates, maxTransactionItems)
   val currentPage = remainingUpdates.take(currentPageSize)
   val writeSet = TransactionWriteSet.Builder()
+  var writeSetBytes = 0L
   val appliedUpdates = mutableListOf<T>()
 
   while (appliedUpdates.size < currentPage.size &&
@@ -186,8 +199,22 @@ internal fun <T> buildTransactionPage(
     if (writeSet.size + itemWriteSet.size > maxTransactionItems) {
       break // This item would have caused us to exceed the page limit. Skip it.
     }
+    val itemBytes = itemWriteSet.build().operations.sumOf { operation ->
+      itemSize(operation.subject).also { bytes ->
+        require(bytes <= ItemSize.MAX_ITEM_BYTES) {
+          "${operation.subject} is $bytes bytes, more than the ${ItemSize.MAX_ITEM_BYTES} bytes that DynamoDB accepts"
+        }
+      }
+    }
+    if (writeSetBytes + itemBytes > maxTransactionBytes) {
+      check(appliedUpdates.isNotEmpty()) {
+        "$newEntity writes $itemBytes bytes, more than a page of $maxTransactionBytes bytes"
+      }
+      break // Same for the page's size in bytes.
+    }
 
     writeSet.addAll(itemWriteSet)
+    writeSetBytes += itemBytes
     appliedUpdates += newEntity
   }
 
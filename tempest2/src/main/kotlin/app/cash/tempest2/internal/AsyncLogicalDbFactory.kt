@@ -32,9 +32,16 @@ import app.cash.tempest2.AsyncQueryable
 import app.cash.tempest2.AsyncScannable
 import app.cash.tempest2.AsyncSecondaryIndex
 import app.cash.tempest2.AsyncView
+import app.cash.tempest2.ItemEncoding
+import app.cash.tempest2.KeyCondition
+import app.cash.tempest2.LogicalDbConfig
+import app.cash.tempest2.Offset
+import app.cash.tempest2.Page
 import app.cash.tempest2.TableNameResolver
+import org.reactivestreams.Publisher
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient
+import software.amazon.awssdk.enhanced.dynamodb.MappedTableResource
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema
 import java.lang.reflect.Method
 import kotlin.reflect.KClass
@@ -42,21 +49,41 @@ import kotlin.reflect.full.isSubclassOf
 import kotlin.reflect.jvm.jvmErasure
 
 internal class AsyncLogicalDbFactory(
-  private val dynamoDbEnhancedClient: DynamoDbEnhancedAsyncClient
+  private val dynamoDbEnhancedClient: DynamoDbEnhancedAsyncClient,
+  private val config: LogicalDbConfig,
 ) : AsyncLogicalTable.Factory {
   private val schema = Schema.create(
     V2StringAttributeValue,
     V2MapAttributeValue.Factory,
     V2ForIndexAnnotation,
     V2AttributeAnnotation,
-    V2RawItemTypeFactory()
+    V2RawItemTypeFactory(),
+    attributeValueConverterFactory = when (config.itemEncoding) {
+      ItemEncoding.RAW_ITEM -> null
+      ItemEncoding.ATTRIBUTE_MAP -> V2AttributeValueConverter.Factory
+    },
+    generatedCodecs = GeneratedCode,
   )
 
+  private val projectedReads = run {
+    require(config.projectedReadsClient == null) { "AsyncLogicalDb projects reads with asyncProjectedReadsClient, not projectedReadsClient" }
+    ProjectedReads(null, config.asyncProjectedReadsClient)
+  }
+
+  private val dynamoDbLogicalDb = DynamoDbLogicalDb(
+    DynamoDbLogicalDb.MappedTableResourceFactory.simple(dynamoDbEnhancedClient::table),
+    schema,
+    config.itemEncoding,
+    config.batchWriteRetryPolicy,
+    config.itemCache,
+    projectedReads,
+    config.executor,
+  )
+
+  /** Batches of the logical db, which secondary indexes also load their items with. */
+  private val logicalDb by lazy { dynamoDbLogicalDb.async(dynamoDbEnhancedClient, this) }
+
   fun <DB : AsyncLogicalDb> logicalDb(dbType: KClass<DB>, tableNameResolver: TableNameResolver?): DB {
-    val logicalDb = DynamoDbLogicalDb(
-      DynamoDbLogicalDb.MappedTableResourceFactory.simple(dynamoDbEnhancedClient::table),
-      schema,
-    ).async(dynamoDbEnhancedClient, this)
     val methodHandlers = mutableMapOf<Method, MethodHandler>()
     for (member in dbType.declaredMembers) {
       if (!member.returnType.jvmErasure.isSubclassOf(AsyncLogicalTable::class)) {
@@ -74,6 +101,11 @@ internal class AsyncLogicalDbFactory(
     val rawItemType = schema.addRawItem(tableName, tableType.rawItemType)
     val tableSchema = TableSchemaFactory.create<Any>(rawItemType.type.java)
     val dynamoDbTable = dynamoDbEnhancedClient.table(rawItemType.tableName, tableSchema)
+    val itemTableSchema = itemTableSchema<Any>(rawItemType, config.itemEncoding)
+    val itemDynamoDbTable =
+      if (itemTableSchema === tableSchema) dynamoDbTable else dynamoDbEnhancedClient.table(rawItemType.tableName, itemTableSchema)
+    dynamoDbLogicalDb.addTable(rawItemType, itemDynamoDbTable as MappedTableResource<Any>)
+    val partitionQuery = PartitionQuery(schema, rawItemType, config.itemEncoding, itemTableSchema).async(itemDynamoDbTable)
     val logicalTable =
       object :
         AsyncLogicalTable<RI>,
@@ -81,10 +113,16 @@ internal class AsyncLogicalDbFactory(
           rawItemType.codec as Codec<RI, Any>,
           rawItemType.codec as Codec<RI, Any>,
           tableSchema,
+          attributeNames = null,
+          config.itemCache?.table(rawItemType.tableName, rawItemType.type, tableSchema.tableMetadata(), itemType = null),
+          projectedReads,
         ).async(dynamoDbTable),
-        AsyncInlineView.Factory by InlineViewFactory(rawItemType, tableSchema, dynamoDbTable),
-        AsyncSecondaryIndex.Factory by SecondaryIndexFactory(rawItemType, tableSchema, dynamoDbTable) {
+        AsyncInlineView.Factory by InlineViewFactory(rawItemType, itemTableSchema, itemDynamoDbTable),
+        AsyncSecondaryIndex.Factory by SecondaryIndexFactory(rawItemType, itemTableSchema, itemDynamoDbTable) {
         override fun <T : Any> codec(type: KClass<T>): app.cash.tempest2.Codec<T, RI> = CodecAdapter(schema.codec(type))
+
+        override fun queryPartitionAsync(key: Any, itemTypes: Set<KClass<*>>, consistentRead: Boolean) =
+          partitionQuery.queryPartitionAsync(key, itemTypes, consistentRead)
       }
     val methodHandlers = mutableMapOf<Method, MethodHandler>()
     for (member in tableType.declaredMembers) {
@@ -118,12 +156,18 @@ internal class AsyncLogicalDbFactory(
     ): AsyncInlineView<K, I> {
       val item = schema.addItem(itemType, rawItemType.type)
       val key = schema.addKey(keyType, itemType)
+      val itemCodec = item.codecFor(config.itemEncoding) as Codec<I, Any>
       return object :
         AsyncInlineView<K, I>,
         AsyncView<K, I> by DynamoDbView(
-          key.codec as Codec<K, Any>,
-          item.codec as Codec<I, Any>,
+          key.codecFor(config.itemEncoding) as Codec<K, Any>,
+          itemCodec,
           tableSchema,
+          item.attributeNames,
+          config.itemCache?.table(rawItemType.tableName, rawItemType.type, tableSchema.tableMetadata(), itemType) {
+            itemCodec.toApp(tableSchema.mapToItem(it))
+          },
+          projectedReads,
         ).async(dynamoDbTable),
         AsyncQueryable<K, I> by queryable(
           rawItemType,
@@ -153,21 +197,34 @@ internal class AsyncLogicalDbFactory(
     ): AsyncSecondaryIndex<K, I> {
       val item = schema.addItem(itemType, rawItemType.type)
       val key = schema.addKey(keyType, itemType)
+      val queryable = queryable<K, I>(
+        rawItemType,
+        item,
+        key,
+        tableSchema,
+        dynamoDbTable,
+      )
       return object :
         AsyncSecondaryIndex<K, I>,
-        AsyncQueryable<K, I> by queryable(
-          rawItemType,
-          item,
-          key,
-          tableSchema,
-          dynamoDbTable,
-        ),
+        AsyncQueryable<K, I> by queryable,
         AsyncScannable<K, I> by scannable(
           item,
           key,
           tableSchema,
           dynamoDbTable,
-        ) {}
+        ) {
+        override fun queryAndHydrateAsync(
+          keyCondition: KeyCondition<K>,
+          asc: Boolean,
+          pageSize: Int,
+          initialOffset: Offset<K>?
+        ): Publisher<Page<K, I>> {
+          if (queryable !is DynamoDbQueryable<K, I, *>.Async) {
+            throw UnsupportedOperationException("Require ${rawItemType.type} to have a range key. You can query a table or an index only if it has a composite primary key (partition key and sort key)")
+          }
+          return queryable.queryAndHydrateAsync(keyCondition, asc, pageSize, initialOffset, itemType, logicalDb)
+        }
+      }
     }
   }
 
@@ -184,9 +241,10 @@ internal class AsyncLogicalDbFactory(
     return DynamoDbQueryable(
       keyType.secondaryIndexName,
       itemType.attributeNames,
-      keyType.codec as Codec<K, Any>,
-      itemType.codec as Codec<I, Any>,
-      tableSchema,
+      keyType.codecFor(config.itemEncoding) as Codec<K, Any>,
+      itemType.codecFor(config.itemEncoding) as Codec<I, Any>,
+      tableSchema,      config.executor,
+      config.maxConcurrentBatchRequests,
     ).async(dynamoDbTable)
   }
 
@@ -199,9 +257,9 @@ internal class AsyncLogicalDbFactory(
     return DynamoDbScannable(
       keyType.secondaryIndexName,
       itemType.attributeNames,
-      keyType.codec as Codec<K, Any>,
-      itemType.codec as Codec<I, Any>,
-      tableSchema,
+      keyType.codecFor(config.itemEncoding) as Codec<K, Any>,
+      itemType.codecFor(config.itemEncoding) as Codec<I, Any>,
+      tableSchema,      config.executor,
     ).async(dynamoDbTable)
   }
 
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import software.amazon.awssdk.enhanced.dynamodb.AttributeConverter
+import software.amazon.awssdk.enhanced.dynamodb.EnhancedType
+import software.amazon.awssdk.enhanced.dynamodb.TableMetadata
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema
+import software.amazon.awssdk.enhanced.dynamodb.internal.EnhancedClientUtils
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+
+/**
+ * A [TableSchema] whose items are attribute value maps. Items pass through unchanged, while the
+ * metadata and the attribute converters come from the raw item's table schema, so indexes and
+ * extensions behave exactly as they do for raw items.
+ */
+internal class AttributeMapTableSchema(
+  private val rawItemTableSchema: TableSchema<Any>
+) : TableSchema<Map<String, AttributeValue>> {
+
+  override fun mapToItem(attributeMap: Map<String, AttributeValue>) = attributeMap
+
+  override fun itemToMap(
+    item: Map<String, AttributeValue>,
+    ignoreNulls: Boolean
+  ): Map<String, AttributeValue> {
+    if (ignoreNulls) {
+      if (item.values.none { EnhancedClientUtils.isNullAttributeValue(it) }) return item
+      return item.filterValues { !EnhancedClientUtils.isNullAttributeValue(it) }
+    }
+    // Like a raw item, absent attributes are explicitly null so that updates remove them.
+    val attributeValues = LinkedHashMap(item)
+    for (attributeName in rawItemTableSchema.attributeNames()) {
+      attributeValues.putIfAbsent(attributeName, NULL_ATTRIBUTE_VALUE)
+    }
+    return attributeValues
+  }
+
+  override fun itemToMap(
+    item: Map<String, AttributeValue>,
+    attributes: Collection<String>
+  ): Map<String, AttributeValue> {
+    val attributeValues = LinkedHashMap<String, AttributeValue>()
+    for (attributeName in attributes) {
+      val attributeValue = attributeValue(item, attributeName) ?: continue
+      attributeValues[attributeName] = attributeValue
+    }
+    return attributeValues
+  }
+
+  /** Like a bean table schema, returns null for absent and explicitly null attributes. */
+  override fun attributeValue(item: Map<String, AttributeValue>, attributeName: String): AttributeValue? =
+    item[attributeName]?.takeUnless { EnhancedClientUtils.isNullAttributeValue(it) }
+
+  override fun tableMetadata(): TableMetadata = rawItemTableSchema.tableMetadata()
+
+  override fun itemType(): EnhancedType<Map<String, AttributeValue>> =
+    EnhancedType.mapOf(String::class.java, AttributeValue::class.java)
+
+  override fun attributeNames(): List<String> = rawItemTableSchema.attributeNames()
+
+  override fun isAbstract() = false
+
+  @Suppress("UNCHECKED_CAST")
+  override fun converterForAttribute(key: Any): AttributeConverter<Map<String, AttributeValue>> =
+    rawItemTableSchema.converterForAttribute(key) as AttributeConverter<Map<String, AttributeValue>>
+
+  companion object {
+    private val NULL_ATTRIBUTE_VALUE = AttributeValue.builder().nul(true).build()
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Sends the requests of a batch operation concurrently, with at most [maxConcurrency] of them in
+ * flight. The calling thread sends requests too, so that a busy [executor] can't stall it.
+ */
+internal class BatchFanOut(
+  private val executor: Executor?,
+  private val maxConcurrency: Int,
+) {
+
+  /** Returns the result of [send] for each of [requests], in the same order. */
+  fun <T, R> map(requests: List<T>, send: (T) -> R): List<R> {
+    val workerCount = minOf(maxConcurrency, requests.size)
+    if (executor == null || workerCount <= 1) return requests.map(send)
+
+    val results = arrayOfNulls<Any>(requests.size)
+    val next = AtomicInteger()
+    val failure = AtomicReference<Throwable>()
+    val worker = Runnable {
+      // Stop starting requests once one of them has failed.
+      while (failure.get() == null) {
+        val index = next.getAndIncrement()
+        if (index >= requests.size) break
+        try {
+          results[index] = send(requests[index])
+        } catch (e: Throwable) {
+          failure.compareAndSet(null, e)
+        }
+      }
+    }
+    val workers = (1 until workerCount).mapNotNull {
+      try {
+        CompletableFuture.runAsync(worker, executor)
+      } catch (e: RejectedExecutionException) {
+        null
+      }
+    }
+    worker.run()
+    CompletableFuture.allOf(*workers.toTypedArray()).join()
+    failure.get()?.let { throw it }
+    @Suppress("UNCHECKED_CAST")
+    return results.asList() as List<R>
+  }
+
+  companion object {
+    /**
+     * An executor that starts a virtual thread per task, or null before Java 21. Virtual threads
+     * are cheap enough to block on a DynamoDB request each.
+     */
+    val virtualThreadExecutor: Executor? by lazy {
+      try {
+        Executors::class.java.getMethod("newVirtualThreadPerTaskExecutor").invoke(null) as ExecutorService
+      } catch (e: ReflectiveOperationException) {
+        null
+      } catch (e: UnsupportedOperationException) {
+        null
+      }
+    }
+
+    /** An executor for tasks that block, like synchronous DynamoDB requests. */
+    val blockingExecutor: Executor by lazy {
+      virtualThreadExecutor ?: Executors.newCachedThreadPool { runnable ->
+        Thread(runnable, "tempest-batch").apply { isDaemon = true }
+      }
+    }
+  }
+}
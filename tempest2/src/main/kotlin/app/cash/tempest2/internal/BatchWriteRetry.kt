@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest2.BatchWriteRetryPolicy
+import java.time.Duration
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * The retries of a single batch write. Delays use exponential backoff with full jitter, which
+ * spreads retries of concurrent writers apart instead of resending them all at once.
+ */
+internal class BatchWriteRetry(
+  private val policy: BatchWriteRetryPolicy,
+  private val nanoTime: () -> Long = System::nanoTime,
+  private val random: (Long) -> Long = { bound -> ThreadLocalRandom.current().nextLong(bound) },
+) {
+  private val deadline = nanoTime() + policy.deadline.toNanos()
+
+  var retries = 0
+    private set
+  var retriedWrites = 0
+    private set
+
+  /**
+   * Returns how long to wait before resending [unprocessedWrites] writes, or null if they should
+   * be returned to the caller instead.
+   */
+  fun nextDelay(unprocessedWrites: Int): Duration? {
+    if (unprocessedWrites == 0 || retries >= policy.maxRetries) return null
+    val baseDelay = policy.baseDelay.toNanos()
+    val maxDelay = policy.maxDelay.toNanos()
+    // baseDelay * 2^retries, capped at maxDelay without overflowing.
+    val backoff = if (retries < 62 && baseDelay <= maxDelay shr retries) baseDelay shl retries else maxDelay
+    val delay = if (backoff <= 0) 0L else random(backoff + 1)
+    if (nanoTime() + delay > deadline) return null
+    retries++
+    retriedWrites += unprocessedWrites
+    return Duration.ofNanos(delay)
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest2.Offset
+import app.cash.tempest2.Page
+import app.cash.tempest2.ReadCapacityLimiter
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+
+/**
+ * Paces the pages of one scan or query, or of one segment of a parallel scan, to a shared
+ * [limiter]. Requests must return the consumed capacity.
+ *
+ * Pages start at [pageSize] items. Once a page shows how much an item costs, later pages are cut
+ * to what the limiter's burst can pay for, and each request reserves its expected cost up front
+ * so that concurrent requests don't all start on the same capacity.
+ */
+internal class CapacityPacer(
+  private val limiter: ReadCapacityLimiter,
+  private val pageSize: Int,
+) {
+  @Volatile private var unitsPerItem = 0.0
+
+  fun <K, I> fetchBlocking(fetchPage: (pageSize: Int) -> Page<K, I>): Page<K, I> {
+    val pageSize = nextPageSize()
+    val reserved = unitsPerItem * pageSize
+    limiter.acquire(reserved)
+    val page = try {
+      fetchPage(pageSize)
+    } catch (e: Throwable) {
+      limiter.consume(-reserved)
+      throw e
+    }
+    record(pageSize, reserved, page)
+    return page
+  }
+
+  suspend fun <K, I> fetch(fetchPage: suspend (pageSize: Int) -> Page<K, I>): Page<K, I> {
+    val pageSize = nextPageSize()
+    val reserved = unitsPerItem * pageSize
+    limiter.awaitAcquire(reserved)
+    val page = try {
+      fetchPage(pageSize)
+    } catch (e: Throwable) {
+      limiter.consume(-reserved)
+      throw e
+    }
+    record(pageSize, reserved, page)
+    return page
+  }
+
+  private fun nextPageSize(): Int {
+    val unitsPerItem = unitsPerItem
+    if (unitsPerItem <= 0.0) return pageSize
+    return (limiter.burstUnits / unitsPerItem).toInt().coerceIn(1, pageSize)
+  }
+
+  private fun record(pageSize: Int, reserved: Double, page: Page<*, *>) {
+    val consumed = page.consumedCapacity?.capacityUnits() ?: 0.0
+    limiter.consume(consumed - reserved)
+    // The last page can stop short of the page size, so it says little about the cost of an item.
+    if (page.hasMorePages && consumed > 0.0) {
+      unitsPerItem = consumed / pageSize
+    }
+  }
+}
+
+/** Returns the pages that start at [initialOffset], each fetched once [limiter] has capacity. */
+internal fun <K, I> pacedPages(
+  limiter: ReadCapacityLimiter,
+  pageSize: Int,
+  initialOffset: Offset<K>?,
+  fetchPage: suspend (pageSize: Int, offset: Offset<K>?) -> Page<K, I>,
+): Flow<Page<K, I>> = flow {
+  val pacer = CapacityPacer(limiter, pageSize)
+  var offset = initialOffset
+  do {
+    val page = pacer.fetch { fetchPage(it, offset) }
+    emit(page)
+    offset = page.offset
+  } while (offset != null)
+}
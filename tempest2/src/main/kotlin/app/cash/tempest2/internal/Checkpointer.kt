@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest2.Checkpoint
+import app.cash.tempest2.CheckpointStore
+import app.cash.tempest2.Offset
+import app.cash.tempest2.Page
+import app.cash.tempest2.SegmentPage
+import app.cash.tempest2.WorkerId
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+
+/**
+ * Saves the progress of the scans or queries named [name] to [store] after every page and
+ * resumes them from there.
+ */
+internal class Checkpointer<K : Any>(
+  private val store: CheckpointStore,
+  val name: String,
+  private val encodeOffset: (Offset<K>) -> Map<String, AttributeValue>,
+  private val decodeOffset: (Map<String, AttributeValue>) -> Offset<K>,
+) {
+
+  fun checkpoints(): List<Checkpoint> = store.load(name).sortedBy { it.segment }
+
+  /** Returns the pages of a scan or a query that isn't parallel, from where it stopped. */
+  fun <I> pages(fetchPage: (Offset<K>?) -> Page<K, I>): Sequence<Page<K, I>> = sequence {
+    var checkpoint = resume(totalSegments = 1)[0]
+    if (checkpoint?.isDone == true) return@sequence
+    var offset = checkpoint?.offset()
+    do {
+      val page = fetchPage(offset)
+      yield(page)
+      checkpoint = save(checkpoint, WorkerId(0, 1), page)
+      offset = page.offset
+    } while (offset != null)
+  }
+
+  /** Scans the segments of a parallel scan that aren't done, each from where it stopped. */
+  fun <I> parallelScan(
+    scanner: ParallelScanner,
+    totalSegments: Int,
+    scanPage: (WorkerId, Offset<K>?) -> Page<K, I>,
+    consumer: (SegmentPage<K, I>) -> Unit,
+  ) {
+    val checkpoints = resume(totalSegments).toMutableMap()
+    val initialOffsets = checkpoints.mapValues { (_, checkpoint) -> checkpoint.offset() }
+    scanner.scan(
+      scanPage = scanPage,
+      consumer = { segmentPage ->
+        consumer(segmentPage)
+        val segment = segmentPage.workerId.segment
+        checkpoints[segment] = save(checkpoints[segment], segmentPage.workerId, segmentPage.page)
+      },
+      segments = (0 until totalSegments).filter { checkpoints[it]?.isDone != true },
+      initialOffset = { segment -> initialOffsets[segment] }
+    )
+  }
+
+  private fun resume(totalSegments: Int): Map<Int, Checkpoint> {
+    val checkpoints = store.load(name)
+    for (checkpoint in checkpoints) {
+      check(checkpoint.totalSegments == totalSegments) {
+        "Checkpoints of $name are for ${checkpoint.totalSegments} segments, not $totalSegments"
+      }
+    }
+    return checkpoints.associateBy { it.segment }
+  }
+
+  private fun save(previous: Checkpoint?, workerId: WorkerId, page: Page<K, *>): Checkpoint {
+    val checkpoint = Checkpoint(
+      segment = workerId.segment,
+      totalSegments = workerId.totalSegments,
+      lastEvaluatedKey = page.offset?.let(encodeOffset),
+      pageCount = (previous?.pageCount ?: 0L) + 1,
+      itemCount = (previous?.itemCount ?: 0L) + page.contents.size,
+      consumedCapacityUnits = (previous?.consumedCapacityUnits ?: 0.0) +
+        (page.consumedCapacity?.capacityUnits() ?: 0.0),
+    )
+    store.save(name, checkpoint)
+    return checkpoint
+  }
+
+  private fun Checkpoint.offset() = lastEvaluatedKey?.let(decodeOffset)
+}
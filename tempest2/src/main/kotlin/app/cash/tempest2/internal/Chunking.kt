@@ -0,0 +1,39 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+/**
+ * Like [chunked], but also starts a new chunk before one would exceed [maxBytes]. An element
+ * larger than [maxBytes] gets a chunk of its own.
+ */
+internal inline fun <T> List<T>.chunked(maxCount: Int, maxBytes: Long, sizeOf: (T) -> Long): List<List<T>> {
+  val chunks = mutableListOf<List<T>>()
+  var chunk = mutableListOf<T>()
+  var chunkBytes = 0L
+  for (element in this) {
+    val bytes = sizeOf(element)
+    if (chunk.isNotEmpty() && (chunk.size >= maxCount || chunkBytes + bytes > maxBytes)) {
+      chunks.add(chunk)
+      chunk = mutableListOf()
+      chunkBytes = 0L
+    }
+    chunk.add(element)
+    chunkBytes += bytes
+  }
+  if (chunk.isNotEmpty()) chunks.add(chunk)
+  return chunks
+}
@@ -16,17 +16,32 @@
 
 package app.cash.tempest2.internal
 
+import app.cash.tempest.internal.Codec
 import app.cash.tempest.internal.ItemType
+import app.cash.tempest.internal.KeyType
 import app.cash.tempest.internal.RawItemType
 import app.cash.tempest.internal.Schema
 import app.cash.tempest2.AsyncLogicalDb
 import app.cash.tempest2.AsyncLogicalTable
+import app.cash.tempest2.BatchLoader
+import app.cash.tempest2.BatchLoaderConfig
+import app.cash.tempest2.BatchWriteRetryPolicy
 import app.cash.tempest2.BatchWriteSet
+import app.cash.tempest2.BatchingWriter
+import app.cash.tempest2.BatchingWriterConfig
+import app.cash.tempest2.ItemCache
+import app.cash.tempest2.ItemEncoding
 import app.cash.tempest2.ItemSet
+import app.cash.tempest2.ItemSize
 import app.cash.tempest2.KeySet
 import app.cash.tempest2.LogicalDb
 import app.cash.tempest2.LogicalTable
+import app.cash.tempest2.MAX_BATCH_READ
+import app.cash.tempest2.MAX_BATCH_WRITE
+import app.cash.tempest2.Session
+import app.cash.tempest2.SessionConfig
 import app.cash.tempest2.TransactionWriteSet
+import app.cash.tempest2.UnprocessedWriteException
 import app.cash.tempest2.WriteOperation
 import app.cash.tempest2.internal.DynamoDbLogicalDb.WriteRequest.Op.CLOBBER
 import app.cash.tempest2.internal.DynamoDbLogicalDb.WriteRequest.Op.DELETE
@@ -43,8 +58,7 @@ import software.amazon.awssdk.enhanced.dynamodb.Key
 import software.amazon.awssdk.enhanced.dynamodb.MappedTableResource
 import software.amazon.awssdk.enhanced.dynamodb.TableMetadata
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema
-import software.amazon.awssdk.enhanced.dynamodb.internal.EnhancedClientUtils
-import software.amazon.awssdk.enhanced.dynamodb.extensions.annotations.DynamoDbVersionAttribute
+import software.amazon.awssdk.enhanced.dynamodb.extensions.VersionedRecordExtension
 import software.amazon.awssdk.enhanced.dynamodb.model.BatchGetItemEnhancedRequest
 import software.amazon.awssdk.enhanced.dynamodb.model.BatchGetResultPage
 import software.amazon.awssdk.enhanced.dynamodb.model.BatchWriteItemEnhancedRequest
@@ -60,17 +74,30 @@ import software.amazon.awssdk.enhanced.dynamodb.model.TransactWriteItemsEnhanced
 import software.amazon.awssdk.enhanced.dynamodb.model.UpdateItemEnhancedRequest
 import software.amazon.awssdk.enhanced.dynamodb.model.WriteBatch
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue
-import java.lang.reflect.Method
 import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity
 import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity
 import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException
+import java.util.Collections
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
 import kotlin.reflect.KClass
+import kotlin.reflect.cast
 
 internal class DynamoDbLogicalDb(
   private val mappedTableResourceFactory: MappedTableResourceFactory,
   private val schema: Schema,
+  private val itemEncoding: ItemEncoding,
+  private val batchWriteRetryPolicy: BatchWriteRetryPolicy,
+  /** The cache that writes evict the items they write from, if any. */
+  private val itemCache: ItemCache?,
+  private val projectedReads: ProjectedReads,
+  /** Where batch loaders and batching writers send their batches by default. */
+  private val executor: Executor,
 ) {
+  private val tables = ConcurrentHashMap<KClass<*>, ResolvedTable>()
+  private val resolutions = ConcurrentHashMap<KClass<*>, TypeResolution>()
 
   interface MappedTableResourceFactory {
     fun <T> mappedTableResource(tableName: String, tableSchema: TableSchema<T>): MappedTableResource<T>
@@ -86,11 +113,16 @@ internal class DynamoDbLogicalDb(
     }
   }
 
-  fun sync(dynamoDbEnhancedClient: DynamoDbEnhancedClient, logicalTableFactory: LogicalTable.Factory) = Sync(dynamoDbEnhancedClient, logicalTableFactory)
+  fun sync(
+    dynamoDbEnhancedClient: DynamoDbEnhancedClient,
+    logicalTableFactory: LogicalTable.Factory,
+    batchFanOut: BatchFanOut,
+  ) = Sync(dynamoDbEnhancedClient, logicalTableFactory, batchFanOut)
 
   inner class Sync(
     private val dynamoDbEnhancedClient: DynamoDbEnhancedClient,
-    logicalTableFactory: LogicalTable.Factory
+    logicalTableFactory: LogicalTable.Factory,
+    private val batchFanOut: BatchFanOut,
   ) : LogicalDb, LogicalTable.Factory by logicalTableFactory {
 
     override fun batchLoad(
@@ -99,35 +131,101 @@ internal class DynamoDbLogicalDb(
       maxPageSize: Int,
       returnConsumedCapacity: ReturnConsumedCapacity
     ): ItemSet {
-      val (requestKeys, keysByTable, batchRequests) = toBatchLoadRequests(
+      val (requestKeys, keysByTable, batchRequests, projections) = toBatchLoadRequests(
         keys,
         consistentReads,
         maxPageSize,
         returnConsumedCapacity
       )
 
-      val pages = batchRequests.flatMap {
-        dynamoDbEnhancedClient.batchGetItem(it).iterator().asSequence().toList()
-      }
+      val pages = loadPages(batchRequests, projections)
 
       return toBatchLoadResponse(keysByTable, requestKeys, pages)
     }
 
-
     override fun batchWrite(
       writeSet: BatchWriteSet,
       maxPageSize: Int
     ): app.cash.tempest2.BatchWriteResult {
-      val (requestsByTable, batchRequests) = toBatchWriteRequests(writeSet, maxPageSize)
-      val pages = batchRequests.map {
-        dynamoDbEnhancedClient.batchWriteItem(it)
+      val retry = BatchWriteRetry(batchWriteRetryPolicy)
+      val unprocessed = writeWithRetries(toWriteRequests(writeSet), maxPageSize, retry)
+      return toBatchWriteResponse(unprocessed, retry)
+    }
+
+    /** Writes [requests] and returns those that are still unprocessed after retrying. */
+    private fun writeWithRetries(
+      requests: List<WriteRequest>,
+      maxPageSize: Int,
+      retry: BatchWriteRetry,
+    ): List<WriteRequest> {
+      var pending = requests
+      try {
+        while (true) {
+          val pages = batchFanOut.map(toBatchWriteRequests(pending, maxPageSize)) {
+            dynamoDbEnhancedClient.batchWriteItem(it)
+          }
+          pending = unprocessedWriteRequests(pending, pages)
+          val delay = retry.nextDelay(pending.size) ?: return pending
+          TimeUnit.NANOSECONDS.sleep(delay.toNanos())
+        }
+      } finally {
+        invalidate(requests)
       }
-      return toBatchWriteResponse(requestsByTable, pages)
+    }
+
+    override fun batchingWriter(config: BatchingWriterConfig): BatchingWriter {
+      return batchingWriter(config, config.executor ?: executor) { requests ->
+        CompletableFuture.completedFuture(
+          writeWithRetries(requests, MAX_BATCH_WRITE, BatchWriteRetry(batchWriteRetryPolicy))
+        )
+      }
+    }
+
+    override fun itemSize(item: Any) = this@DynamoDbLogicalDb.itemSize(item)
+
+    override fun batchLoader(config: BatchLoaderConfig): BatchLoader {
+      return batchLoader(config, config.executor ?: executor) { batchRequests, projections ->
+        CompletableFuture.completedFuture(loadPages(batchRequests, projections))
+      }
+    }
+
+    /**
+     * Loads the items of [itemType] whose primary keys [rawItems] hold, in the order of the raw
+     * items, skipping those that don't exist.
+     */
+    fun <I : Any> batchLoadInOrder(itemType: KClass<I>, rawItems: List<Any>): List<I> {
+      val requestKeys = toLoadRequests(itemType, rawItems)
+      val requests = toBatchLoadRequests(requestKeys, consistentReads = false, MAX_BATCH_READ, null)
+      val items = loadedItemsByRequest(requests, loadPages(requests.batchRequests, requests.projections))
+      return requestKeys.mapNotNull { items[it]?.let(itemType::cast) }
+    }
+
+    /** Returns the items of [keys] by their key, skipping those that don't exist. */
+    fun batchLoadByKey(keys: KeySet, consistentReads: Boolean): Map<Any, Any> {
+      val requests = toBatchLoadRequests(keys, consistentReads, MAX_BATCH_READ, null)
+      return loadedItemsByKey(keys, requests, loadPages(requests.batchRequests, requests.projections))
+    }
+
+    override fun session(config: SessionConfig): Session = DynamoDbSession(this, config)
+
+    /** Returns the primary key of the item that [keyOrItem], a key or an item, identifies. */
+    fun primaryKey(keyOrItem: Any): RawItemKey = keyOrItem.toLoadRequest().key
+
+    /** Returns the item type that [keyOrItem] is a key of, or an item of. */
+    fun itemType(keyOrItem: Any): KClass<*> = keyOrItem.expectedItemType().type
+
+    private fun loadPages(
+      batchRequests: List<BatchGetItemEnhancedRequest>,
+      projections: Map<String, Projection>
+    ): List<BatchGetResultPage> {
+      return batchFanOut.map(batchRequests) {
+        projectedReads.batchGetItem(dynamoDbEnhancedClient, it, projections)
+      }.flatten()
     }
 
     override fun transactionLoad(keys: KeySet): ItemSet {
       val (requests, batchRequest) = toTransactionLoadRequest(keys)
-      val documents = dynamoDbEnhancedClient.transactGetItems(batchRequest)
+      val documents = projectedReads.transactGetItems(dynamoDbEnhancedClient, batchRequest, requests.map { it.projection })
       return toTransactionLoadResponse(documents, requests)
     }
 
@@ -137,6 +235,8 @@ internal class DynamoDbLogicalDb(
         dynamoDbEnhancedClient.transactWriteItems(writeRequest)
       } catch (e: TransactionCanceledException) {
         toTransactionWriteException(writeSet, e)
+      } finally {
+        invalidate(writeSet)
       }
     }
   }
@@ -154,7 +254,7 @@ internal class DynamoDbLogicalDb(
       maxPageSize: Int,
       returnConsumedCapacity: ReturnConsumedCapacity
     ): Publisher<ItemSet> {
-      val (requests, requestsByTable, batchRequests) = toBatchLoadRequests(
+      val (requests, requestsByTable, batchRequests, projections) = toBatchLoadRequests(
         keys,
         consistentReads,
         maxPageSize,
@@ -162,7 +262,7 @@ internal class DynamoDbLogicalDb(
       )
 
       return batchRequests
-        .map { request -> dynamoDbEnhancedClient.batchGetItem(request).asFlow() }
+        .map { request -> projectedReads.batchGetItemAsync(dynamoDbEnhancedClient, request, projections).asFlow() }
         .reduce { acc, item -> merge(acc, item) }
         .map { page -> toBatchLoadResponse(requestsByTable, requests, listOf(page)) }
         .asPublisher()
@@ -172,30 +272,81 @@ internal class DynamoDbLogicalDb(
       writeSet: BatchWriteSet,
       maxPageSize: Int
     ): CompletableFuture<app.cash.tempest2.BatchWriteResult> {
-      val (requestsByTable, batchRequests) = toBatchWriteRequests(writeSet, maxPageSize)
-      val requests = batchRequests.map {
+      val retry = BatchWriteRetry(batchWriteRetryPolicy)
+      val requests = toWriteRequests(writeSet)
+      return writeWithRetries(requests, maxPageSize, retry)
+        .whenComplete { _, _ -> invalidate(requests) }
+        .thenApply { unprocessed -> toBatchWriteResponse(unprocessed, retry) }
+    }
+
+    /** Writes [requests] and returns those that are still unprocessed after retrying. */
+    private fun writeWithRetries(
+      requests: List<WriteRequest>,
+      maxPageSize: Int,
+      retry: BatchWriteRetry,
+    ): CompletableFuture<List<WriteRequest>> {
+      val pages = toBatchWriteRequests(requests, maxPageSize).map {
         dynamoDbEnhancedClient.batchWriteItem(it)
-          .thenApply { result -> toBatchWriteResponse(requestsByTable, listOf(result)) }
       }
-      return CompletableFuture.allOf(*requests.toTypedArray()).thenApply {
-        val results = requests.map { it.join() }
+      return CompletableFuture.allOf(*pages.toTypedArray()).thenCompose {
+        val unprocessed = unprocessedWriteRequests(requests, pages.map { it.join() })
+        val delay = retry.nextDelay(unprocessed.size)
+          ?: return@thenCompose CompletableFuture.completedFuture(unprocessed)
+        val delayedExecutor = CompletableFuture.delayedExecutor(delay.toNanos(), TimeUnit.NANOSECONDS)
+        CompletableFuture.supplyAsync({ }, delayedExecutor)
+          .thenCompose { writeWithRetries(unprocessed, maxPageSize, retry) }
+      }
+    }
+
+    override fun batchingWriter(config: BatchingWriterConfig): BatchingWriter {
+      return batchingWriter(config, config.executor ?: executor) { requests ->
+        writeWithRetries(requests, MAX_BATCH_WRITE, BatchWriteRetry(batchWriteRetryPolicy))
+          .whenComplete { _, _ -> invalidate(requests) }
+      }
+    }
 
-        return@thenApply app.cash.tempest2.BatchWriteResult(
-          results.flatMap { it.unprocessedClobbers },
-          results.flatMap { it.unprocessedDeletes },
-        )
+    override fun itemSize(item: Any) = this@DynamoDbLogicalDb.itemSize(item)
+
+    override fun batchLoader(config: BatchLoaderConfig): BatchLoader {
+      return batchLoader(config, config.executor ?: executor, ::loadPages)
+    }
+
+    /**
+     * Loads the items of [itemType] whose primary keys [rawItems] hold, in the order of the raw
+     * items, skipping those that don't exist.
+     */
+    fun <I : Any> batchLoadInOrderAsync(itemType: KClass<I>, rawItems: List<Any>): CompletableFuture<List<I>> {
+      val requestKeys = toLoadRequests(itemType, rawItems)
+      val requests = toBatchLoadRequests(requestKeys, consistentReads = false, MAX_BATCH_READ, null)
+      return loadPages(requests.batchRequests, requests.projections).thenApply { pages ->
+        val items = loadedItemsByRequest(requests, pages)
+        requestKeys.mapNotNull { items[it]?.let(itemType::cast) }
+      }
+    }
+
+    private fun loadPages(
+      batchRequests: List<BatchGetItemEnhancedRequest>,
+      projections: Map<String, Projection>
+    ): CompletableFuture<List<BatchGetResultPage>> {
+      val pages = batchRequests.map { request ->
+        val pages = Collections.synchronizedList(mutableListOf<BatchGetResultPage>())
+        projectedReads.batchGetItemAsync(dynamoDbEnhancedClient, request, projections)
+          .subscribe { pages.add(it) }
+          .thenApply { pages }
       }
+      return CompletableFuture.allOf(*pages.toTypedArray()).thenApply { pages.flatMap { it.join() } }
     }
 
     override fun transactionLoadAsync(keys: KeySet): CompletableFuture<ItemSet> {
       val (requests, batchRequest) = toTransactionLoadRequest(keys)
-      return dynamoDbEnhancedClient.transactGetItems(batchRequest)
+      return projectedReads.transactGetItemsAsync(dynamoDbEnhancedClient, batchRequest, requests.map { it.projection })
         .thenApply { documents -> toTransactionLoadResponse(documents, requests) }
     }
 
     override fun transactionWriteAsync(writeSet: TransactionWriteSet): CompletableFuture<Void> {
       val writeRequest = toTransactionWriteRequest(writeSet)
       return dynamoDbEnhancedClient.transactWriteItems(writeRequest)
+        .whenComplete { _, _ -> invalidate(writeSet) }
         .exceptionally { e ->
           // `e` is a java.util.concurrent.CancellationException.
           if (e.cause is TransactionCanceledException) {
@@ -212,11 +363,21 @@ internal class DynamoDbLogicalDb(
     consistentReads: Boolean,
     maxPageSize: Int,
     returnConsumedCapacity: ReturnConsumedCapacity?
-  ): Triple<List<LoadRequest>, Map<KClass<*>, List<LoadRequest>>, List<BatchGetItemEnhancedRequest>> {
-    val requestKeys = keys.map { LoadRequest(it.encodeAsKey().rawItemKey(), it.expectedItemType()) }
+  ): BatchLoadRequests {
+    return toBatchLoadRequests(keys.map { it.toLoadRequest() }, consistentReads, maxPageSize, returnConsumedCapacity)
+  }
+
+  private fun toBatchLoadRequests(
+    requestKeys: List<LoadRequest>,
+    consistentReads: Boolean,
+    maxPageSize: Int,
+    returnConsumedCapacity: ReturnConsumedCapacity?
+  ): BatchLoadRequests {
     val keysByTable = mutableMapOf<KClass<*>, List<LoadRequest>>()
 
-    val batchRequests = requestKeys.chunked(maxPageSize).map { chunk ->
+    // Keys of different classes can encode to the same primary key, which BatchGetItem rejects if
+    // it is requested twice. Each primary key is read once and decoded for every item type.
+    val batchRequests = requestKeys.distinctBy { it.key }.chunked(maxPageSize).map { chunk ->
       val batchByTable = chunk.groupBy { it.tableType }
       keysByTable.putAll(batchByTable)
       BatchGetItemEnhancedRequest.builder()
@@ -235,7 +396,18 @@ internal class DynamoDbLogicalDb(
         )
         .build()
     }
-    return Triple(requestKeys, keysByTable, batchRequests)
+    return BatchLoadRequests(requestKeys, keysByTable, batchRequests, toProjections(requestKeys))
+  }
+
+  /**
+   * Returns the projection of each table, by table name, which reads the attributes of every item
+   * type that [requests] load from it.
+   */
+  private fun toProjections(requests: List<LoadRequest>): Map<String, Projection> {
+    return requests.groupBy { it.tableType }.entries.associate { (tableType, requestsForTable) ->
+      val attributeNames = requestsForTable.mapTo(mutableSetOf()) { it.resultType }.flatMap { it.attributeNames }
+      mappedTableResource<Any>(tableType).tableName() to Projection(attributeNames)
+    }
   }
 
   private fun toBatchLoadResponse(
@@ -245,43 +417,125 @@ internal class DynamoDbLogicalDb(
   ): ItemSet {
     val results = mutableSetOf<Any>()
     val consumedCapacity = mutableListOf<ConsumedCapacity>()
-    val tableTypes = keysByTable.keys
-    val resultTypes = requestKeys.associate { it.key to it.resultType }
     for (page in pages) {
       consumedCapacity.addAll(page.consumedCapacity())
+    }
+    forEachLoadedItem(keysByTable, requestKeys, pages) { _, decoded -> results.add(decoded) }
+    return ItemSet(results, consumedCapacity)
+  }
+
+  private inline fun forEachLoadedItem(
+    keysByTable: Map<KClass<*>, List<LoadRequest>>,
+    requestKeys: List<LoadRequest>,
+    pages: List<BatchGetResultPage>,
+    action: (LoadRequest, Any) -> Unit,
+  ) {
+    val tableTypes = keysByTable.keys
+    val resultTypes = requestKeys.groupBy({ it.key }, { it.resultType })
+    for (page in pages) {
       for (tableType in tableTypes) {
         for (result in page.resultsForTable(mappedTableResource<Any>(tableType))) {
-          val resultType = resultTypes[result.rawItemKey()]!!
-          val decoded = resultType.codec.toApp(result)
-          results.add(decoded)
+          val key = result.rawItemKey(tableType)
+          for (resultType in resultTypes[key]!!.distinct()) {
+            action(LoadRequest(key, resultType), resultType.codecFor(itemEncoding).toApp(result))
+          }
         }
       }
     }
-    return ItemSet(results, consumedCapacity)
+  }
+
+  /** Returns the items that [pages] loaded, by the key of [keys] that requested them. */
+  private fun loadedItemsByKey(
+    keys: Iterable<Any>,
+    requests: BatchLoadRequests,
+    pages: List<BatchGetResultPage>
+  ): Map<Any, Any> {
+    val items = loadedItemsByRequest(requests, pages)
+    // Keys and load requests are in the same order.
+    val results = mutableMapOf<Any, Any>()
+    for ((key, request) in keys.zip(requests.requestKeys)) {
+      items[request]?.let { results[key] = it }
+    }
+    return results
+  }
+
+  /** Returns the items that [pages] loaded, by the load request that requested them. */
+  private fun loadedItemsByRequest(
+    requests: BatchLoadRequests,
+    pages: List<BatchGetResultPage>
+  ): Map<LoadRequest, Any> {
+    val items = mutableMapOf<LoadRequest, Any>()
+    forEachLoadedItem(requests.keysByTable, requests.requestKeys, pages) { request, decoded -> items[request] = decoded }
+    return items
+  }
+
+  private fun batchLoader(
+    config: BatchLoaderConfig,
+    executor: Executor,
+    loadPages: (List<BatchGetItemEnhancedRequest>, Map<String, Projection>) -> CompletableFuture<List<BatchGetResultPage>>,
+  ): BatchLoader {
+    // Collapse on the encoded primary key and item type, so that keys of different classes that
+    // load the same item share a single read.
+    val collapser = RequestCollapser<LoadRequest, Any>(config.window, config.maxBatchSize, executor) { loadRequests ->
+      val requests = toBatchLoadRequests(loadRequests, config.consistentReads, MAX_BATCH_READ, null)
+      loadPages(requests.batchRequests, requests.projections).thenApply { pages ->
+        loadedItemsByRequest(requests, pages)
+      }
+    }
+    return object : BatchLoader {
+      override fun <I : Any> loadAsync(key: Any, itemType: Class<I>): CompletableFuture<I?> {
+        val request = key.toLoadRequest()
+        val expectedItemType = request.resultType.type
+        require(itemType.isAssignableFrom(expectedItemType.java)) { "$key is a key of $expectedItemType, not $itemType" }
+        return collapser.load(request).thenApply { itemType.cast(it) }
+      }
+    }
+  }
+
+  private fun toWriteRequests(writeSet: BatchWriteSet): List<WriteRequest> {
+    val clobberRequests = writeSet.itemsToClobber.map { it.toClobberRequest() }
+    val deleteRequests = writeSet.keysToDelete.map { it.toDeleteRequest() }
+    return clobberRequests + deleteRequests
+  }
+
+  /**
+   * Encodes [this] item to the attribute values that are sent, rejecting it up front if DynamoDB
+   * would.
+   */
+  private fun Any.toClobberRequest(): WriteRequest {
+    val tableType = expectedRawItemType().type
+    val request = WriteRequest(table(tableType).tableSchema.itemToMap(encodeAsItem(), true), tableType, CLOBBER)
+    require(request.size <= ItemSize.MAX_ITEM_BYTES) {
+      "${this::class.simpleName} ${request.rawItemKey()} is ${request.size} bytes, " +
+        "more than the ${ItemSize.MAX_ITEM_BYTES} bytes that DynamoDB accepts"
+    }
+    return request
+  }
+
+  private fun Any.toDeleteRequest(): WriteRequest {
+    val tableType = expectedRawItemType().type
+    val table = table(tableType)
+    return WriteRequest(table.keyOf(encodeAsKey()).keyMap(table.tableSchema, TableMetadata.primaryIndexName()), tableType, DELETE)
   }
 
   private fun toBatchWriteRequests(
-    writeSet: BatchWriteSet,
+    requests: List<WriteRequest>,
     maxPageSize: Int
-  ): Pair<Map<KClass<out Any>, List<WriteRequest>>, List<BatchWriteItemEnhancedRequest>> {
-    val clobberRequests = writeSet.itemsToClobber.map { WriteRequest(it.encodeAsItem(), CLOBBER) }
-    val deleteRequests = writeSet.keysToDelete.map { WriteRequest(it.encodeAsKey(), DELETE) }
-    val requests = clobberRequests + deleteRequests
-    val requestsByTable = mutableMapOf<KClass<out Any>, List<WriteRequest>>()
-
-    val batchRequests = requests.chunked(maxPageSize).map { chunk ->
-      val batchByTable = chunk.groupBy { it.rawItem::class }
-      requestsByTable.putAll(batchByTable)
+  ): List<BatchWriteItemEnhancedRequest> {
+    val chunks = requests.chunked(maxPageSize, ItemSize.MAX_BATCH_WRITE_BYTES) { it.size }
+    return chunks.map { chunk ->
+      val batchByTable = chunk.groupBy { it.tableType }
       BatchWriteItemEnhancedRequest.builder()
         .writeBatches(
           batchByTable.map { (tableType, writeRequestsForTable) ->
-            WriteBatch.builder(tableType.java)
-              .mappedTableResource(mappedTableResource(tableType))
+            // Requests hold encoded items, which the attribute map schema sends unchanged.
+            WriteBatch.builder(Any::class.java)
+              .mappedTableResource(table(tableType).attributeMapTableResource)
               .apply {
                 for (request in writeRequestsForTable) {
                   when (request.op) {
-                    CLOBBER -> addPutItem(request.rawItem)
-                    DELETE -> addDeleteItem(request.rawItem)
+                    CLOBBER -> addPutItem(request.attributeValues)
+                    DELETE -> addDeleteItem(request.attributeValues)
                   }
                 }
               }
@@ -290,36 +544,127 @@ internal class DynamoDbLogicalDb(
         )
         .build()
     }
+  }
 
-    return Pair(requestsByTable, batchRequests)
+  /** Returns the writes of [requests] that DynamoDB didn't process, so they can be resent. */
+  @Suppress("UNCHECKED_CAST")
+  private fun unprocessedWriteRequests(
+    requests: List<WriteRequest>,
+    results: List<BatchWriteResult>
+  ): List<WriteRequest> {
+    val unprocessed = mutableListOf<WriteRequest>()
+    for (tableType in requests.mapTo(linkedSetOf()) { it.tableType }) {
+      val table = table(tableType)
+      for (result in results) {
+        for (attributeValues in result.unprocessedPutItemsForTable(table.attributeMapTableResource)) {
+          unprocessed.add(WriteRequest(attributeValues as Map<String, AttributeValue>, tableType, CLOBBER))
+        }
+        for (key in result.unprocessedDeleteItemsForTable(table.attributeMapTableResource)) {
+          if (key != null) {
+            unprocessed.add(WriteRequest(key.keyMap(table.tableSchema, TableMetadata.primaryIndexName()), tableType, DELETE))
+          }
+        }
+      }
+    }
+    return unprocessed
   }
 
   private fun toBatchWriteResponse(
-    requestsByTable: Map<KClass<out Any>, List<WriteRequest>>,
-    results: List<BatchWriteResult>
+    unprocessed: List<WriteRequest>,
+    retry: BatchWriteRetry,
   ): app.cash.tempest2.BatchWriteResult {
     val unprocessedClobbers = mutableListOf<Key>()
     val unprocessedDeletes = mutableListOf<Key>()
-    val tableTypes = requestsByTable.keys
-
-    for (tableType in tableTypes) {
-      val table = mappedTableResource<Any>(tableType)
-      val rawClobbersItems = results.flatMap { it.unprocessedPutItemsForTable(table) }
-      for (rawItem in rawClobbersItems) {
-        unprocessedClobbers.add(rawItem.rawItemKey().key)
+    for (request in unprocessed) {
+      when (request.op) {
+        CLOBBER -> unprocessedClobbers.add(request.rawItemKey().key)
+        DELETE -> unprocessedDeletes.add(request.rawItemKey().key)
       }
-      val unprocessedDeletesForTable = results.flatMap { it.unprocessedDeleteItemsForTable(table) }.filterNotNull()
-      unprocessedDeletes.addAll(unprocessedDeletesForTable)
     }
-
     return app.cash.tempest2.BatchWriteResult(
       unprocessedClobbers,
-      unprocessedDeletes
+      unprocessedDeletes,
+      retry.retries,
+      retry.retriedWrites
+    )
+  }
+
+  private fun batchingWriter(
+    config: BatchingWriterConfig,
+    executor: Executor,
+    write: (List<WriteRequest>) -> CompletableFuture<List<WriteRequest>>,
+  ): BatchingWriter {
+    val maxBatchBytes = config.maxBatchBytes
+    val coalescer = WriteCoalescer<RawItemKey, WriteRequest>(
+      config.window,
+      config.maxBatchSize,
+      maxBatchBytes ?: Long.MAX_VALUE,
+      executor,
+      if (maxBatchBytes == null) null else { request -> request.size },
+    ) { requests ->
+      write(requests).thenApply { unprocessed ->
+        unprocessed.associate { request ->
+          request.rawItemKey() to UnprocessedWriteException("${request.op} of ${request.rawItemKey().key} was not processed")
+        }
+      }
+    }
+    return object : BatchingWriter {
+      override fun saveAsync(item: Any): CompletableFuture<Void?> {
+        val request = item.toClobberRequest()
+        return coalescer.write(request.rawItemKey(), request)
+      }
+
+      override fun deleteAsync(key: Any): CompletableFuture<Void?> {
+        val request = key.toDeleteRequest()
+        return coalescer.write(request.rawItemKey(), request)
+      }
+
+      override fun flush() = coalescer.flush()
+    }
+  }
+
+  /** See [LogicalDb.itemSize]. */
+  fun itemSize(item: Any): Long {
+    val tableType = item.expectedRawItemType().type
+    val rawItem = if (resolve(item::class)?.itemCodec != null) item.encodeAsItem() else item.encodeAsKey()
+    return ItemSize.of(table(tableType).tableSchema.itemToMap(rawItem, true))
+  }
+
+  /** Evicts the items that [requests] wrote, or may have written, from the item cache. */
+  private fun invalidate(requests: List<WriteRequest>) {
+    if (itemCache == null) return
+    for (request in requests) {
+      itemCache.invalidate(request.tableType, request.rawItemKey().key)
+    }
+  }
+
+  private fun invalidate(writeSet: TransactionWriteSet) {
+    if (itemCache == null) return
+    for (operation in writeSet.operations) {
+      val subject = when (operation) {
+        is WriteOperation.Save -> operation.item.encodeAsItem()
+        is WriteOperation.Put -> operation.item.encodeAsItem()
+        is WriteOperation.Delete -> operation.key.encodeAsKey()
+        is WriteOperation.Check -> continue
+      }
+      val tableType = operation.subject.expectedRawItemType().type
+      itemCache.invalidate(tableType, subject.rawItemKey(tableType).key)
+    }
+  }
+
+  private fun WriteRequest.rawItemKey(): RawItemKey {
+    val table = table(tableType)
+    val rawItemType = table.rawItemType
+    return RawItemKey(
+      rawItemType.tableName,
+      table.keyOf(attributeValues),
+      rawItemType.hashKeyName,
+      rawItemType.rangeKeyName,
     )
   }
 
   private fun toTransactionLoadRequest(keys: KeySet): Pair<List<LoadRequest>, TransactGetItemsEnhancedRequest> {
-    val requests = keys.map { LoadRequest(it.encodeAsKey().rawItemKey(), it.expectedItemType()) }
+    val requests = keys.map { it.toLoadRequest() }
     val batchRequest = TransactGetItemsEnhancedRequest.builder()
       .apply {
         for (request in requests) {
@@ -331,13 +676,13 @@ internal class DynamoDbLogicalDb(
   }
 
   private fun toTransactionLoadResponse(
-    documents: MutableList<Document>,
+    documents: List<Document>,
     requests: List<LoadRequest>
   ): ItemSet {
     val results = mutableSetOf<Any>()
     for ((document, request) in documents.zip(requests)) {
       val result = document.getItem(mappedTableResource(request.tableType)) ?: continue
-      val decoded = request.resultType.codec.toApp(result)
+      val decoded = request.resultType.codecFor(itemEncoding).toApp(result)
       results.add(decoded)
     }
     return ItemSet(results)
@@ -351,19 +696,24 @@ internal class DynamoDbLogicalDb(
         for (operation in writeSet.operations) {
           val userExpression = writeSet.writeExpressions[operation.subject]
           when (operation) {
-            is WriteOperation.Save -> addUpdateItem(operation.item.encodeAsItem(), userExpression)
+            is WriteOperation.Save -> {
+              val encodedItem = operation.item.encodeAsItem()
+              val tableType = operation.item.expectedRawItemType().type
+              addUpdateItem(encodedItem, tableType, userExpression)
+            }
             is WriteOperation.Put -> {
               val encodedItem = operation.item.encodeAsItem()
+              val tableType = operation.item.expectedRawItemType().type
               if (userExpression != null) {
                 // Manual versioning: merge version check with user expression
-                addPutItemWithManualVersioning(encodedItem, userExpression)
+                addPutItemWithManualVersioning(encodedItem, tableType, userExpression)
               } else {
                 // Let SDK handle versioning automatically
-                addPutItem(encodedItem, null)
+                addPutItem(encodedItem, tableType, null)
               }
             }
-            is WriteOperation.Delete -> addDeleteItem(operation.key.encodeAsKey(), userExpression)
-            is WriteOperation.Check -> addConditionCheck(operation.key.encodeAsKey(), userExpression)
+            is WriteOperation.Delete -> addDeleteItem(operation.key.encodeAsKey(), operation.key.expectedRawItemType().type, userExpression)
+            is WriteOperation.Check -> addConditionCheck(operation.key.encodeAsKey(), operation.key.expectedRawItemType().type, userExpression)
           }
         }
         if (writeSet.idempotencyToken != null) {
@@ -386,71 +736,118 @@ internal class DynamoDbLogicalDb(
       .build()
   }
 
-  private fun Any.rawItemKey(): RawItemKey {
-    val rawItemType = expectedRawItemType()
+  /**
+   * Returns the primary key of this raw item, which is either an instance of [tableType] or its
+   * attribute value map.
+   */
+  private fun Any.rawItemKey(tableType: KClass<*>): RawItemKey {
+    val table = table(tableType)
+    val rawItemType = table.rawItemType
     return RawItemKey(
       rawItemType.tableName,
-      EnhancedClientUtils.createKeyFromItem(
-        this,
-        mappedTableResource<Any>(this::class).tableSchema(),
-        TableMetadata.primaryIndexName(),
-      ),
+      table.keyOf(this),
       rawItemType.hashKeyName,
       rawItemType.rangeKeyName,
     )
   }
 
+  /** Returns requests for the items of [itemType] whose primary keys [rawItems] hold. */
+  private fun toLoadRequests(itemType: KClass<*>, rawItems: List<Any>): List<LoadRequest> {
+    val resultType = requireNotNull(resolve(itemType)?.itemType) { "Cannot find an item type for $itemType" }
+    return rawItems.map { LoadRequest(it.rawItemKey(resultType.rawItemType), resultType) }
+  }
+
+  private fun Any.toLoadRequest(): LoadRequest {
+    val itemType = expectedItemType()
+    return LoadRequest(encodeAsKey().rawItemKey(itemType.rawItemType), itemType)
+  }
+
   private fun Any.expectedRawItemType(): RawItemType {
     return requireNotNull(
-      schema.resolveEnclosingRawItemType(
-        this::class
-      )
+      resolve(this::class)?.rawItemType
     ) { "Cannot find a dynamodb table for ${this::class}" }
   }
 
+  @Suppress("UNCHECKED_CAST")
   private fun <T : Any> mappedTableResource(tableType: KClass<*>): MappedTableResource<T> {
-    val rawItemType = schema.getRawItem(tableType)!!
-    return mappedTableResourceFactory.mappedTableResource(
-      rawItemType.tableName,
-      TableSchemaFactory.create(rawItemType.type.java)
-    )
+    return table(tableType).mappedTableResource as MappedTableResource<T>
   }
 
   private fun Any.expectedItemType(): ItemType {
     return requireNotNull(
-      schema.resolveEnclosingItemType(
-        this::class
-      )
+      resolve(this::class)?.itemType
     ) { "Cannot find an item type for ${this::class}" }
   }
 
   private fun Any.encodeAsKey(): Any {
     val type = this::class
-    // Fallback to item codec because keys can be extracted from items.
-    val codec = schema.getKey(type)?.codec ?: schema.getItem(type)?.codec
+    val codec = resolve(type)?.keyCodec
     requireNotNull(codec) { "Failed to encode $type" }
     return codec.toDb(this)
   }
 
   private fun Any.encodeAsItem(): Any {
     val type = this::class
-    val codec = schema.getItem(type)?.codec
+    val codec = resolve(type)?.itemCodec
     requireNotNull(codec) { "Failed to encode $type" }
     return codec.toDb(this)
   }
 
+  private fun resolve(type: KClass<*>): TypeResolution? {
+    resolutions[type]?.let { return it }
+    val resolvedType = schema.resolve(type) ?: return null
+    val logicalType = resolvedType.logicalType
+    val resolution = TypeResolution(
+      resolvedType.itemType,
+      resolvedType.rawItemType,
+      // Fallback to item codec because keys can be extracted from items.
+      (logicalType as? KeyType ?: logicalType as? ItemType)?.codecFor(itemEncoding),
+      (logicalType as? ItemType)?.codecFor(itemEncoding),
+    )
+    return resolutions.putIfAbsent(type, resolution) ?: resolution
+  }
+
+  /**
+   * Registers the resource that items of [rawItemType] are read and written with. Logical tables
+   * call this when they are created, so that batches and transactions never rebuild it.
+   */
+  fun addTable(rawItemType: RawItemType, mappedTableResource: MappedTableResource<Any>) {
+    tables.putIfAbsent(rawItemType.type, resolvedTable(rawItemType, mappedTableResource))
+  }
+
+  private fun table(tableType: KClass<*>): ResolvedTable {
+    tables[tableType]?.let { return it }
+    val rawItemType = requireNotNull(schema.getRawItem(tableType)) { "Cannot find a dynamodb table for $tableType" }
+    val table = resolvedTable(
+      rawItemType,
+      mappedTableResourceFactory.mappedTableResource(rawItemType.tableName, itemTableSchema(rawItemType, itemEncoding)),
+    )
+    return tables.putIfAbsent(tableType, table) ?: table
+  }
+
+  private fun resolvedTable(rawItemType: RawItemType, mappedTableResource: MappedTableResource<Any>): ResolvedTable {
+    val attributeMapTableResource = when (itemEncoding) {
+      ItemEncoding.RAW_ITEM -> mappedTableResourceFactory.mappedTableResource(
+        rawItemType.tableName,
+        TableSchemaFactory.createAttributeMap<Any>(rawItemType.type.java)
+      )
+      ItemEncoding.ATTRIBUTE_MAP -> mappedTableResource
+    }
+    return ResolvedTable(rawItemType, mappedTableResource, attributeMapTableResource)
+  }
+
   private fun TransactionWriteSet.describeOperations(): List<String> {
     // Describe in insertion order so the message lines up with the returned cancellation reasons.
     return operations.map { operation ->
       when (operation) {
         is WriteOperation.Save ->
-          "Save item (non-key attributes omitted) ${operation.item.encodeAsItem().rawItemKey()}"
+          "Save item (non-key attributes omitted) ${operation.item.encodeAsItem().rawItemKey(operation.item.expectedRawItemType().type)}"
         is WriteOperation.Put ->
-          "Put item (non-key attributes omitted) ${operation.item.encodeAsItem().rawItemKey()}"
+          "Put item (non-key attributes omitted) ${operation.item.encodeAsItem().rawItemKey(operation.item.expectedRawItemType().type)}"
         is WriteOperation.Delete ->
-          "Delete key ${operation.key.encodeAsKey().rawItemKey()}"
+          "Delete key ${operation.key.encodeAsKey().rawItemKey(operation.key.expectedRawItemType().type)}"
         is WriteOperation.Check ->
-          "Check key ${operation.key.encodeAsKey().rawItemKey()}"
+          "Check key ${operation.key.encodeAsKey().rawItemKey(operation.key.expectedRawItemType().type)}"
       }
     }
   }
@@ -465,9 +862,10 @@ internal class DynamoDbLogicalDb(
 
   private fun <T : Any> TransactWriteItemsEnhancedRequest.Builder.addUpdateItem(
     item: T,
+    tableType: KClass<*>,
     expression: Expression?
   ) = addUpdateItem(
-    mappedTableResource<T>(item::class),
+    mappedTableResource<T>(tableType),
     UpdateItemEnhancedRequest.builder(item.javaClass)
       .item(item)
       .conditionExpression(expression)
@@ -476,9 +874,10 @@ internal class DynamoDbLogicalDb(
 
   private fun <T : Any> TransactWriteItemsEnhancedRequest.Builder.addPutItem(
     item: T,
+    tableType: KClass<*>,
     expression: Expression?
   ) = addPutItem(
-    mappedTableResource<T>(item::class),
+    mappedTableResource<T>(tableType),
     TransactPutItemEnhancedRequest.builder(item.javaClass)
       .item(item)
       .conditionExpression(expression)
@@ -489,7 +888,7 @@ internal class DynamoDbLogicalDb(
    * Adds a PutItem with manual versioning support. This allows combining version checks
    * with user-provided condition expressions.
    *
-   * If the item has a @DynamoDbVersionAttribute field:
+   * If the raw item has a @DynamoDbVersionAttribute property:
    * - Adds a version condition check merged with the user expression
    * - The SDK's VersionedRecordExtension will handle incrementing the version
    *
@@ -497,12 +896,13 @@ internal class DynamoDbLogicalDb(
    */
   private fun <T : Any> TransactWriteItemsEnhancedRequest.Builder.addPutItemWithManualVersioning(
     item: T,
+    tableType: KClass<*>,
     userExpression: Expression
   ) {
-    val versionInfo = findVersionAttribute(item)
+    val versionInfo = findVersionAttribute(item, tableType)
 
     val finalExpression = if (versionInfo != null) {
-      val (getter, _, currentVersion) = versionInfo
+      val (versionAttributeName, currentVersion) = versionInfo
 
       // Build version condition expression based on current version
       // The SDK's VersionedRecordExtension will handle incrementing the version
@@ -510,13 +910,13 @@ internal class DynamoDbLogicalDb(
         // New item: version attribute should not exist
         Expression.builder()
           .expression("attribute_not_exists(#tempest_version)")
-          .expressionNames(mapOf("#tempest_version" to getter.name.removePrefix("get").replaceFirstChar { it.lowercase() }))
+          .expressionNames(mapOf("#tempest_version" to versionAttributeName))
           .build()
       } else {
         // Existing item: version must match
         Expression.builder()
           .expression("#tempest_version = :tempest_expected_version")
-          .expressionNames(mapOf("#tempest_version" to getter.name.removePrefix("get").replaceFirstChar { it.lowercase() }))
+          .expressionNames(mapOf("#tempest_version" to versionAttributeName))
           .expressionValues(mapOf(":tempest_expected_version" to AttributeValue.builder().n(currentVersion.toString()).build()))
           .build()
       }
@@ -528,7 +928,7 @@ internal class DynamoDbLogicalDb(
     }
 
     addPutItem(
-      mappedTableResource<T>(item::class),
+      mappedTableResource<T>(tableType),
       TransactPutItemEnhancedRequest.builder(item.javaClass)
         .item(item)
         .conditionExpression(finalExpression)
@@ -537,23 +937,14 @@ internal class DynamoDbLogicalDb(
   }
 
   /**
-   * Finds the version attribute on an item using reflection.
-   * Returns a triple of (getter, setter, currentValue) or null if no version attribute.
+   * Finds the version attribute that [VersionedRecordExtension] records in the table metadata.
+   * Returns a pair of (attributeName, currentValue) or null if no version attribute.
    */
-  private fun <T : Any> findVersionAttribute(item: T): Triple<Method, Method, Long?>? {
-    val clazz = item.javaClass
-    for (method in clazz.methods) {
-      if (method.isAnnotationPresent(DynamoDbVersionAttribute::class.java)) {
-        val propertyName = method.name.removePrefix("get").removePrefix("is")
-        val setterName = "set$propertyName"
-        val setter = clazz.methods.find { it.name == setterName }
-          ?: continue
-
-        val currentValue = method.invoke(item) as? Long
-        return Triple(method, setter, currentValue)
-      }
-    }
-    return null
+  private fun <T : Any> findVersionAttribute(item: T, tableType: KClass<*>): Pair<String, Long?>? {
+    val table = table(tableType)
+    val attributeName = table.versionAttributeName ?: return null
+    val currentValue = table.tableSchema.attributeValue(item, attributeName)?.n()?.toLong()
+    return attributeName to currentValue
   }
 
   /**
@@ -578,27 +969,29 @@ internal class DynamoDbLogicalDb(
 
   private fun <T : Any> TransactWriteItemsEnhancedRequest.Builder.addDeleteItem(
     item: T,
+    tableType: KClass<*>,
     expression: Expression?
   ) = addDeleteItem(
-    mappedTableResource<T>(item::class),
+    mappedTableResource<T>(tableType),
     DeleteItemEnhancedRequest.builder()
-      .key(item.rawItemKey().key)
+      .key(item.rawItemKey(tableType).key)
       .conditionExpression(expression)
       .build()
   )
 
   private fun <T : Any> TransactWriteItemsEnhancedRequest.Builder.addConditionCheck(
     item: T,
+    tableType: KClass<*>,
     expression: Expression?
   ) = addConditionCheck(
-    mappedTableResource<T>(item::class),
+    mappedTableResource<T>(tableType),
     ConditionCheck.builder()
-      .key(item.rawItemKey().key)
+      .key(item.rawItemKey(tableType).key)
       .conditionExpression(expression)
       .build()
   )
 
-  private data class RawItemKey(
+  data class RawItemKey(
     val tableName: String,
     val key: Key,
     val hashKeyName: String,
@@ -610,17 +1003,46 @@ internal class DynamoDbLogicalDb(
     override fun toString() = "$tableName[$hashKeyName=$hashKeyValue,$rangeKeyName=$rangeKeyValue]"
   }
 
+  /**
+   * Everything a batch or a transaction looks up for a key, an item, or a raw item. Types are
+   * never rebound, so this is resolved once per type.
+   */
+  private class TypeResolution(
+    val itemType: ItemType?,
+    val rawItemType: RawItemType,
+    val keyCodec: Codec<Any, Any>?,
+    val itemCodec: Codec<Any, Any>?,
+  )
+
   private data class LoadRequest(
     val key: RawItemKey,
     val resultType: ItemType
   ) {
     val tableType = resultType.rawItemType
+
+    /** Reads only the attributes of [resultType]. */
+    val projection get() = Projection(resultType.attributeNames)
   }
 
+  private data class BatchLoadRequests(
+    val requestKeys: List<LoadRequest>,
+    val keysByTable: Map<KClass<*>, List<LoadRequest>>,
+    val batchRequests: List<BatchGetItemEnhancedRequest>,
+    /** The projection of each table, by table name. */
+    val projections: Map<String, Projection>,
+  )
+
   private data class WriteRequest(
-    val rawItem: Any,
-    val op: Op
+    /** The encoded item to put, or the primary key of the item to delete. */
+    val attributeValues: Map<String, AttributeValue>,
+    val tableType: KClass<*>,
+    val op: Op,
+    /** The size of [attributeValues] as DynamoDB counts it, computed once when it is encoded. */
+    val size: Long,
   ) {
+    constructor(attributeValues: Map<String, AttributeValue>, tableType: KClass<*>, op: Op) :
+      this(attributeValues, tableType, op, ItemSize.of(attributeValues))
+
     enum class Op {
       CLOBBER,
       DELETE
@@ -20,13 +20,34 @@ import app.cash.tempest.internal.Codec
 import app.cash.tempest2.AsyncQueryable
 import app.cash.tempest2.BeginsWith
 import app.cash.tempest2.Between
+import app.cash.tempest2.CheckpointStore
+import app.cash.tempest2.CheckpointedQuery
 import app.cash.tempest2.KeyCondition
+import app.cash.tempest2.MultiOffset
+import app.cash.tempest2.MultiPage
 import app.cash.tempest2.Offset
 import app.cash.tempest2.Page
+import app.cash.tempest2.QueryConfig
 import app.cash.tempest2.Queryable
+import app.cash.tempest2.ReadCapacityLimiter
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.produceIn
+import kotlinx.coroutines.future.await
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.reactive.asFlow
 import kotlinx.coroutines.reactive.asPublisher
+import kotlinx.coroutines.reactive.awaitFirst
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import org.reactivestreams.Publisher
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable
@@ -39,6 +60,12 @@ import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional
 import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue
 import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity
+import software.amazon.awssdk.services.dynamodb.model.Select
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.reflect.KClass
 
 internal class DynamoDbQueryable<K : Any, I : Any, R : Any>(
   private val secondaryIndexName: String?,
@@ -46,6 +73,10 @@ internal class DynamoDbQueryable<K : Any, I : Any, R : Any>(
   private val keyCodec: Codec<K, R>,
   private val itemCodec: Codec<I, R>,
   private val tableSchema: TableSchema<R>,
+  /** Where concurrent and prefetched queries run. */
+  private val executor: Executor,
+  /** The most partitions of a single [Queryable.queryMany] queried at once. */
+  private val maxConcurrentQueries: Int,
 ) {
 
   fun sync(dynamoDbTable: DynamoDbTable<R>) = Sync(dynamoDbTable)
@@ -64,13 +95,7 @@ internal class DynamoDbQueryable<K : Any, I : Any, R : Any>(
       returnConsumedCapacity: ReturnConsumedCapacity?
     ): Page<K, I> {
       val request = toQueryRequest(keyCondition, asc, consistentRead, pageSize, filterExpression, initialOffset, returnConsumedCapacity)
-      val page = if (secondaryIndexName != null) {
-        dynamoDbTable.index(secondaryIndexName).query(request)
-      } else {
-        dynamoDbTable.query(request)
-      }
-        .iterator().next()
-      return toQueryResponse(page)
+      return toQueryResponse(queryPage(request))
     }
 
     override fun queryAll(
@@ -81,11 +106,44 @@ internal class DynamoDbQueryable<K : Any, I : Any, R : Any>(
       filterExpression: Expression?,
       initialOffset: Offset<K>?
     ): Sequence<Page<K, I>> {
-      return generateSequence(
-        query(keyCondition, asc, pageSize, consistentRead, filterExpression, initialOffset)
-      ) { page ->
-        page.offset?.let { offset ->
+      return queryAll(keyCondition, asc, pageSize, consistentRead, filterExpression, initialOffset, 0, null)
+    }
+
+    override fun queryAll(
+      keyCondition: KeyCondition<K>,
+      config: QueryConfig,
+      initialOffset: Offset<K>?
+    ): Sequence<Page<K, I>> {
+      return queryAll(
+        keyCondition,
+        config.asc,
+        config.pageSize,
+        config.consistentRead,
+        config.filterExpression,
+        initialOffset,
+        config.prefetchDepth,
+        config.readCapacityLimiter
+      )
+    }
+
+    private fun queryAll(
+      keyCondition: KeyCondition<K>,
+      asc: Boolean,
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      initialOffset: Offset<K>?,
+      prefetchDepth: Int,
+      readCapacityLimiter: ReadCapacityLimiter?
+    ): Sequence<Page<K, I>> {
+      val pacer = readCapacityLimiter?.let { CapacityPacer(it, pageSize) }
+      return paginate(initialOffset, prefetchDepth, executor) { offset ->
+        if (pacer == null) {
           query(keyCondition, asc, pageSize, consistentRead, filterExpression, offset)
+        } else {
+          pacer.fetchBlocking { pageSize ->
+            query(keyCondition, asc, pageSize, consistentRead, filterExpression, offset, ReturnConsumedCapacity.TOTAL)
+          }
         }
       }
     }
@@ -102,6 +160,134 @@ internal class DynamoDbQueryable<K : Any, I : Any, R : Any>(
         .map { it.contents }
         .flatten()
     }
+
+    override fun queryMany(
+      keyConditions: List<KeyCondition<K>>,
+      asc: Boolean,
+      limit: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      initialOffset: MultiOffset<K>?
+    ): MultiPage<K, I> {
+      val merge = sortedMerge(keyConditions, asc, limit, initialOffset)
+      val fanOut = BatchFanOut(executor, maxConcurrentQueries)
+      while (true) {
+        val fetches = merge.sourcesToFetch().entries.toList()
+        if (fetches.isEmpty()) break
+        val pages = fanOut.map(fetches) { (keyCondition, offset) ->
+          queryPage(toQueryRequest(keyCondition, asc, consistentRead, merge.remaining, filterExpression, offset, null))
+        }
+        for ((fetch, page) in fetches.zip(pages)) {
+          merge.addPage(fetch.key, page.items(), page.lastEvaluatedKey()?.decodeOffset())
+        }
+      }
+      return merge.toMultiPage()
+    }
+
+    override fun parallelQuery(
+      keyCondition: KeyCondition<K>,
+      splits: Int,
+      boundaries: List<K>,
+      ordered: Boolean,
+      asc: Boolean,
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      readCapacityLimiter: ReadCapacityLimiter?,
+      consumer: (Page<K, I>) -> Unit
+    ) {
+      require(splits > 0) { "splits must be positive" }
+      val first = queryPage(toQueryRequest(keyCondition, true, consistentRead, 1, null, null, null)).items().firstOrNull()
+      val last = queryPage(toQueryRequest(keyCondition, false, consistentRead, 1, null, null, null)).items().firstOrNull()
+      val ranges = sortKeyRanges(first, last, splits, boundaries, asc)
+      if (ranges.isEmpty()) return
+      val pacers = ConcurrentHashMap<SortKeyRange, CapacityPacer>()
+      val rangePage = { range: SortKeyRange, offset: Offset<K>? ->
+        val fetchPage = { pageSize: Int, returnConsumedCapacity: ReturnConsumedCapacity? ->
+          val request = toQueryRequest(range.queryConditional, asc, consistentRead, pageSize, filterExpression, offset, returnConsumedCapacity)
+          toRangePage(range, queryPage(request))
+        }
+        if (readCapacityLimiter == null) {
+          fetchPage(pageSize, null)
+        } else {
+          pacers.computeIfAbsent(range) { CapacityPacer(readCapacityLimiter, pageSize) }
+            .fetchBlocking { pageSize -> fetchPage(pageSize, ReturnConsumedCapacity.TOTAL) }
+        }
+      }
+      if (!ordered) {
+        ParallelScanner(executor, ranges.size, minOf(splits, ranges.size))
+          .scan({ workerId, offset -> rangePage(ranges[workerId.segment], offset) }) { consumer(it.page.withoutOffset()) }
+        return
+      }
+      // Sub-ranges start in order, each prefetching while the ones before it are consumed.
+      val started = ArrayDeque<Iterator<Page<K, I>>>()
+      var next = 0
+      while (next < ranges.size || started.isNotEmpty()) {
+        while (next < ranges.size && started.size < splits) {
+          val range = ranges[next++]
+          started.addLast(paginate(null, ORDERED_PREFETCH_DEPTH, executor) { offset -> rangePage(range, offset) }.iterator())
+        }
+        started.removeFirst().forEach { consumer(it.withoutOffset()) }
+      }
+    }
+
+    override fun checkpointedQuery(store: CheckpointStore, name: String): CheckpointedQuery<K, I> {
+      val checkpointer = Checkpointer(store, name, { it.encodeOffset() }, { it.decodeOffset() })
+      return object : CheckpointedQuery<K, I> {
+        override val name get() = checkpointer.name
+
+        override fun checkpoint() = checkpointer.checkpoints().firstOrNull()
+
+        override fun queryAll(
+          keyCondition: KeyCondition<K>,
+          asc: Boolean,
+          pageSize: Int,
+          consistentRead: Boolean,
+          filterExpression: Expression?
+        ): Sequence<Page<K, I>> {
+          return checkpointer.pages { offset ->
+            query(keyCondition, asc, pageSize, consistentRead, filterExpression, offset, ReturnConsumedCapacity.TOTAL)
+          }
+        }
+      }
+    }
+
+    override fun count(
+      keyCondition: KeyCondition<K>,
+      consistentRead: Boolean,
+      filterExpression: Expression?
+    ): Long {
+      val request = toCountRequest(keyCondition, consistentRead, filterExpression)
+      return queryPages(request).sumOf { it.count().toLong() }
+    }
+
+    /**
+     * Queries pages of primary keys and loads the items of [itemType] they identify with
+     * [logicalDb]. The next page of keys is queried while the items of this one load.
+     */
+    fun queryAndHydrate(
+      keyCondition: KeyCondition<K>,
+      asc: Boolean,
+      pageSize: Int,
+      initialOffset: Offset<K>?,
+      itemType: KClass<I>,
+      logicalDb: DynamoDbLogicalDb.Sync
+    ): Sequence<Page<K, I>> {
+      val keyPages = paginate(initialOffset, prefetchDepth = 1, executor) { offset ->
+        toKeysResponse(queryPage(toKeysRequest(keyCondition, asc, pageSize, offset)))
+      }
+      return keyPages.map { keys ->
+        Page(logicalDb.batchLoadInOrder(itemType, keys.contents), keys.offset, keys.consumedCapacity)
+      }
+    }
+
+    private fun queryPage(request: QueryEnhancedRequest) = queryPages(request).iterator().next()
+
+    private fun queryPages(request: QueryEnhancedRequest) = if (secondaryIndexName != null) {
+      dynamoDbTable.index(secondaryIndexName).query(request)
+    } else {
+      dynamoDbTable.query(request)
+    }
   }
 
   fun async(dynamoDbTable: DynamoDbAsyncTable<R>) = Async(dynamoDbTable)
@@ -111,16 +297,206 @@ internal class DynamoDbQueryable<K : Any, I : Any, R : Any>(
   ) : AsyncQueryable<K, I> {
     override fun queryAsync(keyCondition: KeyCondition<K>, asc: Boolean, pageSize: Int, consistentRead: Boolean, filterExpression: Expression?, initialOffset: Offset<K>?, returnConsumedCapacity: ReturnConsumedCapacity?): Publisher<Page<K, I>> {
       val request = toQueryRequest(keyCondition, asc, consistentRead, pageSize, filterExpression, initialOffset, returnConsumedCapacity)
-      return if (secondaryIndexName != null) {
-        dynamoDbTable.index(secondaryIndexName).query(request)
-      } else {
-        dynamoDbTable.query(request)
-      }
+      return queryPages(request)
         .limit(1)
         .asFlow()
         .map(::toQueryResponse)
         .asPublisher()
     }
+
+    override fun queryAll(
+      keyCondition: KeyCondition<K>,
+      asc: Boolean,
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      initialOffset: Offset<K>?
+    ): Flow<Page<K, I>> {
+      return queryAll(keyCondition, asc, pageSize, consistentRead, filterExpression, initialOffset, 0, null)
+    }
+
+    override fun queryAll(
+      keyCondition: KeyCondition<K>,
+      config: QueryConfig,
+      initialOffset: Offset<K>?
+    ): Flow<Page<K, I>> {
+      return queryAll(
+        keyCondition,
+        config.asc,
+        config.pageSize,
+        config.consistentRead,
+        config.filterExpression,
+        initialOffset,
+        config.prefetchDepth,
+        config.readCapacityLimiter
+      )
+    }
+
+    private fun queryAll(
+      keyCondition: KeyCondition<K>,
+      asc: Boolean,
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      initialOffset: Offset<K>?,
+      prefetchDepth: Int,
+      readCapacityLimiter: ReadCapacityLimiter?
+    ): Flow<Page<K, I>> {
+      val pages = if (readCapacityLimiter != null) {
+        pacedPages(readCapacityLimiter, pageSize, initialOffset) { pageSize, offset ->
+          query(keyCondition, asc, pageSize, consistentRead, filterExpression, offset, ReturnConsumedCapacity.TOTAL)
+        }
+      } else {
+        flow {
+          var offset = initialOffset
+          do {
+            val page = query(keyCondition, asc, pageSize, consistentRead, filterExpression, offset)
+            emit(page)
+            offset = page.offset
+          } while (offset != null)
+        }
+      }
+      return if (prefetchDepth > 0) pages.buffer(prefetchDepth) else pages
+    }
+
+    override fun queryAllAsync(
+      keyCondition: KeyCondition<K>,
+      asc: Boolean,
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      initialOffset: Offset<K>?
+    ): Publisher<Page<K, I>> {
+      val request = toQueryRequest(keyCondition, asc, consistentRead, pageSize, filterExpression, initialOffset, null)
+      // The SDK's publisher fetches the next page only when it is requested.
+      return queryPages(request).map(::toQueryResponse)
+    }
+
+    override fun queryManyAsync(
+      keyConditions: List<KeyCondition<K>>,
+      asc: Boolean,
+      limit: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      initialOffset: MultiOffset<K>?
+    ): Publisher<MultiPage<K, I>> = flow {
+      val merge = sortedMerge(keyConditions, asc, limit, initialOffset)
+      val semaphore = Semaphore(maxConcurrentQueries)
+      while (true) {
+        val fetches = merge.sourcesToFetch().entries.toList()
+        if (fetches.isEmpty()) break
+        val pages = coroutineScope {
+          fetches.map { (keyCondition, offset) ->
+            async {
+              semaphore.withPermit {
+                val request = toQueryRequest(keyCondition, asc, consistentRead, merge.remaining, filterExpression, offset, null)
+                queryPages(request).limit(1).awaitFirst()
+              }
+            }
+          }.awaitAll()
+        }
+        for ((fetch, page) in fetches.zip(pages)) {
+          merge.addPage(fetch.key, page.items(), page.lastEvaluatedKey()?.decodeOffset())
+        }
+      }
+      emit(merge.toMultiPage())
+    }.asPublisher()
+
+    override fun parallelQueryAsync(
+      keyCondition: KeyCondition<K>,
+      splits: Int,
+      boundaries: List<K>,
+      ordered: Boolean,
+      asc: Boolean,
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      readCapacityLimiter: ReadCapacityLimiter?
+    ): Publisher<Page<K, I>> {
+      require(splits > 0) { "splits must be positive" }
+      return channelFlow {
+        val first = firstItem(keyCondition, true, consistentRead)
+        val last = firstItem(keyCondition, false, consistentRead)
+        val ranges = sortKeyRanges(first, last, splits, boundaries, asc)
+        // Each sub-range fetches its next page only once the one before it was taken.
+        val rangePages = { range: SortKeyRange ->
+          val pages = if (readCapacityLimiter != null) {
+            pacedPages(readCapacityLimiter, pageSize, null) { pageSize, offset ->
+              val request = toQueryRequest(range.queryConditional, asc, consistentRead, pageSize, filterExpression, offset, ReturnConsumedCapacity.TOTAL)
+              toRangePage(range, queryPages(request).limit(1).awaitFirst())
+            }
+          } else {
+            val request = toQueryRequest(range.queryConditional, asc, consistentRead, pageSize, filterExpression, null, null)
+            queryPages(request).asFlow().buffer(Channel.RENDEZVOUS).map { toRangePage(range, it) }
+          }
+          pages.map { it.withoutOffset() }
+        }
+        if (!ordered) {
+          val rangesInFlight = Semaphore(splits)
+          for (range in ranges) {
+            launch { rangesInFlight.withPermit { rangePages(range).collect { send(it) } } }
+          }
+          return@channelFlow
+        }
+        // Sub-ranges start in order, each prefetching while the ones before it are consumed.
+        val started = ArrayDeque<ReceiveChannel<Page<K, I>>>()
+        var next = 0
+        while (next < ranges.size || started.isNotEmpty()) {
+          while (next < ranges.size && started.size < splits) {
+            val range = ranges[next++]
+            started.addLast(rangePages(range).buffer(ORDERED_PREFETCH_DEPTH).produceIn(this))
+          }
+          for (page in started.removeFirst()) send(page)
+        }
+      }
+        .buffer(splits)
+        .asPublisher()
+    }
+
+    override fun countAsync(
+      keyCondition: KeyCondition<K>,
+      consistentRead: Boolean,
+      filterExpression: Expression?
+    ): CompletableFuture<Long> {
+      val request = toCountRequest(keyCondition, consistentRead, filterExpression)
+      val count = AtomicLong()
+      return queryPages(request)
+        .subscribe { count.addAndGet(it.count().toLong()) }
+        .thenApply { count.get() }
+    }
+
+    /**
+     * Queries pages of primary keys and loads the items of [itemType] they identify with
+     * [logicalDb]. The next page of keys is queried while the items of this one load.
+     */
+    fun queryAndHydrateAsync(
+      keyCondition: KeyCondition<K>,
+      asc: Boolean,
+      pageSize: Int,
+      initialOffset: Offset<K>?,
+      itemType: KClass<I>,
+      logicalDb: DynamoDbLogicalDb.Async
+    ): Publisher<Page<K, I>> {
+      return queryPages(toKeysRequest(keyCondition, asc, pageSize, initialOffset))
+        .asFlow()
+        .map(::toKeysResponse)
+        .buffer(1)
+        .map { keys ->
+          Page(logicalDb.batchLoadInOrderAsync(itemType, keys.contents).await(), keys.offset, keys.consumedCapacity)
+        }
+        .asPublisher()
+    }
+
+    private suspend fun firstItem(keyCondition: KeyCondition<K>, asc: Boolean, consistentRead: Boolean): R? {
+      val request = toQueryRequest(keyCondition, asc, consistentRead, 1, null, null, null)
+      return queryPages(request).limit(1).awaitFirst().items().firstOrNull()
+    }
+
+    private fun queryPages(request: QueryEnhancedRequest) = if (secondaryIndexName != null) {
+      dynamoDbTable.index(secondaryIndexName).query(request)
+    } else {
+      dynamoDbTable.query(request)
+    }
   }
 
   private fun toQueryRequest(
@@ -131,14 +507,27 @@ internal class DynamoDbQueryable<K : Any, I : Any, R : Any>(
     filterExpression: Expression?,
     initialOffset: Offset<K>?,
     returnConsumedCapacity: ReturnConsumedCapacity?
+  ) = toQueryRequest(
+    toQueryConditional(keyCondition), asc, consistentRead, pageSize, filterExpression, initialOffset, returnConsumedCapacity
+  )
+
+  private fun toQueryRequest(
+    queryConditional: QueryConditional,
+    asc: Boolean,
+    consistentRead: Boolean,
+    pageSize: Int,
+    filterExpression: Expression?,
+    initialOffset: Offset<K>?,
+    returnConsumedCapacity: ReturnConsumedCapacity?,
+    attributesToProject: Collection<String> = specificAttributeNames
   ): QueryEnhancedRequest {
     val query = QueryEnhancedRequest.builder()
-      .queryConditional(toQueryConditional(keyCondition))
+      .queryConditional(queryConditional)
       .scanIndexForward(asc)
       .consistentRead(consistentRead)
       .limit(pageSize)
       .returnConsumedCapacity(returnConsumedCapacity)
-      .attributesToProject(specificAttributeNames)
+      .attributesToProject(attributesToProject)
     if (filterExpression != null) {
       query.filterExpression(filterExpression)
     }
@@ -148,6 +537,133 @@ internal class DynamoDbQueryable<K : Any, I : Any, R : Any>(
     return query.build()
   }
 
+  /**
+   * Returns a request for the keys of a page, which reads only the key attributes of the table and
+   * of the index. Those are all that an index that projects `KEYS_ONLY` has.
+   */
+  private fun toKeysRequest(
+    keyCondition: KeyCondition<K>,
+    asc: Boolean,
+    pageSize: Int,
+    initialOffset: Offset<K>?
+  ): QueryEnhancedRequest {
+    val metadata = tableSchema.tableMetadata()
+    val indexName = secondaryIndexName ?: TableMetadata.primaryIndexName()
+    val keyAttributeNames = setOf(metadata.primaryPartitionKey(), metadata.indexPartitionKey(indexName)) +
+      listOfNotNull(metadata.primarySortKey().orElse(null), metadata.indexSortKey(indexName).orElse(null))
+    return toQueryRequest(
+      toQueryConditional(keyCondition), asc, false, pageSize, null, initialOffset, null, keyAttributeNames
+    )
+  }
+
+  /**
+   * Returns the raw items of a keys-only query, which hold the primary key of each item whatever
+   * attributes the index's key type declares.
+   */
+  private fun toKeysResponse(page: software.amazon.awssdk.enhanced.dynamodb.model.Page<R>): Page<K, R> {
+    val offset = page.lastEvaluatedKey()?.decodeOffset()
+    return Page(page.items(), offset, page.consumedCapacity())
+  }
+
+  /** Returns a request for the count of each page, which reads no attributes. */
+  private fun toCountRequest(
+    keyCondition: KeyCondition<K>,
+    consistentRead: Boolean,
+    filterExpression: Expression?
+  ): QueryEnhancedRequest {
+    val query = QueryEnhancedRequest.builder()
+      .queryConditional(toQueryConditional(keyCondition))
+      .consistentRead(consistentRead)
+      .select(Select.COUNT)
+    if (filterExpression != null) {
+      query.filterExpression(filterExpression)
+    }
+    return query.build()
+  }
+
+  /**
+   * Splits the items from [first] to [last] into sub-ranges for a parallel query, in the order
+   * that they are read. Each sub-range but the last excludes its upper bound, which is the lower
+   * bound of the next one.
+   */
+  private fun sortKeyRanges(first: R?, last: R?, splits: Int, boundaries: List<K>, asc: Boolean): List<SortKeyRange> {
+    if (first == null || last == null) return emptyList()
+    val indexName = secondaryIndexName ?: TableMetadata.primaryIndexName()
+    val metadata = tableSchema.tableMetadata()
+    val partitionKey = tableSchema.attributeValue(first, metadata.indexPartitionKey(indexName))
+    val sortKeyName = metadata.indexSortKey(indexName).get()
+    val firstSortKey = tableSchema.attributeValue(first, sortKeyName)
+    val lastSortKey = tableSchema.attributeValue(last, sortKeyName)
+    val splitSortKeys = if (boundaries.isEmpty()) {
+      SortKeyRanges.interpolate(firstSortKey, lastSortKey, splits)
+    } else {
+      SortKeyRanges.within(firstSortKey, lastSortKey, boundaries.map { tableSchema.attributeValue(keyCodec.toDb(it), sortKeyName) })
+    }
+    val bounds = listOf(firstSortKey) + splitSortKeys + lastSortKey
+    val ranges = bounds.zipWithNext().mapIndexed { i, (lower, upper) ->
+      SortKeyRange(
+        QueryConditional.sortBetween(
+          Key.builder().partitionValue(partitionKey).sortValue(lower).build(),
+          Key.builder().partitionValue(partitionKey).sortValue(upper).build()
+        ),
+        sortKeyName,
+        excludedSortKey = if (i < bounds.size - 2) upper else null
+      )
+    }
+    return if (asc) ranges else ranges.reversed()
+  }
+
+  private fun toRangePage(range: SortKeyRange, page: software.amazon.awssdk.enhanced.dynamodb.model.Page<R>): Page<K, I> {
+    val items = if (range.excludedSortKey == null) {
+      page.items()
+    } else {
+      page.items().filter { SortKeyOrder.compare(tableSchema.attributeValue(it, range.sortKeyName), range.excludedSortKey) != 0 }
+    }
+    return Page(items.map { itemCodec.toApp(it) }, page.lastEvaluatedKey()?.decodeOffset(), page.consumedCapacity())
+  }
+
+  /** The offset of a sub-range's page doesn't resume the whole parallel query, so it is dropped. */
+  private fun Page<K, I>.withoutOffset() = copy(offset = null)
+
+  private class SortKeyRange(
+    val queryConditional: QueryConditional,
+    val sortKeyName: String,
+    /** The items with this sort key belong to the next sub-range. */
+    val excludedSortKey: AttributeValue?,
+  )
+
+  private fun sortedMerge(
+    keyConditions: List<KeyCondition<K>>,
+    asc: Boolean,
+    limit: Int,
+    initialOffset: MultiOffset<K>?
+  ): SortedMerge<KeyCondition<K>, R, Offset<K>> {
+    val indexName = secondaryIndexName ?: TableMetadata.primaryIndexName()
+    val metadata = tableSchema.tableMetadata()
+    val sortKeyName = metadata.indexSortKey(indexName).get()
+    // Resuming after an item of an index needs the item's table keys as well as its index keys.
+    val keyNames = (metadata.primaryKeys() + metadata.indexKeys(indexName)).distinct()
+    val sortKeyOrder = compareBy<R, AttributeValue>(SortKeyOrder) { tableSchema.attributeValue(it, sortKeyName) }
+    val initialOffsets = if (initialOffset == null) {
+      keyConditions.associateWith { null }
+    } else {
+      keyConditions.filter { it in initialOffset.offsets }.associateWith { initialOffset.offsets[it] }
+    }
+    return SortedMerge(
+      initialOffsets,
+      limit,
+      if (asc) sortKeyOrder else sortKeyOrder.reversed(),
+    ) { item -> tableSchema.itemToMap(item, keyNames).decodeOffset() }
+  }
+
+  private fun SortedMerge<KeyCondition<K>, R, Offset<K>>.toMultiPage(): MultiPage<K, I> {
+    val offsets = offsets()
+    return MultiPage(
+      contents.map { itemCodec.toApp(it) },
+      if (offsets.isEmpty()) null else MultiOffset(offsets)
+    )
+  }
+
   private fun toQueryResponse(page: software.amazon.awssdk.enhanced.dynamodb.model.Page<R>): Page<K, I> {
     val contents = page.items().map { itemCodec.toApp(it) }
     val offset = page.lastEvaluatedKey()?.decodeOffset()
@@ -199,4 +715,9 @@ internal class DynamoDbQueryable<K : Any, I : Any, R : Any>(
       secondaryIndexName ?: TableMetadata.primaryIndexName()
     )
   }
+
+  companion object {
+    /** How many pages each sub-range of an ordered [Queryable.parallelQuery] fetches ahead. */
+    private const val ORDERED_PREFETCH_DEPTH = 1
+  }
 }
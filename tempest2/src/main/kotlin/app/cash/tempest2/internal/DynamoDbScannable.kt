@@ -18,13 +18,26 @@ package app.cash.tempest2.internal
 
 import app.cash.tempest.internal.Codec
 import app.cash.tempest2.AsyncScannable
+import app.cash.tempest2.CheckpointStore
+import app.cash.tempest2.CheckpointedScan
 import app.cash.tempest2.Offset
 import app.cash.tempest2.Page
+import app.cash.tempest2.ReadCapacityLimiter
+import app.cash.tempest2.ScanConfig
 import app.cash.tempest2.Scannable
+import app.cash.tempest2.SegmentPage
 import app.cash.tempest2.WorkerId
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.reactive.asFlow
 import kotlinx.coroutines.reactive.asPublisher
+import kotlinx.coroutines.reactive.awaitFirst
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import org.reactivestreams.Publisher
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable
@@ -32,6 +45,12 @@ import software.amazon.awssdk.enhanced.dynamodb.Expression
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema
 import software.amazon.awssdk.enhanced.dynamodb.model.ScanEnhancedRequest
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity
+import software.amazon.awssdk.services.dynamodb.model.Select
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicLong
 
 internal class DynamoDbScannable<K : Any, I : Any, R : Any>(
   private val secondaryIndexName: String?,
@@ -39,6 +58,8 @@ internal class DynamoDbScannable<K : Any, I : Any, R : Any>(
   private val keyCodec: Codec<K, R>,
   private val itemCodec: Codec<I, R>,
   private val tableSchema: TableSchema<R>,
+  /** Where parallel and prefetched scans run. */
+  private val executor: Executor,
 ) {
 
   fun sync(dynamoDbTable: DynamoDbTable<R>) = Sync(dynamoDbTable)
@@ -54,14 +75,7 @@ internal class DynamoDbScannable<K : Any, I : Any, R : Any>(
       initialOffset: Offset<K>?,
       workerId: WorkerId?
     ): Page<K, I> {
-      val request = toScanRequest(consistentRead, pageSize, filterExpression, initialOffset, workerId)
-      val page = if (secondaryIndexName != null) {
-        dynamoDbTable.index(secondaryIndexName).scan(request)
-      } else {
-        dynamoDbTable.scan(request)
-      }
-        .iterator().next()
-      return toScanResponse(page)
+      return scanPage(pageSize, consistentRead, filterExpression, initialOffset, workerId, null)
     }
 
     override fun scanAll(
@@ -70,11 +84,36 @@ internal class DynamoDbScannable<K : Any, I : Any, R : Any>(
       filterExpression: Expression?,
       initialOffset: Offset<K>?
     ): Sequence<Page<K, I>> {
-      return generateSequence(
-        scan(pageSize, consistentRead, filterExpression, initialOffset)
-      ) { page ->
-        page.offset?.let { offset ->
+      return scanAll(pageSize, consistentRead, filterExpression, initialOffset, 0, null)
+    }
+
+    override fun scanAll(config: ScanConfig, initialOffset: Offset<K>?): Sequence<Page<K, I>> {
+      return scanAll(
+        config.pageSize,
+        config.consistentRead,
+        config.filterExpression,
+        initialOffset,
+        config.prefetchDepth,
+        config.readCapacityLimiter
+      )
+    }
+
+    private fun scanAll(
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      initialOffset: Offset<K>?,
+      prefetchDepth: Int,
+      readCapacityLimiter: ReadCapacityLimiter?
+    ): Sequence<Page<K, I>> {
+      val pacer = readCapacityLimiter?.let { CapacityPacer(it, pageSize) }
+      return paginate(initialOffset, prefetchDepth, executor) { offset ->
+        if (pacer == null) {
           scan(pageSize, consistentRead, filterExpression, offset)
+        } else {
+          pacer.fetchBlocking { pageSize ->
+            scanPage(pageSize, consistentRead, filterExpression, offset, null, ReturnConsumedCapacity.TOTAL)
+          }
         }
       }
     }
@@ -89,6 +128,103 @@ internal class DynamoDbScannable<K : Any, I : Any, R : Any>(
         .map { it.contents }
         .flatten()
     }
+
+    override fun parallelScan(
+      totalSegments: Int,
+      concurrency: Int,
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      readCapacityLimiter: ReadCapacityLimiter?,
+      consumer: (SegmentPage<K, I>) -> Unit
+    ) {
+      val pacers = ConcurrentHashMap<Int, CapacityPacer>()
+      ParallelScanner(executor, totalSegments, concurrency).scan(
+        scanPage = { workerId, offset ->
+          if (readCapacityLimiter == null) {
+            scan(pageSize, consistentRead, filterExpression, offset, workerId)
+          } else {
+            pacers.computeIfAbsent(workerId.segment) { CapacityPacer(readCapacityLimiter, pageSize) }
+              .fetchBlocking { pageSize ->
+                scanPage(pageSize, consistentRead, filterExpression, offset, workerId, ReturnConsumedCapacity.TOTAL)
+              }
+          }
+        },
+        consumer = consumer
+      )
+    }
+
+    override fun checkpointedScan(store: CheckpointStore, name: String): CheckpointedScan<K, I> {
+      val checkpointer = Checkpointer(store, name, { it.encodeOffset() }, { it.decodeOffset() })
+      return object : CheckpointedScan<K, I> {
+        override val name get() = checkpointer.name
+
+        override fun checkpoints() = checkpointer.checkpoints()
+
+        override fun scanAll(
+          pageSize: Int,
+          consistentRead: Boolean,
+          filterExpression: Expression?
+        ): Sequence<Page<K, I>> {
+          return checkpointer.pages { offset ->
+            scanPage(pageSize, consistentRead, filterExpression, offset, null, ReturnConsumedCapacity.TOTAL)
+          }
+        }
+
+        override fun parallelScan(
+          totalSegments: Int,
+          concurrency: Int,
+          pageSize: Int,
+          consistentRead: Boolean,
+          filterExpression: Expression?,
+          consumer: (SegmentPage<K, I>) -> Unit
+        ) {
+          checkpointer.parallelScan(
+            scanner = ParallelScanner(executor, totalSegments, concurrency),
+            totalSegments = totalSegments,
+            scanPage = { workerId, offset ->
+              scanPage(pageSize, consistentRead, filterExpression, offset, workerId, ReturnConsumedCapacity.TOTAL)
+            },
+            consumer = consumer
+          )
+        }
+      }
+    }
+
+    override fun count(
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      totalSegments: Int
+    ): Long {
+      require(totalSegments > 0) { "totalSegments must be positive" }
+      if (totalSegments == 1) {
+        return countSegment(toCountRequest(consistentRead, filterExpression, null))
+      }
+      val segments = (0 until totalSegments).map { WorkerId(it, totalSegments) }
+      return BatchFanOut(executor, totalSegments)
+        .map(segments) { countSegment(toCountRequest(consistentRead, filterExpression, it)) }
+        .sum()
+    }
+
+    private fun scanPage(
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      initialOffset: Offset<K>?,
+      workerId: WorkerId?,
+      returnConsumedCapacity: ReturnConsumedCapacity?
+    ): Page<K, I> {
+      val request = toScanRequest(consistentRead, pageSize, filterExpression, initialOffset, workerId, returnConsumedCapacity)
+      return toScanResponse(scanPages(request).iterator().next())
+    }
+
+    private fun countSegment(request: ScanEnhancedRequest) = scanPages(request).sumOf { it.count().toLong() }
+
+    private fun scanPages(request: ScanEnhancedRequest) = if (secondaryIndexName != null) {
+      dynamoDbTable.index(secondaryIndexName).scan(request)
+    } else {
+      dynamoDbTable.scan(request)
+    }
   }
 
   fun async(dynamoDbTable: DynamoDbAsyncTable<R>) = Async(dynamoDbTable)
@@ -104,16 +240,141 @@ internal class DynamoDbScannable<K : Any, I : Any, R : Any>(
       initialOffset: Offset<K>?
     ): Publisher<Page<K, I>> {
       val request = toScanRequest(consistentRead, pageSize, filterExpression, initialOffset)
-      return if (secondaryIndexName != null) {
-        dynamoDbTable.index(secondaryIndexName).scan(request)
-      } else {
-        dynamoDbTable.scan(request)
-      }
+      return scanPages(request)
         .limit(1)
         .asFlow()
         .map(::toScanResponse)
         .asPublisher()
     }
+
+    override fun scanAll(
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      initialOffset: Offset<K>?
+    ): Flow<Page<K, I>> {
+      return scanAll(pageSize, consistentRead, filterExpression, initialOffset, 0, null)
+    }
+
+    override fun scanAll(config: ScanConfig, initialOffset: Offset<K>?): Flow<Page<K, I>> {
+      return scanAll(
+        config.pageSize,
+        config.consistentRead,
+        config.filterExpression,
+        initialOffset,
+        config.prefetchDepth,
+        config.readCapacityLimiter
+      )
+    }
+
+    private fun scanAll(
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      initialOffset: Offset<K>?,
+      prefetchDepth: Int,
+      readCapacityLimiter: ReadCapacityLimiter?
+    ): Flow<Page<K, I>> {
+      val pages = if (readCapacityLimiter != null) {
+        pacedPages(readCapacityLimiter, pageSize, initialOffset) { pageSize, offset ->
+          scanPage(pageSize, consistentRead, filterExpression, offset, null, ReturnConsumedCapacity.TOTAL)
+        }
+      } else {
+        flow {
+          var offset = initialOffset
+          do {
+            val page = scan(pageSize, consistentRead, filterExpression, offset)
+            emit(page)
+            offset = page.offset
+          } while (offset != null)
+        }
+      }
+      return if (prefetchDepth > 0) pages.buffer(prefetchDepth) else pages
+    }
+
+    override fun scanAllAsync(
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      initialOffset: Offset<K>?
+    ): Publisher<Page<K, I>> {
+      val request = toScanRequest(consistentRead, pageSize, filterExpression, initialOffset)
+      // The SDK's publisher fetches the next page only when it is requested.
+      return scanPages(request).map(::toScanResponse)
+    }
+
+    override fun parallelScanAsync(
+      totalSegments: Int,
+      concurrency: Int,
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      readCapacityLimiter: ReadCapacityLimiter?
+    ): Publisher<SegmentPage<K, I>> {
+      require(totalSegments > 0) { "totalSegments must be positive" }
+      require(concurrency > 0) { "concurrency must be positive" }
+      return channelFlow {
+        val segmentsInFlight = Semaphore(concurrency)
+        for (segment in 0 until totalSegments) {
+          val workerId = WorkerId(segment, totalSegments)
+          val pages = if (readCapacityLimiter != null) {
+            pacedPages(readCapacityLimiter, pageSize, null) { pageSize, offset ->
+              scanPage(pageSize, consistentRead, filterExpression, offset, workerId, ReturnConsumedCapacity.TOTAL)
+            }
+          } else {
+            scanPages(toScanRequest(consistentRead, pageSize, filterExpression, null, workerId)).asFlow().map(::toScanResponse)
+          }
+          launch {
+            segmentsInFlight.withPermit {
+              pages.collect { send(SegmentPage(workerId, it)) }
+            }
+          }
+        }
+      }
+        .buffer(concurrency)
+        .asPublisher()
+    }
+
+    override fun countAsync(
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      totalSegments: Int
+    ): CompletableFuture<Long> {
+      require(totalSegments > 0) { "totalSegments must be positive" }
+      if (totalSegments == 1) {
+        return countSegment(toCountRequest(consistentRead, filterExpression, null))
+      }
+      val segments = (0 until totalSegments).map {
+        countSegment(toCountRequest(consistentRead, filterExpression, WorkerId(it, totalSegments)))
+      }
+      return CompletableFuture.allOf(*segments.toTypedArray())
+        .thenApply { segments.sumOf { it.join() } }
+    }
+
+    private suspend fun scanPage(
+      pageSize: Int,
+      consistentRead: Boolean,
+      filterExpression: Expression?,
+      initialOffset: Offset<K>?,
+      workerId: WorkerId?,
+      returnConsumedCapacity: ReturnConsumedCapacity?
+    ): Page<K, I> {
+      val request = toScanRequest(consistentRead, pageSize, filterExpression, initialOffset, workerId, returnConsumedCapacity)
+      return toScanResponse(scanPages(request).limit(1).awaitFirst())
+    }
+
+    private fun countSegment(request: ScanEnhancedRequest): CompletableFuture<Long> {
+      val count = AtomicLong()
+      return scanPages(request)
+        .subscribe { count.addAndGet(it.count().toLong()) }
+        .thenApply { count.get() }
+    }
+
+    private fun scanPages(request: ScanEnhancedRequest) = if (secondaryIndexName != null) {
+      dynamoDbTable.index(secondaryIndexName).scan(request)
+    } else {
+      dynamoDbTable.scan(request)
+    }
   }
 
   private fun toScanRequest(
@@ -121,11 +382,13 @@ internal class DynamoDbScannable<K : Any, I : Any, R : Any>(
     pageSize: Int,
     filterExpression: Expression?,
     initialOffset: Offset<K>?,
-    workerId: WorkerId? = null
+    workerId: WorkerId? = null,
+    returnConsumedCapacity: ReturnConsumedCapacity? = null
   ): ScanEnhancedRequest {
     val scan = ScanEnhancedRequest.builder()
       .consistentRead(consistentRead)
       .limit(pageSize)
+      .returnConsumedCapacity(returnConsumedCapacity)
       .attributesToProject(attributeNames)
     if (filterExpression != null) {
       scan.filterExpression(filterExpression)
@@ -140,6 +403,25 @@ internal class DynamoDbScannable<K : Any, I : Any, R : Any>(
     return scan.build()
   }
 
+  /** Returns a request for the count of each page, which reads no attributes. */
+  private fun toCountRequest(
+    consistentRead: Boolean,
+    filterExpression: Expression?,
+    workerId: WorkerId?
+  ): ScanEnhancedRequest {
+    val scan = ScanEnhancedRequest.builder()
+      .consistentRead(consistentRead)
+      .select(Select.COUNT)
+    if (filterExpression != null) {
+      scan.filterExpression(filterExpression)
+    }
+    if (workerId != null) {
+      scan.segment(workerId.segment)
+      scan.totalSegments(workerId.totalSegments)
+    }
+    return scan.build()
+  }
+
   private fun toScanResponse(page: software.amazon.awssdk.enhanced.dynamodb.model.Page<R>): Page<K, I> {
     val contents = page.items().map { itemCodec.toApp(it) }
     val offset = page.lastEvaluatedKey()?.decodeOffset()
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest2.BatchWriteSet
+import app.cash.tempest2.ItemSet
+import app.cash.tempest2.KeySet
+import app.cash.tempest2.Session
+import app.cash.tempest2.SessionConfig
+import app.cash.tempest2.SessionFlushMode
+import app.cash.tempest2.TransactionWriteSet
+import app.cash.tempest2.UnprocessedWriteException
+import app.cash.tempest2.internal.DynamoDbLogicalDb.RawItemKey
+import kotlin.reflect.KClass
+
+internal class DynamoDbSession(
+  private val logicalDb: DynamoDbLogicalDb.Sync,
+  private val config: SessionConfig,
+) : Session {
+  /** The items of the session by primary key, in the order they were first loaded or written. */
+  private val entries = LinkedHashMap<RawItemKey, Entry>()
+
+  override fun <I : Any> load(key: Any, itemType: Class<I>): I? {
+    val expectedItemType = logicalDb.itemType(key)
+    require(itemType.isAssignableFrom(expectedItemType.java)) { "$key is a key of $expectedItemType, not $itemType" }
+    val primaryKey = logicalDb.primaryKey(key)
+    if (entries[primaryKey]?.has(expectedItemType) != true) {
+      read(listOf(key))
+    }
+    return itemType.cast(entries.getValue(primaryKey).item(key, expectedItemType))
+  }
+
+  override fun batchLoad(keys: Iterable<Any>): ItemSet {
+    val requests = keys.map { LoadRequest(it, logicalDb.primaryKey(it), logicalDb.itemType(it)) }
+    val missing = requests
+      .filter { entries[it.primaryKey]?.has(it.itemType) != true }
+      .distinctBy { it.primaryKey to it.itemType }
+    if (missing.isNotEmpty()) {
+      read(missing.map { it.key })
+    }
+    return ItemSet(requests.mapNotNull { entries.getValue(it.primaryKey).item(it.key, it.itemType) })
+  }
+
+  override fun save(item: Any) {
+    entries.getOrPut(logicalDb.primaryKey(item)) { Entry() }.apply {
+      writtenItem = item
+      deletedKey = null
+      isWritten = true
+    }
+  }
+
+  override fun delete(key: Any) {
+    entries.getOrPut(logicalDb.primaryKey(key)) { Entry() }.apply {
+      writtenItem = null
+      deletedKey = key
+      isWritten = true
+    }
+  }
+
+  override val pendingWrites: Int
+    get() = entries.values.count { it.isDirty }
+
+  override fun flush() {
+    val writes = entries.filterValues { it.isDirty }
+    if (writes.isEmpty()) return
+    when (config.flushMode) {
+      SessionFlushMode.TRANSACTION -> {
+        val writeSet = TransactionWriteSet.Builder()
+        for (entry in writes.values) {
+          val item = entry.writtenItem
+          if (item != null) writeSet.save(item) else writeSet.delete(entry.deletedKey!!)
+        }
+        logicalDb.transactionWrite(writeSet.build())
+      }
+      SessionFlushMode.BATCH_WRITE -> {
+        val writeSet = BatchWriteSet.Builder()
+        for (entry in writes.values) {
+          val item = entry.writtenItem
+          if (item != null) writeSet.clobber(item) else writeSet.delete(entry.deletedKey!!)
+        }
+        val result = logicalDb.batchWrite(writeSet.build())
+        if (!result.isSuccessful) {
+          throw UnprocessedWriteException(
+            "Writes of ${result.unprocessedClobbers + result.unprocessedDeletes} were not processed"
+          )
+        }
+      }
+    }
+    for ((primaryKey, entry) in writes) {
+      // Saved items are read again, with the version that the write gave them.
+      if (entry.writtenItem != null) {
+        entries.remove(primaryKey)
+      } else {
+        entries[primaryKey] = Entry().apply { readItems[logicalDb.itemType(entry.deletedKey!!)] = null }
+      }
+    }
+  }
+
+  override fun clear() = entries.clear()
+
+  /** Reads [keys], which must be distinct by primary key and item type. */
+  private fun read(keys: Collection<Any>) {
+    val items = logicalDb.batchLoadByKey(KeySet(keys), config.consistentReads)
+    for (key in keys) {
+      val entry = entries.getOrPut(logicalDb.primaryKey(key)) { Entry() }
+      entry.readItems[logicalDb.itemType(key)] = items[key]
+    }
+  }
+
+  private class LoadRequest(
+    val key: Any,
+    val primaryKey: RawItemKey,
+    val itemType: KClass<*>,
+  )
+
+  /**
+   * The state of one primary key. Several item types can decode the same item, so reads are kept
+   * by item type, but a primary key has at most one pending write.
+   */
+  private class Entry {
+    /** The items that were read by item type, or null for item types that had none. */
+    val readItems = mutableMapOf<KClass<*>, Any?>()
+
+    /** The item as of the latest save, or null if the latest write was a delete. */
+    var writtenItem: Any? = null
+
+    /** The key that the item was deleted with, if it was. */
+    var deletedKey: Any? = null
+
+    /** True if the item was saved or deleted since it was read. */
+    var isWritten: Boolean = false
+
+    /** Returns true if loads of [itemType] don't need to read the item. */
+    fun has(itemType: KClass<*>) = isWritten || itemType in readItems
+
+    /** Returns the item that [key], a key of [itemType], loads. */
+    fun item(key: Any, itemType: KClass<*>): Any? {
+      if (!isWritten) return readItems[itemType]
+      val item = writtenItem ?: return null
+      check(itemType.isInstance(item)) {
+        "$key loads a $itemType, but the session saved a ${item::class} with its primary key"
+      }
+      return item
+    }
+
+    val isDirty: Boolean
+      get() {
+        if (!isWritten) return false
+        val item = writtenItem ?: return readItems.isEmpty() || readItems.values.any { it != null }
+        if (item::class !in readItems) return true
+        val readItem = readItems[item::class]
+        // An item that was changed in place is the same instance as the one that was read.
+        return item === readItem || item != readItem
+      }
+  }
+}
@@ -18,6 +18,7 @@ package app.cash.tempest2.internal
 
 import app.cash.tempest.internal.Codec
 import app.cash.tempest2.AsyncView
+import app.cash.tempest2.ItemCache
 import app.cash.tempest2.View
 import app.cash.tempest2.extensions.WithResultExtension
 import app.cash.tempest2.extensions.WithResultExtension.Companion.WithResultExtensionInstalledLast
@@ -39,7 +40,13 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
   private val keyCodec: Codec<K, R>,
   private val itemCodec: Codec<I, R>,
   private val tableSchema: TableSchema<R>,
+  /** The attributes that loads read, or null to read whole items. */
+  attributeNames: Set<String>?,
+  /** Where loads are cached and which writes invalidate, or null if the logical db has no cache. */
+  private val itemCache: ItemCache.Table?,
+  private val projectedReads: ProjectedReads,
 ) {
+  private val projection = attributeNames?.let(::Projection)
 
   fun sync(dynamoDbTable: DynamoDbTable<R>) = Sync(dynamoDbTable)
 
@@ -48,8 +55,8 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
   ) : View<K, I> {
     override fun load(key: K, consistentReads: Boolean): I? {
       val request = toLoadRequest(key, consistentReads)
-      val itemObject = dynamoDbTable.getItem(request)
-      return toLoadResponse(itemObject)
+      val read = { toLoadResponse(projectedReads.getItem(dynamoDbTable, request, projection).attributes()) }
+      return if (itemCache == null) read() else itemCache.load(request.key(), consistentReads, read)
     }
 
     override fun load(
@@ -58,7 +65,7 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
       returnConsumedCapacity: ReturnConsumedCapacity
     ): Pair<I?, ConsumedCapacity?> {
       val request = toLoadRequest(key, consistentReads, returnConsumedCapacity)
-      val response = dynamoDbTable.getItemWithResponse(request)
+      val response = projectedReads.getItem(dynamoDbTable, request, projection)
       val item = toLoadResponse(response.attributes())
       return Pair(item, response.consumedCapacity())
     }
@@ -68,7 +75,7 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
       saveExpression: Expression?
     ) {
       val request = toSaveRequest(item, saveExpression)
-      dynamoDbTable.putItem(request)
+      invalidatingAfter(request.item().key()) { dynamoDbTable.putItem(request) }
     }
 
     @WithResultExtensionInstalledLast
@@ -78,7 +85,7 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
     ): I =
       WithResultExtension.runWithResult({
         val request = toSaveRequest(item, saveExpression)
-        dynamoDbTable.putItem(request)
+        invalidatingAfter(request.item().key()) { dynamoDbTable.putItem(request) }
       }) { _, itemUpdate ->
         itemCodec.toApp(tableSchema.mapToItem(itemUpdate.single()))
       }
@@ -88,7 +95,7 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
       deleteExpression: Expression?
     ): I? {
       val request = toDeleteKeyRequest(key, deleteExpression)
-      val itemObject = dynamoDbTable.deleteItem(request)
+      val itemObject = invalidatingAfter(request.key()) { dynamoDbTable.deleteItem(request) }
       return toItem(itemObject)
     }
 
@@ -97,7 +104,7 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
       deleteExpression: Expression?
     ): I? {
       val request = toDeleteItemRequest(item, deleteExpression)
-      val itemObject = dynamoDbTable.deleteItem(request)
+      val itemObject = invalidatingAfter(request.key()) { dynamoDbTable.deleteItem(request) }
       return toItem(itemObject)
     }
   }
@@ -109,7 +116,11 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
   ) : AsyncView<K, I> {
     override fun loadAsync(key: K, consistentReads: Boolean): CompletableFuture<I?> {
       val request = toLoadRequest(key, consistentReads)
-      return dynamoDbTable.getItem(request).thenApply(::toItem)
+      val read = {
+        projectedReads.getItemAsync(dynamoDbTable, request, projection)
+          .thenApply { response -> toItem(response.attributes()) }
+      }
+      return if (itemCache == null) read() else itemCache.loadAsync(request.key(), consistentReads, read)
     }
 
     override fun loadAsync(
@@ -118,7 +129,7 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
       returnConsumedCapacity: ReturnConsumedCapacity
     ): CompletableFuture<Pair<I?, ConsumedCapacity?>> {
       val request = toLoadRequest(key, consistentReads, returnConsumedCapacity)
-      return dynamoDbTable.getItemWithResponse(request)
+      return projectedReads.getItemAsync(dynamoDbTable, request, projection)
         .thenApply { response ->
           val item = toItem(response.attributes())
           Pair(item, response.consumedCapacity())
@@ -130,7 +141,7 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
       saveExpression: Expression?
     ): CompletableFuture<Void> {
       val request = toSaveRequest(item, saveExpression)
-      return dynamoDbTable.putItem(request)
+      return dynamoDbTable.putItem(request).invalidatingAfter(request.item().key())
     }
 
     @WithResultExtensionInstalledLast
@@ -140,7 +151,7 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
     ): CompletableFuture<I> =
       WithResultExtension.runWithResult({
         val request = toSaveRequest(item, saveExpression)
-        dynamoDbTable.putItem(request)
+        dynamoDbTable.putItem(request).invalidatingAfter(request.item().key())
       }) { completion, itemUpdate ->
         completion.thenApply {
           itemCodec.toApp(tableSchema.mapToItem(itemUpdate.single()))
@@ -152,7 +163,7 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
       deleteExpression: Expression?
     ): CompletableFuture<I?> {
       val request = toDeleteKeyRequest(key, deleteExpression)
-      return dynamoDbTable.deleteItem(request).thenApply(::toItem)
+      return dynamoDbTable.deleteItem(request).invalidatingAfter(request.key()).thenApply(::toItem)
     }
 
     override fun deleteAsync(
@@ -160,7 +171,7 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
       deleteExpression: Expression?
     ): CompletableFuture<I?> {
       val request = toDeleteItemRequest(item, deleteExpression)
-      return dynamoDbTable.deleteItem(request).thenApply(::toItem)
+      return dynamoDbTable.deleteItem(request).invalidatingAfter(request.key()).thenApply(::toItem)
     }
   }
 
@@ -171,6 +182,20 @@ internal class DynamoDbView<K : Any, I : Any, R : Any>(
     )
   }
 
+  /** Evicts the item of [key] from the cache once [write] completes, whether it failed or not. */
+  private inline fun <T> invalidatingAfter(key: Key, write: () -> T): T {
+    try {
+      return write()
+    } finally {
+      itemCache?.invalidate(key)
+    }
+  }
+
+  private fun <T> CompletableFuture<T>.invalidatingAfter(key: Key): CompletableFuture<T> {
+    if (itemCache == null) return this
+    return whenComplete { _, _ -> itemCache.invalidate(key) }
+  }
+
   private fun toLoadRequest(key: K, consistentReads: Boolean, returnConsumedCapacity: ReturnConsumedCapacity? = null): GetItemEnhancedRequest {
     val keyObject = keyCodec.toDb(key)
     return GetItemEnhancedRequest.builder()
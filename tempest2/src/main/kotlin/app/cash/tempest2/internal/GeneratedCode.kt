@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest.internal.Codec
+import app.cash.tempest.internal.GeneratedCodecs
+import app.cash.tempest2.GeneratedTableSchema
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema
+import java.lang.reflect.ParameterizedType
+import kotlin.reflect.KClass
+
+/**
+ * Finds the codecs and table schemas that `tempest2-ksp` generated next to the classes they
+ * convert. A generated class is named after its target: `com.example.Album.Key` is converted by
+ * `com.example.Album_KeyTempestCodec`.
+ */
+internal object GeneratedCode : GeneratedCodecs {
+
+  @Suppress("UNCHECKED_CAST")
+  override fun codec(type: KClass<*>, rawItemType: KClass<*>): Codec<Any, Any>? {
+    val codecClass = load(type.java, CODEC_SUFFIX) ?: return null
+    if (!converts(codecClass, type.java, rawItemType.java)) return null
+    val codec = codecClass.getDeclaredConstructor().newInstance() as app.cash.tempest2.Codec<Any, Any>
+    return GeneratedCodecAdapter(codec)
+  }
+
+  @Suppress("UNCHECKED_CAST")
+  fun <T> tableSchema(rawItemType: Class<*>): TableSchema<T>? {
+    val tableSchemaClass = load(rawItemType, TABLE_SCHEMA_SUFFIX) ?: return null
+    val generatedTableSchema = tableSchemaClass.getDeclaredConstructor().newInstance() as GeneratedTableSchema<*>
+    return generatedTableSchema.create() as TableSchema<T>
+  }
+
+  private fun load(target: Class<*>, suffix: String): Class<*>? {
+    return try {
+      Class.forName(target.name.replace('$', '_') + suffix, true, target.classLoader)
+    } catch (_: ClassNotFoundException) {
+      null
+    }
+  }
+
+  /** A type bound to another raw item type than the one it was generated for uses reflection. */
+  private fun converts(codecClass: Class<*>, type: Class<*>, rawItemType: Class<*>): Boolean {
+    val codecInterface = codecClass.genericInterfaces
+      .filterIsInstance<ParameterizedType>()
+      .singleOrNull { it.rawType == app.cash.tempest2.Codec::class.java } ?: return false
+    return codecInterface.actualTypeArguments.toList() == listOf(type, rawItemType)
+  }
+
+  private const val CODEC_SUFFIX = "TempestCodec"
+  private const val TABLE_SCHEMA_SUFFIX = "TempestTableSchema"
+}
+
+private class GeneratedCodecAdapter(
+  private val generated: app.cash.tempest2.Codec<Any, Any>
+) : Codec<Any, Any> {
+  override fun toDb(appItem: Any): Any = generated.toDb(appItem)
+
+  override fun toApp(dbItem: Any): Any = generated.toApp(dbItem)
+}
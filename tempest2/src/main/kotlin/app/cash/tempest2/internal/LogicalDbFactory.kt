@@ -26,37 +26,72 @@ import app.cash.tempest.internal.RawItemType
 import app.cash.tempest.internal.Schema
 import app.cash.tempest.internal.declaredMembers
 import app.cash.tempest2.InlineView
+import app.cash.tempest2.ItemEncoding
+import app.cash.tempest2.KeyCondition
 import app.cash.tempest2.LogicalDb
+import app.cash.tempest2.LogicalDbConfig
 import app.cash.tempest2.LogicalTable
+import app.cash.tempest2.Offset
+import app.cash.tempest2.Page
 import app.cash.tempest2.Queryable
 import app.cash.tempest2.Scannable
 import app.cash.tempest2.SecondaryIndex
+import app.cash.tempest2.StreamProcessor
+import app.cash.tempest2.StreamProcessorConfig
 import app.cash.tempest2.TableNameResolver
 import app.cash.tempest2.View
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable
+import software.amazon.awssdk.enhanced.dynamodb.MappedTableResource
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient
 import java.lang.reflect.Method
 import kotlin.reflect.KClass
 import kotlin.reflect.full.isSubclassOf
 import kotlin.reflect.jvm.jvmErasure
 
 internal class LogicalDbFactory(
-  private val dynamoDbEnhancedClient: DynamoDbEnhancedClient
+  private val dynamoDbEnhancedClient: DynamoDbEnhancedClient,
+  private val config: LogicalDbConfig,
 ) : LogicalTable.Factory {
   private val schema = Schema.create(
     V2StringAttributeValue,
     V2MapAttributeValue.Factory,
     V2ForIndexAnnotation,
     V2AttributeAnnotation,
-    V2RawItemTypeFactory()
+    V2RawItemTypeFactory(),
+    attributeValueConverterFactory = when (config.itemEncoding) {
+      ItemEncoding.RAW_ITEM -> null
+      ItemEncoding.ATTRIBUTE_MAP -> V2AttributeValueConverter.Factory
+    },
+    generatedCodecs = GeneratedCode,
   )
 
+  private val projectedReads = run {
+    require(config.asyncProjectedReadsClient == null) { "LogicalDb projects reads with projectedReadsClient, not asyncProjectedReadsClient" }
+    ProjectedReads(config.projectedReadsClient, null)
+  }
+
+  private val dynamoDbLogicalDb = DynamoDbLogicalDb(
+    DynamoDbLogicalDb.MappedTableResourceFactory.simple(dynamoDbEnhancedClient::table),
+    schema,
+    config.itemEncoding,
+    config.batchWriteRetryPolicy,
+    config.itemCache,
+    projectedReads,
+    config.executor,
+  )
+
+  /** Batches of the logical db, which secondary indexes also load their items with. */
+  private val logicalDb by lazy {
+    dynamoDbLogicalDb.sync(
+      dynamoDbEnhancedClient,
+      this,
+      BatchFanOut(config.executor, config.maxConcurrentBatchRequests),
+    )
+  }
+
   fun <DB : LogicalDb> logicalDb(dbType: KClass<DB>, tableNameResolver: TableNameResolver?): DB {
-    val logicalDb = DynamoDbLogicalDb(
-      DynamoDbLogicalDb.MappedTableResourceFactory.simple(dynamoDbEnhancedClient::table),
-      schema,
-    ).sync(dynamoDbEnhancedClient, this)
     val methodHandlers = mutableMapOf<Method, MethodHandler>()
     for (member in dbType.declaredMembers) {
       if (!member.returnType.jvmErasure.isSubclassOf(LogicalTable::class)) {
@@ -74,6 +109,11 @@ internal class LogicalDbFactory(
     val rawItemType = schema.addRawItem(tableName, tableType.rawItemType)
     val tableSchema = TableSchemaFactory.create<Any>(rawItemType.type.java)
     val dynamoDbTable = dynamoDbEnhancedClient.table(rawItemType.tableName, tableSchema)
+    val itemTableSchema = itemTableSchema<Any>(rawItemType, config.itemEncoding)
+    val itemDynamoDbTable =
+      if (itemTableSchema === tableSchema) dynamoDbTable else dynamoDbEnhancedClient.table(rawItemType.tableName, itemTableSchema)
+    dynamoDbLogicalDb.addTable(rawItemType, itemDynamoDbTable as MappedTableResource<Any>)
+    val partitionQuery = PartitionQuery(schema, rawItemType, config.itemEncoding, itemTableSchema).sync(itemDynamoDbTable)
     val logicalTable =
       object :
         LogicalTable<RI>,
@@ -81,10 +121,26 @@ internal class LogicalDbFactory(
           rawItemType.codec as Codec<RI, Any>,
           rawItemType.codec as Codec<RI, Any>,
           tableSchema,
+          attributeNames = null,
+          config.itemCache?.table(rawItemType.tableName, rawItemType.type, tableSchema.tableMetadata(), itemType = null),
+          projectedReads,
         ).sync(dynamoDbTable),
-        InlineView.Factory by InlineViewFactory(rawItemType, tableSchema, dynamoDbTable),
-        SecondaryIndex.Factory by SecondaryIndexFactory(rawItemType, tableSchema, dynamoDbTable) {
+        InlineView.Factory by InlineViewFactory(rawItemType, itemTableSchema, itemDynamoDbTable),
+        SecondaryIndex.Factory by SecondaryIndexFactory(rawItemType, itemTableSchema, itemDynamoDbTable) {
         override fun <T : Any> codec(type: KClass<T>): app.cash.tempest2.Codec<T, RI> = CodecAdapter(schema.codec(type))
+
+        override fun queryPartition(key: Any, itemTypes: Set<KClass<*>>, consistentRead: Boolean) =
+          partitionQuery.queryPartition(key, itemTypes, consistentRead)
+
+        override fun streamProcessor(
+          dynamoDbStreams: DynamoDbStreamsClient,
+          streamArn: String,
+          itemTypes: Set<KClass<*>>,
+          config: StreamProcessorConfig
+        ): StreamProcessor {
+          val decoder = StreamRecordDecoder(schema, rawItemType, this@LogicalDbFactory.config.itemEncoding, itemTableSchema, itemTypes)
+          return StreamProcessor(dynamoDbStreams, streamArn, config, this@LogicalDbFactory.config.executor, decoder::decode)
+        }
       }
     val methodHandlers = mutableMapOf<Method, MethodHandler>()
     for (member in tableType.declaredMembers) {
@@ -118,12 +174,18 @@ internal class LogicalDbFactory(
     ): InlineView<K, I> {
       val item = schema.addItem(itemType, rawItemType.type)
       val key = schema.addKey(keyType, itemType)
+      val itemCodec = item.codecFor(config.itemEncoding) as Codec<I, Any>
       return object :
         InlineView<K, I>,
         View<K, I> by DynamoDbView(
-          key.codec as Codec<K, Any>,
-          item.codec as Codec<I, Any>,
+          key.codecFor(config.itemEncoding) as Codec<K, Any>,
+          itemCodec,
           tableSchema,
+          item.attributeNames,
+          config.itemCache?.table(rawItemType.tableName, rawItemType.type, tableSchema.tableMetadata(), itemType) {
+            itemCodec.toApp(tableSchema.mapToItem(it))
+          },
+          projectedReads,
         ).sync(dynamoDbTable),
         Queryable<K, I> by queryable(
           rawItemType,
@@ -153,21 +215,34 @@ internal class LogicalDbFactory(
     ): SecondaryIndex<K, I> {
       val item = schema.addItem(itemType, rawItemType.type)
       val key = schema.addKey(keyType, itemType)
+      val queryable = queryable<K, I>(
+        rawItemType,
+        item,
+        key,
+        tableSchema,
+        dynamoDbTable,
+      )
       return object :
         SecondaryIndex<K, I>,
-        Queryable<K, I> by queryable(
-          rawItemType,
-          item,
-          key,
-          tableSchema,
-          dynamoDbTable,
-        ),
+        Queryable<K, I> by queryable,
         Scannable<K, I> by scannable(
           item,
           key,
           tableSchema,
           dynamoDbTable,
-        ) {}
+        ) {
+        override fun queryAndHydrate(
+          keyCondition: KeyCondition<K>,
+          asc: Boolean,
+          pageSize: Int,
+          initialOffset: Offset<K>?
+        ): Sequence<Page<K, I>> {
+          if (queryable !is DynamoDbQueryable<K, I, *>.Sync) {
+            throw UnsupportedOperationException("Require ${rawItemType.type} to have a range key. You can query a table or an index only if it has a composite primary key (partition key and sort key)")
+          }
+          return queryable.queryAndHydrate(keyCondition, asc, pageSize, initialOffset, itemType, logicalDb)
+        }
+      }
     }
   }
 
@@ -184,9 +259,10 @@ internal class LogicalDbFactory(
     return DynamoDbQueryable(
       keyType.secondaryIndexName,
       itemType.attributeNames,
-      keyType.codec as Codec<K, Any>,
-      itemType.codec as Codec<I, Any>,
-      tableSchema,
+      keyType.codecFor(config.itemEncoding) as Codec<K, Any>,
+      itemType.codecFor(config.itemEncoding) as Codec<I, Any>,
+      tableSchema,      config.executor,
+      config.maxConcurrentBatchRequests,
     ).sync(dynamoDbTable)
   }
 
@@ -199,9 +275,9 @@ internal class LogicalDbFactory(
     return DynamoDbScannable(
       keyType.secondaryIndexName,
       itemType.attributeNames,
-      keyType.codec as Codec<K, Any>,
-      itemType.codec as Codec<I, Any>,
-      tableSchema,
+      keyType.codecFor(config.itemEncoding) as Codec<K, Any>,
+      itemType.codecFor(config.itemEncoding) as Codec<I, Any>,
+      tableSchema,      config.executor,
     ).sync(dynamoDbTable)
   }
 
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest2.Offset
+import app.cash.tempest2.Page
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.Executor
+
+/**
+ * Returns the pages that start at [initialOffset], fetching each with [fetchPage].
+ *
+ * If [prefetchDepth] is positive, pages are fetched on [executor] ahead of the consumer, up to
+ * [prefetchDepth] pages past the one the consumer is waiting for, so that fetching the next page
+ * overlaps with processing this one. Each page still waits for the offset of the page before it.
+ * A consumer that stops early leaves at most that many pages fetched but unused, and no thread
+ * waiting on them.
+ */
+internal fun <K, I> paginate(
+  initialOffset: Offset<K>?,
+  prefetchDepth: Int,
+  executor: Executor,
+  fetchPage: (Offset<K>?) -> Page<K, I>,
+): Sequence<Page<K, I>> {
+  require(prefetchDepth >= 0) { "prefetchDepth must not be negative" }
+  if (prefetchDepth == 0) {
+    return generateSequence(fetchPage(initialOffset)) { page ->
+      page.offset?.let(fetchPage)
+    }
+  }
+  return Sequence { PrefetchingIterator(initialOffset, prefetchDepth, executor, fetchPage) }
+}
+
+private class PrefetchingIterator<K, I>(
+  initialOffset: Offset<K>?,
+  private val prefetchDepth: Int,
+  private val executor: Executor,
+  private val fetchPage: (Offset<K>?) -> Page<K, I>,
+) : Iterator<Page<K, I>> {
+  /** The page the consumer gets next, followed by the pages fetched ahead of it. Null past the last page. */
+  private val pages = ArrayDeque<CompletableFuture<Page<K, I>?>>()
+
+  init {
+    pages.addLast(CompletableFuture.supplyAsync({ fetchPage(initialOffset) }, executor))
+    prefetch()
+  }
+
+  override fun hasNext() = await(pages.first()) != null
+
+  override fun next(): Page<K, I> {
+    val page = await(pages.removeFirst()) ?: throw NoSuchElementException()
+    prefetch()
+    return page
+  }
+
+  private fun prefetch() {
+    while (pages.size <= prefetchDepth) {
+      pages.addLast(
+        pages.last().thenApplyAsync({ page -> page?.offset?.let(fetchPage) }, executor)
+      )
+    }
+  }
+
+  private fun await(page: CompletableFuture<Page<K, I>?>): Page<K, I>? {
+    try {
+      return page.join()
+    } catch (e: CompletionException) {
+      throw e.cause ?: e
+    }
+  }
+}
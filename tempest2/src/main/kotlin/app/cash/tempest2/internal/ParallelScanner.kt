@@ -0,0 +1,126 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest2.Offset
+import app.cash.tempest2.Page
+import app.cash.tempest2.SegmentPage
+import app.cash.tempest2.WorkerId
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Scans the segments of a parallel scan on [executor], at most [concurrency] of them at a time,
+ * and hands their pages to the calling thread through a buffer of [bufferCapacity] pages. Workers
+ * wait while the buffer is full, so a slow consumer slows the scan down rather than piling up
+ * pages in memory.
+ */
+internal class ParallelScanner(
+  private val executor: Executor,
+  private val totalSegments: Int,
+  private val concurrency: Int,
+  private val bufferCapacity: Int = concurrency,
+) {
+  init {
+    require(totalSegments > 0) { "totalSegments must be positive" }
+    require(concurrency > 0) { "concurrency must be positive" }
+  }
+
+  /**
+   * Calls [scanPage] for every page of every segment and [consumer] for each of the pages, in
+   * order within a segment. [consumer] runs on the calling thread. Returns once every segment has
+   * been scanned; if [scanPage] or [consumer] throws, the remaining segments are abandoned and
+   * the exception is rethrown.
+   *
+   * Only [segments] are scanned, each starting at its [initialOffset].
+   */
+  fun <K, I> scan(
+    scanPage: (WorkerId, Offset<K>?) -> Page<K, I>,
+    segments: List<Int> = (0 until totalSegments).toList(),
+    initialOffset: (segment: Int) -> Offset<K>? = { null },
+    consumer: (SegmentPage<K, I>) -> Unit,
+  ) {
+    val buffer = ArrayBlockingQueue<Any>(bufferCapacity)
+    val nextSegment = AtomicInteger()
+    val cancelled = AtomicBoolean()
+
+    fun offer(element: Any): Boolean {
+      while (!buffer.offer(element, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        if (cancelled.get()) return false
+      }
+      return true
+    }
+
+    val worker = Runnable {
+      try {
+        while (!cancelled.get()) {
+          val index = nextSegment.getAndIncrement()
+          if (index >= segments.size) break
+          val segment = segments[index]
+          val workerId = WorkerId(segment, totalSegments)
+          var offset = initialOffset(segment)
+          do {
+            val page = scanPage(workerId, offset)
+            if (!offer(SegmentPage(workerId, page))) return@Runnable
+            offset = page.offset
+          } while (offset != null && !cancelled.get())
+        }
+        offer(Done)
+      } catch (e: Throwable) {
+        offer(Failed(e))
+      }
+    }
+
+    var workers = 0
+    repeat(minOf(concurrency, segments.size)) {
+      try {
+        executor.execute(worker)
+        workers++
+      } catch (e: RejectedExecutionException) {
+        if (workers == 0) throw e
+      }
+    }
+
+    try {
+      while (workers > 0) {
+        when (val element = buffer.take()) {
+          is Done -> workers--
+          is Failed -> throw element.cause
+          else -> {
+            @Suppress("UNCHECKED_CAST")
+            consumer(element as SegmentPage<K, I>)
+          }
+        }
+      }
+    } finally {
+      cancelled.set(true)
+    }
+  }
+
+  private object Done
+
+  private class Failed(val cause: Throwable)
+
+  companion object {
+    /** How often a worker waiting on a full buffer checks whether the scan was abandoned. */
+    private const val OFFER_TIMEOUT_MS = 100L
+  }
+}
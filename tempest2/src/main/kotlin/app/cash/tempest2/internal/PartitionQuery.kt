@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest.internal.ItemType
+import app.cash.tempest.internal.RawItemType
+import app.cash.tempest.internal.Schema
+import app.cash.tempest2.ItemEncoding
+import app.cash.tempest2.ItemSet
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable
+import software.amazon.awssdk.enhanced.dynamodb.Key
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.reflect.KClass
+
+/**
+ * Reads every item of a partition with a single query, and decodes each one into the item type
+ * whose sort key prefix it starts with.
+ */
+internal class PartitionQuery<R : Any>(
+  private val schema: Schema,
+  private val rawItemType: RawItemType,
+  private val itemEncoding: ItemEncoding,
+  private val tableSchema: TableSchema<R>,
+) {
+  /** Decoders by the item types they decode, for at most [MAX_CACHED_DECODERS] sets of them. */
+  private val decoders = ConcurrentHashMap<Set<KClass<*>>, Decoder>()
+
+  fun sync(dynamoDbTable: DynamoDbTable<R>) = Sync(dynamoDbTable)
+
+  inner class Sync(
+    private val dynamoDbTable: DynamoDbTable<R>
+  ) {
+    fun queryPartition(key: Any, itemTypes: Set<KClass<*>>, consistentRead: Boolean): ItemSet {
+      val decoder = decoder(itemTypes)
+      val items = dynamoDbTable.query(decoder.toQueryRequest(key, consistentRead)).items()
+      return ItemSet(items.mapNotNull(decoder::decode))
+    }
+  }
+
+  fun async(dynamoDbTable: DynamoDbAsyncTable<R>) = Async(dynamoDbTable)
+
+  inner class Async(
+    private val dynamoDbTable: DynamoDbAsyncTable<R>
+  ) {
+    fun queryPartitionAsync(
+      key: Any,
+      itemTypes: Set<KClass<*>>,
+      consistentRead: Boolean
+    ): CompletableFuture<ItemSet> {
+      val decoder = decoder(itemTypes)
+      val contents = mutableListOf<Any>()
+      return dynamoDbTable.query(decoder.toQueryRequest(key, consistentRead)).items()
+        .subscribe { item -> decoder.decode(item)?.let(contents::add) }
+        .thenApply { ItemSet(contents) }
+    }
+  }
+
+  private fun decoder(itemTypes: Set<KClass<*>>): Decoder {
+    require(itemTypes.isNotEmpty()) { "Expect at least one item type" }
+    decoders[itemTypes]?.let { return it }
+    // Callers may combine item types in many ways, so only the first few combinations are kept.
+    val decoder = Decoder(itemTypes)
+    if (decoders.size < MAX_CACHED_DECODERS) decoders.putIfAbsent(itemTypes.toSet(), decoder)
+    return decoder
+  }
+
+  private inner class Decoder(itemTypes: Set<KClass<*>>) {
+    private val rangeKeyName = requireNotNull(rawItemType.rangeKeyName) {
+      "Expect ${rawItemType.type} to have a sort key to query partitions"
+    }
+    private val trie = schema.itemTypesBySortKeyPrefix(rawItemType, rangeKeyName, itemTypes)
+    private val attributeNames = itemTypes.flatMapTo(mutableSetOf()) { schema.addItem(it, rawItemType.type).attributeNames }
+
+    fun toQueryRequest(key: Any, consistentRead: Boolean): QueryEnhancedRequest {
+      val resolvedType = requireNotNull(schema.resolve(key::class)) {
+        "unexpected type ${key::class}. Expect a key type or item type of ${rawItemType.type}"
+      }
+      require(resolvedType.rawItemType == rawItemType && resolvedType.itemType != null) {
+        "Expect ${key::class} to be a key type or item type of ${rawItemType.type}"
+      }
+      @Suppress("UNCHECKED_CAST")
+      val dbKey = resolvedType.logicalType.codecFor(itemEncoding).toDb(key) as R
+      val partitionKey = Key.builder()
+        .partitionValue(tableSchema.attributeValue(dbKey, rawItemType.hashKeyName))
+        .build()
+      return QueryEnhancedRequest.builder()
+        .queryConditional(QueryConditional.keyEqualTo(partitionKey))
+        .consistentRead(consistentRead)
+        .attributesToProject(attributeNames)
+        .build()
+    }
+
+    fun decode(item: R): Any? {
+      val sortKey = tableSchema.attributeValue(item, rangeKeyName)?.s() ?: return null
+      val itemType = trie.longestPrefixOf(sortKey) ?: return null
+      return itemType.codecFor(itemEncoding).toApp(item)
+    }
+  }
+
+  companion object {
+    private const val MAX_CACHED_DECODERS = 32
+  }
+}
+
+/**
+ * Registers [itemTypes] as item types of [rawItemType] and returns them by the prefix of their
+ * sort keys, which must be distinct.
+ */
+internal fun Schema.itemTypesBySortKeyPrefix(
+  rawItemType: RawItemType,
+  rangeKeyName: String,
+  itemTypes: Set<KClass<*>>,
+): SortKeyPrefixTrie<ItemType> {
+  val trie = SortKeyPrefixTrie<ItemType>()
+  for (type in itemTypes) {
+    val itemType = addItem(type, rawItemType.type)
+    val rangeKeyAttribute = itemType.keyAttributes(itemType.primaryIndex)
+      .single { rangeKeyName in it.names }
+    val previous = trie.put(rangeKeyAttribute.prefix, itemType)
+    require(previous == null) {
+      "Expect item types to have distinct sort key prefixes but ${previous!!.type} and $type both use \"${rangeKeyAttribute.prefix}\""
+    }
+  }
+  return trie
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.future.await
+import kotlinx.coroutines.reactive.asPublisher
+import software.amazon.awssdk.core.async.SdkPublisher
+import software.amazon.awssdk.enhanced.dynamodb.Document
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable
+import software.amazon.awssdk.enhanced.dynamodb.MappedTableResource
+import software.amazon.awssdk.enhanced.dynamodb.TableMetadata
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema
+import software.amazon.awssdk.enhanced.dynamodb.model.BatchGetItemEnhancedRequest
+import software.amazon.awssdk.enhanced.dynamodb.model.BatchGetResultPage
+import software.amazon.awssdk.enhanced.dynamodb.model.GetItemEnhancedRequest
+import software.amazon.awssdk.enhanced.dynamodb.model.GetItemEnhancedResponse
+import software.amazon.awssdk.enhanced.dynamodb.model.TransactGetItemsEnhancedRequest
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse
+import software.amazon.awssdk.services.dynamodb.model.Get
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsRequest
+import software.amazon.awssdk.services.dynamodb.model.TransactGetItemsResponse
+import java.util.concurrent.CompletableFuture
+
+/** The attributes that a read returns, as a projection expression. */
+internal class Projection(attributeNames: Collection<String>) {
+  val expressionAttributeNames: Map<String, String> =
+    attributeNames.toSortedSet().withIndex().associate { (i, attributeName) -> "#P$i" to attributeName }
+  val expression = expressionAttributeNames.keys.joinToString(", ")
+}
+
+/**
+ * GetItem, BatchGetItem and TransactGetItems requests that return only the projected attributes.
+ * The enhanced client can't project the attributes of these requests, so this builds the
+ * low-level requests from the enhanced ones, adds the projection, and sends them with the
+ * low-level client of [LogicalDbConfig.projectedReadsClient][app.cash.tempest2.LogicalDbConfig].
+ * Items are decoded with their table's schema. Without a low-level client, reads go through the
+ * enhanced client and return whole items.
+ */
+internal class ProjectedReads(
+  private val dynamoDbClient: DynamoDbClient?,
+  private val dynamoDbAsyncClient: DynamoDbAsyncClient?,
+) {
+
+  fun <T> getItem(
+    dynamoDbTable: DynamoDbTable<T>,
+    request: GetItemEnhancedRequest,
+    projection: Projection?
+  ): GetItemEnhancedResponse<T> {
+    if (projection == null || dynamoDbClient == null) return dynamoDbTable.getItemWithResponse(request)
+    val response = dynamoDbClient.getItem(toGetItemRequest(dynamoDbTable, request, projection))
+    return toGetItemResponse(dynamoDbTable.tableSchema(), response)
+  }
+
+  fun <T> getItemAsync(
+    dynamoDbTable: DynamoDbAsyncTable<T>,
+    request: GetItemEnhancedRequest,
+    projection: Projection?
+  ): CompletableFuture<GetItemEnhancedResponse<T>> {
+    if (projection == null || dynamoDbAsyncClient == null) return dynamoDbTable.getItemWithResponse(request)
+    return dynamoDbAsyncClient.getItem(toGetItemRequest(dynamoDbTable, request, projection))
+      .thenApply { toGetItemResponse(dynamoDbTable.tableSchema(), it) }
+  }
+
+  /** Returns every page of [request], with the items of each table projected by table name. */
+  fun batchGetItem(
+    dynamoDbEnhancedClient: DynamoDbEnhancedClient,
+    request: BatchGetItemEnhancedRequest,
+    projections: Map<String, Projection>
+  ): List<BatchGetResultPage> {
+    if (dynamoDbClient == null) return dynamoDbEnhancedClient.batchGetItem(request).toList()
+    val pages = mutableListOf<BatchGetResultPage>()
+    var batchGetItem: BatchGetItemRequest? = toBatchGetItemRequest(request, projections)
+    while (batchGetItem != null) {
+      val response = dynamoDbClient.batchGetItem(batchGetItem)
+      pages.add(toBatchGetResultPage(response))
+      batchGetItem = nextBatchGetItemRequest(batchGetItem, response)
+    }
+    return pages
+  }
+
+  fun batchGetItemAsync(
+    dynamoDbEnhancedClient: DynamoDbEnhancedAsyncClient,
+    request: BatchGetItemEnhancedRequest,
+    projections: Map<String, Projection>
+  ): SdkPublisher<BatchGetResultPage> {
+    val client = dynamoDbAsyncClient ?: return dynamoDbEnhancedClient.batchGetItem(request)
+    val pages = flow {
+      var batchGetItem: BatchGetItemRequest? = toBatchGetItemRequest(request, projections)
+      while (batchGetItem != null) {
+        val response = client.batchGetItem(batchGetItem).await()
+        emit(toBatchGetResultPage(response))
+        batchGetItem = nextBatchGetItemRequest(batchGetItem, response)
+      }
+    }
+    return SdkPublisher.adapt(pages.asPublisher())
+  }
+
+  /** Returns the item of each get of [request], projected by the projection at the same index. */
+  fun transactGetItems(
+    dynamoDbEnhancedClient: DynamoDbEnhancedClient,
+    request: TransactGetItemsEnhancedRequest,
+    projections: List<Projection?>
+  ): List<Document> {
+    if (dynamoDbClient == null) return dynamoDbEnhancedClient.transactGetItems(request)
+    return toDocuments(dynamoDbClient.transactGetItems(toTransactGetItemsRequest(request, projections)))
+  }
+
+  fun transactGetItemsAsync(
+    dynamoDbEnhancedClient: DynamoDbEnhancedAsyncClient,
+    request: TransactGetItemsEnhancedRequest,
+    projections: List<Projection?>
+  ): CompletableFuture<List<Document>> {
+    if (dynamoDbAsyncClient == null) return dynamoDbEnhancedClient.transactGetItems(request)
+    return dynamoDbAsyncClient.transactGetItems(toTransactGetItemsRequest(request, projections))
+      .thenApply(::toDocuments)
+  }
+
+  private fun toGetItemRequest(
+    table: MappedTableResource<*>,
+    request: GetItemEnhancedRequest,
+    projection: Projection
+  ) = GetItemRequest.builder()
+    .tableName(table.tableName())
+    .key(request.key().keyMap(table.tableSchema(), TableMetadata.primaryIndexName()))
+    .consistentRead(request.consistentRead())
+    .returnConsumedCapacity(request.returnConsumedCapacityAsString())
+    .projectionExpression(projection.expression)
+    .expressionAttributeNames(projection.expressionAttributeNames)
+    .build()
+
+  private fun <T> toGetItemResponse(tableSchema: TableSchema<T>, response: GetItemResponse) =
+    GetItemEnhancedResponse.builder<T>()
+      .attributes(if (response.hasItem()) toItem(tableSchema, response.item()) else null)
+      .consumedCapacity(response.consumedCapacity())
+      .build()
+
+  private fun toBatchGetItemRequest(
+    request: BatchGetItemEnhancedRequest,
+    projections: Map<String, Projection>
+  ): BatchGetItemRequest {
+    // Like the enhanced client, merge the reads of each table into a single KeysAndAttributes.
+    val requestItems = request.readBatches().groupBy { it.tableName() }
+      .mapValues { (tableName, readBatches) ->
+        val keysAndAttributes = readBatches.first().keysAndAttributes().toBuilder()
+          .keys(readBatches.flatMap { it.keysAndAttributes().keys() })
+        projections[tableName]?.let {
+          keysAndAttributes
+            .projectionExpression(it.expression)
+            .expressionAttributeNames(it.expressionAttributeNames)
+        }
+        keysAndAttributes.build()
+      }
+    return BatchGetItemRequest.builder()
+      .requestItems(requestItems)
+      .returnConsumedCapacity(request.returnConsumedCapacityAsString())
+      .build()
+  }
+
+  /** Returns the request for the unprocessed keys of [response], which keep their projection. */
+  private fun nextBatchGetItemRequest(
+    request: BatchGetItemRequest,
+    response: BatchGetItemResponse
+  ): BatchGetItemRequest? {
+    val unprocessedKeys = response.unprocessedKeys()
+    if (unprocessedKeys.isNullOrEmpty()) return null
+    return request.toBuilder().requestItems(unprocessedKeys).build()
+  }
+
+  private fun toBatchGetResultPage(response: BatchGetItemResponse) =
+    BatchGetResultPage.builder().batchGetItemResponse(response).build()
+
+  private fun toTransactGetItemsRequest(
+    request: TransactGetItemsEnhancedRequest,
+    projections: List<Projection?>
+  ) = TransactGetItemsRequest.builder()
+    .transactItems(
+      request.transactGetItems().zip(projections) { transactGetItem, projection ->
+        if (projection == null) {
+          transactGetItem
+        } else {
+          transactGetItem.toBuilder().get(transactGetItem.get().project(projection)).build()
+        }
+      }
+    )
+    .build()
+
+  private fun Get.project(projection: Projection) = toBuilder()
+    .projectionExpression(projection.expression)
+    .expressionAttributeNames(expressionAttributeNames() + projection.expressionAttributeNames)
+    .build()
+
+  private fun toDocuments(response: TransactGetItemsResponse): List<Document> {
+    return response.responses().map { itemResponse ->
+      object : Document {
+        override fun <T> getItem(mappedTableResource: MappedTableResource<T>): T? {
+          val item = if (itemResponse.hasItem()) itemResponse.item() else return null
+          return toItem(mappedTableResource.tableSchema(), item)
+        }
+      }
+    }
+  }
+
+  private fun <T> toItem(tableSchema: TableSchema<T>, item: Map<String, AttributeValue>): T? {
+    return if (item.isEmpty()) null else tableSchema.mapToItem(item)
+  }
+}
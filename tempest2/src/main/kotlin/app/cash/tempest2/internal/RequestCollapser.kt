@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Collects the keys that callers [load] and loads them together. A batch is sent [window] after
+ * its first key arrives, or as soon as it has [maxBatchSize] distinct keys, whichever is first.
+ * Callers that load the same key in the same batch share a single result.
+ */
+internal class RequestCollapser<K : Any, V : Any>(
+  private val window: Duration,
+  private val maxBatchSize: Int,
+  private val executor: Executor,
+  private val loadAll: (List<K>) -> CompletableFuture<Map<K, V>>,
+) {
+  private var batch: Batch? = null
+
+  fun load(key: K): CompletableFuture<V?> {
+    val result: CompletableFuture<V?>
+    var full: Batch? = null
+    synchronized(this) {
+      val batch = batch ?: Batch().also {
+        batch = it
+        CompletableFuture.delayedExecutor(window.toNanos(), TimeUnit.NANOSECONDS, executor)
+          .execute { sendIfPending(it) }
+      }
+      result = batch.results.getOrPut(key) { CompletableFuture() }
+      if (batch.results.size >= maxBatchSize) {
+        this.batch = null
+        full = batch
+      }
+    }
+    full?.let { executor.execute { send(it) } }
+    // Callers get their own future so that one of them cancelling doesn't affect the others.
+    return result.thenApply { it }
+  }
+
+  private fun sendIfPending(batch: Batch) {
+    synchronized(this) {
+      if (this.batch !== batch) return
+      this.batch = null
+    }
+    send(batch)
+  }
+
+  private fun send(batch: Batch) {
+    val loaded = try {
+      loadAll(batch.results.keys.toList())
+    } catch (e: Throwable) {
+      CompletableFuture.failedFuture(e)
+    }
+    loaded.whenComplete { values, error ->
+      for ((key, result) in batch.results) {
+        if (error != null) {
+          result.completeExceptionally(error)
+        } else {
+          result.complete(values[key])
+        }
+      }
+    }
+  }
+
+  private inner class Batch {
+    val results = LinkedHashMap<K, CompletableFuture<V?>>()
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest.internal.RawItemType
+import software.amazon.awssdk.enhanced.dynamodb.Key
+import software.amazon.awssdk.enhanced.dynamodb.MappedTableResource
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema
+import software.amazon.awssdk.enhanced.dynamodb.extensions.VersionedRecordExtension
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+
+/**
+ * A table of a logical DB, resolved once when the table is created: the resource that batches
+ * and transactions address it with, and how to extract the primary key of its items.
+ */
+internal class ResolvedTable(
+  val rawItemType: RawItemType,
+  val mappedTableResource: MappedTableResource<Any>,
+  /**
+   * The same table with attribute value maps for items, so that items that were already encoded
+   * are sent as they are.
+   */
+  val attributeMapTableResource: MappedTableResource<Any>,
+) {
+  val tableSchema: TableSchema<Any> = mappedTableResource.tableSchema()
+  private val partitionKeyName = tableSchema.tableMetadata().primaryPartitionKey()
+  private val sortKeyName = tableSchema.tableMetadata().primarySortKey().orElse(null)
+
+  /** The attribute that [VersionedRecordExtension] manages, if any. */
+  val versionAttributeName: String? = tableSchema.tableMetadata()
+    .customMetadataObject(VERSION_ATTRIBUTE_METADATA_KEY, String::class.java)
+    .orElse(null)
+
+  /**
+   * Returns the primary key of [item], which is a raw item or an attribute value map. This is
+   * `EnhancedClientUtils.createKeyFromItem` without looking up the table metadata every time.
+   */
+  fun keyOf(item: Any): Key {
+    val key = Key.builder().partitionValue(tableSchema.attributeValue(item, partitionKeyName))
+    if (sortKeyName != null) {
+      key.sortValue(tableSchema.attributeValue(item, sortKeyName))
+    }
+    return key.build()
+  }
+
+  /** Returns the primary key of [attributeValues], an encoded item or the key of one. */
+  fun keyOf(attributeValues: Map<String, AttributeValue>): Key {
+    val key = Key.builder().partitionValue(attributeValues.getValue(partitionKeyName))
+    if (sortKeyName != null) {
+      key.sortValue(attributeValues.getValue(sortKeyName))
+    }
+    return key.build()
+  }
+
+  companion object {
+    /** Where [VersionedRecordExtension] records the name of the version attribute. */
+    private const val VERSION_ATTRIBUTE_METADATA_KEY = "VersionedRecordExtension:VersionAttribute"
+  }
+}
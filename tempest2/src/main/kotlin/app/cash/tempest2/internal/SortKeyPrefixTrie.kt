@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+/**
+ * Maps sort keys to the value of the longest prefix they start with, in time proportional to the
+ * length of the sort key rather than to the number of prefixes.
+ */
+internal class SortKeyPrefixTrie<T : Any> {
+  private val root = Node<T>()
+
+  /** Binds [prefix] to [value], and returns the value it was bound to before, if any. */
+  fun put(prefix: String, value: T): T? {
+    var node = root
+    for (c in prefix) {
+      node = node.children.getOrPut(c) { Node() }
+    }
+    val previous = node.value
+    node.value = value
+    return previous
+  }
+
+  /** Returns the value of the longest prefix of [sortKey], or null if none was put. */
+  fun longestPrefixOf(sortKey: String): T? {
+    var node = root
+    var match = node.value
+    for (c in sortKey) {
+      node = node.children[c] ?: break
+      match = node.value ?: match
+    }
+    return match
+  }
+
+  private class Node<T : Any> {
+    val children = HashMap<Char, Node<T>>(4)
+    var value: T? = null
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import software.amazon.awssdk.core.SdkBytes
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import java.math.BigDecimal
+import java.math.BigInteger
+import java.math.MathContext
+import java.math.RoundingMode
+
+/**
+ * Picks the sort keys that split the items of a partition into ranges for a parallel query.
+ */
+internal object SortKeyRanges {
+
+  /**
+   * Returns up to `splits - 1` sort keys, in order, that split the range from [first] to [last]
+   * into ranges of about equal width. DynamoDB can't sample a partition, so this assumes that the
+   * sort keys are spread evenly between the first and the last.
+   *
+   * Numbers are interpolated by value, integers to integers. Strings and binaries are
+   * interpolated on the few characters or bytes after their common prefix.
+   */
+  fun interpolate(first: AttributeValue, last: AttributeValue, splits: Int): List<AttributeValue> {
+    require(splits > 0) { "splits must be positive" }
+    val boundaries = when {
+      first.n() != null && last.n() != null -> {
+        interpolateNumbers(BigDecimal(first.n()), BigDecimal(last.n()), splits)
+          .map { AttributeValue.builder().n(it.toPlainString()).build() }
+      }
+      first.s() != null && last.s() != null -> {
+        interpolateDigits(first.s().codePoints().toArray(), last.s().codePoints().toArray(), splits)
+          .map { codePoints -> AttributeValue.builder().s(String(toValidCodePoints(codePoints), 0, codePoints.size)).build() }
+      }
+      first.b() != null && last.b() != null -> {
+        interpolateDigits(unsignedBytes(first.b()), unsignedBytes(last.b()), splits)
+          .map { bytes -> AttributeValue.builder().b(SdkBytes.fromByteArray(ByteArray(bytes.size) { bytes[it].toByte() })).build() }
+      }
+      else -> emptyList()
+    }
+    return within(first, last, boundaries)
+  }
+
+  /** Returns the distinct [sortKeys] that are strictly between [first] and [last], in order. */
+  fun within(first: AttributeValue, last: AttributeValue, sortKeys: List<AttributeValue>): List<AttributeValue> {
+    val result = mutableListOf<AttributeValue>()
+    for (sortKey in sortKeys.sortedWith(SortKeyOrder)) {
+      if (SortKeyOrder.compare(sortKey, first) <= 0 || SortKeyOrder.compare(sortKey, last) >= 0) continue
+      if (result.isNotEmpty() && SortKeyOrder.compare(result.last(), sortKey) == 0) continue
+      result += sortKey
+    }
+    return result
+  }
+
+  private fun interpolateNumbers(first: BigDecimal, last: BigDecimal, splits: Int): List<BigDecimal> {
+    val integers = first.stripTrailingZeros().scale() <= 0 && last.stripTrailingZeros().scale() <= 0
+    val width = last - first
+    return (1 until splits).map { i ->
+      val boundary = first + width.multiply(BigDecimal(i)).divide(BigDecimal(splits), MathContext.DECIMAL128)
+      if (integers) boundary.setScale(0, RoundingMode.FLOOR) else boundary
+    }
+  }
+
+  /**
+   * Reads the [DIGITS] digits after the common prefix of [first] and [last] as numbers, in a base
+   * just big enough for them, and interpolates between those.
+   */
+  private fun interpolateDigits(first: IntArray, last: IntArray, splits: Int): List<IntArray> {
+    var prefix = 0
+    while (prefix < first.size && prefix < last.size && first[prefix] == last[prefix]) prefix++
+    val digits = { array: IntArray -> IntArray(DIGITS) { array.getOrElse(prefix + it) { 0 } } }
+    val firstDigits = digits(first)
+    val lastDigits = digits(last)
+    val base = BigInteger.valueOf((firstDigits + lastDigits).maxOrNull()!!.toLong() + 1)
+    val toNumber = { array: IntArray -> array.fold(BigInteger.ZERO) { number, digit -> number * base + BigInteger.valueOf(digit.toLong()) } }
+    val firstNumber = toNumber(firstDigits)
+    val width = toNumber(lastDigits) - firstNumber
+    return (1 until splits).map { i ->
+      var number = firstNumber + width * BigInteger.valueOf(i.toLong()) / BigInteger.valueOf(splits.toLong())
+      val boundary = IntArray(DIGITS)
+      for (j in DIGITS - 1 downTo 0) {
+        boundary[j] = (number % base).toInt()
+        number /= base
+      }
+      first.copyOf(prefix) + boundary.dropLastWhile { it == 0 }
+    }
+  }
+
+  /** Moves code points off the surrogate range, which strings can't hold on their own. */
+  private fun toValidCodePoints(codePoints: IntArray) = IntArray(codePoints.size) {
+    val codePoint = codePoints[it]
+    if (codePoint in Character.MIN_SURROGATE.code..Character.MAX_SURROGATE.code) Character.MAX_SURROGATE.code + 1 else codePoint
+  }
+
+  private fun unsignedBytes(bytes: SdkBytes) = bytes.asByteArrayUnsafe().map { it.toInt() and 0xff }.toIntArray()
+
+  /** How many characters or bytes past the common prefix are interpolated. */
+  private const val DIGITS = 4
+}
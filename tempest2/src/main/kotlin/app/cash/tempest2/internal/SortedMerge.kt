@@ -0,0 +1,159 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import java.math.BigDecimal
+import java.util.Arrays
+import java.util.PriorityQueue
+
+/**
+ * Merges several sorted sources into one sorted page of up to [limit] items, like the merge step
+ * of a merge sort. Each source is a query of one partition: its items arrive in order a page at a
+ * time, and it can resume after any of them.
+ *
+ * An item is taken only once every source that might hold a smaller one has a page buffered, so
+ * callers alternate [sourcesToFetch] and [addPage] until there is nothing left to fetch. Sources
+ * stop being fetched once the page is full.
+ *
+ * @param initialOffsets where each source starts, or null to start at its beginning. Ties between
+ * sources go to the one that comes first.
+ * @param offsetOf the offset that resumes a source right after the given item.
+ */
+internal class SortedMerge<S, T, O>(
+  initialOffsets: Map<S, O?>,
+  private val limit: Int,
+  private val comparator: Comparator<in T>,
+  private val offsetOf: (T) -> O,
+) {
+  private val sources = initialOffsets.entries.mapIndexed { order, (id, offset) -> Source<S, T, O>(id, order, offset) }
+  private val sourcesById = sources.associateBy { it.id }
+  private val heap = PriorityQueue<Source<S, T, O>>(
+    compareBy<Source<S, T, O>, T>(comparator) { it.head }.thenBy { it.order }
+  )
+  private var fetchingCount = sources.size
+
+  /** The merged items so far, in order. */
+  val contents = mutableListOf<T>()
+
+  /** How many more items fit in the page. */
+  val remaining: Int
+    get() = limit - contents.size
+
+  init {
+    require(limit > 0) { "limit must be positive" }
+  }
+
+  /**
+   * Merges as many items as the buffered pages allow, then returns the sources whose next page is
+   * needed to continue, with the offset to fetch each from. Returns an empty map once the page is
+   * full or every source is exhausted.
+   */
+  fun sourcesToFetch(): Map<S, O?> {
+    while (remaining > 0 && fetchingCount == 0 && heap.isNotEmpty()) {
+      val source = heap.poll()
+      val item = source.items[source.position++]
+      contents += item
+      if (source.position < source.items.size) {
+        source.offset = offsetOf(item)
+        heap.add(source)
+      } else {
+        // The page's own offset also skips items that the filter expression dropped after this one.
+        endPage(source)
+      }
+    }
+    if (remaining <= 0) return emptyMap()
+    return sources.filter { it.fetching }.associate { it.id to it.offset }
+  }
+
+  /** Buffers the next page of the source [id], which resumes at [nextOffset] after it. */
+  fun addPage(id: S, items: List<T>, nextOffset: O?) {
+    val source = requireNotNull(sourcesById[id]) { "Unknown source $id" }
+    check(source.fetching) { "Source $id has a page already" }
+    source.items = items
+    source.position = 0
+    source.nextOffset = nextOffset
+    if (items.isNotEmpty()) {
+      source.fetching = false
+      fetchingCount--
+      heap.add(source)
+    } else {
+      fetchingCount--
+      endPage(source)
+    }
+  }
+
+  /**
+   * Where each source resumes after the merged items, or null for the sources that resume at their
+   * beginning. Sources that are exhausted are left out.
+   */
+  fun offsets(): Map<S, O?> = sources.filter { !it.exhausted }.associate { it.id to it.offset }
+
+  private fun endPage(source: Source<S, T, O>) {
+    source.offset = source.nextOffset
+    if (source.nextOffset == null) {
+      source.exhausted = true
+    } else {
+      source.fetching = true
+      fetchingCount++
+    }
+  }
+
+  private class Source<S, T, O>(
+    val id: S,
+    val order: Int,
+    var offset: O?,
+  ) {
+    var items: List<T> = emptyList()
+    var position = 0
+    var nextOffset: O? = null
+    var fetching = true
+    var exhausted = false
+
+    val head: T
+      get() = items[position]
+  }
+}
+
+/**
+ * Orders attribute values the way DynamoDB orders sort keys: strings by their UTF-8 bytes, numbers
+ * by value, and binaries by their unsigned bytes.
+ */
+internal object SortKeyOrder : Comparator<AttributeValue> {
+  override fun compare(a: AttributeValue, b: AttributeValue): Int {
+    return when {
+      a.s() != null && b.s() != null -> compareCodePoints(a.s(), b.s())
+      a.n() != null && b.n() != null -> BigDecimal(a.n()).compareTo(BigDecimal(b.n()))
+      a.b() != null && b.b() != null -> Arrays.compareUnsigned(a.b().asByteArrayUnsafe(), b.b().asByteArrayUnsafe())
+      else -> throw IllegalArgumentException("Cannot compare sort keys $a and $b")
+    }
+  }
+
+  /** UTF-8 byte order is code point order, which differs from UTF-16 order past U+FFFF. */
+  private fun compareCodePoints(a: String, b: String): Int {
+    var i = 0
+    var j = 0
+    while (i < a.length && j < b.length) {
+      val x = a.codePointAt(i)
+      val y = b.codePointAt(j)
+      if (x != y) return x.compareTo(y)
+      i += Character.charCount(x)
+      j += Character.charCount(y)
+    }
+    return (a.length - i).compareTo(b.length - j)
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest.internal.ItemType
+import app.cash.tempest.internal.RawItemType
+import app.cash.tempest.internal.Schema
+import app.cash.tempest2.ItemChange
+import app.cash.tempest2.ItemEncoding
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.Record
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.reflect.KClass
+
+/**
+ * Decodes the images of stream records into the item type whose sort key prefix the record's key
+ * starts with. Tables without a sort key have a single item type.
+ *
+ * Item types in other partitions may use the same sort key prefix, like albums and playlists that
+ * both use `INFO_`. Records whose images lack an attribute that the item type of their prefix
+ * requires are of such another item type, and are skipped as if they matched none. Images that
+ * have every required attribute but still fail to decode throw.
+ */
+internal class StreamRecordDecoder<R : Any>(
+  schema: Schema,
+  rawItemType: RawItemType,
+  private val itemEncoding: ItemEncoding,
+  private val tableSchema: TableSchema<R>,
+  itemTypes: Set<KClass<*>>,
+) {
+  private val rangeKeyName = rawItemType.rangeKeyName
+  private val trie = rangeKeyName?.let { schema.itemTypesBySortKeyPrefix(rawItemType, it, itemTypes) }
+  private val singleItemType: ItemType?
+  private val requiredAttributeNames = ConcurrentHashMap<KClass<*>, Set<String>>()
+
+  init {
+    require(itemTypes.isNotEmpty()) { "Expect at least one item type" }
+    singleItemType = if (trie == null) {
+      require(itemTypes.size == 1) {
+        "Expect a single item type because ${rawItemType.type} has no sort key"
+      }
+      schema.addItem(itemTypes.single(), rawItemType.type)
+    } else {
+      null
+    }
+  }
+
+  /** Returns the change in [record], or null if it isn't of one of the item types. */
+  fun decode(record: Record): ItemChange? {
+    val change = record.dynamodb()
+    val itemType = singleItemType
+      ?: trie!!.longestPrefixOf(change.keys()[rangeKeyName]?.s() ?: return null)
+      ?: return null
+    val image = if (change.hasNewImage()) change.newImage() else change.oldImage()
+    if (image != null && !itemType.canDecode(image)) return null
+    val (oldItem, newItem) = try {
+      Pair(
+        if (change.hasOldImage()) itemType.decode(change.oldImage()) else null,
+        if (change.hasNewImage()) itemType.decode(change.newImage()) else null,
+      )
+    } catch (e: Exception) {
+      throw IllegalStateException(
+        "Failed to decode stream record ${change.sequenceNumber()} into ${itemType.type}",
+        e
+      )
+    }
+    return ItemChange(
+      itemType = itemType.type,
+      eventName = record.eventName(),
+      sequenceNumber = change.sequenceNumber(),
+      approximateCreationDateTime = change.approximateCreationDateTime(),
+      keys = change.keys(),
+      oldItem = oldItem,
+      newItem = newItem,
+    )
+  }
+
+  private fun ItemType.decode(image: Map<String, AttributeValue>): Any =
+    codecFor(itemEncoding).toApp(tableSchema.mapToItem(image))
+
+  /** Returns true if [image] has every attribute of this item type that may not be absent. */
+  private fun ItemType.canDecode(image: Map<String, AttributeValue>): Boolean =
+    requiredAttributeNames.getOrPut(type) {
+      attributes.values
+        .filter { !it.returnType.isMarkedNullable && !it.allowEmpty }
+        .flatMapTo(mutableSetOf()) { it.names }
+    }.all { it in image }
+}
@@ -11,6 +11,7 @@ import java.util.concurrent.ConcurrentHashMap
 object TableSchemaFactory {
 
   private val schemas = ConcurrentHashMap<Class<*>, TableSchema<*>>()
+  private val attributeMapSchemas = ConcurrentHashMap<Class<*>, TableSchema<*>>()
 
   /**
    * Compute the TableSchema, which a moderately expensive operation, and cache the result.
@@ -18,6 +19,8 @@ object TableSchemaFactory {
   @Suppress("UNCHECKED_CAST")
   fun <T> create(clazz: Class<*>): TableSchema<T> {
     return schemas.getOrPut(clazz) {
+      // Schemas generated at build time skip bean introspection entirely.
+      GeneratedCode.tableSchema<Any>(clazz)?.let { return@getOrPut it }
       // This is ported from TableSchema.fromClass which was the previous implementation.
       // The modification is to use BeanTableSchemaParams and ImmutableTableSchemaParams:
       //   Generally, this method should be preferred over from*(Class) because it allows
@@ -47,6 +50,16 @@ object TableSchemaFactory {
     } as TableSchema<T>
   }
 
+  /**
+   * Returns a schema whose items are the attribute value maps of [clazz], and caches the result.
+   */
+  @Suppress("UNCHECKED_CAST")
+  internal fun <T> createAttributeMap(clazz: Class<*>): TableSchema<T> {
+    return attributeMapSchemas.getOrPut(clazz) {
+      AttributeMapTableSchema(create(clazz))
+    } as TableSchema<T>
+  }
+
   inline fun <reified T> create(): TableSchema<T> {
     return create(T::class.java)
   }
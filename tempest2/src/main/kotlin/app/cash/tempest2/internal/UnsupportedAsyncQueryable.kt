@@ -18,13 +18,20 @@ package app.cash.tempest2.internal
 
 import app.cash.tempest2.AsyncQueryable
 import app.cash.tempest2.KeyCondition
+import app.cash.tempest2.MultiOffset
+import app.cash.tempest2.MultiPage
 import app.cash.tempest2.Offset
 import app.cash.tempest2.Page
+import app.cash.tempest2.QueryConfig
+import app.cash.tempest2.ReadCapacityLimiter
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.reactive.asFlow
 import kotlinx.coroutines.reactive.asPublisher
 import org.reactivestreams.Publisher
 import software.amazon.awssdk.enhanced.dynamodb.Expression
 import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity
+import java.util.concurrent.CompletableFuture
 import kotlin.reflect.KClass
 
 internal class UnsupportedAsyncQueryable<K : Any, I : Any>(
@@ -38,8 +45,63 @@ internal class UnsupportedAsyncQueryable<K : Any, I : Any>(
     filterExpression: Expression?,
     initialOffset: Offset<K>?,
     returnConsumedCapacity: ReturnConsumedCapacity?
-  ): Publisher<Page<K, I>> {
-    return flow<Page<K, I>> {
+  ): Publisher<Page<K, I>> = unsupported()
+
+  override fun queryAllAsync(
+    keyCondition: KeyCondition<K>,
+    asc: Boolean,
+    pageSize: Int,
+    consistentRead: Boolean,
+    filterExpression: Expression?,
+    initialOffset: Offset<K>?
+  ): Publisher<Page<K, I>> = unsupported()
+
+  override fun queryAll(
+    keyCondition: KeyCondition<K>,
+    asc: Boolean,
+    pageSize: Int,
+    consistentRead: Boolean,
+    filterExpression: Expression?,
+    initialOffset: Offset<K>?
+  ): Flow<Page<K, I>> = unsupported<Page<K, I>>().asFlow()
+
+  override fun queryAll(
+    keyCondition: KeyCondition<K>,
+    config: QueryConfig,
+    initialOffset: Offset<K>?
+  ): Flow<Page<K, I>> = unsupported<Page<K, I>>().asFlow()
+
+  override fun parallelQueryAsync(
+    keyCondition: KeyCondition<K>,
+    splits: Int,
+    boundaries: List<K>,
+    ordered: Boolean,
+    asc: Boolean,
+    pageSize: Int,
+    consistentRead: Boolean,
+    filterExpression: Expression?,
+    readCapacityLimiter: ReadCapacityLimiter?
+  ): Publisher<Page<K, I>> = unsupported()
+
+  override fun queryManyAsync(
+    keyConditions: List<KeyCondition<K>>,
+    asc: Boolean,
+    limit: Int,
+    consistentRead: Boolean,
+    filterExpression: Expression?,
+    initialOffset: MultiOffset<K>?
+  ): Publisher<MultiPage<K, I>> = unsupported()
+
+  override fun countAsync(
+    keyCondition: KeyCondition<K>,
+    consistentRead: Boolean,
+    filterExpression: Expression?
+  ): CompletableFuture<Long> = CompletableFuture.failedFuture(
+    UnsupportedOperationException("Require $rawType to have a range key. You can query a table or an index only if it has a composite primary key (partition key and sort key)")
+  )
+
+  private fun <T : Any> unsupported(): Publisher<T> {
+    return flow<T> {
       throw UnsupportedOperationException("Require $rawType to have a range key. You can query a table or an index only if it has a composite primary key (partition key and sort key)")
     }.asPublisher()
   }
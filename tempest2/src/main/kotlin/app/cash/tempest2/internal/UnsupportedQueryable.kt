@@ -16,10 +16,16 @@
 
 package app.cash.tempest2.internal
 
+import app.cash.tempest2.CheckpointStore
+import app.cash.tempest2.CheckpointedQuery
 import app.cash.tempest2.KeyCondition
+import app.cash.tempest2.MultiOffset
+import app.cash.tempest2.MultiPage
 import app.cash.tempest2.Offset
 import app.cash.tempest2.Page
+import app.cash.tempest2.QueryConfig
 import app.cash.tempest2.Queryable
+import app.cash.tempest2.ReadCapacityLimiter
 import software.amazon.awssdk.enhanced.dynamodb.Expression
 import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity
 import java.lang.UnsupportedOperationException
@@ -61,4 +67,50 @@ internal class UnsupportedQueryable<K : Any, I : Any>(
   ): Sequence<Page<K, I>> {
     TODO("Not yet implemented")
   }
+
+  override fun queryAll(
+    keyCondition: KeyCondition<K>,
+    config: QueryConfig,
+    initialOffset: Offset<K>?
+  ): Sequence<Page<K, I>> {
+    throw UnsupportedOperationException("Require $rawType to have a range key. You can query a table or an index only if it has a composite primary key (partition key and sort key)")
+  }
+
+  override fun parallelQuery(
+    keyCondition: KeyCondition<K>,
+    splits: Int,
+    boundaries: List<K>,
+    ordered: Boolean,
+    asc: Boolean,
+    pageSize: Int,
+    consistentRead: Boolean,
+    filterExpression: Expression?,
+    readCapacityLimiter: ReadCapacityLimiter?,
+    consumer: (Page<K, I>) -> Unit
+  ) {
+    throw UnsupportedOperationException("Require $rawType to have a range key. You can query a table or an index only if it has a composite primary key (partition key and sort key)")
+  }
+
+  override fun queryMany(
+    keyConditions: List<KeyCondition<K>>,
+    asc: Boolean,
+    limit: Int,
+    consistentRead: Boolean,
+    filterExpression: Expression?,
+    initialOffset: MultiOffset<K>?
+  ): MultiPage<K, I> {
+    throw UnsupportedOperationException("Require $rawType to have a range key. You can query a table or an index only if it has a composite primary key (partition key and sort key)")
+  }
+
+  override fun count(
+    keyCondition: KeyCondition<K>,
+    consistentRead: Boolean,
+    filterExpression: Expression?
+  ): Long {
+    throw UnsupportedOperationException("Require $rawType to have a range key. You can query a table or an index only if it has a composite primary key (partition key and sort key)")
+  }
+
+  override fun checkpointedQuery(store: CheckpointStore, name: String): CheckpointedQuery<K, I> {
+    throw UnsupportedOperationException("Require $rawType to have a range key. You can query a table or an index only if it has a composite primary key (partition key and sort key)")
+  }
 }
@@ -17,19 +17,24 @@
 package app.cash.tempest2.internal
 
 import app.cash.tempest.internal.AttributeAnnotation
+import app.cash.tempest.internal.AttributeValueConverter
 import app.cash.tempest.internal.ClassMember
 import app.cash.tempest.internal.Codec
 import app.cash.tempest.internal.ForIndexAnnotation
 import app.cash.tempest.internal.ItemType
+import app.cash.tempest.internal.LogicalType
 import app.cash.tempest.internal.MapAttributeValue
 import app.cash.tempest.internal.RawItemType
 import app.cash.tempest.internal.StringAttributeValue
 import app.cash.tempest2.Attribute
 import app.cash.tempest2.ForIndex
+import app.cash.tempest2.ItemEncoding
 import app.cash.tempest2.TableName
 import app.cash.tempest2.TableNameResolver
+import software.amazon.awssdk.enhanced.dynamodb.AttributeConverter
 import software.amazon.awssdk.enhanced.dynamodb.TableMetadata
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema
+import software.amazon.awssdk.enhanced.dynamodb.internal.EnhancedClientUtils
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue
 import kotlin.reflect.KClass
 
@@ -65,6 +70,36 @@ internal class V2MapAttributeValue<DB : Any>(
   }
 }
 
+/**
+ * Applies the converter that the raw item's [TableSchema] uses for an attribute, with the same null
+ * handling as [TableSchema.itemToMap] and [TableSchema.mapToItem].
+ */
+internal class V2AttributeValueConverter(
+  private val attributeConverter: AttributeConverter<Any>
+) : AttributeValueConverter<AttributeValue> {
+  override fun toAttributeValue(value: Any?): AttributeValue? {
+    if (value == null) return null
+    val attributeValue = attributeConverter.transformFrom(value)
+    return if (EnhancedClientUtils.isNullAttributeValue(attributeValue)) null else attributeValue
+  }
+
+  override fun fromAttributeValue(attributeValue: AttributeValue): Any? {
+    if (EnhancedClientUtils.isNullAttributeValue(attributeValue)) return null
+    return attributeConverter.transformTo(attributeValue)
+  }
+
+  object Factory : AttributeValueConverter.Factory {
+    @Suppress("UNCHECKED_CAST")
+    override fun <T : Any> create(rawItemType: KClass<*>, attributeName: String): AttributeValueConverter<T> {
+      val tableSchema = TableSchemaFactory.create<Any>(rawItemType.java)
+      val attributeConverter = requireNotNull(tableSchema.converterForAttribute(attributeName)) {
+        "Expect $rawItemType to have a converter for $attributeName"
+      }
+      return V2AttributeValueConverter(attributeConverter as AttributeConverter<Any>) as AttributeValueConverter<T>
+    }
+  }
+}
+
 internal class V2RawItemTypeFactory : RawItemType.Factory {
 
   override fun create(tableName: String, rawItemType: KClass<*>): RawItemType {
@@ -103,6 +138,23 @@ internal fun getTableName(
   return tableName
 }
 
+/**
+ * Returns the codec between this type and what [itemEncoding] sends to the enhanced client.
+ */
+internal fun LogicalType.codecFor(itemEncoding: ItemEncoding): Codec<Any, Any> = when (itemEncoding) {
+  ItemEncoding.RAW_ITEM -> codec
+  ItemEncoding.ATTRIBUTE_MAP -> requireNotNull(attributeMapCodec) { "Expect the schema to have attribute map codecs" }
+}
+
+/**
+ * Returns the table schema of the values that [itemEncoding] sends to the enhanced client.
+ */
+internal fun <T> itemTableSchema(rawItemType: RawItemType, itemEncoding: ItemEncoding): TableSchema<T> =
+  when (itemEncoding) {
+    ItemEncoding.RAW_ITEM -> TableSchemaFactory.create(rawItemType.type.java)
+    ItemEncoding.ATTRIBUTE_MAP -> TableSchemaFactory.createAttributeMap(rawItemType.type.java)
+  }
+
 internal class CodecAdapter<A : Any, D : Any>(
   private val internal: Codec<A, D>
 ) : app.cash.tempest2.Codec<A, D> {
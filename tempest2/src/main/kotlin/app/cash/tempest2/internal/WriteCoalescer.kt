@@ -0,0 +1,138 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Collects the writes that callers make and writes them together. A batch is sent [window] after
+ * its first write, or as soon as it has [maxBatchSize] keys or [maxBatchBytes] bytes, whichever
+ * is first. A later write of a key replaces an earlier one in the same batch, and batches that
+ * share keys are written one after another, so the last write of a key always wins.
+ */
+internal class WriteCoalescer<K : Any, W : Any>(
+  private val window: Duration,
+  private val maxBatchSize: Int,
+  private val maxBatchBytes: Long,
+  private val executor: Executor,
+  /** Returns the size of a write in bytes, or null to only limit batches by their key count. */
+  private val sizeOf: ((W) -> Long)?,
+  /** Writes a batch and returns the writes that failed. */
+  private val writeAll: (List<W>) -> CompletableFuture<Map<K, Throwable>>,
+) {
+  private var batch: Batch? = null
+  private val inFlight = mutableMapOf<K, CompletableFuture<Void?>>()
+
+  fun write(key: K, write: W): CompletableFuture<Void?> {
+    val size = sizeOf?.invoke(write) ?: 0L
+    val result = CompletableFuture<Void?>()
+    synchronized(this) {
+      var batch = batch
+      if (batch != null && batch.bytes - batch.sizeOf(key) + size > maxBatchBytes) {
+        send(batch)
+        batch = null
+      }
+      if (batch == null) {
+        batch = Batch()
+        val scheduled = batch
+        CompletableFuture.delayedExecutor(window.toNanos(), TimeUnit.NANOSECONDS, executor)
+          .execute { sendIfPending(scheduled) }
+      }
+      batch.put(key, write, size, result)
+      if (batch.entries.size >= maxBatchSize || batch.bytes >= maxBatchBytes) {
+        send(batch)
+        batch = null
+      }
+      this.batch = batch
+    }
+    return result
+  }
+
+  /** Sends the pending batch without waiting for its window to pass. */
+  fun flush() {
+    synchronized(this) {
+      val batch = batch ?: return
+      this.batch = null
+      send(batch)
+    }
+  }
+
+  private fun sendIfPending(batch: Batch) {
+    synchronized(this) {
+      if (this.batch !== batch) return
+      this.batch = null
+      send(batch)
+    }
+  }
+
+  /** Sends [batch] once the batches that write the same keys have finished. Called with the lock held. */
+  private fun send(batch: Batch) {
+    val done = CompletableFuture<Void?>()
+    val earlierWrites = batch.entries.keys.mapNotNullTo(mutableSetOf()) { inFlight.put(it, done) }
+    val ready = if (earlierWrites.isEmpty()) {
+      CompletableFuture.completedFuture(null)
+    } else {
+      CompletableFuture.allOf(*earlierWrites.toTypedArray())
+    }
+    ready.thenRunAsync({ write(batch, done) }, executor)
+  }
+
+  private fun write(batch: Batch, done: CompletableFuture<Void?>) {
+    val written = try {
+      writeAll(batch.entries.values.map { it.write })
+    } catch (e: Throwable) {
+      CompletableFuture.failedFuture(e)
+    }
+    written.whenComplete { failures, error ->
+      synchronized(this) {
+        for (key in batch.entries.keys) inFlight.remove(key, done)
+      }
+      for ((key, entry) in batch.entries) {
+        val failure = error ?: failures[key]
+        for (result in entry.results) {
+          if (failure != null) result.completeExceptionally(failure) else result.complete(null)
+        }
+      }
+      done.complete(null)
+    }
+  }
+
+  private inner class Batch {
+    val entries = LinkedHashMap<K, Entry>()
+    var bytes = 0L
+
+    fun sizeOf(key: K) = entries[key]?.size ?: 0L
+
+    fun put(key: K, write: W, size: Long, result: CompletableFuture<Void?>) {
+      val previous = entries[key]
+      bytes += size - (previous?.size ?: 0L)
+      // Callers whose write was replaced complete with the write that replaced it.
+      val results = previous?.results ?: mutableListOf()
+      results.add(result)
+      entries[key] = Entry(write, size, results)
+    }
+  }
+
+  private inner class Entry(
+    val write: W,
+    val size: Long,
+    val results: MutableList<CompletableFuture<Void?>>,
+  )
+}
@@ -30,7 +30,9 @@ import app.cash.tempest2.musiclibrary.givenAlbums
 import app.cash.tempest2.musiclibrary.testDb
 import app.cash.tempest2.musiclibrary.trackTitles
 import app.cash.tempest2.testing.asyncLogicalDb
+import kotlinx.coroutines.flow.toList
 import kotlinx.coroutines.future.await
+import kotlinx.coroutines.reactive.asFlow
 import kotlinx.coroutines.runBlocking
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.jupiter.api.Test
@@ -199,6 +201,34 @@ class DynamoDbAsyncQueryableTest {
     )
   }
 
+  @Test
+  fun count() = runBlockingTest {
+    musicTable.givenAlbums(AFTER_HOURS_EP, LOCKDOWN_SINGLE)
+
+    val keyCondition = BeginsWith(AlbumTrack.Key(AFTER_HOURS_EP.album_token))
+    assertThat(musicTable.albumTracks.count(keyCondition)).isEqualTo(5)
+    assertThat(
+      musicTable.albumTracks.count(keyCondition, filterExpression = runLengthLongerThan(Duration.ofMinutes(3)))
+    ).isEqualTo(3)
+  }
+
+  @Test
+  fun queryPartition() = runBlockingTest {
+    musicTable.givenAlbums(THE_WALL, AFTER_HOURS_EP)
+
+    val album = musicTable.queryPartition(
+      AlbumInfo.Key(THE_WALL.album_token),
+      setOf(AlbumInfo::class, AlbumTrack::class)
+    )
+    assertThat(album.getItems<AlbumInfo>().map { it.album_title }).containsExactly(THE_WALL.album_title)
+    assertThat(album.getItems<AlbumTrack>().map { it.track_title }).containsExactlyElementsOf(THE_WALL.trackTitles)
+
+    val tracks = musicTable.queryPartitionAsync(AlbumTrack.Key(AFTER_HOURS_EP.album_token, 1L), setOf(AlbumTrack::class))
+      .await()
+    assertThat(tracks.getItems<AlbumInfo>()).isEmpty()
+    assertThat(tracks.getItems<AlbumTrack>().map { it.track_title }).containsExactlyElementsOf(AFTER_HOURS_EP.trackTitles)
+  }
+
   @Test
   fun primaryIndexPagination() = runBlockingTest {
     musicTable.givenAlbums(AFTER_HOURS_EP)
@@ -368,6 +398,116 @@ class DynamoDbAsyncQueryableTest {
     )
   }
 
+  @Test
+  fun queryAll() = runBlockingTest {
+    musicTable.givenAlbums(AFTER_HOURS_EP)
+
+    val pages = musicTable.albumTracks.queryAll(
+      keyCondition = BeginsWith(AlbumTrack.Key(AFTER_HOURS_EP.album_token, "")),
+      config = QueryConfig.Builder().pageSize(2).prefetchDepth(1).build()
+    ).toList()
+
+    assertThat(pages.map { it.hasMorePages }).containsExactly(true, true, false)
+    assertThat(pages.flatMap { it.trackTitles }).containsExactlyElementsOf(AFTER_HOURS_EP.trackTitles)
+  }
+
+  @Test
+  fun queryAndHydrate() = runBlockingTest {
+    musicTable.givenAlbums(THE_DARK_SIDE_OF_THE_MOON, THE_WALL, AFTER_HOURS_EP)
+
+    // The genre index projects only keys, so album titles come from the table.
+    val pages = musicTable.albumInfoByGenre.queryAndHydrate(
+      BeginsWith(AlbumInfo.GenreIndexOffset("Progressive rock")),
+      pageSize = 1
+    ).toList()
+    assertThat(pages.flatMap { it.albumTitles }).containsExactlyElementsOf(
+      listOf(THE_DARK_SIDE_OF_THE_MOON, THE_WALL).sortedBy { it.album_token }.map { it.album_title }
+    )
+    assertThat(pages.last().hasMorePages).isFalse()
+  }
+
+  @Test
+  fun parallelQuery() = runBlockingTest {
+    musicTable.givenAlbums(THE_WALL)
+    val keyCondition = BeginsWith(AlbumTrack.Key(THE_WALL.album_token, ""))
+
+    val unordered = musicTable.albumTracks.parallelQuery(keyCondition, splits = 4, pageSize = 2).toList()
+    assertThat(unordered.flatMap { it.trackTitles }).containsExactlyInAnyOrderElementsOf(THE_WALL.trackTitles)
+
+    val ordered = musicTable.albumTracks.parallelQuery(keyCondition, splits = 4, ordered = true, pageSize = 2).toList()
+    assertThat(ordered.flatMap { it.trackTitles }).containsExactlyElementsOf(THE_WALL.trackTitles)
+
+    val boundaries = listOf(AlbumTrack.Key(THE_WALL.album_token, 10L), AlbumTrack.Key(THE_WALL.album_token, 20L))
+    val split = musicTable.albumTracks.parallelQuery(
+      keyCondition,
+      splits = 2,
+      boundaries = boundaries,
+      ordered = true,
+      asc = false
+    ).toList()
+    assertThat(split.flatMap { it.trackTitles }).containsExactlyElementsOf(THE_WALL.trackTitles.reversed())
+  }
+
+  @Test
+  fun queryMany() = runBlockingTest {
+    musicTable.givenAlbums(AFTER_HOURS_EP, WHAT_YOU_DO_TO_ME_SINGLE, LOCKDOWN_SINGLE)
+    val keyConditions = listOf(AFTER_HOURS_EP, WHAT_YOU_DO_TO_ME_SINGLE, LOCKDOWN_SINGLE)
+      .map { BeginsWith(AlbumTrack.Key(it.album_token, "")) }
+
+    val page1 = musicTable.albumTracks.queryMany(keyConditions, limit = 4)
+    assertThat(page1.hasMorePages).isTrue()
+    assertThat(page1.contents.map { it.track_title }).containsExactly(
+      AFTER_HOURS_EP.trackTitles[0],
+      WHAT_YOU_DO_TO_ME_SINGLE.trackTitles[0],
+      LOCKDOWN_SINGLE.trackTitles[0],
+      AFTER_HOURS_EP.trackTitles[1],
+    )
+    // Both singles are done, so only the EP is queried again.
+    assertThat(page1.offset!!.offsets.keys).containsExactly(keyConditions[0])
+
+    val page2 = musicTable.albumTracks.queryMany(keyConditions, limit = 4, initialOffset = page1.offset)
+    assertThat(page2.hasMorePages).isFalse()
+    assertThat(page2.contents.map { it.track_title }).containsExactlyElementsOf(AFTER_HOURS_EP.trackTitles.slice(2..4))
+  }
+
+  @Test
+  fun queryAllAsync() = runBlockingTest {
+    musicTable.givenAlbums(AFTER_HOURS_EP)
+
+    val pages = musicTable.albumTracks.queryAllAsync(
+      keyCondition = BeginsWith(AlbumTrack.Key(AFTER_HOURS_EP.album_token, "")),
+      pageSize = 2
+    ).asFlow().toList()
+
+    assertThat(pages.map { it.hasMorePages }).containsExactly(true, true, false)
+    assertThat(pages.flatMap { it.trackTitles }).containsExactlyElementsOf(AFTER_HOURS_EP.trackTitles)
+  }
+
+  @Test
+  fun queryAllAsyncWithPrefetchDepth() = runBlockingTest {
+    musicTable.givenAlbums(AFTER_HOURS_EP)
+
+    val pages = musicTable.albumTracks.queryAllAsync(
+      keyCondition = BeginsWith(AlbumTrack.Key(AFTER_HOURS_EP.album_token, "")),
+      config = QueryConfig.Builder().pageSize(2).prefetchDepth(2).build()
+    ).asFlow().toList()
+
+    assertThat(pages.map { it.hasMorePages }).containsExactly(true, true, false)
+    assertThat(pages.flatMap { it.trackTitles }).containsExactlyElementsOf(AFTER_HOURS_EP.trackTitles)
+  }
+
+  @Test
+  fun queryAllContents() = runBlockingTest {
+    musicTable.givenAlbums(AFTER_HOURS_EP)
+
+    val tracks = musicTable.albumTracks.queryAllContents(
+      keyCondition = BeginsWith(AlbumTrack.Key(AFTER_HOURS_EP.album_token, "")),
+      pageSize = 2
+    ).toList()
+
+    assertThat(tracks.map { it.track_title }).containsExactlyElementsOf(AFTER_HOURS_EP.trackTitles)
+  }
+
   private fun runLengthLongerThan(duration: Duration): Expression {
     return Expression.builder()
       .expression("run_length > :duration")
@@ -29,7 +29,9 @@ import app.cash.tempest2.musiclibrary.givenAlbums
 import app.cash.tempest2.musiclibrary.testDb
 import app.cash.tempest2.musiclibrary.trackTitles
 import app.cash.tempest2.testing.asyncLogicalDb
+import kotlinx.coroutines.flow.toList
 import kotlinx.coroutines.future.await
+import kotlinx.coroutines.reactive.asFlow
 import kotlinx.coroutines.runBlocking
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.jupiter.api.Test
@@ -114,6 +116,64 @@ class DynamoDbAsyncScannableTest {
     )
   }
 
+  @Test
+  fun parallelScan() = runBlockingTest {
+    musicTable.givenAlbums(
+      THE_DARK_SIDE_OF_THE_MOON,
+      THE_WALL,
+      WHAT_YOU_DO_TO_ME_SINGLE,
+      AFTER_HOURS_EP,
+      LOCKDOWN_SINGLE
+    )
+
+    val pages = musicTable.albumInfoByArtist.parallelScan(
+      totalSegments = 3,
+      pageSize = 2
+    ).toList()
+
+    assertThat(pages.map { it.workerId.segment }.toSet()).containsExactlyInAnyOrder(0, 1, 2)
+    for (segmentPages in pages.groupBy { it.workerId }.values) {
+      assertThat(segmentPages.last().page.hasMorePages).isFalse()
+    }
+    assertThat(pages.flatMap { it.page.albumTitles }).containsExactlyInAnyOrder(
+      THE_DARK_SIDE_OF_THE_MOON.album_title,
+      THE_WALL.album_title,
+      WHAT_YOU_DO_TO_ME_SINGLE.album_title,
+      AFTER_HOURS_EP.album_title,
+      LOCKDOWN_SINGLE.album_title
+    )
+  }
+
+  @Test
+  fun scanAllAsync() = runBlockingTest {
+    musicTable.givenAlbums(THE_WALL)
+
+    val pages = musicTable.albumTracksByTitle.scanAllAsync(pageSize = 10).asFlow().toList()
+
+    assertThat(pages.map { it.hasMorePages }).containsExactly(true, true, false)
+    assertThat(pages.flatMap { it.trackTitles }).containsExactlyInAnyOrderElementsOf(THE_WALL.trackTitles)
+  }
+
+  @Test
+  fun scanAllAsyncWithPrefetchDepth() = runBlockingTest {
+    musicTable.givenAlbums(THE_WALL)
+
+    val pages = musicTable.albumTracksByTitle.scanAllAsync(ScanConfig.Builder().pageSize(10).prefetchDepth(2).build())
+      .asFlow().toList()
+
+    assertThat(pages.map { it.hasMorePages }).containsExactly(true, true, false)
+    assertThat(pages.flatMap { it.trackTitles }).containsExactlyInAnyOrderElementsOf(THE_WALL.trackTitles)
+  }
+
+  @Test
+  fun scanAllContents() = runBlockingTest {
+    musicTable.givenAlbums(THE_WALL)
+
+    val tracks = musicTable.albumTracksByTitle.scanAllContents(ScanConfig.Builder().pageSize(10).prefetchDepth(1).build()).toList()
+
+    assertThat(tracks.map { it.track_title }).containsExactlyInAnyOrderElementsOf(THE_WALL.trackTitles)
+  }
+
   @Test
   fun localSecondaryIndex() = runBlockingTest {
     musicTable.givenAlbums(THE_WALL)
@@ -192,6 +252,15 @@ class DynamoDbAsyncScannableTest {
     )
   }
 
+  @Test
+  fun count() = runBlockingTest {
+    musicTable.givenAlbums(THE_DARK_SIDE_OF_THE_MOON, THE_WALL, AFTER_HOURS_EP, LOCKDOWN_SINGLE)
+
+    assertThat(musicTable.albumInfoByArtist.count()).isEqualTo(4)
+    assertThat(musicTable.albumInfoByArtist.count(filterExpression = releaseYearIs(2020), totalSegments = 2))
+      .isEqualTo(2)
+  }
+
   private fun releaseYearIs(year: Int): Expression {
     return Expression.builder()
       .expression("begins_with(release_date, :year)")
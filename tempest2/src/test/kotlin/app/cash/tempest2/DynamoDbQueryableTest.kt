@@ -26,6 +26,7 @@ import app.cash.tempest2.musiclibrary.AlbumInfo
 import app.cash.tempest2.musiclibrary.AlbumTrack
 import app.cash.tempest2.musiclibrary.MusicDb
 import app.cash.tempest2.musiclibrary.MusicItem
+import app.cash.tempest2.musiclibrary.PlaylistInfo
 import app.cash.tempest2.musiclibrary.albumTitles
 import app.cash.tempest2.musiclibrary.givenAlbums
 import app.cash.tempest2.musiclibrary.testDb
@@ -40,6 +41,7 @@ import software.amazon.awssdk.enhanced.dynamodb.Expression
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue
 import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity
+import java.nio.file.Files
 import java.time.Duration
 import java.time.LocalDate
 
@@ -152,6 +154,40 @@ class DynamoDbQueryableTest {
     )
   }
 
+  @Test
+  fun count() {
+    musicTable.givenAlbums(AFTER_HOURS_EP, LOCKDOWN_SINGLE)
+
+    val keyCondition = BeginsWith(AlbumTrack.Key(AFTER_HOURS_EP.album_token))
+    assertThat(musicTable.albumTracks.count(keyCondition)).isEqualTo(5)
+    assertThat(
+      musicTable.albumTracks.count(keyCondition, filterExpression = runLengthLongerThan(Duration.ofMinutes(3)))
+    ).isEqualTo(3)
+  }
+
+  @Test
+  fun queryPartition() {
+    musicTable.givenAlbums(THE_WALL, AFTER_HOURS_EP)
+
+    val album = musicTable.queryPartition(
+      AlbumInfo.Key(THE_WALL.album_token),
+      setOf(AlbumInfo::class, AlbumTrack::class)
+    )
+    assertThat(album.getItems<AlbumInfo>().map { it.album_title }).containsExactly(THE_WALL.album_title)
+    assertThat(album.getItems<AlbumTrack>().map { it.track_title }).containsExactlyElementsOf(THE_WALL.trackTitles)
+
+    val tracks = musicTable.queryPartition(AlbumTrack.Key(AFTER_HOURS_EP.album_token, 1L), setOf(AlbumTrack::class))
+    assertThat(tracks.getItems<AlbumInfo>()).isEmpty()
+    assertThat(tracks.getItems<AlbumTrack>().map { it.track_title }).containsExactlyElementsOf(AFTER_HOURS_EP.trackTitles)
+  }
+
+  @Test
+  fun queryPartitionRejectsItemTypesWithTheSamePrefix() {
+    assertThrows<IllegalArgumentException> {
+      musicTable.queryPartition(AlbumInfo.Key(THE_WALL.album_token), setOf(AlbumInfo::class, PlaylistInfo::class))
+    }
+  }
+
   @Test
   fun primaryIndexPagination() {
     musicTable.givenAlbums(AFTER_HOURS_EP)
@@ -335,6 +371,21 @@ class DynamoDbQueryableTest {
     assertThat(sparseGsiPage.contents.single().label_name).isEqualTo(SPIRIT_WORLD_FIELD_GUIDE.label)
   }
 
+  @Test
+  fun queryAndHydrate() {
+    musicTable.givenAlbums(THE_DARK_SIDE_OF_THE_MOON, THE_WALL, AFTER_HOURS_EP)
+
+    // The genre index projects only keys, so album titles come from the table.
+    val pages = musicTable.albumInfoByGenre.queryAndHydrate(
+      BeginsWith(AlbumInfo.GenreIndexOffset("Progressive rock")),
+      pageSize = 1
+    ).toList()
+    assertThat(pages.flatMap { it.albumTitles }).containsExactlyElementsOf(
+      listOf(THE_DARK_SIDE_OF_THE_MOON, THE_WALL).sortedBy { it.album_token }.map { it.album_title }
+    )
+    assertThat(pages.last().hasMorePages).isFalse()
+  }
+
   @Test
   fun `returns consumed capacity with the response`() {
     musicTable.givenAlbums(AFTER_HOURS_EP)
@@ -403,6 +454,103 @@ class DynamoDbQueryableTest {
     assertThat(page3.trackTitles).containsAll(AFTER_HOURS_EP.trackTitles.slice(4..4))
   }
 
+  @Test
+  fun checkpointedQueryResumes() {
+    musicTable.givenAlbums(AFTER_HOURS_EP)
+    val store = FileCheckpointStore(Files.createTempFile("checkpoints", null))
+    val keyCondition = BeginsWith(AlbumTrack.Key(AFTER_HOURS_EP.album_token, ""))
+
+    val firstRun = musicTable.albumTracks.checkpointedQuery(store, "tracks")
+      .queryAll(keyCondition, pageSize = 2)
+      .iterator()
+    firstRun.next()
+    firstRun.next()
+
+    val secondRun = musicTable.albumTracks.checkpointedQuery(store, "tracks")
+      .queryAll(keyCondition, pageSize = 2)
+      .toList()
+    assertThat(secondRun.flatMap { it.trackTitles }).containsExactlyElementsOf(
+      AFTER_HOURS_EP.trackTitles.slice(2..4)
+    )
+
+    val checkpoint = musicTable.albumTracks.checkpointedQuery(store, "tracks").checkpoint()!!
+    assertThat(checkpoint.isDone).isTrue()
+    assertThat(checkpoint.pageCount).isEqualTo(3)
+    assertThat(checkpoint.itemCount).isEqualTo(5)
+  }
+
+  @Test
+  fun queryAllPrefetch() {
+    musicTable.givenAlbums(AFTER_HOURS_EP)
+
+    val pages = musicTable.albumTracks.queryAll(
+      keyCondition = BeginsWith(AlbumTrack.Key(AFTER_HOURS_EP.album_token, "")),
+      config = QueryConfig.Builder().pageSize(2).prefetchDepth(2).build(),
+      initialOffset = null
+    ).toList()
+
+    assertThat(pages.map { it.hasMorePages }).containsExactly(true, true, false)
+    assertThat(pages.flatMap { it.trackTitles }).containsExactlyElementsOf(AFTER_HOURS_EP.trackTitles)
+  }
+
+  @Test
+  fun queryAllReadCapacityLimiter() {
+    musicTable.givenAlbums(AFTER_HOURS_EP)
+    val readCapacityLimiter = ReadCapacityLimiter(unitsPerSecond = 1000.0)
+
+    val pages = musicTable.albumTracks.queryAll(
+      keyCondition = BeginsWith(AlbumTrack.Key(AFTER_HOURS_EP.album_token, "")),
+      config = QueryConfig.Builder().pageSize(2).readCapacityLimiter(readCapacityLimiter).build(),
+      initialOffset = null
+    ).toList()
+
+    assertThat(pages.flatMap { it.trackTitles }).containsExactlyElementsOf(AFTER_HOURS_EP.trackTitles)
+    assertThat(pages.all { it.consumedCapacity != null }).isTrue()
+  }
+
+  @Test
+  fun parallelQuery() {
+    musicTable.givenAlbums(THE_WALL)
+    val keyCondition = BeginsWith(AlbumTrack.Key(THE_WALL.album_token, ""))
+
+    val unordered = mutableListOf<AlbumTrack>()
+    musicTable.albumTracks.parallelQuery(keyCondition, splits = 4, pageSize = 2) { unordered += it.contents }
+    assertThat(unordered.map { it.track_title }).containsExactlyInAnyOrderElementsOf(THE_WALL.trackTitles)
+
+    val ordered = mutableListOf<AlbumTrack>()
+    musicTable.albumTracks.parallelQuery(keyCondition, splits = 4, ordered = true, pageSize = 2) { ordered += it.contents }
+    assertThat(ordered.map { it.track_title }).containsExactlyElementsOf(THE_WALL.trackTitles)
+
+    val boundaries = listOf(AlbumTrack.Key(THE_WALL.album_token, 10L), AlbumTrack.Key(THE_WALL.album_token, 20L))
+    val split = mutableListOf<AlbumTrack>()
+    musicTable.albumTracks.parallelQuery(keyCondition, splits = 2, boundaries = boundaries, ordered = true, asc = false) {
+      split += it.contents
+    }
+    assertThat(split.map { it.track_title }).containsExactlyElementsOf(THE_WALL.trackTitles.reversed())
+  }
+
+  @Test
+  fun queryMany() {
+    musicTable.givenAlbums(AFTER_HOURS_EP, WHAT_YOU_DO_TO_ME_SINGLE, LOCKDOWN_SINGLE)
+    val keyConditions = listOf(AFTER_HOURS_EP, WHAT_YOU_DO_TO_ME_SINGLE, LOCKDOWN_SINGLE)
+      .map { BeginsWith(AlbumTrack.Key(it.album_token, "")) }
+
+    val page1 = musicTable.albumTracks.queryMany(keyConditions, limit = 4)
+    assertThat(page1.hasMorePages).isTrue()
+    assertThat(page1.contents.map { it.track_title }).containsExactly(
+      AFTER_HOURS_EP.trackTitles[0],
+      WHAT_YOU_DO_TO_ME_SINGLE.trackTitles[0],
+      LOCKDOWN_SINGLE.trackTitles[0],
+      AFTER_HOURS_EP.trackTitles[1],
+    )
+    // Both singles are done, so only the EP is queried again.
+    assertThat(page1.offset!!.offsets.keys).containsExactly(keyConditions[0])
+
+    val page2 = musicTable.albumTracks.queryMany(keyConditions, limit = 4, initialOffset = page1.offset)
+    assertThat(page2.hasMorePages).isFalse()
+    assertThat(page2.contents.map { it.track_title }).containsExactlyElementsOf(AFTER_HOURS_EP.trackTitles.slice(2..4))
+  }
+
   @Test
   fun queryAllDesc() {
     musicTable.givenAlbums(AFTER_HOURS_EP)
@@ -22,6 +22,7 @@ import app.cash.tempest.musiclibrary.THE_DARK_SIDE_OF_THE_MOON
 import app.cash.tempest.musiclibrary.THE_WALL
 import app.cash.tempest.musiclibrary.WHAT_YOU_DO_TO_ME_SINGLE
 import app.cash.tempest2.musiclibrary.AlbumInfo
+import app.cash.tempest2.musiclibrary.AlbumTrack
 import app.cash.tempest2.musiclibrary.MusicDb
 import app.cash.tempest2.musiclibrary.MusicItem
 import app.cash.tempest2.musiclibrary.albumTitles
@@ -37,6 +38,7 @@ import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient
 import software.amazon.awssdk.enhanced.dynamodb.Expression
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import java.nio.file.Files
 import java.time.Duration
 import java.time.LocalDate
 
@@ -127,6 +129,35 @@ class DynamoDbScannableTest {
       .containsExactlyInAnyOrderElementsOf(THE_WALL.trackTitles)
   }
 
+  @Test
+  fun count() {
+    musicTable.givenAlbums(THE_WALL, AFTER_HOURS_EP)
+
+    assertThat(musicTable.albumTracks.count(filterExpression = isTrack())).isEqualTo(31)
+    assertThat(musicTable.albumTracks.count(filterExpression = isTrack(), totalSegments = 4)).isEqualTo(31)
+    assertThat(musicTable.albumInfoByArtist.count(filterExpression = releaseYearIs(2020))).isEqualTo(1)
+  }
+
+  @Test
+  fun parallelScan() {
+    musicTable.givenAlbums(THE_WALL)
+    val pages = mutableListOf<SegmentPage<AlbumTrack.Key, AlbumTrack>>()
+
+    musicTable.albumTracks.parallelScan(
+      totalSegments = 4,
+      concurrency = 2,
+      pageSize = 5,
+      filterExpression = isTrack()
+    ) { pages.add(it) }
+
+    assertThat(pages.map { it.workerId.segment }.toSet()).containsExactlyInAnyOrder(0, 1, 2, 3)
+    for (segmentPages in pages.groupBy { it.workerId }.values) {
+      assertThat(segmentPages.last().page.hasMorePages).isFalse()
+    }
+    assertThat(pages.flatMap { it.page.trackTitles })
+      .containsExactlyInAnyOrderElementsOf(THE_WALL.trackTitles)
+  }
+
   @Test
   fun primaryIndexParallelScanNoFilter() {
     musicTable.givenAlbums(
@@ -258,6 +289,24 @@ class DynamoDbScannableTest {
     )
   }
 
+  @Test
+  fun scanAllReadCapacityLimiter() {
+    musicTable.givenAlbums(THE_DARK_SIDE_OF_THE_MOON, THE_WALL, AFTER_HOURS_EP)
+
+    val pages = musicTable.albumInfoByArtist.scanAll(
+      ScanConfig.Builder()
+        .pageSize(1)
+        .readCapacityLimiter(ReadCapacityLimiter(unitsPerSecond = 1000.0))
+        .build()
+    ).toList()
+
+    assertThat(pages.flatMap { it.albumTitles }).containsExactlyInAnyOrder(
+      THE_DARK_SIDE_OF_THE_MOON.album_title,
+      THE_WALL.album_title,
+      AFTER_HOURS_EP.album_title
+    )
+  }
+
   @Test
   fun scanAllWorkerIdShouldBeIgnored() {
     musicTable.givenAlbums(
@@ -350,6 +399,30 @@ class DynamoDbScannableTest {
     )
   }
 
+  @Test
+  fun checkpointedScanResumes() {
+    musicTable.givenAlbums(THE_WALL)
+    val store = FileCheckpointStore(Files.createTempFile("checkpoints", null))
+
+    val firstRun = musicTable.albumTracks.checkpointedScan(store, "tracks")
+      .scanAll(pageSize = 10, filterExpression = isTrack())
+      .iterator()
+    val page1 = firstRun.next()
+    val page2 = firstRun.next()
+
+    val secondRun = musicTable.albumTracks.checkpointedScan(store, "tracks")
+      .scanAll(pageSize = 10, filterExpression = isTrack())
+      .toList()
+    assertThat(secondRun.first()).isEqualTo(page2)
+    assertThat(page1.trackTitles + secondRun.flatMap { it.trackTitles })
+      .containsExactlyInAnyOrderElementsOf(THE_WALL.trackTitles)
+
+    val checkpoint = musicTable.albumTracks.checkpointedScan(store, "tracks").checkpoints().single()
+    assertThat(checkpoint.isDone).isTrue()
+    assertThat(checkpoint.itemCount).isEqualTo(THE_WALL.tracks.size.toLong())
+    assertThat(checkpoint.consumedCapacityUnits).isGreaterThan(0.0)
+  }
+
   private fun releaseYearIs(year: Int): Expression {
     return Expression.builder()
       .expression("begins_with(release_date, :year)")
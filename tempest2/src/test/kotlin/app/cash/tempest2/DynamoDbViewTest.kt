@@ -19,6 +19,7 @@ package app.cash.tempest2
 import app.cash.tempest2.musiclibrary.AlbumInfo
 import app.cash.tempest2.musiclibrary.AlbumTrack
 import app.cash.tempest2.musiclibrary.MusicDb
+import app.cash.tempest2.musiclibrary.MusicItem
 import app.cash.tempest2.musiclibrary.PlaylistInfo
 import app.cash.tempest2.musiclibrary.testDb
 import app.cash.tempest2.testing.logicalDb
@@ -26,10 +27,12 @@ import org.assertj.core.api.Assertions.assertThat
 import org.assertj.core.api.Assertions.assertThatExceptionOfType
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.extension.RegisterExtension
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient
 import software.amazon.awssdk.enhanced.dynamodb.Expression
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue
 import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException
 import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity
+import java.time.Duration
 import java.time.LocalDate
 
 class DynamoDbViewTest {
@@ -60,6 +63,32 @@ class DynamoDbViewTest {
     assertThat(loadedAlbumInfo.genre_name).isEqualTo(albumInfo.genre_name)
   }
 
+  @Test
+  fun loadReadsOnlyTheAttributesOfItsItemType() {
+    val projectedMusicTable = LogicalDb<MusicDb>(
+      DynamoDbEnhancedClient.builder().dynamoDbClient(db.dynamoDb).build(),
+      config = LogicalDbConfig.Builder().projectedReadsClient(db.dynamoDb).build()
+    ).music
+    // A raw item with attributes that AlbumTrack doesn't map.
+    projectedMusicTable.save(
+      MusicItem().apply {
+        partition_key = "ALBUM_1"
+        sort_key = "TRACK_0000000000000001"
+        track_title = "dreamin"
+        run_length = Duration.parse("PT3M28S")
+        track_description = "Live"
+        album_title = "after hours - EP"
+        playlist_tracks = listOf(AlbumTrack.Key("ALBUM_2", 1L))
+      }
+    )
+
+    val loadedAlbumTrack = projectedMusicTable.albumTracks.load(AlbumTrack.Key("ALBUM_1", 1L))
+    assertThat(loadedAlbumTrack).isEqualTo(AlbumTrack("ALBUM_1", 1L, "dreamin", Duration.parse("PT3M28S"), "Live"))
+    // Raw items are read whole.
+    val loadedMusicItem = projectedMusicTable.load(musicTable.codec(AlbumTrack.Key::class).toDb(AlbumTrack.Key("ALBUM_1", 1L)))
+    assertThat(loadedMusicItem?.album_title).isEqualTo("after hours - EP")
+  }
+
   @Test
   fun loadWithCapacityAfterSave() {
     val albumInfo = AlbumInfo(
@@ -158,6 +187,40 @@ class DynamoDbViewTest {
     assertThat(loadedAlbumInfo).isNull()
   }
 
+  @Test
+  fun loadReadsThroughTheItemCache() {
+    val itemCache = ItemCache.Builder().cache(AlbumInfo::class).build()
+    val cachedMusicTable = LogicalDb<MusicDb>(
+      DynamoDbEnhancedClient.builder().dynamoDbClient(db.dynamoDb).build(),
+      config = LogicalDbConfig.Builder().itemCache(itemCache).build()
+    ).music
+    val albumInfo = AlbumInfo(
+      "ALBUM_1",
+      "after hours - EP",
+      "53 Thieves",
+      LocalDate.of(2020, 2, 21),
+      "Contemporary R&B"
+    )
+
+    assertThat(cachedMusicTable.albumInfo.load(albumInfo.key)).isNull()
+    // Writes that bypass the cache aren't seen until the cached item expires.
+    musicTable.albumInfo.save(albumInfo)
+    assertThat(cachedMusicTable.albumInfo.load(albumInfo.key)).isNull()
+    assertThat(cachedMusicTable.albumInfo.load(albumInfo.key, consistentReads = true)).isEqualTo(albumInfo)
+    assertThat(cachedMusicTable.albumInfo.load(albumInfo.key)).isEqualTo(albumInfo)
+
+    // Writes through the same logical db evict what they write.
+    val updatedAlbumInfo = albumInfo.copy(album_title = "after hours")
+    cachedMusicTable.albumInfo.save(updatedAlbumInfo)
+    assertThat(cachedMusicTable.albumInfo.load(albumInfo.key)).isEqualTo(updatedAlbumInfo)
+    cachedMusicTable.albumInfo.deleteKey(albumInfo.key)
+    assertThat(cachedMusicTable.albumInfo.load(albumInfo.key)).isNull()
+
+    assertThat(itemCache.stats().hits).isEqualTo(2)
+    assertThat(itemCache.stats().misses).isEqualTo(3)
+    assertThat(itemCache.stats().invalidations).isEqualTo(2)
+  }
+
   private fun ifNotExist(): Expression {
     return Expression.builder()
       .expression("attribute_not_exists(partition_key)")
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import software.amazon.awssdk.core.SdkBytes
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.APPEND
+
+class FileCheckpointStoreTest {
+
+  @TempDir
+  lateinit var directory: Path
+
+  private val path by lazy { directory.resolve("checkpoints") }
+
+  @Test
+  fun latestCheckpointOfEachSegment() {
+    FileCheckpointStore(path).use { store ->
+      store.save("backfill", checkpoint(segment = 0, pageCount = 1))
+      store.save("backfill", checkpoint(segment = 1, pageCount = 1))
+      store.save("backfill", checkpoint(segment = 0, pageCount = 2))
+      store.save("other", checkpoint(segment = 0, pageCount = 7))
+
+      assertThat(store.load("backfill")).containsExactlyInAnyOrder(
+        checkpoint(segment = 0, pageCount = 2),
+        checkpoint(segment = 1, pageCount = 1)
+      )
+      assertThat(store.load("other")).containsExactly(checkpoint(segment = 0, pageCount = 7))
+      assertThat(store.load("unknown")).isEmpty()
+    }
+  }
+
+  @Test
+  fun checkpointsSurviveReopening() {
+    val binaryKey = mapOf(
+      "partition_key" to AttributeValue.builder().b(SdkBytes.fromUtf8String("ALBUM_1")).build(),
+      "sort_key" to AttributeValue.builder().n("42").build()
+    )
+    FileCheckpointStore(path).use { store ->
+      store.save("backfill", checkpoint(segment = 0, pageCount = 1))
+      store.save("backfill", checkpoint(segment = 0, pageCount = 2, lastEvaluatedKey = binaryKey))
+      store.save("backfill", checkpoint(segment = 1, pageCount = 3, lastEvaluatedKey = null))
+    }
+
+    FileCheckpointStore(path).use { store ->
+      assertThat(store.load("backfill")).containsExactlyInAnyOrder(
+        checkpoint(segment = 0, pageCount = 2, lastEvaluatedKey = binaryKey),
+        checkpoint(segment = 1, pageCount = 3, lastEvaluatedKey = null)
+      )
+    }
+  }
+
+  @Test
+  fun clearForgetsCheckpoints() {
+    FileCheckpointStore(path).use { store ->
+      store.save("backfill", checkpoint(segment = 0, pageCount = 1))
+      store.save("other", checkpoint(segment = 0, pageCount = 1))
+      store.clear("backfill")
+
+      assertThat(store.load("backfill")).isEmpty()
+    }
+
+    FileCheckpointStore(path).use { store ->
+      assertThat(store.load("backfill")).isEmpty()
+      assertThat(store.load("other")).hasSize(1)
+    }
+  }
+
+  @Test
+  fun streamCheckpointsSurviveReopening() {
+    FileCheckpointStore(path).use { store ->
+      store.saveStreamCheckpoint("stream/shard-1", StreamCheckpoint("100", isDone = false, batchCount = 1, changeCount = 3))
+      store.saveStreamCheckpoint("stream/shard-1", StreamCheckpoint("200", isDone = true, batchCount = 2, changeCount = 5))
+      store.saveStreamCheckpoint("stream/shard-2", StreamCheckpoint(null, isDone = true, batchCount = 1, changeCount = 0))
+      store.save("stream/shard-1", checkpoint(segment = 0, pageCount = 1))
+    }
+
+    FileCheckpointStore(path).use { store ->
+      assertThat(store.loadStreamCheckpoint("stream/shard-1"))
+        .isEqualTo(StreamCheckpoint("200", isDone = true, batchCount = 2, changeCount = 5))
+      assertThat(store.loadStreamCheckpoint("stream/shard-2"))
+        .isEqualTo(StreamCheckpoint(null, isDone = true, batchCount = 1, changeCount = 0))
+      assertThat(store.loadStreamCheckpoint("unknown")).isNull()
+
+      store.clear("stream/shard-1")
+      assertThat(store.loadStreamCheckpoint("stream/shard-1")).isNull()
+      assertThat(store.load("stream/shard-1")).isEmpty()
+    }
+  }
+
+  @Test
+  fun reopeningCompactsTheLog() {
+    FileCheckpointStore(path).use { store ->
+      for (pageCount in 1L..1000L) {
+        store.save("backfill", checkpoint(segment = 0, pageCount = pageCount, lastEvaluatedKey = null))
+      }
+    }
+    val sizeBeforeCompaction = Files.size(path)
+
+    FileCheckpointStore(path).close()
+
+    assertThat(Files.size(path)).isEqualTo(sizeBeforeCompaction / 1000)
+  }
+
+  @Test
+  fun truncatedRecordIsIgnored() {
+    FileCheckpointStore(path).use { store ->
+      store.save("backfill", checkpoint(segment = 0, pageCount = 1))
+      store.save("backfill", checkpoint(segment = 0, pageCount = 2))
+    }
+    // Cut the last record short, as a crash in the middle of a write would.
+    val bytes = Files.readAllBytes(path)
+    Files.write(path, bytes.copyOf(bytes.size - 5))
+    Files.write(path, byteArrayOf(0, 0), APPEND)
+
+    FileCheckpointStore(path).use { store ->
+      assertThat(store.load("backfill")).containsExactly(checkpoint(segment = 0, pageCount = 1))
+      store.save("backfill", checkpoint(segment = 0, pageCount = 3))
+    }
+
+    FileCheckpointStore(path).use { store ->
+      assertThat(store.load("backfill")).containsExactly(checkpoint(segment = 0, pageCount = 3))
+    }
+  }
+
+  private fun checkpoint(
+    segment: Int,
+    pageCount: Long,
+    lastEvaluatedKey: Map<String, AttributeValue>? = mapOf(
+      "partition_key" to AttributeValue.builder().s("ALBUM_$pageCount").build(),
+      "sort_key" to AttributeValue.builder().s("TRACK_$pageCount").build()
+    ),
+  ) = Checkpoint(
+    segment = segment,
+    totalSegments = 2,
+    lastEvaluatedKey = lastEvaluatedKey,
+    pageCount = pageCount,
+    itemCount = pageCount * 10,
+    consumedCapacityUnits = pageCount * 0.5,
+  )
+}
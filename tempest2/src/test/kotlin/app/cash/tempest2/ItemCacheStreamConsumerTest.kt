@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import app.cash.tempest2.musiclibrary.AlbumInfo
+import app.cash.tempest2.musiclibrary.MusicDb
+import app.cash.tempest2.musiclibrary.MusicItem
+import app.cash.tempest2.musiclibrary.testDb
+import app.cash.tempest2.testing.logicalDb
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.extension.RegisterExtension
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient
+import software.amazon.awssdk.services.dynamodb.model.DescribeStreamRequest
+import software.amazon.awssdk.services.dynamodb.model.DescribeStreamResponse
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient
+import java.time.Duration
+import java.time.LocalDate
+
+class ItemCacheStreamConsumerTest {
+
+  @RegisterExtension
+  @JvmField
+  val db = testDb()
+
+  /** Writes from another process, which the cache only learns about from the stream. */
+  private val otherMusicTable by lazy { db.logicalDb<MusicDb>().music }
+
+  private val itemCache = ItemCache.Builder().cache(AlbumInfo::class).build()
+  private val cachedMusicTable by lazy {
+    LogicalDb<MusicDb>(
+      DynamoDbEnhancedClient.builder().dynamoDbClient(db.dynamoDb).build(),
+      config = LogicalDbConfig.Builder().itemCache(itemCache).build()
+    ).music
+  }
+  private val streamArn by lazy {
+    db.dynamoDb.describeTable { it.tableName(MusicItem.TABLE_NAME) }.table().latestStreamArn()
+  }
+
+  private val albumInfo = AlbumInfo(
+    "ALBUM_1",
+    "after hours - EP",
+    "53 Thieves",
+    LocalDate.of(2020, 2, 21),
+    "Contemporary R&B"
+  )
+
+  @Test
+  fun evictsItemsThatOtherProcessesWrite() {
+    val consumer = ItemCacheStreamConsumer.Builder(db.dynamoDbStreams, streamArn, itemCache).build()
+    consumer.poll()
+
+    assertThat(cachedMusicTable.albumInfo.load(albumInfo.key)).isNull()
+    otherMusicTable.albumInfo.save(albumInfo)
+    assertThat(cachedMusicTable.albumInfo.load(albumInfo.key)).isNull()
+
+    assertThat(consumer.poll()).isEqualTo(1)
+    assertThat(cachedMusicTable.albumInfo.load(albumInfo.key)).isEqualTo(albumInfo)
+
+    otherMusicTable.albumInfo.deleteKey(albumInfo.key)
+    assertThat(consumer.poll()).isEqualTo(1)
+    assertThat(cachedMusicTable.albumInfo.load(albumInfo.key)).isNull()
+  }
+
+  @Test
+  fun refreshesItemsFromNewImages() {
+    otherMusicTable.albumInfo.save(albumInfo)
+    val consumer = ItemCacheStreamConsumer.Builder(db.dynamoDbStreams, streamArn, itemCache)
+      .refreshItems(true)
+      .build()
+    consumer.poll()
+    assertThat(cachedMusicTable.albumInfo.load(albumInfo.key)).isEqualTo(albumInfo)
+
+    val updatedAlbumInfo = albumInfo.copy(album_title = "after hours")
+    otherMusicTable.albumInfo.save(updatedAlbumInfo)
+    assertThat(consumer.poll()).isEqualTo(1)
+
+    val misses = itemCache.stats().misses
+    assertThat(cachedMusicTable.albumInfo.load(albumInfo.key)).isEqualTo(updatedAlbumInfo)
+    assertThat(itemCache.stats().misses).isEqualTo(misses)
+  }
+
+  @Test
+  fun backgroundPollsReportTheirFailure() {
+    val failure = IllegalStateException("stream unavailable")
+    val failingStreams = object : DynamoDbStreamsClient {
+      override fun serviceName() = "dynamodb"
+      override fun close() {}
+      override fun describeStream(request: DescribeStreamRequest): DescribeStreamResponse = throw failure
+    }
+    val consumer = ItemCacheStreamConsumer.Builder(failingStreams, "arn:aws:dynamodb:us-west-2:0:table/music_items/stream/1", itemCache)
+      .pollInterval(Duration.ofMillis(10))
+      .build()
+    consumer.use {
+      it.start()
+      val deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos()
+      while (it.lastFailure == null && System.nanoTime() < deadline) Thread.sleep(10)
+      assertThat(it.lastFailure).isSameAs(failure)
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import app.cash.tempest2.internal.TableSchemaFactory
+import app.cash.tempest2.musiclibrary.AlbumInfo
+import app.cash.tempest2.musiclibrary.AlbumTrack
+import app.cash.tempest2.musiclibrary.MusicItem
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import software.amazon.awssdk.enhanced.dynamodb.Key
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+
+class ItemCacheTest {
+
+  private val tableMetadata = TableSchemaFactory.create<MusicItem>(MusicItem::class.java).tableMetadata()
+  private var nanoTime = 0L
+  private var reads = 0
+  private val cache = ItemCache(
+    maxSize = 2,
+    ttl = Duration.ofSeconds(10),
+    negativeTtl = Duration.ofSeconds(1),
+    itemTypes = setOf(AlbumInfo::class),
+    nanoTime = { nanoTime },
+  )
+  private val albumInfos = cache.table(MusicItem.TABLE_NAME, MusicItem::class, tableMetadata, AlbumInfo::class)
+
+  @Test
+  fun cachesLoadsUntilTheyExpire() {
+    assertThat(albumInfos.load(key("ALBUM_1")) { read("after hours - EP") }).isEqualTo("after hours - EP")
+    assertThat(albumInfos.load(key("ALBUM_1")) { read("Dreamland") }).isEqualTo("after hours - EP")
+    assertThat(reads).isEqualTo(1)
+
+    nanoTime += Duration.ofSeconds(10).toNanos()
+    assertThat(albumInfos.load(key("ALBUM_1")) { read("Dreamland") }).isEqualTo("Dreamland")
+    assertThat(reads).isEqualTo(2)
+    assertThat(cache.stats()).isEqualTo(ItemCacheStats(hits = 1, misses = 2, evictions = 1, invalidations = 0, size = 1))
+  }
+
+  @Test
+  fun cachesMissingItemsForTheNegativeTtl() {
+    assertThat(albumInfos.load(key("ALBUM_1")) { read(null) }).isNull()
+    assertThat(albumInfos.load(key("ALBUM_1")) { read("after hours - EP") }).isNull()
+    assertThat(reads).isEqualTo(1)
+
+    nanoTime += Duration.ofSeconds(1).toNanos()
+    assertThat(albumInfos.load(key("ALBUM_1")) { read("after hours - EP") }).isEqualTo("after hours - EP")
+    assertThat(reads).isEqualTo(2)
+  }
+
+  @Test
+  fun evictsTheLeastRecentlyUsedKeys() {
+    albumInfos.load(key("ALBUM_1")) { read("1") }
+    albumInfos.load(key("ALBUM_2")) { read("2") }
+    albumInfos.load(key("ALBUM_1")) { read("1") }
+    albumInfos.load(key("ALBUM_3")) { read("3") }
+    assertThat(reads).isEqualTo(3)
+
+    assertThat(albumInfos.load(key("ALBUM_1")) { read("1") }).isEqualTo("1")
+    assertThat(albumInfos.load(key("ALBUM_2")) { read("2") }).isEqualTo("2")
+    assertThat(reads).isEqualTo(4)
+    assertThat(cache.stats().evictions).isEqualTo(2)
+    assertThat(cache.stats().size).isEqualTo(2)
+  }
+
+  @Test
+  fun consistentReadsSkipTheCacheButRefreshIt() {
+    albumInfos.load(key("ALBUM_1")) { read("after hours - EP") }
+
+    assertThat(albumInfos.load(key("ALBUM_1"), consistentReads = true) { read("Dreamland") }).isEqualTo("Dreamland")
+    assertThat(albumInfos.load(key("ALBUM_1")) { read("Heartless") }).isEqualTo("Dreamland")
+    assertThat(reads).isEqualTo(2)
+  }
+
+  @Test
+  fun invalidationEvictsEveryItemTypeOfTheKey() {
+    val views = ItemCache.Builder().cache(MusicItem::class).build()
+      .let {
+        it.table(MusicItem.TABLE_NAME, MusicItem::class, tableMetadata, AlbumInfo::class) to
+          it.table(MusicItem.TABLE_NAME, MusicItem::class, tableMetadata, AlbumTrack::class)
+      }
+    views.first.load(key("ALBUM_1")) { read("info") }
+    views.second.load(key("ALBUM_1")) { read("track") }
+
+    views.second.invalidate(key("ALBUM_1"))
+    assertThat(views.first.load(key("ALBUM_1")) { read("new info") }).isEqualTo("new info")
+    assertThat(views.second.load(key("ALBUM_1")) { read("new track") }).isEqualTo("new track")
+  }
+
+  @Test
+  fun loadsThatRaceAWriteDoNotCacheWhatTheyRead() {
+    albumInfos.load(key("ALBUM_1")) { read("cached") }
+    albumInfos.invalidate(key("ALBUM_1"))
+
+    // The write completes while the load is in flight, so what it read may be stale.
+    albumInfos.load(key("ALBUM_1")) {
+      albumInfos.invalidate(key("ALBUM_1"))
+      read("stale")
+    }
+    assertThat(albumInfos.load(key("ALBUM_1")) { read("fresh") }).isEqualTo("fresh")
+
+    // The same goes for keys that aren't cached yet.
+    albumInfos.load(key("ALBUM_2")) {
+      albumInfos.invalidate(key("ALBUM_2"))
+      read("stale")
+    }
+    assertThat(albumInfos.load(key("ALBUM_2")) { read("fresh") }).isEqualTo("fresh")
+    assertThat(albumInfos.load(key("ALBUM_2")) { read("fresher") }).isEqualTo("fresh")
+    assertThat(cache.stats().invalidations).isEqualTo(3)
+  }
+
+  @Test
+  fun loadsAsync() {
+    val first = albumInfos.loadAsync(key("ALBUM_1"), consistentReads = false) {
+      CompletableFuture.completedFuture(read("after hours - EP"))
+    }
+    val second = albumInfos.loadAsync(key("ALBUM_1"), consistentReads = false) {
+      CompletableFuture.completedFuture(read("Dreamland"))
+    }
+    assertThat(first.join()).isEqualTo("after hours - EP")
+    assertThat(second.join()).isEqualTo("after hours - EP")
+    assertThat(reads).isEqualTo(1)
+  }
+
+  @Test
+  fun onlyCachesOptedInItemTypes() {
+    val albumTracks = cache.table(MusicItem.TABLE_NAME, MusicItem::class, tableMetadata, AlbumTrack::class)
+    albumTracks.load(key("ALBUM_1")) { read("track") }
+    albumTracks.load(key("ALBUM_1")) { read("track") }
+    assertThat(reads).isEqualTo(2)
+    assertThat(cache.stats()).isEqualTo(ItemCacheStats(hits = 0, misses = 0, evictions = 0, invalidations = 0, size = 0))
+  }
+
+  @Test
+  fun invalidateAll() {
+    albumInfos.load(key("ALBUM_1")) { read("after hours - EP") }
+    cache.invalidateAll()
+    assertThat(albumInfos.load(key("ALBUM_1")) { read("Dreamland") }).isEqualTo("Dreamland")
+  }
+
+  @Test
+  fun streamRecordsRefreshOrEvictCachedItems() {
+    val albumTitles = cache.table(MusicItem.TABLE_NAME, MusicItem::class, tableMetadata, AlbumInfo::class) {
+      it.getValue("album_title").s()
+    }
+    albumTitles.load(key("ALBUM_1")) { read("after hours - EP") }
+
+    cache.onStreamRecord(MusicItem.TABLE_NAME, keys("ALBUM_1"), keys("ALBUM_1") + ("album_title" to s("after hours")))
+    assertThat(albumTitles.load(key("ALBUM_1")) { read("Dreamland") }).isEqualTo("after hours")
+
+    // Keys that aren't cached stay that way.
+    cache.onStreamRecord(MusicItem.TABLE_NAME, keys("ALBUM_2"), keys("ALBUM_2") + ("album_title" to s("Heartless")))
+    assertThat(albumTitles.load(key("ALBUM_2")) { read("Dreamland") }).isEqualTo("Dreamland")
+
+    cache.onStreamRecord(MusicItem.TABLE_NAME, keys("ALBUM_1"), newImage = null)
+    assertThat(albumTitles.load(key("ALBUM_1")) { read("Dreamland") }).isEqualTo("Dreamland")
+    assertThat(reads).isEqualTo(3)
+  }
+
+  @Test
+  fun segmentedCachesStayWithinMaxSize() {
+    val cache = ItemCache(
+      maxSize = 256,
+      ttl = Duration.ofSeconds(10),
+      negativeTtl = Duration.ofSeconds(1),
+      itemTypes = setOf(AlbumInfo::class),
+      nanoTime = { nanoTime },
+    )
+    val albumInfos = cache.table(MusicItem.TABLE_NAME, MusicItem::class, tableMetadata, AlbumInfo::class)
+    val threads = (0 until 4).map { thread ->
+      Thread {
+        for (i in 0 until 250) {
+          albumInfos.load(key("ALBUM_${thread}_$i"), false) { "$i" }
+        }
+      }.apply { start() }
+    }
+    threads.forEach { it.join() }
+
+    val stats = cache.stats()
+    assertThat(stats.misses).isEqualTo(1000)
+    assertThat(stats.size).isLessThanOrEqualTo(256)
+    assertThat(stats.evictions).isEqualTo(1000L - stats.size)
+  }
+
+  private fun ItemCache.Table.load(key: Key, consistentReads: Boolean = false, read: () -> String?) =
+    load(key, consistentReads, read)
+
+  private fun read(item: String?): String? {
+    reads++
+    return item
+  }
+
+  private fun key(albumToken: String) =
+    Key.builder().partitionValue(albumToken).sortValue("INFO_").build()
+
+  private fun keys(albumToken: String) = mapOf("partition_key" to s(albumToken), "sort_key" to s("INFO_"))
+
+  private fun s(value: String) = AttributeValue.builder().s(value).build()
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import software.amazon.awssdk.core.SdkBytes
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+
+class ItemSizeTest {
+
+  @Test
+  fun scalars() {
+    assertThat(ItemSize.of(mapOf("s" to AttributeValue.fromS("hello")))).isEqualTo(1L + 5)
+    assertThat(ItemSize.of(mapOf("s" to AttributeValue.fromS("héllo")))).isEqualTo(1L + 6)
+    assertThat(ItemSize.of(mapOf("s" to AttributeValue.fromS("🎵")))).isEqualTo(1L + 4)
+    assertThat(ItemSize.of(mapOf("b" to AttributeValue.fromB(SdkBytes.fromByteArray(ByteArray(10)))))).isEqualTo(1L + 10)
+    assertThat(ItemSize.of(mapOf("bool" to AttributeValue.fromBool(true)))).isEqualTo(4L + 1)
+    assertThat(ItemSize.of(mapOf("nul" to AttributeValue.fromNul(true)))).isEqualTo(3L + 1)
+  }
+
+  @Test
+  fun numbers() {
+    // 1 byte per 2 significant digits, plus 1 byte.
+    assertThat(ItemSize.of(mapOf("n" to AttributeValue.fromN("7")))).isEqualTo(1L + 2)
+    assertThat(ItemSize.of(mapOf("n" to AttributeValue.fromN("-1234.5")))).isEqualTo(1L + 4)
+    assertThat(ItemSize.of(mapOf("n" to AttributeValue.fromN("1000")))).isEqualTo(1L + 2)
+  }
+
+  @Test
+  fun collections() {
+    val list = AttributeValue.fromL(listOf(AttributeValue.fromS("ab"), AttributeValue.fromS("c")))
+    assertThat(ItemSize.of(mapOf("l" to list))).isEqualTo(1L + 3 + (1 + 2) + (1 + 1))
+
+    val map = AttributeValue.fromM(mapOf("k" to AttributeValue.fromS("ab")))
+    assertThat(ItemSize.of(mapOf("m" to map))).isEqualTo(1L + 3 + (1 + 1 + 2))
+
+    val stringSet = AttributeValue.fromSs(listOf("ab", "cde"))
+    assertThat(ItemSize.of(mapOf("ss" to stringSet))).isEqualTo(2L + 5)
+  }
+
+  @Test
+  fun capacityUnits() {
+    assertThat(ItemSize.readCapacityUnits(100, consistentReads = true)).isEqualTo(1.0)
+    assertThat(ItemSize.readCapacityUnits(100, consistentReads = false)).isEqualTo(0.5)
+    assertThat(ItemSize.readCapacityUnits(4097, consistentReads = true)).isEqualTo(2.0)
+    assertThat(ItemSize.writeCapacityUnits(0)).isEqualTo(1)
+    assertThat(ItemSize.writeCapacityUnits(1024)).isEqualTo(1)
+    assertThat(ItemSize.writeCapacityUnits(1025)).isEqualTo(2)
+  }
+}
@@ -16,16 +16,21 @@
 
 package app.cash.tempest2
 
+import app.cash.tempest2.musiclibrary.AlbumInfo
 import app.cash.tempest2.musiclibrary.AlbumTrack
 import app.cash.tempest2.musiclibrary.MusicDb
+import app.cash.tempest2.musiclibrary.MusicItem
 import app.cash.tempest2.musiclibrary.PlaylistInfo
 import app.cash.tempest2.musiclibrary.testDb
 import app.cash.tempest2.testing.logicalDb
 import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.extension.RegisterExtension
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient
 import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity
 import java.time.Duration
+import java.time.LocalDate
 
 class LogicalDbBatchTest {
 
@@ -66,6 +71,29 @@ class LogicalDbBatchTest {
     assertThat(loadedItems.getItems<PlaylistInfo>()).containsExactly(playlistInfo)
   }
 
+  @Test
+  fun batchLoadAndTransactionLoadReadOnlyTheAttributesOfTheirItemTypes() {
+    val projectedMusicDb = LogicalDb<MusicDb>(
+      DynamoDbEnhancedClient.builder().dynamoDbClient(db.dynamoDb).build(),
+      config = LogicalDbConfig.Builder().projectedReadsClient(db.dynamoDb).build()
+    )
+    val albumTrack = AlbumTrack("ALBUM_1", 1, "dreamin'", Duration.parse("PT3M28S"))
+    musicTable.save(
+      musicTable.codec(AlbumTrack::class).toDb(albumTrack).apply { album_title = "after hours - EP" }
+    )
+    val albumInfo = AlbumInfo("ALBUM_1", "after hours - EP", "53 Thieves", LocalDate.of(2020, 2, 21), "Contemporary R&B")
+    musicTable.albumInfo.save(albumInfo)
+
+    val keys = listOf(AlbumTrack.Key("ALBUM_1", track_number = 1), AlbumInfo.Key("ALBUM_1"))
+    val loadedItems = projectedMusicDb.batchLoad(keys)
+    assertThat(loadedItems.getItems<AlbumTrack>()).containsExactly(albumTrack)
+    assertThat(loadedItems.getItems<AlbumInfo>()).containsExactly(albumInfo)
+
+    val transactionItems = projectedMusicDb.transactionLoad(keys)
+    assertThat(transactionItems.getItems<AlbumTrack>()).containsExactly(albumTrack)
+    assertThat(transactionItems.getItems<AlbumInfo>()).containsExactly(albumInfo)
+  }
+
   @Test
   fun `batchLoad greater than max batch size`() = runBlockingTest {
     val albumTracks = (1..(MAX_BATCH_READ + 5)).map {
@@ -149,6 +177,22 @@ class LogicalDbBatchTest {
     assertThat(items.getItems<PlaylistInfo>()).containsExactly(playlistInfo)
   }
 
+  @Test
+  fun batchLoadKeysOfDifferentClassesWithTheSamePrimaryKey() {
+    val albumTrack = AlbumTrack("ALBUM_1", 1, "dreamin'", Duration.parse("PT3M28S"))
+    musicTable.albumTracks.save(albumTrack)
+
+    val keys = listOf(
+      AlbumTrack.Key("ALBUM_1", track_number = 1),
+      AlbumTrack.TitleIndexOffset("ALBUM_1", "dreamin'", albumTrack.track_token)
+    )
+    assertThat(musicDb.batchLoad(keys).getItems<AlbumTrack>()).containsExactly(albumTrack)
+
+    val batchLoader = musicDb.batchLoader(BatchLoaderConfig.Builder().build())
+    val loads = keys.map { batchLoader.loadAsync(it, AlbumTrack::class.java) }
+    assertThat(loads.map { it.join() }).containsExactly(albumTrack, albumTrack)
+  }
+
   @Test
   fun batchLoadAfterBatchWrite() {
     val albumTracks = listOf(
@@ -181,6 +225,20 @@ class LogicalDbBatchTest {
     assertThat(items).containsAll(albumTracks)
   }
 
+  @Test
+  fun `batchWrite rejects items larger than 400KB`() {
+    val smallTrack = AlbumTrack("ALBUM_1", 1, "dreamin'", Duration.parse("PT3M28S"))
+    val largeTrack = AlbumTrack("ALBUM_1", 2, "what you do to me", Duration.parse("PT3M24S"), "a".repeat(500_000))
+
+    assertThatThrownBy {
+      musicDb.batchWrite(BatchWriteSet.Builder().clobber(smallTrack, largeTrack).build())
+    }
+      .isInstanceOf(IllegalArgumentException::class.java)
+      .hasMessageContaining("AlbumTrack")
+      .hasMessageContaining("TRACK_0000000000000002")
+    assertThat(musicTable.albumTracks.load(AlbumTrack.Key("ALBUM_1", 1))).isNull()
+  }
+
   @Test
   fun batchLoadAfterBatchDelete() {
     val t1 = AlbumTrack("ALBUM_1", 1, "dreamin'", Duration.parse("PT3M28S"))
@@ -200,6 +258,29 @@ class LogicalDbBatchTest {
     assertThat(items).containsExactly(t3, t1)
   }
 
+  @Test
+  fun batchAndTransactionWritesInvalidateTheItemCache() {
+    val cachedMusicDb = LogicalDb<MusicDb>(
+      DynamoDbEnhancedClient.builder().dynamoDbClient(db.dynamoDb).build(),
+      config = LogicalDbConfig.Builder()
+        .itemCache(ItemCache.Builder().cache(MusicItem::class).build())
+        .build()
+    )
+    val cachedMusicTable = cachedMusicDb.music
+    val albumTrack = AlbumTrack("ALBUM_1", 1, "dreamin", Duration.parse("PT3M28S"))
+    assertThat(cachedMusicTable.albumTracks.load(albumTrack.key)).isNull()
+
+    cachedMusicDb.batchWrite(BatchWriteSet.Builder().clobber(albumTrack).build())
+    assertThat(cachedMusicTable.albumTracks.load(albumTrack.key)).isEqualTo(albumTrack)
+
+    val updatedAlbumTrack = albumTrack.copy(track_title = "dreamin (remix)")
+    cachedMusicDb.transactionWrite(TransactionWriteSet.Builder().save(updatedAlbumTrack).build())
+    assertThat(cachedMusicTable.albumTracks.load(albumTrack.key)).isEqualTo(updatedAlbumTrack)
+
+    cachedMusicDb.batchWrite(BatchWriteSet.Builder().delete(albumTrack.key).build())
+    assertThat(cachedMusicTable.albumTracks.load(albumTrack.key)).isNull()
+  }
+
   @Test
   fun `batchLoad with return capacity requested`() = runBlockingTest {
     val albumTracks = (1..(MAX_BATCH_READ + 5)).map {
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.within
+import org.junit.jupiter.api.Test
+import java.util.concurrent.TimeUnit
+
+class ReadCapacityLimiterTest {
+
+  private var nanoTime = 0L
+  private val limiter = ReadCapacityLimiter(10.0, 10.0) { nanoTime }
+
+  @Test
+  fun refillsAtItsRateUpToItsBurst() {
+    limiter.consume(10.0)
+    assertThat(limiter.availableUnits).isCloseTo(0.0, within(1e-9))
+
+    nanoTime += TimeUnit.MILLISECONDS.toNanos(500)
+    assertThat(limiter.availableUnits).isCloseTo(5.0, within(1e-9))
+
+    nanoTime += TimeUnit.SECONDS.toNanos(10)
+    assertThat(limiter.availableUnits).isCloseTo(10.0, within(1e-9))
+  }
+
+  @Test
+  fun consumingMoreThanAvailableLeavesDebt() {
+    limiter.consume(25.0)
+    assertThat(limiter.availableUnits).isCloseTo(-15.0, within(1e-9))
+
+    nanoTime += TimeUnit.SECONDS.toNanos(1)
+    assertThat(limiter.availableUnits).isCloseTo(-5.0, within(1e-9))
+  }
+
+  @Test
+  fun refundsDoNotExceedTheBurst() {
+    limiter.consume(-5.0)
+    assertThat(limiter.availableUnits).isCloseTo(10.0, within(1e-9))
+  }
+
+  @Test
+  fun acquireWaitsOutTheDebt() {
+    val limiter = ReadCapacityLimiter(unitsPerSecond = 1000.0, burstUnits = 10.0)
+    limiter.consume(60.0)
+
+    val start = System.nanoTime()
+    limiter.acquire(0.0)
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(45L)
+    assertThat(limiter.availableUnits).isPositive()
+  }
+}
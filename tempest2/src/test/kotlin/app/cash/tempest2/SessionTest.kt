@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import app.cash.tempest2.musiclibrary.AlbumInfo
+import app.cash.tempest2.musiclibrary.AlbumTrack
+import app.cash.tempest2.musiclibrary.MusicDb
+import app.cash.tempest2.musiclibrary.testDb
+import app.cash.tempest2.testing.logicalDb
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatIllegalStateException
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.extension.RegisterExtension
+import java.time.Duration
+import java.time.LocalDate
+
+class SessionTest {
+
+  @RegisterExtension
+  @JvmField
+  val db = testDb()
+
+  private val musicDb by lazy { db.logicalDb<MusicDb>() }
+  private val musicTable by lazy { musicDb.music }
+
+  private val albumInfo = AlbumInfo(
+    "ALBUM_1",
+    "after hours - EP",
+    "53 Thieves",
+    LocalDate.of(2020, 2, 21),
+    "Contemporary R&B"
+  )
+  private val albumTrack1 = AlbumTrack("ALBUM_1", 1, "dreamin'", Duration.parse("PT3M28S"))
+  private val albumTrack2 = AlbumTrack("ALBUM_1", 2, "what you do to me", Duration.parse("PT3M24S"))
+
+  @Test
+  fun repeatedLoadsAreServedFromTheSession() {
+    musicTable.albumInfo.save(albumInfo)
+    val session = musicDb.session()
+
+    assertThat(session.load(albumInfo.key, AlbumInfo::class)).isEqualTo(albumInfo)
+    assertThat(session.load(albumTrack1.key, AlbumTrack::class)).isNull()
+    musicTable.albumInfo.save(albumInfo.copy(album_title = "after hours"))
+    musicTable.albumTracks.save(albumTrack1)
+
+    assertThat(session.load(albumInfo.key, AlbumInfo::class)).isEqualTo(albumInfo)
+    assertThat(session.load(albumTrack1.key, AlbumTrack::class)).isNull()
+    assertThat(session.batchLoad(listOf(albumInfo.key, albumTrack1.key, albumTrack2.key)))
+      .containsExactly(albumInfo)
+  }
+
+  @Test
+  fun keysOfDifferentClassesShareTheirItem() {
+    musicTable.albumTracks.save(albumTrack1)
+    val session = musicDb.session()
+    val titleIndexOffset = AlbumTrack.TitleIndexOffset("ALBUM_1", albumTrack1.track_title, albumTrack1.track_token)
+
+    assertThat(session.batchLoad(listOf(albumTrack1.key, titleIndexOffset))).containsExactly(albumTrack1)
+    session.delete(titleIndexOffset)
+    assertThat(session.load(albumTrack1.key, AlbumTrack::class)).isNull()
+    assertThat(session.pendingWrites).isEqualTo(1)
+  }
+
+  @Test
+  fun writesAreDeferredUntilTheSessionIsFlushed() {
+    musicTable.albumInfo.save(albumInfo)
+    musicTable.albumTracks.save(albumTrack1)
+    val updatedAlbumInfo = albumInfo.copy(album_title = "after hours")
+
+    musicDb.session<Unit> { session ->
+      session.save(updatedAlbumInfo)
+      session.save(albumTrack2)
+      session.delete(albumTrack1.key)
+      assertThat(session.load(albumInfo.key, AlbumInfo::class)).isEqualTo(updatedAlbumInfo)
+      assertThat(session.load(albumTrack1.key, AlbumTrack::class)).isNull()
+      assertThat(session.pendingWrites).isEqualTo(3)
+
+      assertThat(musicTable.albumInfo.load(albumInfo.key)).isEqualTo(albumInfo)
+      assertThat(musicTable.albumTracks.load(albumTrack1.key)).isEqualTo(albumTrack1)
+    }
+
+    assertThat(musicTable.albumInfo.load(albumInfo.key)).isEqualTo(updatedAlbumInfo)
+    assertThat(musicTable.albumTracks.load(albumTrack1.key)).isNull()
+    assertThat(musicTable.albumTracks.load(albumTrack2.key)).isEqualTo(albumTrack2)
+  }
+
+  @Test
+  fun unchangedItemsAreNotWritten() {
+    musicTable.albumInfo.save(albumInfo)
+    val session = musicDb.session()
+
+    session.save(session.load(albumInfo.key, AlbumInfo::class)!!.copy())
+    assertThat(session.load(albumTrack1.key, AlbumTrack::class)).isNull()
+    session.delete(albumTrack1.key)
+    assertThat(session.pendingWrites).isEqualTo(0)
+  }
+
+  @Test
+  fun batchWriteFlushes() {
+    val session = musicDb.session(
+      SessionConfig.Builder().flushMode(SessionFlushMode.BATCH_WRITE).build()
+    )
+    session.save(albumTrack1)
+    session.save(albumTrack2)
+    session.flush()
+
+    assertThat(session.pendingWrites).isEqualTo(0)
+    assertThat(musicTable.albumTracks.load(albumTrack1.key)).isEqualTo(albumTrack1)
+    assertThat(musicTable.albumTracks.load(albumTrack2.key)).isEqualTo(albumTrack2)
+  }
+
+  @Test
+  fun changesAreDiscardedIfTheBlockThrows() {
+    assertThatIllegalStateException().isThrownBy {
+      musicDb.session { session ->
+        session.save(albumInfo)
+        throw IllegalStateException()
+      }
+    }
+    assertThat(musicTable.albumInfo.load(albumInfo.key)).isNull()
+  }
+}
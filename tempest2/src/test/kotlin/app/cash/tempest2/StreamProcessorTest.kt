@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import app.cash.tempest2.musiclibrary.AlbumInfo
+import app.cash.tempest2.musiclibrary.AlbumTrack
+import app.cash.tempest2.musiclibrary.MusicDb
+import app.cash.tempest2.musiclibrary.MusicItem
+import app.cash.tempest2.musiclibrary.PlaylistInfo
+import app.cash.tempest2.musiclibrary.testDb
+import app.cash.tempest2.testing.logicalDb
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.extension.RegisterExtension
+import software.amazon.awssdk.services.dynamodb.model.OperationType
+import java.nio.file.Files
+import java.time.Duration
+import java.time.LocalDate
+
+class StreamProcessorTest {
+
+  @RegisterExtension
+  @JvmField
+  val db = testDb()
+
+  private val musicTable by lazy { db.logicalDb<MusicDb>().music }
+  private val streamArn by lazy {
+    db.dynamoDb.describeTable { it.tableName(MusicItem.TABLE_NAME) }.table().latestStreamArn()
+  }
+
+  private val albumInfo = AlbumInfo(
+    "ALBUM_1",
+    "after hours - EP",
+    "53 Thieves",
+    LocalDate.of(2020, 2, 21),
+    "Contemporary R&B"
+  )
+  private val albumTrack = AlbumTrack("ALBUM_1", 1L, "dreamin", Duration.parse("PT3M28S"))
+
+  @Test
+  fun decodesChangesIntoItemTypes() {
+    musicTable.albumInfo.save(albumInfo)
+    musicTable.albumTracks.save(albumTrack)
+    musicTable.playlistInfo.save(PlaylistInfo("PLAYLIST_1", "WFH Music", listOf(albumTrack.key)))
+    musicTable.albumTracks.deleteKey(albumTrack.key)
+
+    val processor = musicTable.streamProcessor(
+      db.dynamoDbStreams,
+      streamArn,
+      setOf(AlbumInfo::class, AlbumTrack::class)
+    )
+    val changes = mutableListOf<ItemChange>()
+    assertThat(processor.processAvailable { changes += it.changes }).isEqualTo(4)
+
+    assertThat(changes.map { it.itemType to it.eventName }).containsExactly(
+      AlbumInfo::class to OperationType.INSERT,
+      AlbumTrack::class to OperationType.INSERT,
+      AlbumTrack::class to OperationType.REMOVE,
+    )
+    assertThat(changes[0].newItem).isEqualTo(albumInfo)
+    assertThat(changes[1].newItem).isEqualTo(albumTrack)
+    assertThat(changes[2].oldItem).isEqualTo(albumTrack)
+    assertThat(changes[2].newItem).isNull()
+  }
+
+  @Test
+  fun resumesFromCheckpoints() {
+    val store = FileCheckpointStore(Files.createTempFile("checkpoints", null))
+    val config = StreamProcessorConfig.Builder()
+      .checkpoints(store, "album_tracks")
+      .build()
+    musicTable.albumTracks.save(albumTrack)
+
+    val changes = mutableListOf<ItemChange>()
+    musicTable.streamProcessor(db.dynamoDbStreams, streamArn, setOf(AlbumTrack::class), config)
+      .processAvailable { changes += it.changes }
+    assertThat(changes.map { it.newItem }).containsExactly(albumTrack)
+    val shardId = db.dynamoDbStreams.describeStream { it.streamArn(streamArn) }
+      .streamDescription().shards().single().shardId()
+    assertThat(store.loadStreamCheckpoint("album_tracks/$shardId")).isNotNull()
+
+    val updatedAlbumTrack = albumTrack.copy(track_title = "dreamin'")
+    musicTable.albumTracks.save(updatedAlbumTrack)
+    changes.clear()
+    musicTable.streamProcessor(db.dynamoDbStreams, streamArn, setOf(AlbumTrack::class), config)
+      .processAvailable { changes += it.changes }
+    assertThat(changes.map { it.oldItem to it.newItem }).containsExactly(albumTrack to updatedAlbumTrack)
+  }
+}
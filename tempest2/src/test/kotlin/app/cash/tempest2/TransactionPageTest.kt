@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+
+class TransactionPageTest {
+
+  /** Saves each update, whose size is its length. */
+  private val handler = object : WritingPagerHandler<String> {
+    override fun beforePage(remainingUpdates: List<String>, maxTransactionItems: Int) = remainingUpdates.size
+
+    override fun item(builder: TransactionWriteSet.Builder, item: String) {
+      builder.save(item)
+    }
+
+    override fun finishPage(builder: TransactionWriteSet.Builder) = Unit
+  }
+
+  private val itemSize = { item: Any -> (item as String).length.toLong() }
+
+  @Test
+  fun pagesByItemCount() {
+    val (page, appliedCount) =
+      buildTransactionPage(listOf("a", "b", "c"), 2, Long.MAX_VALUE, itemSize, handler)!!
+
+    assertThat(appliedCount).isEqualTo(2)
+    assertThat(page.itemsToSave).containsExactly("a", "b")
+  }
+
+  @Test
+  fun pagesByBytes() {
+    val (page, appliedCount) =
+      buildTransactionPage(listOf("aaa", "bbb", "c"), 25, 6, itemSize, handler)!!
+
+    assertThat(appliedCount).isEqualTo(2)
+    assertThat(page.itemsToSave).containsExactly("aaa", "bbb")
+  }
+
+  @Test
+  fun updateLargerThanAPage() {
+    assertThatThrownBy { buildTransactionPage(listOf("aaaaaaa"), 25, 6, itemSize, handler) }
+      .isInstanceOf(IllegalStateException::class.java)
+      .hasMessageContaining("aaaaaaa writes 7 bytes")
+  }
+
+  @Test
+  fun itemLargerThanDynamoDbAccepts() {
+    val itemSize = { _: Any -> ItemSize.MAX_ITEM_BYTES + 1 }
+    assertThatThrownBy { buildTransactionPage(listOf("a"), 25, Long.MAX_VALUE, itemSize, handler) }
+      .isInstanceOf(IllegalArgumentException::class.java)
+      .hasMessageContaining("a is 409601 bytes")
+  }
+}
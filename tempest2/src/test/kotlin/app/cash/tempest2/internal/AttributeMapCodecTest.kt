@@ -0,0 +1,145 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest.internal.Schema
+import app.cash.tempest2.musiclibrary.AlbumInfo
+import app.cash.tempest2.musiclibrary.AlbumTrack
+import app.cash.tempest2.musiclibrary.MusicItem
+import app.cash.tempest2.musiclibrary.PlaylistInfo
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import java.time.Duration
+import java.time.LocalDate
+
+class AttributeMapCodecTest {
+
+  private val schema = Schema.create(
+    V2StringAttributeValue,
+    V2MapAttributeValue.Factory,
+    V2ForIndexAnnotation,
+    V2AttributeAnnotation,
+    V2RawItemTypeFactory(),
+    attributeValueConverterFactory = V2AttributeValueConverter.Factory
+  ).apply {
+    addRawItem(MusicItem.TABLE_NAME, MusicItem::class)
+    addItem(AlbumInfo::class, MusicItem::class)
+    addItem(AlbumTrack::class, MusicItem::class)
+    addItem(PlaylistInfo::class, MusicItem::class)
+    addKey(AlbumTrack.Key::class, AlbumTrack::class)
+  }
+  private val tableSchema = TableSchemaFactory.create<MusicItem>(MusicItem::class.java)
+
+  @Test
+  internal fun itemCodecToDb() {
+    val albumInfo = AlbumInfo(
+      "ALBUM_1",
+      "after hours - EP",
+      "53 Thieves",
+      LocalDate.of(2020, 2, 21),
+      "Contemporary R&B"
+    )
+
+    val attributeValues = schema.attributeMapCodec<AlbumInfo, AttributeValue>(AlbumInfo::class).toDb(albumInfo)
+    assertThat(attributeValues["partition_key"]?.s()).isEqualTo("ALBUM_1")
+    assertThat(attributeValues["sort_key"]?.s()).isEqualTo("INFO_")
+    assertThat(attributeValues["release_date"]?.s()).isEqualTo("2020-02-21")
+    assertThat(attributeValues).doesNotContainKeys("label_name", "track_title")
+    assertThat(attributeValues).isEqualTo(
+      tableSchema.itemToMap(schema.codec<AlbumInfo, MusicItem>(AlbumInfo::class).toDb(albumInfo), true)
+    )
+  }
+
+  @Test
+  internal fun itemCodecToApp() {
+    val musicItem = MusicItem().apply {
+      partition_key = "ALBUM_1"
+      sort_key = "TRACK_0000000000000001"
+      track_title = "dreamin"
+      run_length = Duration.parse("PT3M28S")
+      track_description = "Live"
+    }
+
+    val albumTrack = schema.attributeMapCodec<AlbumTrack, AttributeValue>(AlbumTrack::class)
+      .toApp(tableSchema.itemToMap(musicItem, true))
+    assertThat(albumTrack).isEqualTo(
+      AlbumTrack("ALBUM_1", 1L, "dreamin", Duration.parse("PT3M28S"), "Live")
+    )
+  }
+
+  @Test
+  internal fun itemCodecRoundTrip() {
+    val playlistInfo = PlaylistInfo(
+      "PLAYLIST_1",
+      "WFH Music",
+      listOf(AlbumTrack.Key("ALBUM_1", 1L), AlbumTrack.Key("ALBUM_3", 2L)),
+      playlist_version = 3
+    )
+    val codec = schema.attributeMapCodec<PlaylistInfo, AttributeValue>(PlaylistInfo::class)
+
+    assertThat(codec.toApp(codec.toDb(playlistInfo))).isEqualTo(playlistInfo)
+  }
+
+  @Test
+  internal fun keyCodec() {
+    val albumTrackKey = AlbumTrack.Key(album_token = "ALBUM_1", track_number = 1L)
+    val codec = schema.attributeMapCodec<AlbumTrack.Key, AttributeValue>(AlbumTrack.Key::class)
+
+    val attributeValues = codec.toDb(albumTrackKey)
+    assertThat(attributeValues).isEqualTo(
+      tableSchema.itemToMap(schema.codec<AlbumTrack.Key, MusicItem>(AlbumTrack.Key::class).toDb(albumTrackKey), true)
+    )
+    assertThat(codec.toApp(attributeValues)).isEqualTo(albumTrackKey)
+  }
+
+  @Test
+  internal fun tableSchemaWritesAbsentAttributesAsNull() {
+    val attributeMapTableSchema =
+      TableSchemaFactory.createAttributeMap<Map<String, AttributeValue>>(MusicItem::class.java)
+    val albumTrackKey = AlbumTrack.Key(album_token = "ALBUM_1", track_number = 1L)
+    val attributeValues = schema.attributeMapCodec<AlbumTrack.Key, AttributeValue>(AlbumTrack.Key::class)
+      .toDb(albumTrackKey)
+
+    assertThat(attributeMapTableSchema.itemToMap(attributeValues, true)).isEqualTo(attributeValues)
+    assertThat(attributeMapTableSchema.itemToMap(attributeValues, false)).isEqualTo(
+      (TableSchema.fromBean(MusicItem::class.java) as TableSchema<MusicItem>)
+        .itemToMap(schema.codec<AlbumTrack.Key, MusicItem>(AlbumTrack.Key::class).toDb(albumTrackKey), false)
+    )
+    assertThat(attributeMapTableSchema.tableMetadata().primarySortKey()).hasValue("sort_key")
+  }
+
+  @Test
+  internal fun tableSchemaReadsAbsentAttributesAsMissing() {
+    val attributeMapTableSchema =
+      TableSchemaFactory.createAttributeMap<Map<String, AttributeValue>>(MusicItem::class.java)
+    val beanTableSchema = TableSchema.fromBean(MusicItem::class.java) as TableSchema<MusicItem>
+    val albumTrackKey = AlbumTrack.Key(album_token = "ALBUM_1", track_number = 1L)
+    val attributeValues = schema.attributeMapCodec<AlbumTrack.Key, AttributeValue>(AlbumTrack.Key::class)
+      .toDb(albumTrackKey)
+    val musicItem = schema.codec<AlbumTrack.Key, MusicItem>(AlbumTrack.Key::class).toDb(albumTrackKey)
+    val attributeNames = listOf("partition_key", "sort_key", "track_title")
+
+    assertThat(attributeMapTableSchema.attributeValue(attributeValues, "track_title")).isNull()
+    assertThat(attributeMapTableSchema.attributeValue(attributeValues, "track_title"))
+      .isEqualTo(beanTableSchema.attributeValue(musicItem, "track_title"))
+    assertThat(attributeMapTableSchema.itemToMap(attributeValues, attributeNames))
+      .isEqualTo(beanTableSchema.itemToMap(musicItem, attributeNames).filterValues { it != null })
+      .containsOnlyKeys("partition_key", "sort_key")
+  }
+}
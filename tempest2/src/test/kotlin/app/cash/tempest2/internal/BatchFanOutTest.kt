@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class BatchFanOutTest {
+
+  private val executor = Executors.newCachedThreadPool()
+
+  @AfterEach
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  @Test
+  internal fun resultsKeepRequestOrder() {
+    val fanOut = BatchFanOut(executor, 4)
+
+    val results = fanOut.map((0 until 50).toList()) { request ->
+      Thread.sleep((50 - request) % 5L)
+      request * 2
+    }
+
+    assertThat(results).isEqualTo((0 until 50).map { it * 2 })
+  }
+
+  @Test
+  internal fun capsRequestsInFlight() {
+    val fanOut = BatchFanOut(executor, 3)
+    val inFlight = AtomicInteger()
+    val maxInFlight = AtomicInteger()
+
+    fanOut.map((0 until 30).toList()) {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), ::maxOf)
+      Thread.sleep(2)
+      inFlight.decrementAndGet()
+    }
+
+    assertThat(maxInFlight.get()).isEqualTo(3)
+  }
+
+  @Test
+  internal fun sendsConcurrently() {
+    val fanOut = BatchFanOut(executor, 4)
+    val allStarted = CountDownLatch(4)
+
+    val results = fanOut.map((0 until 4).toList()) {
+      allStarted.countDown()
+      allStarted.await(5, TimeUnit.SECONDS)
+    }
+
+    assertThat(results).containsOnly(true)
+  }
+
+  @Test
+  internal fun sendsOnCallingThreadWithoutExecutor() {
+    val fanOut = BatchFanOut(null, 4)
+    val caller = Thread.currentThread()
+
+    val threads = fanOut.map((0 until 4).toList()) { Thread.currentThread() }
+
+    assertThat(threads).containsOnly(caller)
+  }
+
+  @Test
+  internal fun rethrowsFailure() {
+    val fanOut = BatchFanOut(executor, 4)
+    val sent = AtomicInteger()
+
+    assertThatThrownBy {
+      fanOut.map((0 until 100).toList()) { request ->
+        sent.incrementAndGet()
+        if (request == 3) throw IllegalStateException("throttled")
+        Thread.sleep(1)
+      }
+    }.isInstanceOf(IllegalStateException::class.java).hasMessage("throttled")
+    assertThat(sent.get()).isLessThan(100)
+  }
+}
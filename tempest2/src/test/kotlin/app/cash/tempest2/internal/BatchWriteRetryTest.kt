@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest2.BatchWriteRetryPolicy
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.time.Duration
+
+class BatchWriteRetryTest {
+
+  private var now = 0L
+  private val policy = BatchWriteRetryPolicy.Builder()
+    .maxRetries(5)
+    .baseDelay(Duration.ofMillis(100))
+    .maxDelay(Duration.ofMillis(500))
+    .deadline(Duration.ofSeconds(2))
+    .build()
+
+  @Test
+  internal fun backsOffExponentiallyUpToMaxDelay() {
+    // Always pick the longest delay that full jitter allows.
+    val retry = BatchWriteRetry(policy, { now }, { bound -> bound - 1 })
+
+    val delays = (0 until 4).map { retry.nextDelay(1)!!.toMillis() }
+
+    assertThat(delays).containsExactly(100L, 200L, 400L, 500L)
+  }
+
+  @Test
+  internal fun jittersBetweenZeroAndBackoff() {
+    val bounds = mutableListOf<Long>()
+    val retry = BatchWriteRetry(policy, { now }, { bound -> bounds.add(bound); 0L })
+
+    assertThat(retry.nextDelay(1)).isEqualTo(Duration.ZERO)
+    assertThat(retry.nextDelay(1)).isEqualTo(Duration.ZERO)
+    assertThat(bounds).containsExactly(
+      Duration.ofMillis(100).toNanos() + 1,
+      Duration.ofMillis(200).toNanos() + 1,
+    )
+  }
+
+  @Test
+  internal fun countsRetriesAndRetriedWrites() {
+    val retry = BatchWriteRetry(policy, { now }, { 0L })
+
+    retry.nextDelay(25)
+    retry.nextDelay(7)
+
+    assertThat(retry.nextDelay(0)).isNull()
+    assertThat(retry.retries).isEqualTo(2)
+    assertThat(retry.retriedWrites).isEqualTo(32)
+  }
+
+  @Test
+  internal fun stopsAfterMaxRetries() {
+    val retry = BatchWriteRetry(policy, { now }, { 0L })
+
+    repeat(5) { assertThat(retry.nextDelay(1)).isNotNull() }
+
+    assertThat(retry.nextDelay(1)).isNull()
+    assertThat(retry.retries).isEqualTo(5)
+  }
+
+  @Test
+  internal fun stopsAtDeadline() {
+    val retry = BatchWriteRetry(policy, { now }, { bound -> bound - 1 })
+
+    now = Duration.ofMillis(1_850).toNanos()
+    assertThat(retry.nextDelay(1)).isEqualTo(Duration.ofMillis(100))
+    now = Duration.ofMillis(1_950).toNanos()
+
+    assertThat(retry.nextDelay(1)).isNull()
+    assertThat(retry.retries).isEqualTo(1)
+  }
+
+  @Test
+  internal fun noneNeverRetries() {
+    val retry = BatchWriteRetry(BatchWriteRetryPolicy.NONE)
+
+    assertThat(retry.nextDelay(1)).isNull()
+  }
+}
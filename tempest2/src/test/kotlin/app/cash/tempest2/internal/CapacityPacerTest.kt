@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest2.Offset
+import app.cash.tempest2.Page
+import app.cash.tempest2.ReadCapacityLimiter
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity
+import java.util.concurrent.TimeUnit
+
+class CapacityPacerTest {
+
+  private val pageSizes = mutableListOf<Int>()
+
+  @Test
+  internal fun pagesShrinkToWhatTheBurstPaysFor() {
+    val pacer = CapacityPacer(ReadCapacityLimiter(unitsPerSecond = 1000.0, burstUnits = 10.0), pageSize = 100)
+
+    repeat(3) { pacer.fetchBlocking { pageSize -> page(pageSize, unitsPerItem = 0.5) } }
+
+    assertThat(pageSizes).containsExactly(100, 20, 20)
+  }
+
+  @Test
+  internal fun pagesAreHeldToTheRate() {
+    val limiter = ReadCapacityLimiter(unitsPerSecond = 200.0, burstUnits = 20.0)
+    val pacer = CapacityPacer(limiter, pageSize = 100)
+
+    val start = System.nanoTime()
+    repeat(6) { pacer.fetchBlocking { pageSize -> page(pageSize, unitsPerItem = 1.0) } }
+    val elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+    // 200 units, less the 20 in the bucket at the start, at 200 units a second.
+    assertThat(pageSizes).containsExactly(100, 20, 20, 20, 20, 20)
+    assertThat(elapsedMs).isGreaterThanOrEqualTo(800L)
+  }
+
+  @Test
+  internal fun failedRequestsGiveTheirReservationBack() {
+    val limiter = ReadCapacityLimiter(unitsPerSecond = 1000.0, burstUnits = 10.0)
+    val pacer = CapacityPacer(limiter, pageSize = 10)
+    pacer.fetchBlocking { pageSize -> page(pageSize, unitsPerItem = 0.5) }
+    val available = limiter.availableUnits
+
+    assertThatThrownBy {
+      pacer.fetchBlocking<String, String> { throw IllegalStateException("throttled") }
+    }.hasMessage("throttled")
+    assertThat(limiter.availableUnits).isGreaterThanOrEqualTo(available)
+  }
+
+  @Test
+  internal fun pacedPagesFollowOffsets() = runBlocking<Unit> {
+    val limiter = ReadCapacityLimiter(unitsPerSecond = 1000.0)
+    val pages = pacedPages(limiter, pageSize = 10, initialOffset = Offset("a")) { pageSize, offset ->
+      val next = if (offset!!.key == "a") Offset("b") else null
+      Page(listOf(offset.key), next, ConsumedCapacity.builder().capacityUnits(pageSize * 0.5).build())
+    }.toList()
+
+    assertThat(pages.map { it.contents.single() }).containsExactly("a", "b")
+  }
+
+  private fun page(pageSize: Int, unitsPerItem: Double): Page<String, String> {
+    pageSizes += pageSize
+    return Page(
+      List(pageSize) { "item" },
+      Offset("next"),
+      ConsumedCapacity.builder().capacityUnits(pageSize * unitsPerItem).build()
+    )
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest2.Checkpoint
+import app.cash.tempest2.CheckpointStore
+import app.cash.tempest2.Offset
+import app.cash.tempest2.Page
+import app.cash.tempest2.StreamCheckpoint
+import app.cash.tempest2.WorkerId
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+
+class CheckpointerTest {
+
+  private val executor = Executors.newCachedThreadPool()
+  private val store = InMemoryCheckpointStore()
+  private val checkpointer = Checkpointer<Int>(
+    store,
+    "backfill",
+    { offset -> mapOf("sort_key" to AttributeValue.builder().n("${offset.key}").build()) },
+    { attributes -> Offset(attributes.getValue("sort_key").n().toInt()) }
+  )
+
+  @AfterEach
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  @Test
+  internal fun pagesResumeAfterTheLastConsumedPage() {
+    val firstRun = checkpointer.pages(::fivePages).iterator()
+    assertThat(firstRun.next().contents).containsExactly(0)
+    assertThat(firstRun.next().contents).containsExactly(1)
+    // The process dies while the second page is being processed.
+
+    val secondRun = checkpointer.pages(::fivePages).map { it.contents.single() }.toList()
+
+    assertThat(secondRun).containsExactly(1, 2, 3, 4)
+    assertThat(checkpointer.checkpoints()).containsExactly(
+      Checkpoint(
+        segment = 0,
+        totalSegments = 1,
+        lastEvaluatedKey = null,
+        pageCount = 5,
+        itemCount = 5,
+        consumedCapacityUnits = 2.5
+      )
+    )
+  }
+
+  @Test
+  internal fun donePagesReturnNothing() {
+    checkpointer.pages(::fivePages).toList()
+
+    var fetched = 0
+    val pages = checkpointer.pages { offset: Offset<Int>? -> fetched++; fivePages(offset) }.toList()
+
+    assertThat(pages).isEmpty()
+    assertThat(fetched).isEqualTo(0)
+  }
+
+  @Test
+  internal fun parallelScanResumesUnfinishedSegments() {
+    val scanner = ParallelScanner(executor, totalSegments = 3, concurrency = 3)
+    assertThatThrownBy {
+      checkpointer.parallelScan(scanner, 3, ::fivePagesOfSegment) { segmentPage ->
+        // Segment 1 fails on its third page; the others finish.
+        check(segmentPage.page.contents.single() != 12)
+      }
+    }.isInstanceOf(IllegalStateException::class.java)
+    val checkpoints = checkpointer.checkpoints()
+    assertThat(checkpoints.single { it.segment == 1 }.pageCount).isEqualTo(2)
+
+    val resumed = mutableListOf<Int>()
+    checkpointer.parallelScan(scanner, 3, ::fivePagesOfSegment) { resumed.add(it.page.contents.single()) }
+
+    // Every segment picks up after its latest checkpoint, if it has one.
+    assertThat(resumed).containsExactlyInAnyOrderElementsOf(
+      (0 until 3).flatMap { segment ->
+        val checkpoint = checkpoints.singleOrNull { it.segment == segment }
+        val pageCount = if (checkpoint?.isDone == true) 5 else checkpoint?.pageCount?.toInt() ?: 0
+        (pageCount until 5).map { segment * 10 + it }
+      }
+    )
+    assertThat(checkpointer.checkpoints().map { it.segment to it.isDone }).containsExactly(
+      0 to true,
+      1 to true,
+      2 to true
+    )
+    assertThat(checkpointer.checkpoints().map { it.pageCount }).containsOnly(5L)
+  }
+
+  @Test
+  internal fun resumingTakesTheSameSegmentCount() {
+    val scanner = ParallelScanner(executor, totalSegments = 2, concurrency = 2)
+    checkpointer.parallelScan(scanner, 2, ::fivePagesOfSegment) {}
+
+    assertThatThrownBy {
+      checkpointer.pages(::fivePages).toList()
+    }.hasMessage("Checkpoints of backfill are for 2 segments, not 1")
+  }
+
+  private fun fivePages(offset: Offset<Int>?) = fivePagesOfSegment(WorkerId(0, 1), offset)
+
+  private fun fivePagesOfSegment(workerId: WorkerId, offset: Offset<Int>?): Page<Int, Int> {
+    val index = offset?.key ?: 0
+    return Page(
+      listOf(workerId.segment * 10 + index),
+      if (index < 4) Offset(index + 1) else null,
+      ConsumedCapacity.builder().capacityUnits(0.5).build()
+    )
+  }
+
+  private class InMemoryCheckpointStore : CheckpointStore {
+    private val checkpoints = ConcurrentHashMap<String, MutableMap<Int, Checkpoint>>()
+    private val streamCheckpoints = ConcurrentHashMap<String, StreamCheckpoint>()
+
+    override fun load(name: String) = checkpoints[name]?.values?.toList() ?: emptyList()
+
+    override fun save(name: String, checkpoint: Checkpoint) {
+      checkpoints.getOrPut(name) { ConcurrentHashMap() }[checkpoint.segment] = checkpoint
+    }
+
+    override fun loadStreamCheckpoint(name: String) = streamCheckpoints[name]
+
+    override fun saveStreamCheckpoint(name: String, checkpoint: StreamCheckpoint) {
+      streamCheckpoints[name] = checkpoint
+    }
+
+    override fun clear(name: String) {
+      checkpoints.remove(name)
+      streamCheckpoints.remove(name)
+    }
+  }
+}
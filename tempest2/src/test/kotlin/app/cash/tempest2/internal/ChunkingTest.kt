@@ -0,0 +1,33 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class ChunkingTest {
+
+  @Test
+  internal fun chunksByCountAndBytes() {
+    val sizes = listOf(3L, 3L, 1L, 1L, 1L, 10L, 2L)
+
+    assertThat(sizes.chunked(maxCount = 2, maxBytes = 6) { it })
+      .containsExactly(listOf(3L, 3L), listOf(1L, 1L), listOf(1L), listOf(10L), listOf(2L))
+    assertThat(sizes.chunked(maxCount = 25, maxBytes = 6) { it })
+      .containsExactly(listOf(3L, 3L), listOf(1L, 1L, 1L), listOf(10L), listOf(2L))
+  }
+}
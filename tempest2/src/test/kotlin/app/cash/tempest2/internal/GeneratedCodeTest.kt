@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest.internal.Schema
+import app.cash.tempest2.musiclibrary.AlbumInfo
+import app.cash.tempest2.musiclibrary.AlbumTrack
+import app.cash.tempest2.musiclibrary.MusicItem
+import app.cash.tempest2.musiclibrary.PlaylistInfo
+import app.cash.tempest2.musiclibrary.versionedattribute.VersionedAttributeItem
+import app.cash.tempest2.urlshortener.Alias
+import app.cash.tempest2.urlshortener.AliasItem
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import software.amazon.awssdk.enhanced.dynamodb.TableMetadata
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema
+import java.time.Duration
+import java.time.LocalDate
+import kotlin.reflect.KClass
+
+class GeneratedCodeTest {
+
+  private val reflectionSchema = schema(generatedCodecs = false)
+  private val generatedSchema = schema(generatedCodecs = true)
+  private val beanTableSchema = TableSchema.fromBean(MusicItem::class.java)
+
+  @Test
+  internal fun tableSchemaMatchesBeanTableSchema() {
+    val tableSchema = requireNotNull(GeneratedCode.tableSchema<MusicItem>(MusicItem::class.java))
+    assertThat(tableSchema.attributeNames()).containsExactlyInAnyOrderElementsOf(beanTableSchema.attributeNames())
+    assertThat(tableSchema.tableMetadata().describe()).isEqualTo(beanTableSchema.tableMetadata().describe())
+
+    val musicItem = MusicItem().apply {
+      partition_key = "PLAYLIST_1"
+      sort_key = "INFO_"
+      release_date = LocalDate.of(2020, 2, 21)
+      run_length = Duration.parse("PT3M28S")
+      playlist_size = 2
+      playlist_tracks = listOf(AlbumTrack.Key("ALBUM_1", 1L), AlbumTrack.Key("ALBUM_3", 2L))
+      playlist_version = 3
+    }
+    val attributeValues = tableSchema.itemToMap(musicItem, false)
+    assertThat(attributeValues).isEqualTo(beanTableSchema.itemToMap(musicItem, false))
+    assertThat(beanTableSchema.itemToMap(tableSchema.mapToItem(attributeValues), false)).isEqualTo(attributeValues)
+  }
+
+  @Test
+  internal fun tableSchemaIsNotGeneratedForUnsupportedAnnotations() {
+    assertThat(GeneratedCode.tableSchema<Any>(VersionedAttributeItem::class.java)).isNull()
+  }
+
+  @Test
+  internal fun itemCodecsMatchReflection() {
+    assertSameCodec(
+      AlbumInfo::class,
+      AlbumInfo("ALBUM_1", "after hours - EP", "53 Thieves", LocalDate.of(2020, 2, 21), "Contemporary R&B"),
+      AlbumInfo("ALBUM_2", "Rush", "53 Thieves", LocalDate.of(2021, 4, 2), "Pop", label_name = "Cash")
+    )
+    assertSameCodec(
+      AlbumTrack::class,
+      AlbumTrack("ALBUM_1", 1L, "dreamin", Duration.parse("PT3M28S"), "Live")
+    )
+    assertSameCodec(
+      PlaylistInfo::class,
+      PlaylistInfo("PLAYLIST_1", "WFH Music", listOf(AlbumTrack.Key("ALBUM_1", 1L)), playlist_version = 3)
+    )
+  }
+
+  @Test
+  internal fun keyCodecsMatchReflection() {
+    assertSameCodec(AlbumInfo.Key::class, AlbumInfo.Key("ALBUM_1"))
+    assertSameCodec(AlbumTrack.Key::class, AlbumTrack.Key("ALBUM_1", 1L), AlbumTrack.Key("ALBUM_1"))
+    assertSameCodec(
+      AlbumInfo.GenreIndexOffset::class,
+      AlbumInfo.GenreIndexOffset("Pop"),
+      AlbumInfo.GenreIndexOffset("Pop", "ALBUM_1", "")
+    )
+    assertSameCodec(AlbumTrack.TitleIndexOffset::class, AlbumTrack.TitleIndexOffset("ALBUM_1", "dreamin", "1"))
+  }
+
+  @Test
+  internal fun codecsAreGenerated() {
+    assertThat(GeneratedCode.codec(AlbumTrack::class, MusicItem::class)).isNotNull()
+    assertThat(GeneratedCode.codec(AlbumTrack.Key::class, MusicItem::class)).isNotNull()
+    // Types bound to another raw item type keep using reflection.
+    assertThat(GeneratedCode.codec(AlbumTrack::class, VersionedAttributeItem::class)).isNull()
+  }
+
+  @Test
+  internal fun typesWithoutGeneratedCodeUseReflection() {
+    // samples/urlshortener2 doesn't apply tempest2-ksp, so it keeps the reflective path covered.
+    assertThat(GeneratedCode.codec(Alias::class, AliasItem::class)).isNull()
+    assertThat(GeneratedCode.tableSchema<AliasItem>(AliasItem::class.java)).isNull()
+
+    val schema = Schema.create(
+      V2StringAttributeValue,
+      V2MapAttributeValue.Factory,
+      V2ForIndexAnnotation,
+      V2AttributeAnnotation,
+      V2RawItemTypeFactory(),
+      generatedCodecs = GeneratedCode
+    ).apply {
+      addRawItem("alias_items", AliasItem::class)
+      addItem(Alias::class, AliasItem::class)
+      addKey(Alias.Key::class, Alias::class)
+    }
+    val codec = schema.codec<Alias, AliasItem>(Alias::class)
+    val alias = Alias("SquareCLA", "https://example.com/cla")
+    val aliasItem = codec.toDb(alias)
+    assertThat(aliasItem.short_url).isEqualTo("SquareCLA")
+    assertThat(aliasItem.destination_url).isEqualTo("https://example.com/cla")
+    assertThat(codec.toApp(aliasItem)).isEqualTo(alias)
+  }
+
+  private fun <T : Any> assertSameCodec(type: KClass<T>, vararg values: T) {
+    val reflectionCodec = reflectionSchema.codec<T, MusicItem>(type)
+    val generatedCodec = generatedSchema.codec<T, MusicItem>(type)
+    for (value in values) {
+      val dbItem = generatedCodec.toDb(value)
+      assertThat(beanTableSchema.itemToMap(dbItem, true))
+        .isEqualTo(beanTableSchema.itemToMap(reflectionCodec.toDb(value), true))
+      assertThat(generatedCodec.toApp(dbItem)).isEqualTo(reflectionCodec.toApp(dbItem))
+    }
+  }
+
+  private fun TableMetadata.describe() = listOf(
+    primaryPartitionKey(),
+    primarySortKey(),
+    indices().map { listOf(it.name(), it.partitionKey(), it.sortKey()) }.sortedBy { it.first().toString() },
+    keyAttributes().map { it.name() to it.attributeValueType() }.sortedBy { it.first }
+  ).toString()
+
+  private fun schema(generatedCodecs: Boolean) = Schema.create(
+    V2StringAttributeValue,
+    V2MapAttributeValue.Factory,
+    V2ForIndexAnnotation,
+    V2AttributeAnnotation,
+    V2RawItemTypeFactory(),
+    generatedCodecs = if (generatedCodecs) GeneratedCode else null
+  ).apply {
+    addRawItem(MusicItem.TABLE_NAME, MusicItem::class)
+    addItem(AlbumInfo::class, MusicItem::class)
+    addItem(AlbumTrack::class, MusicItem::class)
+    addItem(PlaylistInfo::class, MusicItem::class)
+    addKey(AlbumInfo.Key::class, AlbumInfo::class)
+    addKey(AlbumInfo.GenreIndexOffset::class, AlbumInfo::class)
+    addKey(AlbumTrack.Key::class, AlbumTrack::class)
+    addKey(AlbumTrack.TitleIndexOffset::class, AlbumTrack::class)
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest.internal.CodecEngine
+import app.cash.tempest.internal.Schema
+import app.cash.tempest2.musiclibrary.AlbumInfo
+import app.cash.tempest2.musiclibrary.AlbumTrack
+import app.cash.tempest2.musiclibrary.MusicItem
+import app.cash.tempest2.musiclibrary.PlaylistInfo
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.time.LocalDate
+
+class MethodHandleCodecTest {
+
+  private val reflectionSchema = schema(CodecEngine.REFLECTION)
+  private val methodHandleSchema = schema(CodecEngine.METHOD_HANDLE)
+
+  @Test
+  internal fun itemCodecToDb() {
+    val albumInfo = AlbumInfo(
+      "ALBUM_1",
+      "after hours - EP",
+      "53 Thieves",
+      LocalDate.of(2020, 2, 21),
+      "Contemporary R&B"
+    )
+
+    val musicItem = methodHandleSchema.codec<AlbumInfo, MusicItem>(AlbumInfo::class).toDb(albumInfo)
+    assertThat(musicItem.partition_key).isEqualTo("ALBUM_1")
+    assertThat(musicItem.sort_key).isEqualTo("INFO_")
+    assertThat(musicItem.album_title).isEqualTo("after hours - EP")
+    assertThat(musicItem.artist_name).isEqualTo("53 Thieves")
+    assertThat(musicItem.release_date).isEqualTo(LocalDate.of(2020, 2, 21))
+    assertThat(musicItem.genre_name).isEqualTo("Contemporary R&B")
+    assertThat(musicItem.label_name).isNull()
+    assertThat(musicItem.run_length).isNull()
+    assertThat(musicItem.track_title).isNull()
+    assertThat(musicItem).usingRecursiveComparison()
+      .isEqualTo(reflectionSchema.codec<AlbumInfo, MusicItem>(AlbumInfo::class).toDb(albumInfo))
+  }
+
+  @Test
+  internal fun itemCodecToApp() {
+    val musicItem = MusicItem().apply {
+      partition_key = "ALBUM_1"
+      sort_key = "TRACK_0000000000000001"
+      track_title = "dreamin"
+      run_length = Duration.parse("PT3M28S")
+      track_description = "Live"
+    }
+
+    val albumTrack = methodHandleSchema.codec<AlbumTrack, MusicItem>(AlbumTrack::class).toApp(musicItem)
+    assertThat(albumTrack).isEqualTo(
+      AlbumTrack("ALBUM_1", 1L, "dreamin", Duration.parse("PT3M28S"), "Live")
+    )
+    assertThat(albumTrack)
+      .isEqualTo(reflectionSchema.codec<AlbumTrack, MusicItem>(AlbumTrack::class).toApp(musicItem))
+  }
+
+  @Test
+  internal fun itemCodecRoundTrip() {
+    val playlistInfo = PlaylistInfo(
+      "PLAYLIST_1",
+      "WFH Music",
+      listOf(AlbumTrack.Key("ALBUM_1", 1L), AlbumTrack.Key("ALBUM_3", 2L)),
+      playlist_version = 3
+    )
+    val codec = methodHandleSchema.codec<PlaylistInfo, MusicItem>(PlaylistInfo::class)
+
+    assertThat(codec.toApp(codec.toDb(playlistInfo))).isEqualTo(playlistInfo)
+  }
+
+  @Test
+  internal fun keyCodec() {
+    val albumTrackKey = AlbumTrack.Key(album_token = "ALBUM_1", track_number = 1L)
+    val codec = methodHandleSchema.codec<AlbumTrack.Key, MusicItem>(AlbumTrack.Key::class)
+
+    val musicItem = codec.toDb(albumTrackKey)
+    assertThat(musicItem.partition_key).isEqualTo("ALBUM_1")
+    assertThat(musicItem.sort_key).isEqualTo("TRACK_0000000000000001")
+    assertThat(musicItem.track_title).isNull()
+    assertThat(codec.toApp(musicItem)).isEqualTo(albumTrackKey)
+  }
+
+  private fun schema(codecEngine: CodecEngine): Schema {
+    val schema = Schema.create(
+      V2StringAttributeValue,
+      V2MapAttributeValue.Factory,
+      V2ForIndexAnnotation,
+      V2AttributeAnnotation,
+      V2RawItemTypeFactory(),
+      codecEngine
+    )
+    schema.addRawItem(MusicItem.TABLE_NAME, MusicItem::class)
+    schema.addItem(AlbumInfo::class, MusicItem::class)
+    schema.addItem(AlbumTrack::class, MusicItem::class)
+    schema.addItem(PlaylistInfo::class, MusicItem::class)
+    schema.addKey(AlbumTrack.Key::class, AlbumTrack::class)
+    return schema
+  }
+}
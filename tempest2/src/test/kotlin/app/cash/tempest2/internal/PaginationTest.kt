@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest2.Offset
+import app.cash.tempest2.Page
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class PaginationTest {
+
+  private val executor = Executors.newCachedThreadPool()
+  private val fetched = AtomicInteger()
+
+  @AfterEach
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  @Test
+  internal fun withoutPrefetchPagesAreFetchedAsNeeded() {
+    val pages = paginate(null, prefetchDepth = 0, executor, ::tenPages).iterator()
+
+    assertThat(pages.next().contents).containsExactly(0)
+    assertThat(pages.next().contents).containsExactly(1)
+    Thread.sleep(20)
+    assertThat(fetched.get()).isEqualTo(2)
+  }
+
+  @Test
+  internal fun prefetchKeepsPageOrder() {
+    val pages = paginate(Offset(3), prefetchDepth = 2, executor, ::tenPages).toList()
+
+    assertThat(pages.map { it.contents.single() }).containsExactly(3, 4, 5, 6, 7, 8, 9)
+    assertThat(pages.last().hasMorePages).isFalse()
+  }
+
+  @Test
+  internal fun nextPageIsFetchedWhileThisOneIsProcessed() {
+    val secondPageFetched = CountDownLatch(1)
+    val pages = paginate(null, prefetchDepth = 1, executor) { offset: Offset<Int>? ->
+      tenPages(offset).also { if (offset?.key == 1) secondPageFetched.countDown() }
+    }
+
+    val processed = pages.take(2).map { page ->
+      // Processing the first page waits for the second page to arrive.
+      if (page.contents.single() == 0) assertThat(secondPageFetched.await(5, TimeUnit.SECONDS)).isTrue()
+      page.contents.single()
+    }.toList()
+
+    assertThat(processed).containsExactly(0, 1)
+  }
+
+  @Test
+  internal fun prefetchIsBoundedByDepth() {
+    val pages = paginate(null, prefetchDepth = 3, executor, ::tenPages).iterator()
+    pages.next()
+
+    Thread.sleep(50)
+    // The page that was consumed, and three past the next one.
+    assertThat(fetched.get()).isEqualTo(5)
+  }
+
+  @Test
+  internal fun fetchFailureIsThrownWhenItsPageIsReached() {
+    val failure = IllegalStateException("throttled")
+    val pages = paginate(null, prefetchDepth = 2, executor) { offset: Offset<Int>? ->
+      if (offset?.key == 2) throw failure
+      tenPages(offset)
+    }.iterator()
+
+    assertThat(pages.next().contents).containsExactly(0)
+    assertThat(pages.next().contents).containsExactly(1)
+    assertThatThrownBy { pages.next() }.isSameAs(failure)
+  }
+
+  private fun tenPages(offset: Offset<Int>?): Page<Int, Int> {
+    fetched.incrementAndGet()
+    val index = offset?.key ?: 0
+    return Page(listOf(index), if (index < 9) Offset(index + 1) else null, null)
+  }
+}
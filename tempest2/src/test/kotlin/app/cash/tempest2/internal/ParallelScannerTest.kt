@@ -0,0 +1,184 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest2.Offset
+import app.cash.tempest2.Page
+import app.cash.tempest2.SegmentPage
+import app.cash.tempest2.WorkerId
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ParallelScannerTest {
+
+  private val executor = Executors.newCachedThreadPool()
+
+  @AfterEach
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  @Test
+  internal fun scansEverySegmentToTheEnd() {
+    val pages = mutableListOf<SegmentPage<Int, String>>()
+
+    ParallelScanner(executor, totalSegments = 5, concurrency = 2).scan(::threePages) { pages.add(it) }
+
+    assertThat(pages).hasSize(15)
+    for ((workerId, segmentPages) in pages.groupBy { it.workerId }) {
+      assertThat(workerId.totalSegments).isEqualTo(5)
+      assertThat(segmentPages.map { it.page.contents.single() }).containsExactly(
+        "${workerId.segment}-0",
+        "${workerId.segment}-1",
+        "${workerId.segment}-2"
+      )
+      assertThat(segmentPages.last().page.hasMorePages).isFalse()
+    }
+    assertThat(pages.map { it.workerId.segment }.toSet()).containsExactlyInAnyOrder(0, 1, 2, 3, 4)
+  }
+
+  @Test
+  internal fun scansSegmentsConcurrently() {
+    val allStarted = CountDownLatch(4)
+    val pages = mutableListOf<SegmentPage<Int, String>>()
+
+    ParallelScanner(executor, totalSegments = 4, concurrency = 4).scan(
+      scanPage = { _, _: Offset<Int>? ->
+        allStarted.countDown()
+        Page(listOf("${allStarted.await(5, TimeUnit.SECONDS)}"), null, null)
+      },
+      consumer = { pages.add(it) }
+    )
+
+    assertThat(pages.map { it.page.contents.single() }).containsOnly("true").hasSize(4)
+  }
+
+  @Test
+  internal fun capsSegmentsInFlight() {
+    val inFlight = AtomicInteger()
+    val maxInFlight = AtomicInteger()
+
+    ParallelScanner(executor, totalSegments = 12, concurrency = 3).scan(
+      scanPage = { workerId, offset: Offset<Int>? ->
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), ::maxOf)
+        Thread.sleep(2)
+        inFlight.decrementAndGet()
+        threePages(workerId, offset)
+      },
+      consumer = {}
+    )
+
+    assertThat(maxInFlight.get()).isEqualTo(3)
+  }
+
+  @Test
+  internal fun consumerRunsOnCallingThread() {
+    val caller = Thread.currentThread()
+    val consumerThreads = mutableSetOf<Thread>()
+
+    ParallelScanner(executor, totalSegments = 3, concurrency = 3).scan(::threePages) {
+      consumerThreads.add(Thread.currentThread())
+    }
+
+    assertThat(consumerThreads).containsExactly(caller)
+  }
+
+  @Test
+  internal fun bufferBoundsPagesAheadOfConsumer() {
+    val scanned = AtomicInteger()
+    val maxAhead = AtomicInteger()
+    var consumed = 0
+
+    ParallelScanner(executor, totalSegments = 4, concurrency = 4, bufferCapacity = 2).scan(
+      scanPage = { workerId, offset: Offset<Int>? ->
+        scanned.incrementAndGet()
+        threePages(workerId, offset)
+      },
+      consumer = {
+        Thread.sleep(2)
+        consumed++
+        maxAhead.accumulateAndGet(scanned.get() - consumed, ::maxOf)
+      }
+    )
+
+    assertThat(consumed).isEqualTo(12)
+    // The buffered pages, plus one page being offered by each worker.
+    assertThat(maxAhead.get()).isLessThanOrEqualTo(2 + 4)
+  }
+
+  @Test
+  internal fun scansGivenSegmentsFromInitialOffsets() {
+    val pages = mutableListOf<SegmentPage<Int, String>>()
+
+    ParallelScanner(executor, totalSegments = 4, concurrency = 2).scan(
+      scanPage = ::threePages,
+      segments = listOf(1, 3),
+      initialOffset = { segment -> if (segment == 3) Offset(2) else null }
+    ) { pages.add(it) }
+
+    assertThat(pages.map { it.page.contents.single() }).containsExactlyInAnyOrder("1-0", "1-1", "1-2", "3-2")
+  }
+
+  @Test
+  internal fun scanFailureIsRethrown() {
+    val failure = IllegalStateException("throttled")
+
+    assertThatThrownBy {
+      ParallelScanner(executor, totalSegments = 4, concurrency = 2).scan(
+        scanPage = { workerId, offset: Offset<Int>? ->
+          if (workerId.segment == 2) throw failure
+          threePages(workerId, offset)
+        },
+        consumer = {}
+      )
+    }.isSameAs(failure)
+  }
+
+  @Test
+  internal fun consumerFailureStopsScan() {
+    val scanned = AtomicInteger()
+
+    assertThatThrownBy {
+      ParallelScanner(executor, totalSegments = 100, concurrency = 2).scan(
+        scanPage = { workerId, offset: Offset<Int>? ->
+          scanned.incrementAndGet()
+          threePages(workerId, offset)
+        },
+        consumer = { throw IllegalStateException("boom") }
+      )
+    }.hasMessage("boom")
+
+    executor.shutdown()
+    assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue()
+    assertThat(scanned.get()).isLessThan(300)
+  }
+
+  private fun threePages(workerId: WorkerId, offset: Offset<Int>?): Page<Int, String> {
+    val index = offset?.key ?: 0
+    return Page(
+      listOf("${workerId.segment}-$index"),
+      if (index < 2) Offset(index + 1) else null,
+      null
+    )
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.entry
+import org.junit.jupiter.api.Test
+
+class ProjectionTest {
+
+  @Test
+  internal fun namesEveryAttributeOnce() {
+    val projection = Projection(listOf("track_title", "partition_key", "sort_key", "track_title"))
+
+    assertThat(projection.expression).isEqualTo("#P0, #P1, #P2")
+    assertThat(projection.expressionAttributeNames).containsExactly(
+      entry("#P0", "partition_key"),
+      entry("#P1", "sort_key"),
+      entry("#P2", "track_title"),
+    )
+  }
+
+  @Test
+  internal fun placeholdersAllowReservedWords() {
+    val projection = Projection(setOf("name", "size"))
+
+    assertThat(projection.expression).doesNotContain("name", "size")
+    assertThat(projection.expressionAttributeNames.values).containsExactly("name", "size")
+  }
+}
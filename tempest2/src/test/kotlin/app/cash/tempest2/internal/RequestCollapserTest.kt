@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
+
+class RequestCollapserTest {
+
+  private val batches = CopyOnWriteArrayList<List<String>>()
+
+  private fun collapser(
+    window: Duration = Duration.ofMillis(20),
+    maxBatchSize: Int = 100,
+    loadAll: (List<String>) -> CompletableFuture<Map<String, String>> = { keys ->
+      CompletableFuture.completedFuture(keys.filter { it != "missing" }.associateWith { it.uppercase() })
+    },
+  ) = RequestCollapser<String, String>(window, maxBatchSize, ForkJoinPool.commonPool()) { keys ->
+    batches.add(keys)
+    loadAll(keys)
+  }
+
+  @Test
+  internal fun loadsKeysOfAWindowTogether() {
+    val collapser = collapser()
+
+    val a = collapser.load("a")
+    val b = collapser.load("b")
+    val missing = collapser.load("missing")
+
+    assertThat(a.get(5, TimeUnit.SECONDS)).isEqualTo("A")
+    assertThat(b.get(5, TimeUnit.SECONDS)).isEqualTo("B")
+    assertThat(missing.get(5, TimeUnit.SECONDS)).isNull()
+    assertThat(batches).containsExactly(listOf("a", "b", "missing"))
+  }
+
+  @Test
+  internal fun dedupesKeys() {
+    val collapser = collapser()
+
+    val first = collapser.load("a")
+    val second = collapser.load("a")
+
+    assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("A")
+    assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("A")
+    assertThat(batches).containsExactly(listOf("a"))
+  }
+
+  @Test
+  internal fun sendsFullBatchesRightAway() {
+    val collapser = collapser(window = Duration.ofMinutes(1), maxBatchSize = 2)
+
+    val a = collapser.load("a")
+    val b = collapser.load("b")
+
+    assertThat(a.get(5, TimeUnit.SECONDS)).isEqualTo("A")
+    assertThat(b.get(5, TimeUnit.SECONDS)).isEqualTo("B")
+    assertThat(batches).containsExactly(listOf("a", "b"))
+  }
+
+  @Test
+  internal fun startsANewBatchAfterSending() {
+    val collapser = collapser(maxBatchSize = 2)
+
+    val futures = listOf("a", "b", "c").map { collapser.load(it) }
+
+    assertThat(futures.map { it.get(5, TimeUnit.SECONDS) }).containsExactly("A", "B", "C")
+    assertThat(batches).containsExactly(listOf("a", "b"), listOf("c"))
+  }
+
+  @Test
+  internal fun failsEveryCallerOfAFailedBatch() {
+    val collapser = collapser(loadAll = { throw IllegalStateException("throttled") })
+
+    val a = collapser.load("a")
+    val b = collapser.load("b")
+
+    for (future in listOf(a, b)) {
+      assertThatThrownBy { future.get(5, TimeUnit.SECONDS) }
+        .isInstanceOf(ExecutionException::class.java)
+        .hasCauseInstanceOf(IllegalStateException::class.java)
+    }
+  }
+
+  @Test
+  internal fun cancellingOneCallerDoesNotAffectOthers() {
+    val collapser = collapser()
+
+    val first = collapser.load("a")
+    val second = collapser.load("a")
+    first.cancel(false)
+
+    assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("A")
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest2.ItemEncoding
+import app.cash.tempest2.musiclibrary.MusicItem
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient
+import software.amazon.awssdk.enhanced.dynamodb.TableMetadata
+import software.amazon.awssdk.enhanced.dynamodb.internal.EnhancedClientUtils
+import software.amazon.awssdk.regions.Region
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+
+class ResolvedTableTest {
+
+  private val enhancedClient = DynamoDbEnhancedClient.builder()
+    .dynamoDbClient(DynamoDbClient.builder().region(Region.US_WEST_2).build())
+    .build()
+  private val rawItemType = V2RawItemTypeFactory().create(MusicItem.TABLE_NAME, MusicItem::class)
+
+  @Test
+  internal fun keyOfRawItem() {
+    val table = ResolvedTable(
+      rawItemType,
+      enhancedClient.table(MusicItem.TABLE_NAME, TableSchemaFactory.create<Any>(MusicItem::class.java)),
+      enhancedClient.table(MusicItem.TABLE_NAME, itemTableSchema<Any>(rawItemType, ItemEncoding.ATTRIBUTE_MAP))
+    )
+    val musicItem = MusicItem().apply {
+      partition_key = "ALBUM_1"
+      sort_key = "TRACK_0000000000000001"
+      track_title = "dreamin"
+    }
+
+    assertThat(table.keyOf(musicItem)).isEqualTo(
+      EnhancedClientUtils.createKeyFromItem(musicItem, table.tableSchema, TableMetadata.primaryIndexName())
+    )
+    assertThat(table.keyOf(table.tableSchema.itemToMap(musicItem, true))).isEqualTo(table.keyOf(musicItem))
+    assertThat(table.versionAttributeName).isNull()
+  }
+
+  @Test
+  internal fun keyOfAttributeMap() {
+    val attributeMapTable =
+      enhancedClient.table(MusicItem.TABLE_NAME, itemTableSchema<Any>(rawItemType, ItemEncoding.ATTRIBUTE_MAP))
+    val table = ResolvedTable(rawItemType, attributeMapTable, attributeMapTable)
+    val attributeValues = mapOf(
+      "partition_key" to AttributeValue.fromS("ALBUM_1"),
+      "sort_key" to AttributeValue.fromS("INFO_"),
+      "album_title" to AttributeValue.fromS("after hours - EP"),
+    )
+
+    val key = table.keyOf(attributeValues)
+    assertThat(key.partitionKeyValue()).isEqualTo(AttributeValue.fromS("ALBUM_1"))
+    assertThat(key.sortKeyValue()).hasValue(AttributeValue.fromS("INFO_"))
+  }
+}
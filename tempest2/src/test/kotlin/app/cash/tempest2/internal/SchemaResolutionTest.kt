@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest.internal.Schema
+import app.cash.tempest2.musiclibrary.AlbumInfo
+import app.cash.tempest2.musiclibrary.AlbumTrack
+import app.cash.tempest2.musiclibrary.MusicItem
+import app.cash.tempest2.musiclibrary.PlaylistInfo
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class SchemaResolutionTest {
+
+  private val schema = Schema.create(
+    V2StringAttributeValue,
+    V2MapAttributeValue.Factory,
+    V2ForIndexAnnotation,
+    V2AttributeAnnotation,
+    V2RawItemTypeFactory(),
+  )
+
+  @Test
+  internal fun resolve() {
+    val rawItemType = schema.addRawItem(MusicItem.TABLE_NAME, MusicItem::class)
+    val itemType = schema.addItem(AlbumTrack::class, MusicItem::class)
+    val keyType = schema.addKey(AlbumTrack.Key::class, AlbumTrack::class)
+
+    val resolvedKey = schema.resolve(AlbumTrack.Key::class)!!
+    assertThat(resolvedKey.logicalType).isSameAs(keyType)
+    assertThat(resolvedKey.itemType).isSameAs(itemType)
+    assertThat(resolvedKey.rawItemType).isSameAs(rawItemType)
+    assertThat(schema.resolve(AlbumTrack.Key::class)).isSameAs(resolvedKey)
+
+    val resolvedItem = schema.resolve(AlbumTrack::class)!!
+    assertThat(resolvedItem.itemType).isSameAs(itemType)
+    assertThat(resolvedItem.rawItemType).isSameAs(rawItemType)
+
+    val resolvedRawItem = schema.resolve(MusicItem::class)!!
+    assertThat(resolvedRawItem.itemType).isNull()
+    assertThat(resolvedRawItem.rawItemType).isSameAs(rawItemType)
+
+    assertThat(schema.resolve(AlbumInfo::class)).isNull()
+  }
+
+  @Test
+  internal fun concurrentRegistration() {
+    val threads = 8
+    val executor = Executors.newFixedThreadPool(threads)
+    val start = CountDownLatch(1)
+    try {
+      val results = (1..threads).map {
+        executor.submit(
+          Callable {
+            start.await()
+            schema.addRawItem(MusicItem.TABLE_NAME, MusicItem::class)
+            schema.addItem(AlbumInfo::class, MusicItem::class)
+            schema.addItem(AlbumTrack::class, MusicItem::class)
+            schema.addItem(PlaylistInfo::class, MusicItem::class)
+            schema.addKey(AlbumInfo.Key::class, AlbumInfo::class)
+            schema.addKey(AlbumTrack.Key::class, AlbumTrack::class)
+            schema.addKey(PlaylistInfo.Key::class, PlaylistInfo::class)
+            listOf(
+              schema.resolve(AlbumInfo.Key::class)!!.itemType,
+              schema.resolve(AlbumTrack.Key::class)!!.itemType,
+              schema.resolve(PlaylistInfo.Key::class)!!.itemType,
+            )
+          }
+        )
+      }
+      start.countDown()
+      val itemTypes = results.map { it.get(10, TimeUnit.SECONDS) }
+      // Every thread sees the same registered instances.
+      for (resolved in itemTypes) {
+        assertThat(resolved).containsExactlyElementsOf(itemTypes.first())
+      }
+      assertThat(itemTypes.first()).containsExactly(
+        schema.getItem(AlbumInfo::class),
+        schema.getItem(AlbumTrack::class),
+        schema.getItem(PlaylistInfo::class),
+      )
+    } finally {
+      executor.shutdownNow()
+    }
+  }
+}
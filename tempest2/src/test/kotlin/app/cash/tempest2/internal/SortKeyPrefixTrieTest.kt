@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class SortKeyPrefixTrieTest {
+
+  @Test
+  internal fun longestPrefixWins() {
+    val trie = SortKeyPrefixTrie<String>().apply {
+      put("INFO_", "info")
+      put("TRACK_", "track")
+      put("TRACK_TAG_", "tag")
+    }
+
+    assertThat(trie.longestPrefixOf("INFO_")).isEqualTo("info")
+    assertThat(trie.longestPrefixOf("TRACK_0000000000000001")).isEqualTo("track")
+    assertThat(trie.longestPrefixOf("TRACK_TAG_live")).isEqualTo("tag")
+    assertThat(trie.longestPrefixOf("TRACK_TA")).isEqualTo("track")
+  }
+
+  @Test
+  internal fun unmatchedSortKeys() {
+    val trie = SortKeyPrefixTrie<String>().apply {
+      put("TRACK_", "track")
+    }
+
+    assertThat(trie.longestPrefixOf("TRACK")).isNull()
+    assertThat(trie.longestPrefixOf("INFO_")).isNull()
+    assertThat(trie.longestPrefixOf("")).isNull()
+  }
+
+  @Test
+  internal fun putReturnsThePreviousValue() {
+    val trie = SortKeyPrefixTrie<String>()
+
+    assertThat(trie.put("INFO_", "album")).isNull()
+    assertThat(trie.put("INFO_", "playlist")).isEqualTo("album")
+    assertThat(trie.longestPrefixOf("INFO_")).isEqualTo("playlist")
+  }
+}
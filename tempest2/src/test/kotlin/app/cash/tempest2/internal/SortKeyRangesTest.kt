@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import software.amazon.awssdk.core.SdkBytes
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+
+class SortKeyRangesTest {
+
+  @Test
+  internal fun integers() {
+    assertThat(SortKeyRanges.interpolate(n("0"), n("100"), 4).map { it.n() })
+      .containsExactly("25", "50", "75")
+    assertThat(SortKeyRanges.interpolate(n("1"), n("3"), 4).map { it.n() })
+      .containsExactly("2")
+  }
+
+  @Test
+  internal fun decimals() {
+    assertThat(SortKeyRanges.interpolate(n("0.5"), n("1.5"), 2).map { it.n() })
+      .containsExactly("1.0")
+  }
+
+  @Test
+  internal fun strings() {
+    val boundaries = SortKeyRanges.interpolate(s("TRACK_0000"), s("TRACK_9999"), 3).map { it.s() }
+
+    assertThat(boundaries).hasSize(2)
+    assertThat(boundaries).allMatch { it.startsWith("TRACK_") }
+    assertThat(boundaries[0].substring(6, 7)).isEqualTo("3")
+    assertThat(boundaries[1].substring(6, 7)).isEqualTo("6")
+    assertThat(boundaries).isSortedAccordingTo(naturalOrder())
+  }
+
+  @Test
+  internal fun stringsPastThePrefix() {
+    // Strings that only differ in length still split between them.
+    val boundaries = SortKeyRanges.interpolate(s("2024-01"), s("2024-01-31"), 4).map { it.s() }
+
+    assertThat(boundaries).isNotEmpty
+    assertThat(boundaries).allMatch { it > "2024-01" && it < "2024-01-31" }
+  }
+
+  @Test
+  internal fun binaries() {
+    val boundaries = SortKeyRanges.interpolate(b(0x00), b(0xff), 2)
+
+    assertThat(boundaries.map { it.b().asByteArray().map { byte -> byte.toInt() and 0xff } })
+      .containsExactly(listOf(0x7f, 0x80))
+  }
+
+  @Test
+  internal fun equalKeysDoNotSplit() {
+    assertThat(SortKeyRanges.interpolate(s("a"), s("a"), 8)).isEmpty()
+  }
+
+  @Test
+  internal fun withinKeepsInnerKeysInOrder() {
+    val sortKeys = listOf(n("7"), n("0"), n("3"), n("3.0"), n("12"), n("10"))
+
+    assertThat(SortKeyRanges.within(n("0"), n("10"), sortKeys).map { it.n() })
+      .containsExactly("3", "7")
+  }
+
+  private fun n(value: String) = AttributeValue.builder().n(value).build()
+
+  private fun s(value: String) = AttributeValue.builder().s(value).build()
+
+  private fun b(vararg value: Int) =
+    AttributeValue.builder().b(SdkBytes.fromByteArray(value.map { it.toByte() }.toByteArray())).build()
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import software.amazon.awssdk.core.SdkBytes
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+
+class SortedMergeTest {
+
+  private val partitions = mapOf(
+    "a" to listOf(1, 4, 7, 10),
+    "b" to listOf(2, 5, 8),
+    "c" to listOf(3, 6, 9, 11, 12),
+  )
+  private val fetches = mutableListOf<Pair<String, Int?>>()
+
+  @Test
+  internal fun mergesInOrder() {
+    val merge = merge(partitions.keys.associateWith { null }, limit = 100)
+
+    assertThat(merge.contents).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12)
+    assertThat(merge.offsets()).isEmpty()
+  }
+
+  @Test
+  internal fun stopsFetchingOnceThePageIsFull() {
+    val merge = merge(partitions.keys.associateWith { null }, limit = 4)
+
+    assertThat(merge.contents).containsExactly(1, 2, 3, 4)
+    assertThat(merge.offsets()).containsExactly(entry("a", 4), entry("b", 2), entry("c", 3))
+    // Each partition was read once, and no further than the page could need.
+    assertThat(fetches).containsExactly("a" to null, "b" to null, "c" to null)
+  }
+
+  @Test
+  internal fun resumesFromOffsets() {
+    val merged = mutableListOf<Int>()
+    var offsets: Map<String, Int?> = partitions.keys.associateWith { null }
+    while (offsets.isNotEmpty()) {
+      val merge = merge(offsets, limit = 5)
+      merged += merge.contents
+      offsets = merge.offsets()
+    }
+
+    assertThat(merged).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12)
+  }
+
+  @Test
+  internal fun exhaustedSourcesAreLeftOut() {
+    val merge = merge(mapOf("a" to 7, "b" to 5, "c" to 11), limit = 2)
+
+    assertThat(merge.contents).containsExactly(8, 10)
+    assertThat(merge.offsets()).containsExactly(entry("c", 11))
+  }
+
+  @Test
+  internal fun descending() {
+    val merge = merge(partitions.keys.associateWith { null }, limit = 5, asc = false)
+
+    assertThat(merge.contents).containsExactly(12, 11, 10, 9, 8)
+  }
+
+  @Test
+  internal fun tiesGoToTheFirstSource() {
+    val merge = SortedMerge<String, Pair<String, Int>, Int>(
+      mapOf("x" to null, "y" to null),
+      limit = 10,
+      comparator = compareBy { it.second },
+    ) { it.second }
+    merge.sourcesToFetch()
+    merge.addPage("y", listOf("y" to 1, "y" to 2), null)
+    merge.addPage("x", listOf("x" to 2), null)
+
+    assertThat(merge.sourcesToFetch()).isEmpty()
+    assertThat(merge.contents).containsExactly("y" to 1, "x" to 2, "y" to 2)
+  }
+
+  @Test
+  internal fun waitsForEmptyPagesThatHaveMore() {
+    val merge = SortedMerge<String, Int, Int>(mapOf("a" to null, "b" to null), 10, naturalOrder()) { it }
+    merge.sourcesToFetch()
+    merge.addPage("a", listOf(5), null)
+    // A filter expression dropped every item of b's first page.
+    merge.addPage("b", listOf(), 3)
+
+    assertThat(merge.sourcesToFetch()).containsExactly(entry("b", 3))
+    assertThat(merge.contents).isEmpty()
+
+    merge.addPage("b", listOf(4), null)
+    assertThat(merge.sourcesToFetch()).isEmpty()
+    assertThat(merge.contents).containsExactly(4, 5)
+  }
+
+  @Test
+  internal fun sortKeyOrder() {
+    fun s(value: String) = AttributeValue.builder().s(value).build()
+    fun n(value: String) = AttributeValue.builder().n(value).build()
+    fun b(vararg value: Int) =
+      AttributeValue.builder().b(SdkBytes.fromByteArray(value.map { it.toByte() }.toByteArray())).build()
+
+    assertThat(SortKeyOrder.compare(s("a"), s("ab"))).isNegative()
+    // UTF-16 puts U+FFFF after U+1F600, UTF-8 puts it before.
+    assertThat(SortKeyOrder.compare(s("￿"), s("😀"))).isNegative()
+    assertThat(SortKeyOrder.compare(n("9"), n("10"))).isNegative()
+    assertThat(SortKeyOrder.compare(n("1.0"), n("1"))).isZero()
+    assertThat(SortKeyOrder.compare(b(0x7f), b(0x80))).isNegative()
+  }
+
+  private fun merge(
+    initialOffsets: Map<String, Int?>,
+    limit: Int,
+    asc: Boolean = true,
+  ): SortedMerge<String, Int, Int> {
+    val order = if (asc) naturalOrder<Int>() else reverseOrder()
+    val merge = SortedMerge<String, Int, Int>(initialOffsets, limit, order) { it }
+    while (true) {
+      val toFetch = merge.sourcesToFetch()
+      if (toFetch.isEmpty()) return merge
+      for ((id, offset) in toFetch) {
+        fetches += id to offset
+        val items = partitions.getValue(id).sortedWith(order)
+        val rest = if (offset == null) items else items.filter { order.compare(it, offset) > 0 }
+        val page = rest.take(minOf(2, merge.remaining))
+        merge.addPage(id, page, if (rest.size > page.size) page.last() else null)
+      }
+    }
+  }
+
+  private fun <K, V> entry(key: K, value: V) = org.assertj.core.api.Assertions.entry(key, value)
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import app.cash.tempest.internal.Schema
+import app.cash.tempest2.ItemEncoding
+import app.cash.tempest2.musiclibrary.AlbumInfo
+import app.cash.tempest2.musiclibrary.AlbumTrack
+import app.cash.tempest2.musiclibrary.MusicItem
+import app.cash.tempest2.musiclibrary.PlaylistInfo
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatIllegalArgumentException
+import org.junit.jupiter.api.Test
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue
+import software.amazon.awssdk.services.dynamodb.model.OperationType
+import software.amazon.awssdk.services.dynamodb.model.Record
+import java.time.Duration
+import java.time.LocalDate
+import kotlin.reflect.KClass
+
+class StreamRecordDecoderTest {
+
+  private val schema = Schema.create(
+    V2StringAttributeValue,
+    V2MapAttributeValue.Factory,
+    V2ForIndexAnnotation,
+    V2AttributeAnnotation,
+    V2RawItemTypeFactory(),
+  )
+  private val rawItemType = schema.addRawItem(MusicItem.TABLE_NAME, MusicItem::class)
+  private val tableSchema = TableSchemaFactory.create<Any>(MusicItem::class.java)
+  private val decoder = StreamRecordDecoder(
+    schema,
+    rawItemType,
+    ItemEncoding.RAW_ITEM,
+    tableSchema,
+    setOf(AlbumInfo::class, AlbumTrack::class)
+  )
+
+  private val albumInfo = AlbumInfo(
+    "ALBUM_1",
+    "after hours - EP",
+    "53 Thieves",
+    LocalDate.of(2020, 2, 21),
+    "Contemporary R&B"
+  )
+  private val albumTrack = AlbumTrack("ALBUM_1", 1L, "dreamin", Duration.parse("PT3M28S"))
+
+  @Test
+  fun decodesImagesByTheirSortKeyPrefix() {
+    val updatedAlbumInfo = albumInfo.copy(album_title = "after hours")
+    val infoChange = decoder.decode(record(OperationType.MODIFY, "1", oldItem = albumInfo, newItem = updatedAlbumInfo))!!
+    assertThat(infoChange.itemType).isEqualTo(AlbumInfo::class)
+    assertThat(infoChange.oldItem).isEqualTo(albumInfo)
+    assertThat(infoChange.newItem).isEqualTo(updatedAlbumInfo)
+    assertThat(infoChange.keys.getValue("sort_key").s()).isEqualTo("INFO_")
+
+    val trackChange = decoder.decode(record(OperationType.INSERT, "2", oldItem = null, newItem = albumTrack))!!
+    assertThat(trackChange.itemType).isEqualTo(AlbumTrack::class)
+    assertThat(trackChange.sequenceNumber).isEqualTo("2")
+    assertThat(trackChange.oldItem).isNull()
+    assertThat(trackChange.newItem).isEqualTo(albumTrack)
+  }
+
+  @Test
+  fun removesOnlyHaveTheOldImage() {
+    val change = decoder.decode(record(OperationType.REMOVE, "1", oldItem = albumTrack, newItem = null))!!
+    assertThat(change.eventName).isEqualTo(OperationType.REMOVE)
+    assertThat(change.oldItem).isEqualTo(albumTrack)
+    assertThat(change.newItem).isNull()
+  }
+
+  @Test
+  fun skipsOtherItemTypes() {
+    // Playlists use the same sort key prefix as albums.
+    val playlistInfo = PlaylistInfo("PLAYLIST_1", "WFH Music", listOf())
+    assertThat(decoder.decode(record(OperationType.INSERT, "1", oldItem = null, newItem = playlistInfo))).isNull()
+
+    val trackDecoder = StreamRecordDecoder(schema, rawItemType, ItemEncoding.RAW_ITEM, tableSchema, setOf(AlbumTrack::class))
+    assertThat(trackDecoder.decode(record(OperationType.INSERT, "2", oldItem = null, newItem = albumInfo))).isNull()
+  }
+
+  @Test
+  fun rejectsItemTypesWithTheSamePrefix() {
+    assertThatIllegalArgumentException().isThrownBy {
+      StreamRecordDecoder(schema, rawItemType, ItemEncoding.RAW_ITEM, tableSchema, setOf(AlbumInfo::class, PlaylistInfo::class))
+    }
+  }
+
+  private fun record(eventName: OperationType, sequenceNumber: String, oldItem: Any?, newItem: Any?): Record {
+    val oldImage = oldItem?.let(::image)
+    val newImage = newItem?.let(::image)
+    val keys = (newImage ?: oldImage)!!.filterKeys { it == "partition_key" || it == "sort_key" }
+    return Record.builder()
+      .eventName(eventName)
+      .dynamodb {
+        it.keys(keys).sequenceNumber(sequenceNumber)
+        if (oldImage != null) it.oldImage(oldImage)
+        if (newImage != null) it.newImage(newImage)
+      }
+      .build()
+  }
+
+  private fun image(item: Any): Map<String, AttributeValue> {
+    schema.addItem(item::class, MusicItem::class)
+    return tableSchema.itemToMap(schema.codec<Any, Any>(item::class as KClass<Any>).toDb(item), true)
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 Square Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.cash.tempest2.internal
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
+
+class WriteCoalescerTest {
+
+  private val batches = CopyOnWriteArrayList<List<String>>()
+
+  private fun coalescer(
+    window: Duration = Duration.ofMillis(20),
+    maxBatchSize: Int = 25,
+    maxBatchBytes: Long = Long.MAX_VALUE,
+    writeAll: (List<String>) -> CompletableFuture<Map<String, Throwable>> = {
+      CompletableFuture.completedFuture(emptyMap())
+    },
+  ) = WriteCoalescer<String, String>(
+    window,
+    maxBatchSize,
+    maxBatchBytes,
+    ForkJoinPool.commonPool(),
+    { write -> write.length.toLong() },
+  ) { writes ->
+    batches.add(writes)
+    writeAll(writes)
+  }
+
+  @Test
+  internal fun writesAWindowTogether() {
+    val coalescer = coalescer()
+
+    val writes = listOf(coalescer.write("a", "a1"), coalescer.write("b", "b1"))
+
+    writes.forEach { it.get(5, TimeUnit.SECONDS) }
+    assertThat(batches).containsExactly(listOf("a1", "b1"))
+  }
+
+  @Test
+  internal fun lastWriteOfAKeyWins() {
+    val coalescer = coalescer()
+
+    val first = coalescer.write("a", "a1")
+    val second = coalescer.write("a", "a2")
+
+    first.get(5, TimeUnit.SECONDS)
+    second.get(5, TimeUnit.SECONDS)
+    assertThat(batches).containsExactly(listOf("a2"))
+  }
+
+  @Test
+  internal fun sendsFullBatchesRightAway() {
+    val coalescer = coalescer(window = Duration.ofMinutes(1), maxBatchSize = 2)
+
+    val writes = listOf("a", "b", "c").map { coalescer.write(it, it) }
+
+    writes.take(2).forEach { it.get(5, TimeUnit.SECONDS) }
+    assertThat(writes[2]).isNotDone()
+    coalescer.flush()
+    writes[2].get(5, TimeUnit.SECONDS)
+    assertThat(batches).containsExactlyInAnyOrder(listOf("a", "b"), listOf("c"))
+  }
+
+  @Test
+  internal fun limitsBatchesByBytes() {
+    val coalescer = coalescer(window = Duration.ofMinutes(1), maxBatchBytes = 6)
+
+    val writes = listOf(coalescer.write("a", "aaa"), coalescer.write("b", "bbbb"), coalescer.write("c", "cc"))
+    coalescer.flush()
+
+    writes.forEach { it.get(5, TimeUnit.SECONDS) }
+    assertThat(batches).containsExactlyInAnyOrder(listOf("aaa"), listOf("bbbb", "cc"))
+  }
+
+  @Test
+  internal fun writesBatchesThatShareKeysInOrder() {
+    val firstBatch = CompletableFuture<Map<String, Throwable>>()
+    val coalescer = coalescer(maxBatchSize = 1) { writes ->
+      if (writes == listOf("a1")) firstBatch else CompletableFuture.completedFuture(emptyMap())
+    }
+
+    val first = coalescer.write("a", "a1")
+    val other = coalescer.write("b", "b1")
+    val second = coalescer.write("a", "a2")
+
+    other.get(5, TimeUnit.SECONDS)
+    Thread.sleep(50)
+    assertThat(second).isNotDone()
+    assertThat(batches).doesNotContain(listOf("a2"))
+    firstBatch.complete(emptyMap())
+    first.get(5, TimeUnit.SECONDS)
+    second.get(5, TimeUnit.SECONDS)
+    assertThat(batches.last()).isEqualTo(listOf("a2"))
+  }
+
+  @Test
+  internal fun failsUnprocessedWrites() {
+    val coalescer = coalescer { CompletableFuture.completedFuture(mapOf("b" to IllegalStateException("throttled"))) }
+
+    val a = coalescer.write("a", "a1")
+    val b = coalescer.write("b", "b1")
+
+    a.get(5, TimeUnit.SECONDS)
+    assertThatThrownBy { b.get(5, TimeUnit.SECONDS) }
+      .isInstanceOf(ExecutionException::class.java)
+      .hasCauseInstanceOf(IllegalStateException::class.java)
+  }
+
+  @Test
+  internal fun failsEveryWriteOfAFailedBatch() {
+    val coalescer = coalescer { throw IllegalStateException("boom") }
+
+    val writes = listOf(coalescer.write("a", "a1"), coalescer.write("b", "b1"))
+
+    for (write in writes) {
+      assertThatThrownBy { write.get(5, TimeUnit.SECONDS) }.hasCauseInstanceOf(IllegalStateException::class.java)
+    }
+  }
+}
@@ -26,13 +26,14 @@ import software.amazon.awssdk.enhanced.dynamodb.model.EnhancedGlobalSecondaryInd
 import software.amazon.awssdk.enhanced.dynamodb.model.EnhancedLocalSecondaryIndex
 import software.amazon.awssdk.services.dynamodb.model.Projection
 import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughput
+import software.amazon.awssdk.services.dynamodb.model.StreamViewType
 
 fun testDb(tableName: String = "music_items") = TestDynamoDb.Builder(JvmDynamoDbServer.Factory)
   .addTable(
     TestTable.create<MusicItem>(tableName) {
       it.toBuilder()
         .globalSecondaryIndices(
-          EnhancedGSI("genre_album_index"),
+          EnhancedGSI("genre_album_index", projectionType = "KEYS_ONLY"),
           EnhancedGSI("artist_album_index"),
           EnhancedGSI("label_album_index"),
         )
@@ -44,6 +45,9 @@ fun testDb(tableName: String = "music_items") = TestDynamoDb.Builder(JvmDynamoDb
               .build()
           )
         )
+        .streamSpecification {
+          it.streamEnabled(true).streamViewType(StreamViewType.NEW_AND_OLD_IMAGES)
+        }
         .build()
     }
   )